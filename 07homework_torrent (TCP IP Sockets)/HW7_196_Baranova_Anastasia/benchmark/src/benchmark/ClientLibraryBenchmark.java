@@ -0,0 +1,70 @@
+package benchmark;
+
+import client.lib.FileIndex;
+import client.lib.PrimitiveFile;
+import client.lib.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costs of the client library: parsing lines of the list and searching in the received files.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientLibraryBenchmark {
+    @Param({"1000", "100000"})
+    public int files;
+
+    @Param({"file 1", "7 kb", "absent"})
+    public String key;
+
+    private List<String> lines;
+    private List<PrimitiveFile> parsed;
+    private FileIndex index;
+
+    @Setup(Level.Trial)
+    public void prepare() {
+        var random = new Random(42);
+        lines = new ArrayList<>(files);
+        parsed = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            String line = i + " file " + i + " of the list.txt " + random.nextInt(1 << 24);
+            lines.add(line);
+            parsed.add(PrimitiveFile.parseString(line));
+        }
+        index = new FileIndex(parsed);
+    }
+
+    @Benchmark
+    public List<PrimitiveFile> parseString() {
+        var result = new ArrayList<PrimitiveFile>(lines.size());
+        for (String line : lines) {
+            result.add(PrimitiveFile.parseString(line));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Collection<PrimitiveFile> filterFiles() {
+        return Utils.filterFiles(parsed, key);
+    }
+
+    /**
+     * Repeated searches for the same key start from the previous result, as when the user keeps typing.
+     */
+    @Benchmark
+    public List<PrimitiveFile> indexSearch() {
+        return index.search(key);
+    }
+}
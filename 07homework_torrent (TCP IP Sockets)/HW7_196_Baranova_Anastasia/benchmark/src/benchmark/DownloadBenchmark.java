@@ -0,0 +1,83 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of binary downloads over loopback for files from 1 KB to 1 GB. <br/>
+ * Every operation downloads the whole file on a connection opened once per trial.
+ * Besides operations per second, JMH reports the "bytes" counter: received file bytes per second.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+    private static final String NAME = "file.bin";
+
+    /**
+     * Size of the downloaded file (in bytes).
+     */
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public long size;
+
+    @Param({"blocking", "selector"})
+    public String engine;
+
+    private ServerFixture fixture;
+    private int id;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    /**
+     * Received bytes reported by JMH as a rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void start() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("torrent-benchmark");
+        writeFile(directory.resolve(NAME), size);
+        fixture = new ServerFixture(directory, engine);
+        id = fixture.findId(NAME);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public long download(Bytes bytes) throws IOException {
+        long received = fixture.download(id, buffer);
+        bytes.bytes += received;
+        return received;
+    }
+
+    /**
+     * Writes a file of the size. Content is the same in every run so that results are comparable.
+     */
+    static void writeFile(Path path, long size) throws IOException {
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            for (long written = 0; written < size; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+}
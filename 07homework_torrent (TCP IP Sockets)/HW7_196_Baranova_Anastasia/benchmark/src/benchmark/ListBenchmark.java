@@ -0,0 +1,64 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of list requests for directories of 10 to 1M files: the whole list and a page of search results.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListBenchmark {
+    /**
+     * Number of files in the directory.
+     */
+    @Param({"10", "1000", "100000", "1000000"})
+    public int files;
+
+    @Param({"blocking", "selector"})
+    public String engine;
+
+    private ServerFixture fixture;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("torrent-benchmark");
+        for (int i = 0; i < files; i++) {
+            Files.createFile(directory.resolve(fileName(i)));
+        }
+        fixture = new ServerFixture(directory, engine);
+        while (fixture.list("list").size() < files) {
+            Thread.sleep(100);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public List<String> fullList() throws IOException {
+        return fixture.list("list");
+    }
+
+    @Benchmark
+    public List<String> searchPage() throws IOException {
+        return fixture.list("list 0 50 7 b");
+    }
+
+    static String fileName(int i) {
+        return "file" + i + ".txt";
+    }
+}
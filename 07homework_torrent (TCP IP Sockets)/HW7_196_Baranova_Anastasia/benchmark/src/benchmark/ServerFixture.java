@@ -0,0 +1,151 @@
+package benchmark;
+
+import server.TorrentServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * TorrentServer running in the benchmark process with a client connected to it over loopback. <br/>
+ * Class is package private so that only benchmarks can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class ServerFixture implements Closeable {
+    private final Path directory;
+    private final TorrentServer server;
+    private final Thread serverThread;
+    private final Socket socket;
+    private final PrintWriter out;
+    private final DataInputStream in;
+
+    /**
+     * Starts a server sharing the directory on a free port and connects to it.
+     *
+     * @param directory Directory with files. It is deleted with all the files when the fixture is closed.
+     * @param engine    "blocking" to serve clients by threads, "selector" to serve them by one selector loop.
+     * @throws IOException If the server cannot be started or the connection failed.
+     */
+    ServerFixture(Path directory, String engine) throws IOException {
+        this.directory = directory;
+        this.server = new TorrentServer(0, directory.toFile());
+        this.serverThread = new Thread(engine.equals("selector") ? () -> server.runSelector(1) : server::run,
+                "benchmark-server");
+        serverThread.start();
+
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        socket.setTcpNoDelay(true);
+        this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+    }
+
+    /**
+     * Sends a request line.
+     */
+    void send(String request) {
+        out.println(request);
+        out.flush();
+    }
+
+    /**
+     * Requests the list (or its page) and returns the lines of the response without "done".
+     *
+     * @param request "list" request with optional arguments.
+     */
+    List<String> list(String request) throws IOException {
+        send(request);
+        var lines = new ArrayList<String>();
+        String line;
+        while (!(line = readLine()).equals("done")) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the ID of the file with the name, waiting until the server finds it.
+     */
+    int findId(String name) throws IOException, InterruptedException {
+        while (true) {
+            for (String line : list("list")) {
+                String[] words = line.split(" ");
+                if (words[1].equals(name)) {
+                    return Integer.parseInt(words[0]);
+                }
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Downloads the file in the binary mode and discards its bytes.
+     *
+     * @param id     ID of the file.
+     * @param buffer Buffer to read the bytes into.
+     * @return Number of received file bytes.
+     */
+    long download(int id, byte[] buffer) throws IOException {
+        send("download " + id + " binary");
+        readLine();
+        long total = 0;
+        int length;
+        while ((length = in.readInt()) > 0) {
+            total += length;
+            while (length > 0) {
+                int read = in.read(buffer, 0, Math.min(length, buffer.length));
+                if (read < 0) {
+                    throw new EOFException("Server closed the connection.");
+                }
+                length -= read;
+            }
+        }
+        if (length < 0) {
+            throw new IOException("Server could not read the file.");
+        }
+        return total;
+    }
+
+    /**
+     * Reads a text line from the stream that also contains binary data.
+     */
+    String readLine() throws IOException {
+        var line = new StringBuilder();
+        int read;
+        while ((read = in.read()) != -1 && read != '\n') {
+            if (read != '\r') {
+                line.append((char) read);
+            }
+        }
+        if (read == -1) {
+            throw new EOFException("Server closed the connection.");
+        }
+        return line.toString();
+    }
+
+    /**
+     * Disconnects, stops the server and deletes the directory.
+     */
+    @Override
+    public void close() throws IOException {
+        send("finish");
+        socket.close();
+        server.close();
+        try {
+            serverThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
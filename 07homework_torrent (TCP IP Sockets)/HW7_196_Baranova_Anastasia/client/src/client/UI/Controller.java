@@ -1,11 +1,13 @@
 package client.UI;
 
 import client.lib.PrimitiveFile;
-import client.lib.Utils;
+import client.lib.FileIndex;
 import client.lib.communication.TorrentClient;
+import client.lib.request.ArchiveRequest;
 import client.lib.request.DownloadRequest;
 import client.lib.request.FilesRequest;
 import client.lib.request.FinishRequest;
+import client.lib.request.FolderRequest;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -18,6 +20,7 @@ import javafx.stage.Stage;
 
 import java.net.Socket;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.ResourceBundle;
 
 /**
@@ -26,6 +29,21 @@ import java.util.ResourceBundle;
  * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
  */
 public class Controller implements Initializable {
+    /**
+     * Number of connections used to download big files.
+     */
+    private static final int DOWNLOAD_SEGMENTS = 4;
+
+    /**
+     * Number of files requested from the server at once.
+     */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * Next page is requested when a row this close to the end of loaded files is shown.
+     */
+    private static final int PREFETCH_ROWS = 50;
+
     @FXML
     private TableView<PrimitiveFile> table;
 
@@ -44,6 +62,15 @@ public class Controller implements Initializable {
     @FXML
     private TableColumn<PrimitiveFile, String> sizeDownloaded;
 
+    @FXML
+    private TabPane tabs;
+
+    @FXML
+    private Tab foldersTab;
+
+    @FXML
+    private TreeView<FolderEntry> folders;
+
     @FXML
     private Button download;
 
@@ -60,9 +87,36 @@ public class Controller implements Initializable {
     private TorrentClient client = null;
 
     /**
-     * List of available files at server.
+     * Loaded part of the list of available files at server matching the search key.
+     */
+    private final ObservableList<PrimitiveFile> files = FXCollections.observableArrayList();
+
+    /**
+     * Current search key.
+     */
+    private String key = "";
+    /**
+     * Number of files at server matching the search key. Unknown until the first page is received.
+     */
+    private int total = Integer.MAX_VALUE;
+    /**
+     * True while a page is being requested.
+     */
+    private boolean loading = false;
+    /**
+     * Incremented when the list is reloaded, so that pages of the previous list are ignored.
+     */
+    private int generation = 0;
+
+    /**
+     * Index over the loaded files. Built when all the files matching the key are loaded,
+     * so that narrowing the key is handled locally without requests to the server.
+     */
+    private FileIndex index;
+    /**
+     * Key the indexed files match.
      */
-    private ObservableList<PrimitiveFile> files;
+    private String indexKey;
     /**
      * List of downloaded files.
      */
@@ -70,26 +124,165 @@ public class Controller implements Initializable {
 
     /**
      * Sets socket to connect to the server. <br/>
-     * Creates TorrentClient instance and requests list of files from server.
+     * Creates TorrentClient instance and requests the first page of files from server.
      */
     public void setSocket(Socket socket) {
         this.client = new TorrentClient(socket);
-        FilesRequest filesRequest = new FilesRequest();
-        filesRequest.setCallback(primitiveFiles -> {
-            files = FXCollections.observableArrayList(primitiveFiles);
-            table.setItems(files);
-        });
+        reload();
+        var root = folderItem(new FolderEntry("", "/", null));
+        folders.setRoot(root);
+        root.setExpanded(true);
+    }
+
+    /**
+     * Clears the table and requests the first page of files matching the current key.
+     */
+    private void reload() {
+        index = null;
+        table.setItems(files);
+        generation++;
+        loading = false;
+        total = Integer.MAX_VALUE;
+        files.clear();
+        loadNextPage();
+    }
+
+    /**
+     * Requests the next page of files matching the current key unless
+     * a page is already being requested or all the files are loaded.
+     */
+    private void loadNextPage() {
+        if (loading || client == null || files.size() >= total) {
+            return;
+        }
+        loading = true;
+
+        int requestGeneration = generation;
+        FilesRequest filesRequest = new FilesRequest(files.size(), PAGE_SIZE, key);
+        filesRequest.setCallback(primitiveFiles -> Platform.runLater(() -> {
+            if (requestGeneration != generation) {
+                return;
+            }
+            loading = false;
+            files.addAll(primitiveFiles);
+            total = primitiveFiles.isEmpty() ? files.size() : filesRequest.getTotal();
+            if (files.size() >= total) {
+                index = new FileIndex(files);
+                indexKey = key;
+            }
+        }));
 
         this.client.request(filesRequest);
     }
 
     /**
-     * Starts the download process of the selected file. <br/>
-     * Selects path for saving, sends request and runs tracking the progress.
+     * Returns a tree item of the folder. Contents of the folder are requested when the item is expanded
+     * for the first time.
+     */
+    private TreeItem<FolderEntry> folderItem(FolderEntry entry) {
+        var item = new TreeItem<>(entry);
+        item.getChildren().add(new TreeItem<>(new FolderEntry(null, "Loading...", null)));
+        item.expandedProperty().addListener((obs, oldVal, expanded) -> {
+            if (expanded && !entry.loaded) {
+                entry.loaded = true;
+                loadFolder(item);
+            }
+        });
+        return item;
+    }
+
+    /**
+     * Requests the contents of the folder and shows them in its tree item.
+     */
+    private void loadFolder(TreeItem<FolderEntry> item) {
+        String path = item.getValue().path;
+        var request = new FolderRequest(path);
+        request.setCallback(folder -> Platform.runLater(() -> {
+            var children = new ArrayList<TreeItem<FolderEntry>>();
+            for (String name : folder.getFolders()) {
+                children.add(folderItem(new FolderEntry(join(path, name), name, null)));
+            }
+            for (var file : folder.getFiles()) {
+                children.add(new TreeItem<>(new FolderEntry(join(path, file.getName()), file.getName(), file)));
+            }
+            item.getChildren().setAll(children);
+        }));
+        client.request(request);
+    }
+
+    private static String join(String path, String name) {
+        return path.isEmpty() ? name : path + "/" + name;
+    }
+
+    /**
+     * Returns the entry selected in the folder tree or null if nothing (or a placeholder) is selected.
+     */
+    private FolderEntry selectedEntry() {
+        var item = folders.getSelectionModel().getSelectedItem();
+        return item == null || item.getValue().path == null ? null : item.getValue();
+    }
+
+    /**
+     * Enables the download button if something is selected in the current tab.
+     */
+    private void updateDownloadState() {
+        boolean selected = foldersTab.isSelected()
+                ? selectedEntry() != null
+                : table.getSelectionModel().getSelectedItem() != null;
+        download.setDisable(!selected);
+        downloadMenu.setDisable(!selected);
+    }
+
+    /**
+     * Starts the download of the file or the folder selected in the current tab.
      */
     @FXML
     private void download() {
-        var file = table.getSelectionModel().getSelectedItem();
+        if (!foldersTab.isSelected()) {
+            downloadFile(table.getSelectionModel().getSelectedItem());
+            return;
+        }
+        var entry = selectedEntry();
+        if (entry == null) {
+            return;
+        }
+        if (entry.file != null) {
+            downloadFile(entry.file);
+        } else {
+            downloadFolder(entry.path);
+        }
+    }
+
+    /**
+     * Starts the download of the folder with all its contents. <br/>
+     * Selects a local folder, sends request and informs about the result when the folder is unpacked.
+     */
+    private void downloadFolder(String remotePath) {
+        String path = UIUtils.openDownloadFormForFolder(remotePath);
+        if (path == null) {
+            return;
+        }
+
+        var request = new ArchiveRequest(remotePath, path);
+        this.client.request(request).whenComplete((result, failure) -> Platform.runLater(() -> {
+            if (failure != null) {
+                UIUtils.showAlert("Error", "Folder was not downloaded.\n\n" + failure.getMessage(), "OK");
+            } else {
+                UIUtils.showAlert("Download", "Folder is downloaded to " + path + ":\n"
+                        + request.getFiles() + " files, " + PrimitiveFile.getSizeReadable(request.getBytes()) + ".",
+                        "OK");
+            }
+        }));
+    }
+
+    /**
+     * Starts the download process of the file. <br/>
+     * Selects path for saving, sends request and runs tracking the progress.
+     */
+    private void downloadFile(PrimitiveFile file) {
+        if (file == null) {
+            return;
+        }
 
         String path = UIUtils.openDownloadFormForPath(file);
         if (path == null) {
@@ -98,7 +291,8 @@ public class Controller implements Initializable {
 
         PrimitiveFile copy = new PrimitiveFile(file.getName(), file.getSize(), file.getId());
 
-        DownloadRequest request = new DownloadRequest(file.getId(), path);
+        DownloadRequest request = new DownloadRequest(file, path);
+        request.setSegments(DOWNLOAD_SEGMENTS);
         Stage stage = UIUtils.prepareProgressTracker(file, request,
                 () -> tableDownloaded.refresh());
 
@@ -112,16 +306,22 @@ public class Controller implements Initializable {
     }
 
     /**
-     * Filters files in table by the passed key.
+     * Filters files in table by the passed key. <br/>
+     * If all the files matching the previous key are loaded and the new key narrows it,
+     * the loaded files are filtered locally. Otherwise files are filtered by the server
+     * and the table is reloaded page by page.
+     *
+     * @see FileIndex
      */
     private void filter(String key) {
-        var filtered = FXCollections.observableArrayList(Utils.filterFiles(files, key));
-        if (filtered.size() == files.size()) {
-            table.setItems(files);
-        } else {
-            table.setItems(filtered);
+        key = key.trim();
+        if (index != null && FileIndex.narrows(indexKey, key)) {
+            table.setItems(FXCollections.observableArrayList(index.search(key)));
+            table.refresh();
+            return;
         }
-        table.refresh();
+        this.key = key;
+        reload();
     }
 
     /**
@@ -168,16 +368,27 @@ public class Controller implements Initializable {
         sizeDownloaded.setReorderable(false);
 
         table.getSelectionModel().selectedItemProperty().addListener(
-                (obs, oldSelection, newSelection) -> {
-                    download.setDisable(newSelection == null);
-                    downloadMenu.setDisable(newSelection == null);
-                });
+                (obs, oldSelection, newSelection) -> updateDownloadState());
+        folders.getSelectionModel().selectedItemProperty().addListener(
+                (obs, oldSelection, newSelection) -> updateDownloadState());
+        tabs.getSelectionModel().selectedItemProperty().addListener(
+                (obs, oldTab, newTab) -> updateDownloadState());
         table.focusedProperty().addListener((obs, oldVal, newVal) -> {
             if (!newVal && !download.isFocused()) {
                 table.getSelectionModel().clearSelection();
             }
         });
 
+        table.setItems(files);
+        table.setRowFactory(view -> new TableRow<>() {
+            @Override
+            protected void updateItem(PrimitiveFile item, boolean empty) {
+                super.updateItem(item, empty);
+                if (!empty && getIndex() >= files.size() - PREFETCH_ROWS) {
+                    loadNextPage();
+                }
+            }
+        });
         tableDownloaded.setItems(downloaded);
 
         search.textProperty().addListener((obs, oldVal, newVal) -> {
@@ -188,6 +399,36 @@ public class Controller implements Initializable {
     }
 
 
+    /**
+     * Folder or file shown in the folder tree.
+     */
+    private static class FolderEntry {
+        /**
+         * Path relative to the server's directory, null for a placeholder.
+         */
+        private final String path;
+        private final String name;
+        /**
+         * File to download, null for a folder.
+         */
+        private final PrimitiveFile file;
+        /**
+         * True, if the contents of the folder have been requested.
+         */
+        private boolean loaded = false;
+
+        FolderEntry(String path, String name, PrimitiveFile file) {
+            this.path = path;
+            this.name = name;
+            this.file = file;
+        }
+
+        @Override
+        public String toString() {
+            return file == null ? name : name + " (" + file.getSizeReadable() + ")";
+        }
+    }
+
     /**
      * Shows information about the application.
      */
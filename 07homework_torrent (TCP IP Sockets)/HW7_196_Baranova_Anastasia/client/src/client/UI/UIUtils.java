@@ -95,6 +95,32 @@ public class UIUtils {
         return controller.getPath();
     }
 
+    /**
+     * Opens a window to select a local folder for the contents of a folder on the server.
+     *
+     * @param remotePath Path of the folder on the server.
+     * @return Selected path.
+     * @throws NullPointerException If remotePath is null.
+     */
+    public static String openDownloadFormForFolder(String remotePath) {
+        Objects.requireNonNull(remotePath, "Path was null.");
+        URL url = UIUtils.class.getResource("download/downloadDialog.fxml");
+        FXMLLoader fxmlLoader = new FXMLLoader(url);
+        Parent root = tryLoad(fxmlLoader);
+        if (root == null) {
+            return null;
+        }
+
+        var controller = ((DownloadDialogController) fxmlLoader.getController());
+        controller.setFolder(remotePath);
+
+        Stage stage = new Stage();
+        setStageSettings(stage, root);
+        stage.showAndWait();
+
+        return controller.getPath();
+    }
+
     /**
      * Prepares a progress tracker to track file downloading process.
      *
@@ -118,7 +144,7 @@ public class UIUtils {
         var controller = ((ProgressTrackerController) fxmlLoader.getController());
         controller.setFile(file);
         controller.setOnFinished(onFinished);
-        request.setProgressTracker(controller::update);
+        request.setProgressListener(controller::update);
 
         Stage stage = new Stage();
         setStageSettings(stage, root);
@@ -8,6 +8,7 @@ import javafx.fxml.Initializable;
 import javafx.scene.control.Button;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.AnchorPane;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
@@ -41,6 +42,11 @@ public class DownloadDialogController implements Initializable {
     private String path;
 
     private final FileChooser fileChooser = new FileChooser();
+    private final DirectoryChooser directoryChooser = new DirectoryChooser();
+    /**
+     * True, if a folder is downloaded and a local folder is selected.
+     */
+    private boolean folder = false;
 
     /**
      * Returns selected path.
@@ -61,19 +67,41 @@ public class DownloadDialogController implements Initializable {
         fileSize.setText(file.getSizeReadable());
         pathField.setText(path);
 
-        String extension = file.getName().substring(file.getName().lastIndexOf('.'));
-        FileChooser.ExtensionFilter extFilter =
-                new FileChooser.ExtensionFilter(extension + " files", "*" + extension);
         fileChooser.getExtensionFilters().clear();
-        fileChooser.getExtensionFilters().add(extFilter);
+        int dot = file.getName().lastIndexOf('.');
+        if (dot >= 0) {
+            String extension = file.getName().substring(dot);
+            FileChooser.ExtensionFilter extFilter =
+                    new FileChooser.ExtensionFilter(extension + " files", "*" + extension);
+            fileChooser.getExtensionFilters().add(extFilter);
+        }
+    }
+
+    /**
+     * Fills TextFields with information about the folder. <br/>
+     * Contents of the folder are saved to the selected local folder.
+     *
+     * @param remotePath Path of the folder on the server, empty string for the whole directory.
+     */
+    public void setFolder(String remotePath) {
+        Objects.requireNonNull(remotePath);
+
+        folder = true;
+        String name = remotePath.isEmpty() ? "files" : remotePath.substring(remotePath.lastIndexOf('/') + 1);
+        path = System.getProperty("user.dir") + System.getProperty("file.separator") + name;
+
+        fileName.setText("/" + remotePath);
+        fileSize.setText("folder");
+        pathField.setText(path);
     }
 
     /**
-     * Opens file chooser for choosing the file.
+     * Opens file chooser for choosing the file (or directory chooser for choosing the folder).
      */
     @FXML
     private void openFileBrowser() {
-        var file = fileChooser.showSaveDialog(download.getScene().getWindow());
+        var window = download.getScene().getWindow();
+        var file = folder ? directoryChooser.showDialog(window) : fileChooser.showSaveDialog(window);
         if (file != null) {
             pathField.setText(file.getAbsolutePath());
         }
@@ -1,6 +1,7 @@
 package client.UI.download.progress;
 
 import client.lib.PrimitiveFile;
+import client.lib.progress.Progress;
 import javafx.application.Platform;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.SimpleDoubleProperty;
@@ -28,6 +29,9 @@ public class ProgressTrackerController implements Initializable {
     @FXML
     private Label percentage;
 
+    @FXML
+    private Label speed;
+
     @FXML
     private TextField fileName;
 
@@ -62,22 +66,29 @@ public class ProgressTrackerController implements Initializable {
     }
 
     /**
-     * Updates progress bar.
+     * Updates progress bar, download speed and estimated time left. <br/>
+     * Supposed to be called by a ProgressReporter, i.e. not more often than a few times per second.
      *
-     * @param downloaded Number of downloaded bytes.
-     * @throws IllegalArgumentException If downloaded < 0.
+     * @param progress Progress of the download.
+     * @throws NullPointerException If progress is null.
+     * @see client.lib.progress.ProgressReporter
      */
-    public void update(long downloaded) {
-        if (downloaded < 0) {
-            throw new IllegalArgumentException("Number of downloaded bytes was negative");
-        }
+    public void update(Progress progress) {
+        Objects.requireNonNull(progress, "Progress was null.");
+
+        long downloaded = progress.getDownloaded();
+        double part = file.getSize() == 0 ? 1 : downloaded * 1.0 / file.getSize();
+        String text = PrimitiveFile.getSizeReadable(downloaded) + " / " + file.getSizeReadable()
+                + " (" + Math.round(part * 100) + "%)";
+        String speedText = PrimitiveFile.getSizeReadable((long) progress.getRate()) + "/s, average "
+                + PrimitiveFile.getSizeReadable((long) progress.getAverageRate()) + "/s, "
+                + formatTimeLeft(progress.getSecondsLeft());
 
-        double progress = downloaded * 1.0 / file.getSize();
         Platform.runLater(() ->
         {
-            this.progress.setValue(progress);
-            percentage.setText(PrimitiveFile.getSizeReadable(downloaded) + " / " + file.getSizeReadable()
-                    + " (" + Math.round(progress * 100) + "%)");
+            this.progress.setValue(part);
+            percentage.setText(text);
+            speed.setText(speedText);
             if (downloaded == file.getSize()) {
                 onFinished.run();
                 ((Stage) progressBar.getScene().getWindow()).close();
@@ -85,6 +96,18 @@ public class ProgressTrackerController implements Initializable {
         });
     }
 
+    /**
+     * Returns estimated time left in format "{h}:{mm}:{ss} left".
+     *
+     * @param seconds Number of seconds or -1 if time is unknown.
+     */
+    private static String formatTimeLeft(long seconds) {
+        if (seconds < 0) {
+            return "time left unknown";
+        }
+        return String.format("%d:%02d:%02d left", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
     @Override
     public void initialize(URL url, ResourceBundle resourceBundle) {
         Platform.runLater(() -> pane.requestFocus());
@@ -92,5 +115,6 @@ public class ProgressTrackerController implements Initializable {
         progressBar.progressProperty().bind(progress);
 
         percentage.setText("0 B (0%)");
+        speed.setText("");
     }
 }
@@ -0,0 +1,192 @@
+package client.lib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Index of local files by their content hashes (SHA-256 hashes of all of their bytes). <br/>
+ * Used to find a local file identical to a file on the server, so that it is copied (or hard-linked)
+ * instead of downloaded. Files are grouped by size, and a file is hashed only when a file of the same size
+ * is looked for; computed hashes are cached until the size or modification time of the file change. <br/>
+ * Is thread safe.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+public class ContentIndex {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Paths of the indexed files by their sizes at the moment they were added.
+     */
+    private final Map<Long, Set<Path>> bySize = new ConcurrentHashMap<>();
+    /**
+     * Computed hashes of particular versions of the files.
+     */
+    private final Map<Path, Entry> hashes = new ConcurrentHashMap<>();
+
+    private volatile boolean linking = false;
+
+    /**
+     * Returns true, if found files are hard-linked instead of copied.
+     */
+    public boolean isLinking() {
+        return linking;
+    }
+
+    /**
+     * Sets whether found files are hard-linked instead of copied (if the file system supports it).
+     * Disabled by default: a hard-linked file shares its contents with the found one,
+     * so changing one of them changes both.
+     *
+     * @param linking true to hard-link files, false to copy them.
+     */
+    public void setLinking(boolean linking) {
+        this.linking = linking;
+    }
+
+    /**
+     * Adds a file or all the files of a folder (with subfolders) to the index. Files are not read.
+     * Symbolic links are skipped.
+     *
+     * @param file File or folder.
+     * @throws NullPointerException If file is null.
+     * @throws IOException          If the folder cannot be read.
+     */
+    public void add(File file) throws IOException {
+        var path = Objects.requireNonNull(file, "File was null.").toPath().toAbsolutePath().normalize();
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            List<Path> files;
+            try (var walk = Files.walk(path)) {
+                files = walk.filter(child -> Files.isRegularFile(child, LinkOption.NOFOLLOW_LINKS))
+                        .collect(Collectors.toList());
+            }
+            for (var child : files) {
+                addFile(child);
+            }
+        } else if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+            addFile(path);
+        }
+    }
+
+    /**
+     * Returns true, if the index has files of the given size, i.e. it is worth finding the content hash
+     * of a file of this size.
+     *
+     * @param size Size of the file (in bytes).
+     */
+    public boolean hasSize(long size) {
+        var paths = bySize.get(size);
+        return paths != null && !paths.isEmpty();
+    }
+
+    /**
+     * Finds a local file with the given content. Hashes the indexed files of the given size that have not
+     * been hashed yet or have changed since. Files that no longer exist are removed from the index.
+     *
+     * @param hash Hexadecimal SHA-256 hash of the file.
+     * @param size Size of the file (in bytes).
+     * @return File with the same content or null if there is none.
+     * @throws NullPointerException If hash is null.
+     */
+    public File find(String hash, long size) {
+        Objects.requireNonNull(hash, "Hash was null.");
+        var paths = bySize.get(size);
+        if (paths == null) {
+            return null;
+        }
+        for (var path : paths) {
+            try {
+                var attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (!attributes.isRegularFile() || attributes.size() != size) {
+                    paths.remove(path);
+                    if (attributes.isRegularFile()) {
+                        addFile(path);
+                    }
+                    continue;
+                }
+                long modified = attributes.lastModifiedTime().toMillis();
+                var entry = hashes.get(path);
+                if (entry == null || !entry.matches(size, modified)) {
+                    entry = new Entry(size, modified, hash(path));
+                    hashes.put(path, entry);
+                }
+                if (entry.hash.equalsIgnoreCase(hash)) {
+                    return path.toFile();
+                }
+            } catch (IOException e) {
+                // File is gone or cannot be read.
+                paths.remove(path);
+                hashes.remove(path);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the content hash of the file: hexadecimal SHA-256 hash of all of its bytes.
+     *
+     * @param path File to hash.
+     * @throws IOException If an I/O error occurred.
+     */
+    public static String hash(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        byte[] bytes = digest.digest();
+        var hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    private void addFile(Path path) throws IOException {
+        long size = Files.size(path);
+        bySize.computeIfAbsent(size, key -> ConcurrentHashMap.newKeySet()).add(path);
+    }
+
+    /**
+     * Content hash of a particular version of a file.
+     */
+    private static class Entry {
+        private final long size;
+        private final long modified;
+        private final String hash;
+
+        Entry(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+
+        boolean matches(long size, long modified) {
+            return this.size == size && this.modified == modified;
+        }
+    }
+}
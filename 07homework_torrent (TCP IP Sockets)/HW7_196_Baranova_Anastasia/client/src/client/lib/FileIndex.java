@@ -0,0 +1,188 @@
+package client.lib;
+
+import java.util.*;
+
+/**
+ * Search index over a list of files. <br/>
+ * Files are matched the same way as Utils.filterFiles() does: the lower case name and readable size
+ * must contain every word of the key. The index keeps the lower case text of every file and
+ * the positions of the files containing each trigram (three consecutive characters),
+ * so only the files containing all the trigrams of the key are checked. <br/>
+ * If the key narrows the previous one (e.g. the user typed one more letter),
+ * only the files found by the previous search are checked.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see Utils#filterFiles(Collection, String)
+ */
+public class FileIndex {
+    private static final int GRAM = 3;
+
+    private final List<PrimitiveFile> files;
+
+    /**
+     * Lower case name and readable size of every file. Null for null files.
+     */
+    private final String[] texts;
+
+    /**
+     * Sorted positions of the files containing the trigram.
+     */
+    private final Map<String, int[]> grams = new HashMap<>();
+
+    /**
+     * Positions of all the non-null files.
+     */
+    private final int[] all;
+
+    /**
+     * Key of the previous search.
+     */
+    private String lastKey;
+    /**
+     * Positions of the files found by the previous search.
+     */
+    private int[] lastResult;
+
+    /**
+     * Constructs an index over the files. Later changes of the collection do not affect the index.
+     *
+     * @param files Files to search in. May contain null elements, they match only the empty key.
+     * @throws NullPointerException If files is null.
+     */
+    public FileIndex(Collection<PrimitiveFile> files) {
+        this.files = new ArrayList<>(Objects.requireNonNull(files, "Files were null."));
+        this.texts = new String[this.files.size()];
+
+        var postings = new HashMap<String, List<Integer>>();
+        int count = 0;
+        for (int i = 0; i < texts.length; i++) {
+            var file = this.files.get(i);
+            if (file == null) {
+                continue;
+            }
+            count++;
+            texts[i] = (file.getName() + " " + file.getSizeReadable()).toLowerCase();
+
+            var added = new HashSet<String>();
+            for (int j = 0; j + GRAM <= texts[i].length(); j++) {
+                String gram = texts[i].substring(j, j + GRAM);
+                if (added.add(gram)) {
+                    postings.computeIfAbsent(gram, key -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+
+        for (var entry : postings.entrySet()) {
+            grams.put(entry.getKey(), toArray(entry.getValue()));
+        }
+
+        all = new int[count];
+        for (int i = 0, j = 0; i < texts.length; i++) {
+            if (texts[i] != null) {
+                all[j++] = i;
+            }
+        }
+    }
+
+    /**
+     * Returns files that match the key in the order they were passed to the constructor. <br/>
+     * Result is the same as the one of Utils.filterFiles().
+     *
+     * @param key Search key. Null or empty key matches all the files.
+     */
+    public synchronized List<PrimitiveFile> search(String key) {
+        if (key == null || key.length() == 0) {
+            return Collections.unmodifiableList(files);
+        }
+
+        String[] words = key.toLowerCase().split(" +");
+        int[] candidates = lastKey != null && narrows(lastKey, key) ? lastResult : all;
+        for (var word : words) {
+            for (int j = 0; j + GRAM <= word.length() && candidates.length > 0; j++) {
+                candidates = intersect(candidates, grams.getOrDefault(word.substring(j, j + GRAM), new int[0]));
+            }
+        }
+
+        int[] found = new int[candidates.length];
+        int count = 0;
+        for (int i : candidates) {
+            if (matches(texts[i], words)) {
+                found[count++] = i;
+            }
+        }
+
+        lastKey = key;
+        lastResult = Arrays.copyOf(found, count);
+
+        var result = new ArrayList<PrimitiveFile>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(files.get(found[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns true, if every file matching the key also matches the previous key,
+     * i.e. every word of the previous key is a part of some word of the key.
+     *
+     * @param previous Previous search key.
+     * @param key      New search key.
+     * @throws NullPointerException If any of the passed arguments are null.
+     */
+    public static boolean narrows(String previous, String key) {
+        String[] words = key.toLowerCase().split(" +");
+        for (var previousWord : previous.toLowerCase().split(" +")) {
+            boolean contained = false;
+            for (var word : words) {
+                if (word.contains(previousWord)) {
+                    contained = true;
+                    break;
+                }
+            }
+            if (!contained) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true, if the text contains every word.
+     */
+    private static boolean matches(String text, String[] words) {
+        for (var word : words) {
+            if (!text.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns positions present in both sorted arrays.
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,149 @@
+package client.lib;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Describes a manifest of a file: SHA-256 hashes of the chunks the file is split into. <br/>
+ * All the chunks have the same size except the last one that may be shorter.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+public class Manifest {
+    /**
+     * Length of a SHA-256 hash (in bytes).
+     */
+    private static final int HASH_LENGTH = 32;
+
+    private final long size;
+    private final int chunkSize;
+    private final byte[][] hashes;
+
+    /**
+     * Constructs a new instance of Manifest.
+     *
+     * @param size      Size of the file (in bytes).
+     * @param chunkSize Size of a chunk (in bytes).
+     * @param hashes    SHA-256 hash of every chunk.
+     * @throws NullPointerException     If hashes or any of them are null.
+     * @throws IllegalArgumentException If size is negative, chunk size is not positive,
+     *                                  number of hashes does not match the size or a hash has wrong length.
+     */
+    public Manifest(long size, int chunkSize, List<byte[]> hashes) {
+        Objects.requireNonNull(hashes, "Hashes were null.");
+        if (size < 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("Size must not be negative and chunk size must be positive.");
+        }
+        if (hashes.size() != (size + chunkSize - 1) / chunkSize) {
+            throw new IllegalArgumentException("Number of hashes does not match the size of the file.");
+        }
+
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.hashes = new byte[hashes.size()][];
+        for (int i = 0; i < this.hashes.length; i++) {
+            var hash = Objects.requireNonNull(hashes.get(i), "Hash was null.");
+            if (hash.length != HASH_LENGTH) {
+                throw new IllegalArgumentException("Hash must be " + HASH_LENGTH + " bytes long.");
+            }
+            this.hashes[i] = hash.clone();
+        }
+    }
+
+    /**
+     * Parses a manifest sent by the server. <br/>
+     * Format: header "manifest {file size} {chunk size} {number of chunks}" and
+     * a hexadecimal hash of every chunk.
+     *
+     * @param header Header line.
+     * @param hashes Lines with hashes.
+     * @return Parsed manifest.
+     * @throws NullPointerException     If header or/and hashes are null.
+     * @throws IllegalArgumentException If the manifest has a wrong format.
+     */
+    public static Manifest parseString(String header, List<String> hashes) {
+        Objects.requireNonNull(header, "Header was null.");
+        Objects.requireNonNull(hashes, "Hashes were null.");
+
+        String[] words = header.split(" ");
+        if (words.length != 4 || !words[0].equals("manifest")) {
+            throw new IllegalArgumentException("Wrong manifest header: " + header);
+        }
+        if (Long.parseLong(words[3]) != hashes.size()) {
+            throw new IllegalArgumentException("Wrong number of hashes.");
+        }
+
+        var bytes = new byte[hashes.size()][];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = parseHex(hashes.get(i));
+        }
+        return new Manifest(Long.parseLong(words[1]), Integer.parseInt(words[2]), Arrays.asList(bytes));
+    }
+
+    /**
+     * Returns size of the file (in bytes).
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns size of a chunk (in bytes).
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Returns the number of chunks.
+     */
+    public int getChunkCount() {
+        return hashes.length;
+    }
+
+    /**
+     * Returns position of the first byte of the chunk in the file.
+     *
+     * @param chunk Index of the chunk.
+     */
+    public long getChunkStart(int chunk) {
+        return (long) chunk * chunkSize;
+    }
+
+    /**
+     * Returns position after the last byte of the chunk in the file.
+     *
+     * @param chunk Index of the chunk.
+     */
+    public long getChunkEnd(int chunk) {
+        return Math.min(size, getChunkStart(chunk) + chunkSize);
+    }
+
+    /**
+     * Returns true, if the hash of the chunk is the given one.
+     *
+     * @param chunk Index of the chunk.
+     * @param hash  SHA-256 hash of the chunk's bytes.
+     * @throws IndexOutOfBoundsException If there is no such chunk.
+     */
+    public boolean matches(int chunk, byte[] hash) {
+        return Arrays.equals(hashes[chunk], hash);
+    }
+
+    private static byte[] parseHex(String hex) {
+        if (hex.length() != 2 * HASH_LENGTH) {
+            throw new IllegalArgumentException("Wrong hash: " + hex);
+        }
+        var bytes = new byte[HASH_LENGTH];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Wrong hash: " + hex);
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+}
@@ -1,5 +1,6 @@
 package client.lib;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.stream.Collectors;
 
@@ -10,24 +11,27 @@ import java.util.stream.Collectors;
  */
 public class Utils {
     /**
-     * From files in the passed collection selects ones that match the key.
+     * From files in the passed collection selects ones that match the key. <br/>
+     * File matches the key if its name and readable size contain every word of the key ignoring case.
+     * To search in the same files many times use FileIndex.
      *
      * @param files Collection of files to filter.
      * @param key   Filter key.
      * @return Filtered collection i.e collection of the elements that match the key.
      * @throws NullPointerException If files collection is null.
+     * @see FileIndex
      */
     public static Collection<PrimitiveFile> filterFiles(Collection<PrimitiveFile> files, String key) {
-        return files.stream().filter(file -> {
-            if (key == null || key.length() == 0) {
-                return true;
-            }
+        if (key == null || key.length() == 0) {
+            return new ArrayList<>(files);
+        }
 
+        String[] keys = key.toLowerCase().split(" +");
+        return files.stream().filter(file -> {
             if (file == null) {
                 return false;
             }
 
-            String[] keys = key.toLowerCase().split(" +");
             String from = (file.getName() + " " + file.getSizeReadable()).toLowerCase();
 
             for (var k : keys) {
@@ -0,0 +1,205 @@
+package client.lib.communication;
+
+import client.lib.Manifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Verifies chunks of a downloading file against its manifest. <br/>
+ * Chunks are hashed as their bytes arrive, so that the file is not read again after the download.
+ * Chunk whose bytes arrive out of order (e.g. a resumed download starts in the middle of it)
+ * or that did not arrive at all is hashed from the file when the failed ranges are requested. <br/>
+ * Bytes of different chunks may be received by different threads at once. <br/>
+ * Class is package private so that only classes of the communication package can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class ChunkVerifier {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Manifest manifest;
+    private final Chunk[] chunks;
+
+    /**
+     * Constructs a new instance of ChunkVerifier.
+     *
+     * @param manifest Manifest of the file.
+     * @throws NullPointerException If manifest is null.
+     */
+    ChunkVerifier(Manifest manifest) {
+        this.manifest = Objects.requireNonNull(manifest, "Manifest was null.");
+        this.chunks = new Chunk[manifest.getChunkCount()];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new Chunk(manifest.getChunkStart(i));
+        }
+    }
+
+    /**
+     * Returns the manifest of the file.
+     */
+    Manifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * Hashes received bytes.
+     *
+     * @param buffer   Array containing received bytes.
+     * @param length   Number of received bytes at the beginning of the buffer.
+     * @param position Position of the first received byte in the file.
+     */
+    void update(byte[] buffer, int length, long position) {
+        int offset = 0;
+        while (offset < length && position < manifest.getSize()) {
+            int index = (int) (position / manifest.getChunkSize());
+            int count = (int) Math.min(length - offset, manifest.getChunkEnd(index) - position);
+            var chunk = chunks[index];
+            synchronized (chunk) {
+                chunk.update(index, buffer, offset, count, position);
+            }
+            offset += count;
+            position += count;
+        }
+    }
+
+    /**
+     * Returns ranges of the file that do not match the manifest. Adjacent failed chunks form one range. <br/>
+     * Chunks that were not completely hashed while receiving are hashed from the file.
+     *
+     * @param file Downloaded file.
+     * @return Failed ranges: position of the first byte and position after the last byte of each of them.
+     * @throws IOException If an I/O error occurred.
+     */
+    List<long[]> failedRanges(File file) throws IOException {
+        var ranges = new ArrayList<long[]>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            for (int i = 0; i < chunks.length; i++) {
+                boolean valid;
+                synchronized (chunks[i]) {
+                    if (chunks[i].state == Chunk.UNCHECKED || chunks[i].state == Chunk.HASHING) {
+                        chunks[i].state = hashFromFile(i, channel, buffer) ? Chunk.VALID : Chunk.FAILED;
+                    }
+                    valid = chunks[i].state == Chunk.VALID;
+                }
+                if (valid) {
+                    continue;
+                }
+
+                var last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+                if (last != null && last[1] == manifest.getChunkStart(i)) {
+                    last[1] = manifest.getChunkEnd(i);
+                } else {
+                    ranges.add(new long[]{manifest.getChunkStart(i), manifest.getChunkEnd(i)});
+                }
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Marks chunks of the ranges as not checked, e.g. when they are downloaded again. <br/>
+     * They are hashed from the file by the next call of failedRanges().
+     *
+     * @param ranges Ranges returned by failedRanges().
+     * @see ChunkVerifier#failedRanges(File)
+     */
+    void invalidate(List<long[]> ranges) {
+        for (var range : ranges) {
+            for (long position = range[0]; position < range[1]; position += manifest.getChunkSize()) {
+                var chunk = chunks[(int) (position / manifest.getChunkSize())];
+                synchronized (chunk) {
+                    chunk.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * Hashes the chunk reading it from the file. Returns true if it matches the manifest.
+     */
+    private boolean hashFromFile(int index, FileChannel channel, ByteBuffer buffer) throws IOException {
+        var digest = newDigest();
+        long position = manifest.getChunkStart(index);
+        long end = manifest.getChunkEnd(index);
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+            buffer.flip();
+            digest.update(buffer);
+        }
+        return manifest.matches(index, digest.digest());
+    }
+
+    /**
+     * Returns a new digest of the hash function used by manifests.
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    }
+
+    /**
+     * State of a chunk. Is guarded by its own monitor.
+     */
+    private class Chunk {
+        static final int UNCHECKED = 0;
+        static final int HASHING = 1;
+        static final int VALID = 2;
+        static final int FAILED = 3;
+
+        private final long start;
+        private int state = UNCHECKED;
+        /**
+         * Position of the next byte expected by the digest.
+         */
+        private long next;
+        private MessageDigest digest;
+
+        Chunk(long start) {
+            this.start = start;
+            this.next = start;
+        }
+
+        void update(int index, byte[] buffer, int offset, int length, long position) {
+            if (position != next || state == VALID || state == FAILED) {
+                // Bytes out of order or received again: the chunk will be hashed from the file.
+                reset();
+                next = -1;
+                return;
+            }
+            if (digest == null) {
+                digest = newDigest();
+                state = HASHING;
+            }
+            digest.update(buffer, offset, length);
+            next += length;
+            if (next == manifest.getChunkEnd(index)) {
+                state = manifest.matches(index, digest.digest()) ? VALID : FAILED;
+                digest = null;
+            }
+        }
+
+        void reset() {
+            state = UNCHECKED;
+            digest = null;
+            next = start;
+        }
+    }
+}
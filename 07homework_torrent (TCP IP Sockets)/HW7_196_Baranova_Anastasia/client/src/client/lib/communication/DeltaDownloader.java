@@ -0,0 +1,177 @@
+package client.lib.communication;
+
+import client.lib.request.DownloadRequest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Objects;
+
+/**
+ * Updates an existing copy of a file by downloading only the blocks that changed (delta update). <br/>
+ * The copy is split into blocks of equal size, and a weak rolling checksum and a strong hash of every
+ * whole block are sent to the server over a separate connection. The server slides a window over its file,
+ * finds the blocks the client already has and sends instructions: copy blocks of the copy or insert
+ * the bytes that are not found in it. Signatures are streamed as the copy is read, and the instructions
+ * are executed as they arrive, so neither side holds the file in memory. <br/>
+ * Class is package private so that only ServerCommunicatingThread can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class DeltaDownloader {
+    /**
+     * Minimum size of a block. Smaller blocks find more matches, but cost more signatures.
+     */
+    static final int MIN_BLOCK_SIZE = 2 * 1024;
+    static final int MAX_BLOCK_SIZE = 1024 * 1024;
+    /**
+     * Maximum number of blocks accepted by the server.
+     */
+    static final int MAX_BLOCKS = 1 << 17;
+
+    /**
+     * Length of the strong hash of a block (in bytes): a prefix of its SHA-256 hash.
+     */
+    private static final int STRONG_LENGTH = 16;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InetAddress address;
+    private final int port;
+
+    /**
+     * Constructs a new instance of DeltaDownloader.
+     *
+     * @param address Server's address.
+     * @param port    Server's port.
+     * @throws NullPointerException If address is null.
+     */
+    DeltaDownloader(InetAddress address, int port) {
+        this.address = Objects.requireNonNull(address, "Address was null.");
+        this.port = port;
+    }
+
+    /**
+     * Returns true, if the request should be made as a delta update: the delta mode is on,
+     * the file is requested in the binary mode and a non-empty copy of it exists.
+     *
+     * @param request Download request.
+     */
+    static boolean isApplicable(DownloadRequest request) {
+        return request.isDelta() && request.isBinary() && request.getFile().isFile() && request.getFile().length() > 0;
+    }
+
+    /**
+     * Returns the size of the blocks a copy of the given size is split into:
+     * about the square root of the size, so that the signatures and the literal bytes around changes
+     * are of about the same size, but not too many blocks.
+     *
+     * @param size Size of the copy (in bytes).
+     */
+    static int blockSize(long size) {
+        int blockSize = MIN_BLOCK_SIZE;
+        while (blockSize < MAX_BLOCK_SIZE && ((long) blockSize * blockSize < size || size / blockSize > MAX_BLOCKS)) {
+            blockSize *= 2;
+        }
+        return blockSize;
+    }
+
+    /**
+     * Downloads the new version of the file. Returns when it is rebuilt and matches the file on the server.
+     *
+     * @param request Download request whose output file exists.
+     * @throws IOException If an I/O error occurred or the server failed to send the file.
+     */
+    void download(DownloadRequest request) throws IOException {
+        try (Socket socket = new Socket(address, port)) {
+            var out = new PrintWriter(new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)));
+            var in = new ResponseInputStream(socket.getInputStream());
+
+            long size = request.getFile().length();
+            int blockSize = blockSize(size);
+            sendSignatures(out, request, blockSize, size);
+
+            String line = ServerCommunicatingThread.checkStatus(in.readTextLine());
+            if (!line.startsWith("delta ")) {
+                throw new IOException("Server cannot send the file.");
+            }
+            long newSize;
+            try {
+                newSize = Long.parseLong(line.substring("delta ".length()));
+            } catch (NumberFormatException e) {
+                throw new IOException("Unexpected response: " + line);
+            }
+
+            request.prepareDelta(newSize, blockSize);
+            var frames = new FrameReader(in, line);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = frames.read(buffer)) > 0) {
+                request.receiveDelta(buffer, read);
+            }
+            if (read < 0) {
+                throw new IOException("Server failed to send the file.");
+            }
+            out.println("finish");
+            out.flush();
+        }
+    }
+
+    /**
+     * Sends the request with the signatures of the whole blocks of the copy: one line per block
+     * with the weak checksum and the strong hash in hexadecimal. The last shorter block is not sent.
+     */
+    private static void sendSignatures(PrintWriter out, DownloadRequest request, int blockSize, long size)
+            throws IOException {
+        int count = (int) Math.min(size / blockSize, MAX_BLOCKS);
+        out.println("delta " + request.getId() + " " + blockSize + " " + count);
+
+        MessageDigest digest = ChunkVerifier.newDigest();
+        byte[] block = new byte[blockSize];
+        var line = new StringBuilder();
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(request.getFile().toPath()),
+                BUFFER_SIZE)) {
+            for (int i = 0; i < count; i++) {
+                if (file.readNBytes(block, 0, blockSize) < blockSize) {
+                    throw new IOException("File became shorter while reading.");
+                }
+                line.setLength(0);
+                line.append(Integer.toHexString(weakChecksum(block, blockSize))).append(' ');
+                digest.update(block, 0, blockSize);
+                byte[] hash = digest.digest();
+                for (int j = 0; j < STRONG_LENGTH; j++) {
+                    line.append(Character.forDigit(hash[j] >> 4 & 0xF, 16))
+                            .append(Character.forDigit(hash[j] & 0xF, 16));
+                }
+                out.println(line);
+            }
+        }
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Cannot send the request.");
+        }
+    }
+
+    /**
+     * Returns the weak checksum of the block: the same rolling checksum the server computes.
+     */
+    private static int weakChecksum(byte[] block, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = block[i] & 0xFF;
+            a += x;
+            b += (length - i) * x;
+        }
+        return a & 0xFFFF | b << 16;
+    }
+}
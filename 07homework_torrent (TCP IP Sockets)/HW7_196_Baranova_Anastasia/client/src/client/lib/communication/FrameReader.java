@@ -0,0 +1,142 @@
+package client.lib.communication;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads bytes of a file sent in binary frames. <br/>
+ * Every frame is a 4-byte big-endian length followed by that many bytes. Frame of length 0 marks the end
+ * of the file, frame of length -1 means that the server could not read the file. <br/>
+ * If the server compressed the file ("deflate" at the end of the response header), bytes of the frames
+ * form a raw Deflate stream and are inflated, so that the reader always returns bytes of the file. <br/>
+ * Class is package private so that only classes of the communication package can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class FrameReader {
+    /**
+     * Option of the download request and of the response header meaning Deflate compression.
+     */
+    static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ResponseInputStream in;
+    /**
+     * Inflater of a compressed file, null if the file is not compressed.
+     */
+    private final Inflater inflater;
+    private byte[] compressed;
+
+    /**
+     * Number of bytes of the current frame that have not been read yet.
+     */
+    private int frameRemaining = 0;
+    private boolean ended = false;
+
+    /**
+     * Constructs a new instance of FrameReader.
+     *
+     * @param in     Stream positioned right after the response header.
+     * @param header Response header.
+     * @throws NullPointerException If in or/and header are null.
+     */
+    FrameReader(ResponseInputStream in, String header) {
+        this.in = Objects.requireNonNull(in, "Stream was null.");
+        this.inflater = isCompressed(Objects.requireNonNull(header, "Header was null.")) ? new Inflater(true) : null;
+    }
+
+    /**
+     * Returns true, if the response header says that the file is compressed.
+     */
+    static boolean isCompressed(String header) {
+        return header.endsWith(" " + DEFLATE);
+    }
+
+    /**
+     * Reads the next bytes of the file.
+     *
+     * @param buffer Buffer to read to.
+     * @return Number of read bytes, 0 if the end of the file is reached,
+     * -1 if the server could not read the file (the response is over, but the connection can be used).
+     * @throws IOException If an I/O error occurred or the response is malformed.
+     */
+    int read(byte[] buffer) throws IOException {
+        if (ended) {
+            return 0;
+        }
+        try {
+            return inflater == null ? readRaw(buffer, 0, buffer.length) : inflate(buffer);
+        } catch (IOException e) {
+            end();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads bytes of frames as they are.
+     */
+    private int readRaw(byte[] buffer, int offset, int length) throws IOException {
+        if (frameRemaining == 0) {
+            int frame = in.readInt();
+            if (frame <= 0) {
+                end();
+                return frame < 0 ? -1 : 0;
+            }
+            frameRemaining = frame;
+        }
+
+        int read = Math.min(length, frameRemaining);
+        in.readFully(buffer, offset, read);
+        frameRemaining -= read;
+        return read;
+    }
+
+    /**
+     * Reads compressed bytes of frames until some bytes of the file are inflated.
+     */
+    private int inflate(byte[] buffer) throws IOException {
+        try {
+            while (true) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated > 0) {
+                    return inflated;
+                }
+                if (inflater.finished()) {
+                    // Only the end frame is left.
+                    if (frameRemaining > 0 || in.readInt() != 0) {
+                        throw new IOException("Unexpected bytes after the compressed file.");
+                    }
+                    end();
+                    return 0;
+                }
+                if (inflater.needsDictionary()) {
+                    throw new IOException("Compressed file requires a dictionary.");
+                }
+
+                if (compressed == null) {
+                    compressed = new byte[BUFFER_SIZE];
+                }
+                int read = readRaw(compressed, 0, compressed.length);
+                if (read < 0) {
+                    return -1;
+                }
+                if (read == 0) {
+                    throw new IOException("Compressed file is truncated.");
+                }
+                inflater.setInput(compressed, 0, read);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed file is corrupted: " + e.getMessage());
+        }
+    }
+
+    private void end() {
+        ended = true;
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package client.lib.communication;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Input stream for reading server responses. <br/>
+ * Allows to read both text lines and binary frames from the same stream,
+ * so that no bytes are lost in a reader's buffer when the server switches to binary mode. <br/>
+ * Class is package private so that only ServerCommunicatingThread can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class ResponseInputStream extends DataInputStream {
+    /**
+     * Size of the buffer of the underlying stream.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    /**
+     * Constructs a new instance of ResponseInputStream.
+     *
+     * @param in Socket's input stream.
+     */
+    ResponseInputStream(InputStream in) {
+        super(new BufferedInputStream(in, BUFFER_SIZE));
+    }
+
+    /**
+     * Reads a line of text. Line is terminated by '\n' or "\r\n". <br/>
+     * Bytes are decoded using the default charset, the same way the server encodes them.
+     *
+     * @return Read line without line terminator or null if the end of stream is reached.
+     * @throws IOException If an I/O error occurred.
+     */
+    String readTextLine() throws IOException {
+        line.reset();
+        int read;
+        while ((read = read()) != -1 && read != '\n') {
+            line.write(read);
+        }
+        if (read == -1 && line.size() == 0) {
+            return null;
+        }
+
+        String result = line.toString(Charset.defaultCharset());
+        return result.endsWith("\r") ? result.substring(0, result.length() - 1) : result;
+    }
+}
@@ -0,0 +1,291 @@
+package client.lib.communication;
+
+import client.lib.Manifest;
+import client.lib.request.DownloadRequest;
+import client.lib.request.ManifestRequest;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Downloads a file in several ranges (segments) in parallel. <br/>
+ * Each segment is requested over its own connection to the server and written straight
+ * to its position in the preallocated output file. Segment whose connection fails is requested again
+ * from the first byte that has not been received. <br/>
+ * Also verifies downloaded files against their manifests and downloads broken chunks again. <br/>
+ * Class is package private so that only classes of the communication package can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class SegmentedDownloader {
+    /**
+     * Minimum size of a segment. Smaller files are split into fewer segments.
+     */
+    static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    /**
+     * Number of connections made to download a segment before giving up.
+     */
+    private static final int ATTEMPTS = 3;
+
+    /**
+     * Number of times broken chunks are downloaded again before giving up.
+     */
+    private static final int REPAIR_ROUNDS = 2;
+
+    /**
+     * Time to wait for the server to compute a manifest (in milliseconds).
+     */
+    private static final long MANIFEST_TIMEOUT = 10_000;
+    private static final long MANIFEST_POLL_INTERVAL = 100;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InetAddress address;
+    private final int port;
+
+    /**
+     * Constructs a new instance of SegmentedDownloader.
+     *
+     * @param address Server's address.
+     * @param port    Server's port.
+     * @throws NullPointerException If address is null.
+     */
+    SegmentedDownloader(InetAddress address, int port) {
+        this.address = Objects.requireNonNull(address, "Address was null.");
+        this.port = port;
+    }
+
+    /**
+     * Returns the number of segments the requested file should be split into. <br/>
+     * Files of unknown size, files requested in the legacy text mode and small files are not split.
+     * Interrupted downloads are not split either, so that they are resumed over a single connection
+     * instead of being downloaded from the beginning.
+     *
+     * @param request Download request.
+     * @return Number of segments, 1 if the file should be downloaded over a single connection.
+     */
+    static int segmentCount(DownloadRequest request) {
+        if (request.getSegments() <= 1 || request.getSize() < 0 || !request.isBinary() || request.isResumable()) {
+            return 1;
+        }
+        return (int) Math.max(1, Math.min(request.getSegments(), request.getSize() / MIN_SEGMENT_SIZE));
+    }
+
+    /**
+     * Downloads the file in segments. Returns when all of them are downloaded.
+     *
+     * @param request  Download request with known size.
+     * @param segments Number of segments.
+     * @throws IOException If an I/O error occurred or some of the segments could not be downloaded.
+     */
+    void download(DownloadRequest request, int segments) throws IOException {
+        request.prepareSegments();
+
+        long size = request.getSize();
+        long segmentSize = (size + segments - 1) / segments;
+
+        ChunkVerifier verifier = null;
+        if (request.isVerify()) {
+            var manifest = requestManifest(request.getId(), false);
+            if (manifest != null && manifest.getSize() == size) {
+                verifier = new ChunkVerifier(manifest);
+                // Every chunk is received by a single segment, so it is hashed as it arrives.
+                long chunkSize = manifest.getChunkSize();
+                segmentSize = (segmentSize + chunkSize - 1) / chunkSize * chunkSize;
+            }
+        }
+
+        var tasks = new Segment[segments];
+        var threads = new Thread[segments];
+        for (int i = 0; i < segments; i++) {
+            long offset = Math.min(size, i * segmentSize);
+            tasks[i] = new Segment(request, offset, Math.min(size, offset + segmentSize), verifier, false);
+            threads[i] = new Thread(tasks[i]);
+            threads[i].start();
+        }
+
+        IOException failure = null;
+        for (int i = 0; i < segments; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Download was interrupted.");
+            }
+            if (tasks[i].failure != null) {
+                if (failure == null) {
+                    failure = new IOException("Some segments of the file could not be downloaded.");
+                }
+                failure.addSuppressed(tasks[i].failure);
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        if (request.isVerify()) {
+            verify(request, verifier);
+        }
+    }
+
+    /**
+     * Verifies the downloaded file against its manifest and downloads broken chunks again. <br/>
+     * If the chunks were not hashed while receiving, the manifest is requested (waiting for the server
+     * to compute it) and the whole file is hashed. If there is no manifest, the file is not verified.
+     *
+     * @param request  Finished download request.
+     * @param verifier Verifier that hashed received chunks or null.
+     * @throws IOException If an I/O error occurred or broken chunks could not be repaired.
+     */
+    void verify(DownloadRequest request, ChunkVerifier verifier) throws IOException {
+        var file = request.getFile();
+        if (verifier == null) {
+            var manifest = requestManifest(request.getId(), true);
+            if (manifest == null || manifest.getSize() != file.length()) {
+                System.err.println("Cannot verify " + file.getName() + ": manifest is not available.");
+                return;
+            }
+            verifier = new ChunkVerifier(manifest);
+        }
+
+        for (int round = 0; round < REPAIR_ROUNDS; round++) {
+            request.flush();
+            List<long[]> ranges = verifier.failedRanges(file);
+            if (ranges.isEmpty()) {
+                return;
+            }
+            verifier.invalidate(ranges);
+            for (var range : ranges) {
+                var segment = new Segment(request, range[0], range[1], null, true);
+                segment.run();
+                if (segment.failure != null) {
+                    throw segment.failure;
+                }
+            }
+        }
+
+        request.flush();
+        if (!verifier.failedRanges(file).isEmpty()) {
+            throw new IOException("Downloaded file does not match its manifest.");
+        }
+    }
+
+    /**
+     * Requests the manifest of the file over a separate connection.
+     *
+     * @param id   ID of the file.
+     * @param wait If true, waits for the server to compute the manifest.
+     * @return Manifest or null if it is not available or cannot be received.
+     */
+    Manifest requestManifest(int id, boolean wait) {
+        var request = new ManifestRequest(id);
+        long deadline = System.currentTimeMillis() + MANIFEST_TIMEOUT;
+        try (Socket socket = new Socket(address, port)) {
+            var out = new PrintWriter(socket.getOutputStream(), true);
+            var in = new ResponseInputStream(socket.getInputStream());
+            while (true) {
+                out.println(request.getCommand());
+                ServerCommunicatingThread.receiveManifest(in, request);
+                if (!request.isPending() || !wait || System.currentTimeMillis() > deadline) {
+                    break;
+                }
+                Thread.sleep(MANIFEST_POLL_INTERVAL);
+            }
+            out.println("finish");
+        } catch (IOException e) {
+            System.err.println("Cannot receive manifest: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return request.getManifest();
+    }
+
+    /**
+     * Range of the file downloaded over a separate connection.
+     */
+    private class Segment implements Runnable {
+        private final DownloadRequest request;
+        private final long end;
+        /**
+         * Verifier hashing received bytes or null.
+         */
+        private final ChunkVerifier verifier;
+        /**
+         * If true, the range is downloaded again and overwrites the existing bytes.
+         */
+        private final boolean repair;
+
+        /**
+         * Position of the first byte that has not been received yet.
+         */
+        private long position;
+        private IOException failure;
+
+        Segment(DownloadRequest request, long offset, long end, ChunkVerifier verifier, boolean repair) {
+            this.request = request;
+            this.position = offset;
+            this.end = end;
+            this.verifier = verifier;
+            this.repair = repair;
+        }
+
+        /**
+         * Downloads the segment making several attempts if connection fails.
+         */
+        @Override
+        public void run() {
+            for (int attempt = 0; attempt < ATTEMPTS && position < end; attempt++) {
+                try (Socket socket = new Socket(address, port)) {
+                    fetch(socket);
+                    failure = null;
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+
+        /**
+         * Requests the rest of the segment and writes received bytes to the file.
+         */
+        private void fetch(Socket socket) throws IOException {
+            var out = new PrintWriter(socket.getOutputStream(), true);
+            var in = new ResponseInputStream(socket.getInputStream());
+
+            out.println(request.getRequest() + " " + request.getId() + " binary " + position + " " + (end - position)
+                    + (request.isCompression() ? " " + FrameReader.DEFLATE : ""));
+            String line = ServerCommunicatingThread.checkStatus(in.readTextLine());
+            String[] header = line.split(" ");
+            if (header.length < 4 || !header[0].equals("binary") || Long.parseLong(header[2]) != position) {
+                throw new IOException("Server cannot send a range of the file.");
+            }
+
+            var frames = new FrameReader(in, line);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = frames.read(buffer)) > 0) {
+                if (repair) {
+                    request.rewriteBytesAt(buffer, read, position);
+                } else {
+                    request.receiveBytesAt(buffer, read, position);
+                }
+                if (verifier != null) {
+                    verifier.update(buffer, read, position);
+                }
+                position += read;
+            }
+            if (read < 0) {
+                throw new IOException("Server failed to read the file.");
+            }
+            if (position < end) {
+                throw new IOException("File on the server became shorter.");
+            }
+
+            out.println("finish");
+        }
+    }
+}
@@ -1,37 +1,84 @@
 package client.lib.communication;
 
+import client.lib.ContentIndex;
+import client.lib.Manifest;
 import client.lib.PrimitiveFile;
+import client.lib.request.ArchiveRequest;
 import client.lib.request.DownloadRequest;
 import client.lib.request.FilesRequest;
 import client.lib.request.FinishRequest;
+import client.lib.request.FolderRequest;
+import client.lib.request.HashRequest;
+import client.lib.request.ManifestRequest;
 import client.lib.request.Request;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Class that describes an object for communicating with a server.
  * Intended to be executed by a thread. <br/>
- * Sends request to the server, reads and processes responses. <br/>
+ * The thread takes requests from a queue, tags each of them with an ID and sends them to the server
+ * without waiting for the responses to the previous ones. Responses are read by a separate reader thread.
+ * Server answers the requests of a connection in order, starting every response with a line "#{ID}",
+ * so the reader matches each response with the request it was sent for. <br/>
+ * Manifest of a downloading file is requested right before the file, so that its chunks are verified
+ * as they arrive. Broken chunks are downloaded again over separate connections. <br/>
+ * If the client has an index of local files, the content hash of a downloading file is requested first,
+ * and an identical local file is copied instead of downloading the file. <br/>
+ * Both threads block while there is nothing to do. <br/>
  * Class is package private so that only TorrentClient can access it.
  *
  * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
  */
 class ServerCommunicatingThread implements Runnable {
+    /**
+     * Size of the buffer for bytes of downloading files.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Time to wait for the server to compute a content hash (in milliseconds).
+     */
+    private static final long HASH_TIMEOUT = 10_000;
+    private static final long HASH_POLL_INTERVAL = 100;
+
     private final Socket socket;
-    private BufferedReader in;
+    private ResponseInputStream in;
     private PrintWriter out;
 
     /**
-     * List of request to send. <br/>
-     * New requests are added to the list and then removed when executed.
+     * Queue of requests to send. <br/>
+     * Requests are added by other threads (e.g. the UI thread) and taken by this thread.
+     */
+    private final BlockingQueue<PendingRequest<?>> requests = new LinkedBlockingQueue<>();
+    /**
+     * Requests sent to the server in the order they were sent, i.e. in the order of the responses.
+     */
+    private final BlockingQueue<PendingRequest<?>> inFlight = new LinkedBlockingQueue<>();
+
+    /**
+     * ID of the last sent request.
+     */
+    private int lastTag = 0;
+    private volatile boolean closed = false;
+    private volatile Thread writer;
+    /**
+     * Participation in the swarm, null if the client did not join it.
      */
-    private final LinkedList<Request> requests = new LinkedList<>();
+    private volatile Swarm swarm;
+    /**
+     * Index of local files searched before downloading, null if there is none.
+     */
+    private volatile ContentIndex contentIndex;
 
     /**
      * Constructs a new instance of ServerCommunicatingThread.
@@ -45,148 +92,651 @@ class ServerCommunicatingThread implements Runnable {
     }
 
     /**
-     * While it is possible looks if there are any new requests and sends them to the server. <br/>
-     * Also looks at other messages from the server to see if any errors occurred on the server.
-     *
-     * @see ServerCommunicatingThread#oneCycle()
+     * Starts the reader thread and sends requests until the finish request is sent
+     * or the connection is closed.
      */
     @Override
     public void run() {
+        writer = Thread.currentThread();
         try {
             out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            in = new ResponseInputStream(socket.getInputStream());
+
+            var reader = new Thread(this::readResponses, "server-response-reader");
+            reader.start();
 
-            while (!socket.isClosed()) {
-                if (!oneCycle()) {
+            while (!closed) {
+                if (!send(requests.take())) {
                     break;
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
             close();
+        } finally {
+            closed = true;
+            failRemaining(requests, new IOException("Connection is closed."));
         }
     }
 
     /**
-     * Looks if there are any new requests and sends them to the server. <br/>
-     * Looks at other messages from the server to see if any errors occurred on the server.
+     * Adds request to the queue.
      *
-     * @return true, if cycle ended successfully, false otherwise.
+     * @param request Request to send.
+     * @return Future that is completed with the request when the response is received.
+     */
+    <R extends Request> CompletableFuture<R> request(R request) {
+        var pending = new PendingRequest<>(request);
+        pending.index = contentIndex;
+        requests.add(pending);
+        if (closed) {
+            failRemaining(requests, new IOException("Connection is closed."));
+        }
+        return pending.future;
+    }
+
+    /**
+     * Sets the index of local files searched before downloading a file. Completed downloads are added to it.
+     *
+     * @param index Index or null to download all the files.
+     */
+    void setContentIndex(ContentIndex index) {
+        contentIndex = index;
+    }
+
+    /**
+     * Joins the swarm: starts serving downloaded chunks to other clients and announcing them to the server.
+     *
+     * @param peerPort Port to serve chunks on, 0 for any free port.
+     * @return Port chunks are served on.
+     * @throws IOException           If the chunk server cannot be started or the server cannot be reached.
+     * @throws IllegalStateException If the client already joined the swarm or the connection is closed.
+     * @see Swarm
+     */
+    synchronized int startSwarm(int peerPort) throws IOException {
+        if (swarm != null) {
+            throw new IllegalStateException("Swarm is already started.");
+        }
+        if (closed) {
+            throw new IllegalStateException("Connection is closed.");
+        }
+        swarm = new Swarm(socket.getInetAddress(), socket.getPort(), peerPort);
+        return swarm.getPort();
+    }
+
+    /**
+     * Sends one request to the server. <br/>
+     * Delta, segmented and swarm downloads do not use this connection and are run by a separate thread.
+     *
+     * @return false, if no more requests can be sent (finish request was sent), true otherwise.
+     */
+    private boolean send(PendingRequest<?> pending) {
+        var request = pending.request;
+        String command;
+        if (request instanceof FilesRequest) {
+            command = ((FilesRequest) request).getCommand();
+        } else if (request instanceof ManifestRequest) {
+            command = ((ManifestRequest) request).getCommand();
+        } else if (request instanceof FolderRequest) {
+            command = ((FolderRequest) request).getCommand();
+        } else if (request instanceof HashRequest) {
+            command = ((HashRequest) request).getCommand();
+        } else if (request instanceof ArchiveRequest) {
+            var archive = (ArchiveRequest) request;
+            try {
+                archive.prepare();
+            } catch (IOException e) {
+                pending.fail(e);
+                return true;
+            }
+            command = archive.getCommand();
+        } else if (request instanceof DownloadRequest) {
+            var download = (DownloadRequest) request;
+            var index = contentIndex;
+            if (index != null && !pending.indexSearched && download.getSize() > 0 && index.hasSize(download.getSize())) {
+                pending.indexSearched = true;
+                new Thread(() -> copyLocal(pending, download, index)).start();
+                return true;
+            }
+            if (DeltaDownloader.isApplicable(download)) {
+                new Thread(() -> downloadDelta(pending, download)).start();
+                return true;
+            }
+            var currentSwarm = swarm;
+            if (download.isSwarm() && currentSwarm != null && download.getSize() >= 0 && download.isBinary()) {
+                new Thread(() -> downloadSwarm(pending, download, currentSwarm)).start();
+                return true;
+            }
+            int segments = SegmentedDownloader.segmentCount(download);
+            if (segments > 1) {
+                new Thread(() -> downloadSegments(pending, download, segments)).start();
+                return true;
+            }
+            try {
+                download.prepare();
+            } catch (IOException e) {
+                pending.fail(e);
+                return true;
+            }
+            command = downloadCommand(download);
+            if (download.isVerify() && download.isBinary()) {
+                var manifest = new PendingRequest<>(new ManifestRequest(download.getId()));
+                sendTagged(manifest, manifest.request.getCommand());
+                pending.manifest = manifest.request;
+            }
+        } else {
+            command = request.getRequest();
+        }
+
+        sendTagged(pending, command);
+        return !(request instanceof FinishRequest);
+    }
+
+    /**
+     * Tags the request with a new ID and sends it.
      */
-    private boolean oneCycle() {
+    private void sendTagged(PendingRequest<?> pending, String command) {
+        pending.tag = ++lastTag;
+        inFlight.add(pending);
+        out.println("#" + pending.tag + " " + command);
+    }
+
+    /**
+     * Returns command requesting the file (or its rest if the download is resumed).
+     */
+    private static String downloadCommand(DownloadRequest request) {
+        String command = request.getRequest() + " " + request.getId();
+        if (request.isBinary()) {
+            command += " binary";
+        }
+        if (request.getOffset() > 0) {
+            command += " " + request.getOffset();
+        }
+        if (request.isBinary() && request.isCompression()) {
+            command += " " + FrameReader.DEFLATE;
+        }
+        return command;
+    }
+
+    /**
+     * Reads responses and completes the requests they belong to until the connection is closed.
+     */
+    private void readResponses() {
         try {
-            if (in.ready()) {
-                String input = in.readLine();
-                if (input != null && input.equals("aborted")) {
-                    close();
-                    return false;
+            while (true) {
+                String line = checkStatus(in.readTextLine());
+                var pending = inFlight.poll();
+                if (pending == null || !line.equals("#" + pending.tag)) {
+                    throw new IOException("Unexpected response: " + line);
                 }
-            }
 
-            execute();
-            return true;
+                try {
+                    receive(pending);
+                } catch (ServerErrorException e) {
+                    pending.fail(e);
+                    continue;
+                } catch (IOException e) {
+                    pending.fail(e);
+                    throw e;
+                }
+
+                if (pending.request instanceof DownloadRequest && pending.manifest != null) {
+                    // Hashing the file and downloading broken chunks must not delay the next responses.
+                    new Thread(() -> verify(pending)).start();
+                    continue;
+                }
+                pending.complete();
+
+                if (pending.request instanceof FinishRequest) {
+                    return;
+                }
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            if (!closed) {
+                System.err.println(e.getMessage());
+            }
+            failRemaining(inFlight, e);
+        } finally {
+            close();
         }
-        return false;
     }
 
-    public void request(Request request) {
-        requests.addLast(request);
+    /**
+     * Reads the response to the request.
+     *
+     * @throws IOException If an I/O error occurred or the connection was closed.
+     */
+    private void receive(PendingRequest<?> pending) throws IOException {
+        var request = pending.request;
+        if (request instanceof FilesRequest) {
+            receiveList((FilesRequest) request);
+        } else if (request instanceof ManifestRequest) {
+            receiveManifest(in, (ManifestRequest) request);
+        } else if (request instanceof FolderRequest) {
+            receiveFolder((FolderRequest) request);
+        } else if (request instanceof HashRequest) {
+            String line = checkStatus(in.readTextLine());
+            if (line.startsWith("hash ")) {
+                ((HashRequest) request).receiveHash(line.substring("hash ".length()), false);
+            } else {
+                ((HashRequest) request).receiveHash(null, line.equals("pending"));
+            }
+        } else if (request instanceof ArchiveRequest) {
+            receiveArchive((ArchiveRequest) request);
+        } else if (request instanceof DownloadRequest) {
+            receiveFile(pending, (DownloadRequest) request);
+        } else if (request instanceof FinishRequest) {
+            checkStatus(in.readTextLine());
+        }
     }
 
     /**
-     * Processes one request from list. <br/>
-     * If there are no pending requests, the method will do nothing.
+     * Reads list of available files (or a page of them).
      */
-    private void execute() {
-        if (requests.isEmpty()) {
-            return;
+    private void receiveList(FilesRequest request) throws IOException {
+        String fileData;
+        while (!(fileData = checkStatus(in.readTextLine())).equals("done")) {
+            if (fileData.startsWith("total ")) {
+                request.setTotal(Integer.parseInt(fileData.substring("total ".length())));
+                continue;
+            }
+            request.receiveFile(PrimitiveFile.parseString(fileData));
         }
-        Request request = requests.getFirst();
-        requests.removeFirst();
+    }
 
-        if (request instanceof FilesRequest) {
-            requestList((FilesRequest) request);
+    /**
+     * Reads contents of a folder: "dir {name}" for subfolders and "{id} {name} {size}" for files,
+     * followed by "done"; or "none" if there is no such folder.
+     */
+    private void receiveFolder(FolderRequest request) throws IOException {
+        String line = checkStatus(in.readTextLine());
+        if (line.equals("none")) {
+            request.receiveMissing();
             return;
         }
-        if (request instanceof DownloadRequest) {
-            download((DownloadRequest) request);
-            return;
+        while (!line.equals("done")) {
+            if (line.startsWith("dir ")) {
+                request.receiveFolder(line.substring("dir ".length()));
+            } else {
+                request.receiveFile(PrimitiveFile.parseString(line));
+            }
+            line = checkStatus(in.readTextLine());
         }
+    }
 
-        if (request instanceof FinishRequest) {
-            close((FinishRequest) request);
+    /**
+     * Reads a folder archive: header "archive" followed by binary frames, or "none" if there is no such folder.
+     * The archive is unpacked as it arrives.
+     *
+     * @throws ServerErrorException If there is no such folder, the server failed to read it
+     *                              or the archive cannot be unpacked (the response is over).
+     */
+    private void receiveArchive(ArchiveRequest request) throws IOException {
+        String header = checkStatus(in.readTextLine());
+        if (!header.equals("archive")) {
+            throw new ServerErrorException("Server has no folder \"" + request.getPath() + "\".");
+        }
+
+        var frames = new FrameReader(in, header);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        IOException failure = null;
+        int read;
+        while ((read = frames.read(buffer)) > 0) {
+            if (failure != null) {
+                // Rest of the archive is skipped, so that the connection can be used.
+                continue;
+            }
+            try {
+                request.receiveBytes(buffer, read);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        if (read < 0) {
+            throw new ServerErrorException("Server failed to read the folder.");
+        }
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            request.finish();
+        } catch (IOException e) {
+            throw new ServerErrorException("Cannot unpack the folder: " + e.getMessage());
         }
     }
 
     /**
-     * Requests list of available files from server.
+     * Reads a manifest: "manifest {file size} {chunk size} {number of chunks}",
+     * hashes of the chunks and "done", or "pending", or "none".
+     *
+     * @param in      Stream to read from.
+     * @param request Request to save the manifest to.
+     * @throws IOException If an I/O error occurred or the response has a wrong format.
      */
-    private void requestList(FilesRequest request) {
-        out.println(request.getRequest());
+    static void receiveManifest(ResponseInputStream in, ManifestRequest request) throws IOException {
+        String header = checkStatus(in.readTextLine());
+        if (!header.startsWith("manifest ")) {
+            request.receiveManifest(null, header.equals("pending"));
+            return;
+        }
 
+        List<String> hashes = new ArrayList<>();
+        String line;
+        while (!(line = checkStatus(in.readTextLine())).equals("done")) {
+            hashes.add(line);
+        }
         try {
-            String fileData;
-            while (!(fileData = in.readLine()).equals("done")) {
-                request.receiveFile(PrimitiveFile.parseString(fileData));
+            request.receiveManifest(Manifest.parseString(header, hashes), false);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Wrong manifest: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads server response (sequence of bytes) and saves it to the file. <br/>
+     * If binary mode was requested, but the server answered in the legacy text mode,
+     * the response is read in the text mode. <br/>
+     * If the output file already contains the beginning of the file, only the rest was requested.
+     * Server that cannot send a range sends the whole file, and the download is restarted.
+     */
+    private void receiveFile(PendingRequest<?> pending, DownloadRequest request) throws IOException {
+        String read = checkStatus(in.readTextLine());
+        if (read.startsWith("binary ")) {
+            if (request.getOffset() > 0 && read.split(" ").length < (FrameReader.isCompressed(read) ? 5 : 4)) {
+                request.restart();
+            }
+
+            var manifest = pending.manifest == null ? null : pending.manifest.getManifest();
+            if (manifest != null && manifest.getSize() == Long.parseLong(read.split(" ")[1])) {
+                pending.verifier = new ChunkVerifier(manifest);
             }
+            receiveBinary(request, new FrameReader(in, read), pending.verifier);
+            return;
+        }
+
+        pending.manifest = null;
+        if (request.getOffset() > 0) {
+            request.restart();
+        }
+        long i = 1;
+        while (!read.equals("done")) {
+            request.receiveByte(Integer.parseInt(read), i++);
+            read = checkStatus(in.readTextLine());
+        }
+    }
+
+    /**
+     * Downloads the file in segments over separate connections to the same server.
+     *
+     * @see SegmentedDownloader
+     */
+    private void downloadSegments(PendingRequest<?> pending, DownloadRequest request, int segments) {
+        try {
+            new SegmentedDownloader(socket.getInetAddress(), socket.getPort()).download(request, segments);
+            pending.complete();
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            request.done();
+            pending.fail(e);
         }
     }
 
     /**
-     * Sends request to the server. <br/>
-     * Reads server response (sequence of bytes) and saves it to the file.
+     * Copies an identical local file if the index has one, otherwise sends the download request as usual.
+     *
+     * @see ContentIndex
      */
-    private void download(DownloadRequest request) {
-        out.println(request.getRequest() + " " + request.getId());
-
+    private void copyLocal(PendingRequest<?> pending, DownloadRequest request, ContentIndex index) {
         try {
-            request.prepare();
+            String hash = requestHash(request.getId());
+            var local = hash == null ? null : index.find(hash, request.getSize());
+            if (local != null) {
+                request.copyFrom(local, index.isLinking());
+                pending.complete();
+                return;
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot copy a local file: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.fail(new IOException("Download was interrupted."));
+            return;
+        }
 
-            String read;
-            long i = 1;
+        requests.add(pending);
+        if (closed) {
+            failRemaining(requests, new IOException("Connection is closed."));
+        }
+    }
 
-            while (!(read = in.readLine()).equals("done")) {
-                request.receiveByte(Integer.parseInt(read), i++);
+    /**
+     * Requests the content hash of the file, waiting for the server to compute it.
+     *
+     * @return Hexadecimal hash or null if the server has none.
+     * @throws IOException If the request failed.
+     */
+    private String requestHash(int id) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + HASH_TIMEOUT;
+        while (true) {
+            HashRequest hash;
+            try {
+                hash = request(new HashRequest(id)).get();
+            } catch (ExecutionException e) {
+                throw new IOException("Cannot receive the content hash.", e.getCause());
             }
+            if (!hash.isPending() || System.currentTimeMillis() > deadline) {
+                return hash.getHash();
+            }
+            Thread.sleep(HASH_POLL_INTERVAL);
+        }
+    }
+
+    /**
+     * Updates the existing copy of the file over a separate connection to the same server.
+     *
+     * @see DeltaDownloader
+     */
+    private void downloadDelta(PendingRequest<?> pending, DownloadRequest request) {
+        try {
+            new DeltaDownloader(socket.getInetAddress(), socket.getPort()).download(request);
+            pending.complete();
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            request.done();
+            pending.fail(e);
         }
     }
 
     /**
-     * Informs server about the end of work and then closes resources.
+     * Downloads the file from other clients and the server.
+     *
+     * @see SwarmDownloader
      */
-    private void close(FinishRequest request) {
-        out.println(request.getRequest());
+    private void downloadSwarm(PendingRequest<?> pending, DownloadRequest request, Swarm swarm) {
         try {
-            socket.close();
-            in.close();
-            out.close();
+            new SwarmDownloader(socket.getInetAddress(), socket.getPort(), swarm).download(request);
+            pending.complete();
         } catch (IOException e) {
             e.printStackTrace();
+            pending.fail(e);
         }
     }
 
     /**
-     * Closes resources without informing the server. <br/>
-     * Used to close resources after an error on server.
+     * Verifies the downloaded file and completes the request.
+     *
+     * @see SegmentedDownloader#verify(DownloadRequest, ChunkVerifier)
+     */
+    private void verify(PendingRequest<?> pending) {
+        try {
+            new SegmentedDownloader(socket.getInetAddress(), socket.getPort())
+                    .verify((DownloadRequest) pending.request, pending.verifier);
+            pending.complete();
+        } catch (IOException e) {
+            e.printStackTrace();
+            pending.fail(e);
+        }
+    }
+
+    /**
+     * Reads binary frames of the file until the end frame and saves them to the file.
+     * Bytes are counted from the offset of the request (in bytes of the file, even if it is compressed).
+     *
+     * @param frames   Reader of the frames.
+     * @param verifier Verifier hashing received bytes or null.
+     * @throws IOException If an I/O error occurred or the server failed to read the file.
+     */
+    private void receiveBinary(DownloadRequest request, FrameReader frames, ChunkVerifier verifier)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long downloaded = request.getOffset();
+
+        int read;
+        while ((read = frames.read(buffer)) > 0) {
+            if (verifier != null) {
+                verifier.update(buffer, read, downloaded);
+            }
+            downloaded += read;
+            request.receiveBytes(buffer, read, downloaded);
+        }
+
+        if (read < 0) {
+            throw new ServerErrorException("Server failed to read the file.");
+        }
+    }
+
+    /**
+     * Checks that a response line is not a message about the end of connection.
+     *
+     * @param line Line read from the server.
+     * @return The same line.
+     * @throws IOException If the connection is lost or closed by the server.
+     */
+    static String checkStatus(String line) throws IOException {
+        if (line == null) {
+            throw new IOException("Connection lost.");
+        }
+        if (line.equals("aborted") || line.startsWith("rejected")) {
+            throw new IOException("Server closed the connection: " + line);
+        }
+        return line;
+    }
+
+    /**
+     * Fails all the requests of the queue.
+     */
+    private static void failRemaining(BlockingQueue<PendingRequest<?>> queue, IOException cause) {
+        PendingRequest<?> pending;
+        while ((pending = queue.poll()) != null) {
+            pending.fail(cause);
+        }
+    }
+
+    /**
+     * Closes resources and stops sending requests.
      */
     private void close() {
+        closed = true;
+        synchronized (this) {
+            if (swarm != null) {
+                swarm.close();
+            }
+        }
         try {
             socket.close();
-            in.close();
-            out.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+
+        var thread = writer;
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Error reported by the server in a complete response. Connection can be used for the next requests.
+     */
+    private static class ServerErrorException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ServerErrorException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Request waiting for the response.
+     */
+    private static class PendingRequest<R extends Request> {
+        private final R request;
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+        private int tag;
+        /**
+         * Manifest requested for the downloading file. Null if the file is not verified.
+         */
+        private ManifestRequest manifest;
+        /**
+         * Verifier hashing chunks of the downloading file as they arrive. Null if there was no manifest.
+         */
+        private ChunkVerifier verifier;
+        /**
+         * True, if the index of local files was already searched for the downloading file.
+         */
+        private boolean indexSearched = false;
+        /**
+         * Index the downloaded file is added to, so that it is not downloaded again. Null if there is none.
+         */
+        private ContentIndex index;
+
+        PendingRequest(R request) {
+            this.request = request;
+        }
+
+        /**
+         * Finishes the request and completes the future.
+         * Downloaded file is written to the disk and added to the index first;
+         * if it cannot be written, the future is failed.
+         */
+        void complete() {
+            if (request instanceof DownloadRequest) {
+                try {
+                    ((DownloadRequest) request).complete();
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+                if (index != null) {
+                    try {
+                        index.add(((DownloadRequest) request).getFile());
+                    } catch (IOException e) {
+                        System.err.println("Cannot index a file: " + e.getMessage());
+                    }
+                }
+            }
+            finish();
+            future.complete(request);
+        }
+
+        /**
+         * Finishes the request with the data received so far and fails the future.
+         */
+        void fail(Throwable cause) {
+            finish();
+            future.completeExceptionally(cause);
+        }
+
+        private void finish() {
+            if (request instanceof FilesRequest) {
+                ((FilesRequest) request).done();
+            } else if (request instanceof DownloadRequest) {
+                ((DownloadRequest) request).done();
+            } else if (request instanceof FolderRequest) {
+                ((FolderRequest) request).done();
+            } else if (request instanceof ArchiveRequest) {
+                ((ArchiveRequest) request).done();
+            }
+        }
     }
 }
@@ -0,0 +1,309 @@
+package client.lib.communication;
+
+import client.lib.Manifest;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Participation of a client in the swarm. <br/>
+ * Runs a small chunk server that sends verified chunks of downloaded files to other clients (peers)
+ * and keeps a connection to the tracker (the origin server) over which the chunks are announced and
+ * peers are found. The tracker forgets the announcements when the connection is closed. <br/>
+ * Chunk server understands the requests "download {id} binary {offset} {length}" and "finish" of the
+ * origin's protocol. It sends only ranges made of chunks it has, for other ranges it sends an error frame. <br/>
+ * Class is package private so that only classes of the communication package can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class Swarm implements AutoCloseable {
+    private static final int FRAME_SIZE = 64 * 1024;
+
+    private final ServerSocket chunkServer;
+    private final Socket tracker;
+    private final PrintWriter trackerOut;
+    private final ResponseInputStream trackerIn;
+
+    /**
+     * Files served to peers by their IDs on the origin server.
+     */
+    private final Map<Integer, SharedFile> shared = new ConcurrentHashMap<>();
+
+    /**
+     * Starts the chunk server and connects to the tracker.
+     *
+     * @param address Address of the origin server.
+     * @param port    Port of the origin server.
+     * @param peerPort Port for the chunk server, 0 for any free port.
+     * @throws IOException If the chunk server cannot be started or the connection failed.
+     */
+    Swarm(InetAddress address, int port, int peerPort) throws IOException {
+        this.chunkServer = new ServerSocket(peerPort);
+        try {
+            this.tracker = new Socket(address, port);
+        } catch (IOException e) {
+            chunkServer.close();
+            throw e;
+        }
+        this.trackerOut = new PrintWriter(tracker.getOutputStream(), true);
+        this.trackerIn = new ResponseInputStream(tracker.getInputStream());
+
+        var acceptor = new Thread(this::acceptPeers, "swarm-chunk-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Returns the port of the chunk server.
+     */
+    int getPort() {
+        return chunkServer.getLocalPort();
+    }
+
+    /**
+     * Starts serving verified chunks of the file to peers. <br/>
+     * Another file previously downloaded to the same local file is not served anymore.
+     *
+     * @param id       ID of the file on the origin server.
+     * @param file     Local copy of the file.
+     * @param manifest Manifest of the file.
+     */
+    void share(int id, File file, Manifest manifest) {
+        shared.values().removeIf(existing -> existing.file.equals(file));
+        shared.put(id, new SharedFile(file, manifest));
+    }
+
+    /**
+     * Marks a verified chunk of a shared file as available and announces it to the tracker.
+     *
+     * @throws IOException If the tracker cannot be reached.
+     */
+    void have(int id, int chunk) throws IOException {
+        var file = shared.get(id);
+        if (file != null) {
+            synchronized (file) {
+                file.chunks.set(chunk);
+            }
+        }
+        String response;
+        synchronized (this) {
+            trackerOut.println("announce " + id + " " + getPort() + " " + chunk);
+            response = ServerCommunicatingThread.checkStatus(trackerIn.readTextLine());
+        }
+        if (!response.equals("done")) {
+            throw new IOException("Tracker did not accept the chunk: " + response);
+        }
+    }
+
+    /**
+     * Asks the tracker which peers have chunks of the file.
+     *
+     * @param id ID of the file.
+     * @return Peers except this client.
+     * @throws IOException If an I/O error occurred or the response has a wrong format.
+     */
+    List<Peer> peers(int id) throws IOException {
+        var peers = new ArrayList<Peer>();
+        synchronized (this) {
+            trackerOut.println("peers " + id);
+            String line;
+            while (!(line = ServerCommunicatingThread.checkStatus(trackerIn.readTextLine())).equals("done")) {
+                String[] words = line.split(" ");
+                if (words.length < 4 || !words[0].equals("peer")) {
+                    throw new IOException("Unexpected response: " + line);
+                }
+                try {
+                    peers.add(new Peer(InetAddress.getByName(words[1]), Integer.parseInt(words[2]),
+                            parseRanges(words[3])));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Unexpected response: " + line);
+                }
+            }
+        }
+        return peers;
+    }
+
+    /**
+     * Stops serving chunks and leaves the swarm.
+     */
+    @Override
+    public void close() {
+        try {
+            chunkServer.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        synchronized (this) {
+            trackerOut.println("finish");
+            try {
+                tracker.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Accepts peers until the chunk server is closed and serves each of them by a separate thread.
+     */
+    private void acceptPeers() {
+        while (!chunkServer.isClosed()) {
+            try {
+                var socket = chunkServer.accept();
+                var thread = new Thread(() -> servePeer(socket), "swarm-peer");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!chunkServer.isClosed()) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers requests of a peer until it finishes or disconnects.
+     */
+    private void servePeer(Socket socket) {
+        try (socket) {
+            var in = new ResponseInputStream(socket.getInputStream());
+            var out = new DataOutputStream(socket.getOutputStream());
+            String request;
+            while ((request = in.readTextLine()) != null) {
+                String[] words = request.split(" ");
+                if (words[0].equals("finish")) {
+                    out.write(("done" + System.lineSeparator()).getBytes());
+                    return;
+                }
+                if (!words[0].equals("download") || words.length < 5 || !words[2].equals("binary")) {
+                    out.write(("aborted" + System.lineSeparator()).getBytes());
+                    return;
+                }
+                sendRange(out, Integer.parseInt(words[1]), Long.parseLong(words[3]), Long.parseLong(words[4]));
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Peer connection failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a range of a shared file in binary frames if all of its chunks are available,
+     * otherwise sends an error frame.
+     */
+    private void sendRange(DataOutputStream out, int id, long offset, long length) throws IOException {
+        var file = shared.get(id);
+        if (file == null || !file.isAvailable(offset, length)) {
+            out.write(("binary 0" + System.lineSeparator()).getBytes());
+            out.writeInt(-1);
+            out.flush();
+            return;
+        }
+
+        var manifest = file.manifest;
+        out.write(("binary " + manifest.getSize() + " " + offset + " " + length + System.lineSeparator()).getBytes());
+        byte[] buffer = new byte[FRAME_SIZE];
+        try (var input = new RandomAccessFile(file.file, "r")) {
+            input.seek(offset);
+            long remaining = length;
+            while (remaining > 0) {
+                int count = (int) Math.min(buffer.length, remaining);
+                input.readFully(buffer, 0, count);
+                out.writeInt(count);
+                out.write(buffer, 0, count);
+                remaining -= count;
+            }
+        }
+        out.writeInt(0);
+        out.flush();
+    }
+
+    /**
+     * Parses ranges of chunks like "0-3,5" sent by the tracker.
+     *
+     * @throws IllegalArgumentException If the ranges have a wrong format.
+     */
+    static BitSet parseRanges(String ranges) {
+        var chunks = new BitSet();
+        for (String range : ranges.split(",")) {
+            int dash = range.indexOf('-');
+            int from = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+            int to = dash < 0 ? from : Integer.parseInt(range.substring(dash + 1));
+            if (from < 0 || to < from) {
+                throw new IllegalArgumentException("Wrong range: " + range + ".");
+            }
+            chunks.set(from, to + 1);
+        }
+        return chunks;
+    }
+
+    /**
+     * Client serving chunks of a file.
+     */
+    static class Peer {
+        private final InetAddress address;
+        private final int port;
+        private final BitSet chunks;
+
+        Peer(InetAddress address, int port, BitSet chunks) {
+            this.address = Objects.requireNonNull(address, "Address was null.");
+            this.port = port;
+            this.chunks = Objects.requireNonNull(chunks, "Chunks were null.");
+        }
+
+        InetAddress getAddress() {
+            return address;
+        }
+
+        int getPort() {
+            return port;
+        }
+
+        /**
+         * Returns chunks the peer has.
+         */
+        BitSet getChunks() {
+            return chunks;
+        }
+    }
+
+    /**
+     * File served to peers.
+     */
+    private static class SharedFile {
+        private final File file;
+        private final Manifest manifest;
+        /**
+         * Verified chunks. Guarded by the SharedFile.
+         */
+        private final BitSet chunks = new BitSet();
+
+        SharedFile(File file, Manifest manifest) {
+            this.file = file;
+            this.manifest = manifest;
+        }
+
+        /**
+         * Returns true, if the range consists of verified chunks.
+         */
+        synchronized boolean isAvailable(long offset, long length) {
+            if (offset < 0 || length <= 0 || offset + length > manifest.getSize()) {
+                return false;
+            }
+            int first = (int) (offset / manifest.getChunkSize());
+            int last = (int) ((offset + length - 1) / manifest.getChunkSize());
+            return chunks.nextClearBit(first) > last;
+        }
+    }
+}
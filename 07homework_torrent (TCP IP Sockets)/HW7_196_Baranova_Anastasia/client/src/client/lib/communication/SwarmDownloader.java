@@ -0,0 +1,328 @@
+package client.lib.communication;
+
+import client.lib.Manifest;
+import client.lib.request.DownloadRequest;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Downloads a file chunk by chunk from other clients (peers) and from the server in parallel. <br/>
+ * Chunks are the chunks of the file's manifest. Every source (the server or a peer) is served
+ * by its own thread over its own connection. Peers take the rarest chunks first: the missing chunks
+ * held by the fewest peers. The server sends only the chunks no peer has, so peers take
+ * as much load off the server as they can. <br/>
+ * Every chunk is verified against the manifest before it is written; a peer that sends a broken chunk
+ * or fails is dropped and its chunks are taken by the others. Downloaded chunks are served to other peers
+ * right away. <br/>
+ * Class is package private so that only ServerCommunicatingThread can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class SwarmDownloader {
+    /**
+     * Maximum number of peers a file is downloaded from.
+     */
+    static final int MAX_PEERS = 4;
+
+    /**
+     * Time to wait for bytes from a source before dropping it (in milliseconds).
+     */
+    private static final int TIMEOUT = 30_000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InetAddress address;
+    private final int port;
+    private final Swarm swarm;
+
+    /**
+     * Constructs a new instance of SwarmDownloader.
+     *
+     * @param address Server's address.
+     * @param port    Server's port.
+     * @param swarm   Swarm the client participates in.
+     * @throws NullPointerException If address or/and swarm are null.
+     */
+    SwarmDownloader(InetAddress address, int port, Swarm swarm) {
+        this.address = Objects.requireNonNull(address, "Address was null.");
+        this.port = port;
+        this.swarm = Objects.requireNonNull(swarm, "Swarm was null.");
+    }
+
+    /**
+     * Downloads the file. Returns when all of its chunks are downloaded and verified. <br/>
+     * If the server has no manifest of the file, it is downloaded from the server over a single connection.
+     *
+     * @param request Download request with known size.
+     * @throws IOException If an I/O error occurred or the server failed to send the file.
+     */
+    void download(DownloadRequest request) throws IOException {
+        var segmented = new SegmentedDownloader(address, port);
+        var manifest = segmented.requestManifest(request.getId(), true);
+        if (manifest == null || manifest.getSize() != request.getSize()) {
+            segmented.download(request, 1);
+            return;
+        }
+
+        request.prepareSegments();
+        swarm.share(request.getId(), request.getFile(), manifest);
+
+        List<Swarm.Peer> peers = swarm.peers(request.getId());
+        Collections.shuffle(peers);
+        peers = peers.subList(0, Math.min(MAX_PEERS, peers.size()));
+
+        var schedule = new ChunkSchedule(manifest, peers);
+        var sources = new ArrayList<Source>();
+        sources.add(new Source(request, manifest, schedule, address, port, null));
+        for (var peer : peers) {
+            sources.add(new Source(request, manifest, schedule, peer.getAddress(), peer.getPort(), peer.getChunks()));
+        }
+
+        var threads = new ArrayList<Thread>();
+        for (var source : sources) {
+            var thread = new Thread(source, "swarm-source");
+            thread.start();
+            threads.add(thread);
+        }
+        for (var thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                schedule.abort();
+                Thread.currentThread().interrupt();
+                throw new IOException("Download was interrupted.");
+            }
+        }
+
+        if (!schedule.isComplete()) {
+            var failure = new IOException("Some chunks of the file could not be downloaded.");
+            if (sources.get(0).failure != null) {
+                failure.addSuppressed(sources.get(0).failure);
+            }
+            throw failure;
+        }
+    }
+
+    /**
+     * Chunks that are downloaded, being downloaded and held by the peers. Is thread safe.
+     */
+    private static class ChunkSchedule {
+        private final int count;
+        private final BitSet completed = new BitSet();
+        private final BitSet taken = new BitSet();
+        /**
+         * Number of live peers holding every chunk.
+         */
+        private final int[] availability;
+        private boolean aborted = false;
+
+        ChunkSchedule(Manifest manifest, List<Swarm.Peer> peers) {
+            this.count = manifest.getChunkCount();
+            this.availability = new int[count];
+            for (var peer : peers) {
+                change(peer.getChunks(), 1);
+            }
+        }
+
+        /**
+         * Chooses the next chunk for the source and marks it as taken.
+         * The server waits while the missing chunks are held by live peers.
+         *
+         * @param chunks Chunks held by a peer, null for the server.
+         * @return Index of the chunk or -1 if the source has nothing more to do.
+         * @throws InterruptedException If interrupted while waiting.
+         */
+        synchronized int next(BitSet chunks) throws InterruptedException {
+            while (!aborted && completed.cardinality() < count) {
+                int best = -1;
+                for (int i = completed.nextClearBit(0); i < count; i = completed.nextClearBit(i + 1)) {
+                    if (taken.get(i)) {
+                        continue;
+                    }
+                    if (chunks == null ? availability[i] == 0
+                            : chunks.get(i) && (best < 0 || availability[i] < availability[best])) {
+                        best = i;
+                        if (chunks == null) {
+                            break;
+                        }
+                    }
+                }
+                if (best >= 0) {
+                    taken.set(best);
+                    return best;
+                }
+                if (chunks != null) {
+                    // Peer has nothing the client is missing: its chunks are left to the others.
+                    change(chunks, -1);
+                    notifyAll();
+                    return -1;
+                }
+                wait();
+            }
+            return -1;
+        }
+
+        /**
+         * Marks the chunk as downloaded.
+         */
+        synchronized void completed(int chunk) {
+            taken.clear(chunk);
+            completed.set(chunk);
+            if (completed.cardinality() == count) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Releases the chunk the source failed to download and drops the source.
+         * If the server failed, the download is aborted.
+         *
+         * @param chunks Chunks held by a peer, null for the server.
+         * @param chunk  Chunk being downloaded or -1.
+         */
+        synchronized void failed(BitSet chunks, int chunk) {
+            if (chunk >= 0) {
+                taken.clear(chunk);
+            }
+            if (chunks == null) {
+                aborted = true;
+            } else {
+                change(chunks, -1);
+            }
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+
+        synchronized boolean isComplete() {
+            return completed.cardinality() == count;
+        }
+
+        private void change(BitSet chunks, int delta) {
+            for (int i = chunks.nextSetBit(0); i >= 0 && i < count; i = chunks.nextSetBit(i + 1)) {
+                availability[i] += delta;
+            }
+        }
+    }
+
+    /**
+     * Server or peer sending chunks over a separate connection.
+     */
+    private class Source implements Runnable {
+        private final DownloadRequest request;
+        private final Manifest manifest;
+        private final ChunkSchedule schedule;
+        private final InetAddress address;
+        private final int port;
+        /**
+         * Chunks held by the peer, null for the server.
+         */
+        private final BitSet chunks;
+
+        private IOException failure;
+
+        Source(DownloadRequest request, Manifest manifest, ChunkSchedule schedule,
+               InetAddress address, int port, BitSet chunks) {
+            this.request = request;
+            this.manifest = manifest;
+            this.schedule = schedule;
+            this.address = address;
+            this.port = port;
+            this.chunks = chunks;
+        }
+
+        /**
+         * Downloads chunks chosen by the schedule until there are none left for this source.
+         */
+        @Override
+        public void run() {
+            int chunk = -1;
+            try (Socket socket = new Socket(address, port)) {
+                socket.setSoTimeout(TIMEOUT);
+                var out = new PrintWriter(socket.getOutputStream(), true);
+                var in = new ResponseInputStream(socket.getInputStream());
+                byte[] bytes = new byte[manifest.getChunkSize()];
+
+                while ((chunk = schedule.next(chunks)) >= 0) {
+                    int length = fetch(out, in, chunk, bytes);
+                    request.receiveBytesAt(bytes, length, manifest.getChunkStart(chunk));
+                    // Chunk is served to peers from the file, so it must be written before it is announced.
+                    request.flush();
+                    schedule.completed(chunk);
+                    share(chunk);
+                }
+                out.println("finish");
+            } catch (IOException e) {
+                failure = e;
+                schedule.failed(chunks, chunk);
+                if (chunks != null) {
+                    System.err.println("Peer " + address.getHostAddress() + ":" + port + " failed: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                schedule.failed(chunks, chunk);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Requests the chunk and reads it to the array.
+         *
+         * @return Length of the chunk.
+         * @throws IOException If an I/O error occurred or the chunk does not match the manifest.
+         */
+        private int fetch(PrintWriter out, ResponseInputStream in, int chunk, byte[] bytes) throws IOException {
+            long start = manifest.getChunkStart(chunk);
+            int length = (int) (manifest.getChunkEnd(chunk) - start);
+            out.println("download " + request.getId() + " binary " + start + " " + length);
+            String line = ServerCommunicatingThread.checkStatus(in.readTextLine());
+            String[] header = line.split(" ");
+            if (header.length < 4 || !header[0].equals("binary") || Long.parseLong(header[2]) != start) {
+                throw new IOException("Source cannot send the chunk " + chunk + ".");
+            }
+
+            var frames = new FrameReader(in, line);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int received = 0;
+            int read;
+            while ((read = frames.read(buffer)) > 0) {
+                if (received + read > length) {
+                    throw new IOException("Source sent too many bytes.");
+                }
+                System.arraycopy(buffer, 0, bytes, received, read);
+                received += read;
+            }
+            if (read < 0 || received < length) {
+                throw new IOException("Source failed to send the chunk " + chunk + ".");
+            }
+
+            var digest = ChunkVerifier.newDigest();
+            digest.update(bytes, 0, length);
+            if (!manifest.matches(chunk, digest.digest())) {
+                throw new IOException("Chunk " + chunk + " does not match the manifest.");
+            }
+            return length;
+        }
+
+        /**
+         * Serves the downloaded chunk to other peers.
+         */
+        private void share(int chunk) {
+            try {
+                swarm.have(request.getId(), chunk);
+            } catch (IOException e) {
+                System.err.println("Cannot announce a chunk: " + e.getMessage());
+            }
+        }
+    }
+}
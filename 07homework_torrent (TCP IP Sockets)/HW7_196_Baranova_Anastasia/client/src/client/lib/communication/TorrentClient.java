@@ -1,10 +1,14 @@
 package client.lib.communication;
 
+import client.lib.ContentIndex;
+import client.lib.request.DownloadRequest;
 import client.lib.request.FinishRequest;
 import client.lib.request.Request;
 
+import java.io.IOException;
 import java.net.Socket;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Client for Simple Torrent.
@@ -25,28 +29,60 @@ public class TorrentClient {
         Objects.requireNonNull(socket, "Socket was null.");
 
         this.server = new ServerCommunicatingThread(socket);
-        Thread thread = new Thread(server);
+        Thread thread = new Thread(server, "server-request-writer");
         thread.start();
     }
 
     /**
-     * Sends request to ServerCommunicatingThread that then sends it to the server.
+     * Sends request to ServerCommunicatingThread that then sends it to the server. <br/>
+     * Method does not wait for the response, several requests may be in progress at once.
+     * Responses are processed in the order the requests were made (segmented downloads run independently).
      *
      * @param request Request to send.
+     * @return Future that is completed with the request when its response is processed,
+     * or completed exceptionally if the request failed.
      * @throws NullPointerException If request is null.
      * @see ServerCommunicatingThread#request(Request)
      */
-    public void request(Request request) {
+    public <R extends Request> CompletableFuture<R> request(R request) {
         Objects.requireNonNull(request, "Request was null.");
-        server.request(request);
+        return server.request(request);
     }
 
     /**
-     * Informs the server about the end of work. <br/>
-     * From ServerCommunicatingThread close() will be called to close resources.
+     * Sets the index of local files. Before downloading a file, the client asks the server for its content hash
+     * and copies (or hard-links) an identical local file instead of downloading it, if the index has one.
+     * Downloaded files are added to the index.
+     *
+     * @param index Index or null to download all the files.
+     * @see ContentIndex
+     */
+    public void setContentIndex(ContentIndex index) {
+        server.setContentIndex(index);
+    }
+
+    /**
+     * Joins the swarm of the clients serving downloaded files to each other. <br/>
+     * Client starts a chunk server for other clients and tells the server which chunks it has
+     * over a separate connection. Files downloaded in the swarm mode are served until the client is closed.
+     *
+     * @param port Port of the chunk server, 0 for any free port.
+     * @return Port of the chunk server.
+     * @throws IOException           If the chunk server cannot be started or the server cannot be reached.
+     * @throws IllegalStateException If the swarm is already started or the client is closed.
+     * @see DownloadRequest#setSwarm(boolean)
+     */
+    public int startSwarm(int port) throws IOException {
+        return server.startSwarm(port);
+    }
+
+    /**
+     * Informs the server about the end of work after the previous requests are processed. <br/>
+     * From ServerCommunicatingThread close() will be called to close resources and to leave the swarm.
+     *
+     * @return Future that is completed when the server confirms the end of work.
      */
-    public void close() {
-        Request request = new FinishRequest();
-        server.request(request);
+    public CompletableFuture<FinishRequest> close() {
+        return server.request(new FinishRequest());
     }
 }
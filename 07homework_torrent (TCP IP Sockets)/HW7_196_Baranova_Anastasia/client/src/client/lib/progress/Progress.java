@@ -0,0 +1,77 @@
+package client.lib.progress;
+
+/**
+ * Snapshot of a download progress.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see ProgressReporter
+ */
+public class Progress {
+    private final long downloaded;
+    private final long total;
+    private final double rate;
+    private final double averageRate;
+
+    /**
+     * Constructs a new instance of Progress.
+     *
+     * @param downloaded  Number of downloaded bytes.
+     * @param total       Size of the file or -1 if it is unknown.
+     * @param rate        Current download speed (bytes per second).
+     * @param averageRate Average download speed since the start of the download (bytes per second).
+     */
+    public Progress(long downloaded, long total, double rate, double averageRate) {
+        this.downloaded = downloaded;
+        this.total = total;
+        this.rate = rate;
+        this.averageRate = averageRate;
+    }
+
+    /**
+     * Returns number of downloaded bytes.
+     */
+    public long getDownloaded() {
+        return downloaded;
+    }
+
+    /**
+     * Returns size of the file or -1 if it is unknown.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns current download speed (bytes per second), smoothed over the last samples.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Returns average download speed since the start of the download (bytes per second).
+     */
+    public double getAverageRate() {
+        return averageRate;
+    }
+
+    /**
+     * Returns true, if all the bytes of the file are downloaded.
+     */
+    public boolean isFinished() {
+        return total >= 0 && downloaded >= total;
+    }
+
+    /**
+     * Returns estimated time left (in seconds) or -1 if it cannot be estimated.
+     */
+    public long getSecondsLeft() {
+        if (isFinished()) {
+            return 0;
+        }
+        if (total < 0 || rate <= 0) {
+            return -1;
+        }
+        return (long) Math.ceil((total - downloaded) / rate);
+    }
+}
@@ -0,0 +1,158 @@
+package client.lib.progress;
+
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces progress updates of a download. <br/>
+ * Downloading threads only store the number of downloaded bytes in an atomic counter.
+ * A shared sampler thread reads the counter at a fixed interval and reports the progress
+ * to the listener if it has changed, so the listener is called at most a few times per second
+ * however often the counter is updated. Progress is also reported immediately when the counter
+ * grows by the byte interval (if it is set) and when the whole file is downloaded. <br/>
+ * Listener is never called concurrently and always receives the final value.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+public class ProgressReporter {
+    /**
+     * Default interval between reports (in milliseconds).
+     */
+    public static final long DEFAULT_INTERVAL = 100;
+
+    /**
+     * Weight of the last sample in the smoothed download speed.
+     */
+    private static final double SMOOTHING = 0.3;
+
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(command -> {
+        var thread = new Thread(command, "progress-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long total;
+    private final long byteInterval;
+    private final Consumer<Progress> listener;
+
+    private final AtomicLong downloaded;
+    /**
+     * Counter value at which the progress is reported without waiting for the sampler.
+     */
+    private volatile long nextReport;
+    private final ScheduledFuture<?> sampling;
+
+    private final long initial;
+    private final long startTime;
+    private long lastReported;
+    private boolean reportedAny = false;
+    private long lastSampleBytes;
+    private long lastSampleTime;
+    private double rate = 0;
+    private boolean stopped = false;
+
+    /**
+     * Constructs a new instance of ProgressReporter and starts sampling.
+     *
+     * @param initial      Number of bytes downloaded before (e.g. when a download is resumed).
+     * @param total        Size of the file or -1 if it is unknown.
+     * @param interval     Interval between reports (in milliseconds).
+     * @param byteInterval Number of bytes after which the progress is reported before the interval passes,
+     *                     0 to report only by time.
+     * @param listener     Consumer receiving the progress.
+     * @throws NullPointerException     If listener is null.
+     * @throws IllegalArgumentException If interval is not positive or byteInterval is negative.
+     */
+    public ProgressReporter(long initial, long total, long interval, long byteInterval, Consumer<Progress> listener) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive.");
+        }
+        if (byteInterval < 0) {
+            throw new IllegalArgumentException("Byte interval must not be negative.");
+        }
+        this.listener = Objects.requireNonNull(listener, "Listener was null.");
+        this.total = total;
+        this.byteInterval = byteInterval;
+
+        this.initial = initial;
+        this.downloaded = new AtomicLong(initial);
+        this.lastReported = initial;
+        this.nextReport = byteInterval > 0 ? initial + byteInterval : Long.MAX_VALUE;
+        this.startTime = System.nanoTime();
+        this.lastSampleBytes = initial;
+        this.lastSampleTime = startTime;
+
+        this.sampling = SAMPLER.scheduleAtFixedRate(() -> report(false), interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the number of downloaded bytes. Does not block. <br/>
+     * Values smaller than the current one are ignored, so several threads may report their totals.
+     *
+     * @param downloaded Number of downloaded bytes.
+     */
+    public void update(long downloaded) {
+        long value = this.downloaded.accumulateAndGet(downloaded, Math::max);
+        if (value >= nextReport || value == total) {
+            report(false);
+        }
+    }
+
+    /**
+     * Stops sampling and reports the final value if it has not been reported yet. <br/>
+     * Progress is reported at least once, even if nothing was downloaded (e.g. the file is empty).
+     */
+    public synchronized void finish() {
+        sampling.cancel(false);
+        report(!reportedAny);
+        stopped = true;
+    }
+
+    /**
+     * Stops sampling without reporting anything else.
+     */
+    public synchronized void cancel() {
+        sampling.cancel(false);
+        stopped = true;
+    }
+
+    /**
+     * Reports the current value if it has changed since the last report.
+     *
+     * @param force true to report the value even if it has not changed.
+     */
+    private synchronized void report(boolean force) {
+        long value = downloaded.get();
+        if (stopped || value == lastReported && !force) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        double seconds = (now - lastSampleTime) / 1e9;
+        if (seconds > 0) {
+            double current = (value - lastSampleBytes) / seconds;
+            rate = reportedAny ? SMOOTHING * current + (1 - SMOOTHING) * rate : current;
+        }
+        double elapsed = (now - startTime) / 1e9;
+        double averageRate = elapsed > 0 ? (value - initial) / elapsed : 0;
+
+        lastReported = value;
+        reportedAny = true;
+        lastSampleBytes = value;
+        lastSampleTime = now;
+        if (byteInterval > 0) {
+            nextReport = value + byteInterval;
+        }
+
+        try {
+            listener.accept(new Progress(value, total, rate, averageRate));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package client.lib.request;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Request for a whole folder on the server. <br/>
+ * Server sends the folder as a tar archive generated on the fly; the archive is unpacked
+ * into the destination folder as it arrives, so it is never stored.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+public class ArchiveRequest extends Request {
+    private final String path;
+    private final File destination;
+
+    private TarExtractor extractor;
+    private long received = 0;
+    private Consumer<Long> progressTracker;
+
+    /**
+     * Constructs a new instance of ArchiveRequest.
+     *
+     * @param path        Path of the folder on the server (the same as in FolderRequest).
+     * @param destination Local folder the contents of the folder are unpacked into.
+     * @throws NullPointerException If path or/and destination are null.
+     * @see FolderRequest
+     */
+    public ArchiveRequest(String path, String destination) {
+        super("archive");
+        this.path = FolderRequest.normalize(Objects.requireNonNull(path, "Path was null."));
+        this.destination = new File(Objects.requireNonNull(destination, "Destination was null."));
+    }
+
+    /**
+     * Returns the path of the folder on the server.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the local folder the contents are unpacked into.
+     */
+    public File getDestination() {
+        return destination;
+    }
+
+    /**
+     * Returns the command to send to the server: "archive [{path}]".
+     */
+    public String getCommand() {
+        return path.isEmpty() ? getRequest() : getRequest() + " " + path;
+    }
+
+    /**
+     * Sets a consumer that is executed with the number of received bytes of the archive
+     * every time some bytes are unpacked.
+     */
+    public void setProgressTracker(Consumer<Long> progressTracker) {
+        this.progressTracker = progressTracker;
+    }
+
+    /**
+     * Creates the destination folder. Should be called before receiving the archive.
+     *
+     * @throws IOException If the folder cannot be created.
+     */
+    public void prepare() throws IOException {
+        Files.createDirectories(destination.toPath());
+        extractor = new TarExtractor(destination.toPath());
+        received = 0;
+    }
+
+    /**
+     * Unpacks received bytes of the archive.
+     *
+     * @param buffer Array containing received bytes.
+     * @param length Number of received bytes at the beginning of the buffer.
+     * @throws IOException If an I/O error occurred or the archive is malformed.
+     */
+    public void receiveBytes(byte[] buffer, int length) throws IOException {
+        extractor.write(buffer, 0, length);
+        received += length;
+        if (progressTracker != null) {
+            progressTracker.accept(received);
+        }
+    }
+
+    /**
+     * Checks that the whole archive was received.
+     *
+     * @throws IOException If the archive is truncated.
+     */
+    public void finish() throws IOException {
+        extractor.finish();
+    }
+
+    /**
+     * Returns the number of unpacked files.
+     */
+    public int getFiles() {
+        return extractor == null ? 0 : extractor.getFiles();
+    }
+
+    /**
+     * Returns the total size of unpacked files (in bytes).
+     */
+    public long getBytes() {
+        return extractor == null ? 0 : extractor.getBytes();
+    }
+
+    /**
+     * Closes the file that is being unpacked. Must be called when the request is over.
+     */
+    public void done() {
+        if (extractor != null) {
+            extractor.close();
+        }
+    }
+}
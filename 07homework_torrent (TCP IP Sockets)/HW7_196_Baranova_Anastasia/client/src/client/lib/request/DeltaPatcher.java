@@ -0,0 +1,198 @@
+package client.lib.request;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Rebuilds the new version of a file from the old copy and the instructions sent by the server,
+ * as the instructions arrive. <br/>
+ * Instructions: 'C' {first block} {number of blocks} - copy consecutive blocks of the old copy;
+ * 'L' {length} {bytes} - bytes of the new version; 'E' {SHA-256 hash} - end, the hash of the new version.
+ * Numbers are 4-byte big-endian. The rebuilt file is checked against the hash. <br/>
+ * Class is package private so that only DownloadRequest can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class DeltaPatcher {
+    private static final byte COPY = 'C';
+    private static final byte LITERAL = 'L';
+    private static final byte END = 'E';
+    private static final int HASH_LENGTH = 32;
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    private final FileChannel source;
+    private final int blockSize;
+    private final DiskWriter output;
+    private final MessageDigest digest;
+
+    /**
+     * Instruction being received: its type and arguments.
+     */
+    private final byte[] header = new byte[1 + HASH_LENGTH];
+    private int headerLength = 0;
+    /**
+     * Number of bytes of the current literal that have not arrived yet.
+     */
+    private int literalRemaining = 0;
+    private ByteBuffer copyBuffer;
+
+    /**
+     * Number of bytes of the new version written so far.
+     */
+    private long position = 0;
+    private long reused = 0;
+    private boolean ended = false;
+
+    /**
+     * Constructs a new instance of DeltaPatcher.
+     *
+     * @param source    Old copy of the file.
+     * @param blockSize Size of the blocks of the old copy.
+     * @param output    Writer of the new version.
+     * @throws NullPointerException If source or/and output are null.
+     */
+    DeltaPatcher(FileChannel source, int blockSize, DiskWriter output) {
+        this.source = Objects.requireNonNull(source, "Source was null.");
+        this.output = Objects.requireNonNull(output, "Output was null.");
+        this.blockSize = blockSize;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    }
+
+    /**
+     * Executes the next bytes of the instructions.
+     *
+     * @param buffer Array containing received bytes.
+     * @param offset Position of the first byte.
+     * @param length Number of bytes.
+     * @throws IOException If an I/O error occurred, the instructions are malformed
+     *                     or the rebuilt file does not match the hash.
+     */
+    void write(byte[] buffer, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            if (ended) {
+                throw new IOException("Delta has bytes after its end.");
+            }
+            if (literalRemaining > 0) {
+                int count = Math.min(literalRemaining, end - offset);
+                output.write(buffer, offset, count, position);
+                digest.update(buffer, offset, count);
+                position += count;
+                offset += count;
+                literalRemaining -= count;
+                continue;
+            }
+
+            if (headerLength == 0) {
+                header[headerLength++] = buffer[offset++];
+            }
+            int count = Math.min(headerSize(header[0]) - headerLength, end - offset);
+            System.arraycopy(buffer, offset, header, headerLength, count);
+            offset += count;
+            headerLength += count;
+            if (headerLength == headerSize(header[0])) {
+                headerLength = 0;
+                execute();
+            }
+        }
+    }
+
+    /**
+     * Checks that all the instructions were executed.
+     *
+     * @throws IOException If the instructions are truncated.
+     */
+    void finish() throws IOException {
+        if (!ended) {
+            throw new EOFException("Delta is truncated.");
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the new version written so far.
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the number of bytes copied from the old copy.
+     */
+    long getReused() {
+        return reused;
+    }
+
+    private static int headerSize(byte type) throws IOException {
+        switch (type) {
+            case COPY:
+                return 1 + 2 * Integer.BYTES;
+            case LITERAL:
+                return 1 + Integer.BYTES;
+            case END:
+                return 1 + HASH_LENGTH;
+            default:
+                throw new IOException("Delta is malformed.");
+        }
+    }
+
+    /**
+     * Executes the instruction whose header is received.
+     */
+    private void execute() throws IOException {
+        var arguments = ByteBuffer.wrap(header, 1, header.length - 1);
+        switch (header[0]) {
+            case COPY:
+                copy(arguments.getInt(), arguments.getInt());
+                break;
+            case LITERAL:
+                literalRemaining = arguments.getInt();
+                if (literalRemaining <= 0) {
+                    throw new IOException("Delta is malformed.");
+                }
+                break;
+            default:
+                byte[] expected = Arrays.copyOfRange(header, 1, 1 + HASH_LENGTH);
+                if (!MessageDigest.isEqual(digest.digest(), expected)) {
+                    throw new IOException("Rebuilt file does not match the file on the server.");
+                }
+                ended = true;
+        }
+    }
+
+    /**
+     * Copies consecutive blocks of the old copy to the new version.
+     */
+    private void copy(int first, int count) throws IOException {
+        long from = (long) first * blockSize;
+        long end = from + (long) count * blockSize;
+        if (first < 0 || count <= 0 || end > source.size()) {
+            throw new IOException("Delta refers to missing blocks.");
+        }
+        if (copyBuffer == null) {
+            copyBuffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        }
+
+        while (from < end) {
+            copyBuffer.clear().limit((int) Math.min(COPY_BUFFER_SIZE, end - from));
+            int read = source.read(copyBuffer, from);
+            if (read < 0) {
+                throw new EOFException("Old copy of the file became shorter.");
+            }
+            output.write(copyBuffer.array(), 0, read, position);
+            digest.update(copyBuffer.array(), 0, read);
+            from += read;
+            position += read;
+            reused += read;
+        }
+    }
+}
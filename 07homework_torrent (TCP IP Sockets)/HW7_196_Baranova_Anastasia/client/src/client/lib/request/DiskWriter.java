@@ -0,0 +1,436 @@
+package client.lib.request;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.LongConsumer;
+
+/**
+ * Writes received bytes to a file in large blocks on a dedicated thread (write-behind). <br/>
+ * Received bytes are copied to blocks of BLOCK_SIZE bytes; a block is queued when it is full
+ * or when the bytes are flushed, and the writer thread writes queued blocks to their positions in the file.
+ * Bytes written to consecutive positions are collected in the same block, so several connections
+ * writing their own ranges of the file at once do not fragment the writes of each other. <br/>
+ * Queue holds at most QUEUE_BLOCKS blocks, so receiving threads run ahead of a slow disk by that many
+ * blocks and wait only when the disk falls behind by more, instead of filling the memory. <br/>
+ * Written bytes are counted by the writer thread, so progress of a download tells how much of it is in the file. <br/>
+ * Length of a preallocated file does not tell how much of it was written, so the position up to which
+ * the file was written without gaps may be recorded in a journal file, from which the download
+ * is resumed if the process crashed. <br/>
+ * Class is package private so that only DownloadRequest can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class DiskWriter {
+    /**
+     * Size of the blocks written to the file.
+     */
+    static final int BLOCK_SIZE = 1024 * 1024;
+    /**
+     * Maximum number of blocks waiting to be written.
+     */
+    static final int QUEUE_BLOCKS = 16;
+
+    /**
+     * Block telling the writer thread to stop.
+     */
+    private static final Block END = new Block(-1, ByteBuffer.allocate(0));
+
+    private final FileChannel channel;
+    /**
+     * Journal file and its channel, null if the written position is not recorded.
+     */
+    private final File journalFile;
+    private final FileChannel journal;
+    private final ByteBuffer recorded = ByteBuffer.allocate(Long.BYTES);
+    private final SyncPolicy sync;
+    /**
+     * Consumer of the numbers of written bytes, called by the writer thread.
+     */
+    private final LongConsumer progress;
+    private final BlockingQueue<Block> queue = new ArrayBlockingQueue<>(QUEUE_BLOCKS);
+    /**
+     * Buffers of written blocks reused for the next blocks.
+     */
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(QUEUE_BLOCKS);
+    /**
+     * Blocks being filled by the position following their last byte. Guarded by this.
+     */
+    private final Map<Long, Block> open = new HashMap<>();
+    private final Thread thread;
+
+    /**
+     * Numbers of queued and written blocks. Guarded by counters.
+     */
+    private final Object counters = new Object();
+    private long queued = 0;
+    private long written = 0;
+
+    /**
+     * First error of the writer thread; after it the queued blocks are discarded.
+     */
+    private volatile IOException failure;
+    /**
+     * Position up to which the file was written without gaps from the start position.
+     */
+    private volatile long contiguous;
+    /**
+     * Number of bytes written since the last sync. Used only by the writer thread.
+     */
+    private long unsynced = 0;
+
+    /**
+     * Constructs a new instance of DiskWriter and starts its thread. <br/>
+     * If the size of the file is known, the file is preallocated to it, so that it is not extended
+     * block by block and is written to its final place on the disk. The start position is recorded
+     * in the journal before that.
+     *
+     * @param file     File to write to. Existing bytes are kept.
+     * @param journal  File to record the position written without gaps in, null if it is not recorded.
+     *                 Is deleted when the writer is closed.
+     * @param start    Position the bytes are written from.
+     * @param size     Size of the file or -1 if it is unknown.
+     * @param sync     Policy of syncing written bytes.
+     * @param progress Consumer of the number of bytes passed to write() methods every time some of them
+     *                 are written to the file. Is called by the writer thread.
+     * @throws IOException          If the file or the journal cannot be opened, or the file cannot be preallocated.
+     * @throws NullPointerException If file, sync or/and progress are null.
+     */
+    DiskWriter(File file, File journal, long start, long size, SyncPolicy sync, LongConsumer progress)
+            throws IOException {
+        Objects.requireNonNull(file, "File was null.");
+        this.sync = Objects.requireNonNull(sync, "Sync policy was null.");
+        this.progress = Objects.requireNonNull(progress, "Progress consumer was null.");
+        this.contiguous = start;
+
+        this.journalFile = journal;
+        var randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            this.journal = journal != null ? FileChannel.open(journal.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING) : null;
+            record();
+            if (size >= 0) {
+                randomAccessFile.setLength(size);
+            }
+        } catch (IOException e) {
+            randomAccessFile.close();
+            closeJournal(false);
+            throw e;
+        }
+        channel = randomAccessFile.getChannel();
+
+        thread = new Thread(this::run, "disk-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Writes bytes to the given position of the file. <br/>
+     * May be called by several threads at once.
+     *
+     * @param bytes    Array containing the bytes.
+     * @param offset   Position of the first byte in the array.
+     * @param length   Number of bytes.
+     * @param position Position of the first byte in the file.
+     * @throws IOException If the writer thread failed to write previous bytes or was interrupted while waiting.
+     */
+    void write(byte[] bytes, int offset, int length, long position) throws IOException {
+        put(bytes, offset, length, position, true);
+    }
+
+    /**
+     * Writes bytes to the given position of the file without counting them as progress,
+     * e.g. to overwrite bytes that were already counted. <br/>
+     * May be called by several threads at once.
+     *
+     * @param bytes    Array containing the bytes.
+     * @param offset   Position of the first byte in the array.
+     * @param length   Number of bytes.
+     * @param position Position of the first byte in the file.
+     * @throws IOException If the writer thread failed to write previous bytes or was interrupted while waiting.
+     */
+    void rewrite(byte[] bytes, int offset, int length, long position) throws IOException {
+        put(bytes, offset, length, position, false);
+    }
+
+    private synchronized void put(byte[] bytes, int offset, int length, long position, boolean counted)
+            throws IOException {
+        checkFailure();
+        while (length > 0) {
+            var block = blockAt(position);
+            int count = Math.min(length, block.buffer.remaining());
+            block.buffer.put(bytes, offset, count);
+            if (counted) {
+                block.counted += count;
+            }
+            offset += count;
+            length -= count;
+            position += count;
+            release(block, position);
+        }
+    }
+
+    /**
+     * Writes a byte to the given position of the file. <br/>
+     * May be called by several threads at once.
+     *
+     * @param b        Byte to write (the lowest 8 bits).
+     * @param position Position of the byte in the file.
+     * @throws IOException If the writer thread failed to write previous bytes or was interrupted while waiting.
+     */
+    synchronized void write(int b, long position) throws IOException {
+        checkFailure();
+        var block = blockAt(position);
+        block.buffer.put((byte) b);
+        block.counted++;
+        release(block, position + 1);
+    }
+
+    /**
+     * Queues all the collected bytes and waits until they are written to the file.
+     *
+     * @throws IOException If the writer thread failed or the current thread was interrupted while waiting.
+     */
+    void flush() throws IOException {
+        long target;
+        synchronized (this) {
+            for (var block : new ArrayList<>(open.values())) {
+                submit(block);
+            }
+            open.clear();
+            synchronized (counters) {
+                target = queued;
+            }
+        }
+
+        synchronized (counters) {
+            while (written < target) {
+                try {
+                    counters.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while writing the file.");
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Forces written bytes to the storage device.
+     *
+     * @throws IOException If an I/O error occurred.
+     */
+    void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Returns the position recorded in the journal of a download that was not closed, e.g. because the process crashed:
+     * the file was written without gaps up to it.
+     *
+     * @param journal Journal file.
+     * @return Recorded position, 0 if there is no journal or it cannot be read.
+     */
+    static long recorded(File journal) {
+        try (var channel = FileChannel.open(journal.toPath(), StandardOpenOption.READ)) {
+            var buffer = ByteBuffer.allocate(Long.BYTES);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    return 0;
+                }
+            }
+            return Math.max(0, buffer.flip().getLong());
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Writes the collected bytes, stops the writer thread and closes the file. Errors are printed.
+     * The journal is deleted unless the file could not be truncated.
+     *
+     * @param trim If true, the file is truncated to the bytes written without gaps from the start position,
+     *             so that a preallocated file of an interrupted download can be resumed.
+     */
+    void close(boolean trim) {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        try {
+            queue.put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        boolean truncated = true;
+        try {
+            if (trim && contiguous < channel.size()) {
+                truncated = false;
+                channel.truncate(contiguous);
+                truncated = true;
+            }
+            channel.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        // Length of the truncated file tells where to resume, the journal is needed only if it is preallocated.
+        closeJournal(!truncated);
+    }
+
+    /**
+     * Records the position written without gaps in the journal.
+     */
+    private void record() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        recorded.clear();
+        recorded.putLong(contiguous).flip();
+        long position = 0;
+        while (recorded.hasRemaining()) {
+            position += journal.write(recorded, position);
+        }
+    }
+
+    /**
+     * Closes the journal and deletes it unless it must be kept. Errors are printed.
+     */
+    private void closeJournal(boolean keep) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        if (!keep && !journalFile.delete()) {
+            System.err.println("Cannot delete " + journalFile + ".");
+        }
+    }
+
+    /**
+     * Returns the block that the byte at the given position is added to: the open block ending
+     * at the position or a new one.
+     */
+    private Block blockAt(long position) {
+        var block = open.remove(position);
+        if (block == null) {
+            var buffer = free.poll();
+            block = new Block(position, buffer != null ? buffer : ByteBuffer.allocate(BLOCK_SIZE));
+        }
+        return block;
+    }
+
+    /**
+     * Queues the block if it is full, otherwise keeps it open for the bytes following it.
+     *
+     * @param end Position following the last byte of the block.
+     */
+    private void release(Block block, long end) throws InterruptedIOException {
+        if (block.buffer.hasRemaining()) {
+            open.put(end, block);
+        } else {
+            submit(block);
+        }
+    }
+
+    /**
+     * Queues the block, waiting if the queue is full.
+     */
+    private void submit(Block block) throws InterruptedIOException {
+        try {
+            queue.put(block);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the file.");
+        }
+        synchronized (counters) {
+            queued++;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        var e = failure;
+        if (e != null) {
+            throw new IOException("Cannot write the file: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes queued blocks until the end block is taken.
+     */
+    private void run() {
+        try {
+            Block block;
+            while ((block = queue.take()) != END) {
+                if (failure == null) {
+                    try {
+                        writeBlock(block);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                free.offer(block.buffer.clear());
+                synchronized (counters) {
+                    written++;
+                    counters.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Writer thread was interrupted.");
+        }
+    }
+
+    private void writeBlock(Block block) throws IOException {
+        var buffer = block.buffer.flip();
+        long position = block.position;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+
+        if (block.position == contiguous) {
+            contiguous = position;
+            record();
+        }
+        if (block.counted > 0) {
+            progress.accept(block.counted);
+        }
+        unsynced += position - block.position;
+        if (sync.getInterval() > 0 && unsynced >= sync.getInterval()) {
+            channel.force(false);
+            unsynced = 0;
+        }
+    }
+
+    /**
+     * Bytes to be written to consecutive positions of the file.
+     */
+    private static class Block {
+        private final long position;
+        private final ByteBuffer buffer;
+        /**
+         * Number of bytes of the block that are counted as progress.
+         */
+        private int counted = 0;
+
+        Block(long position, ByteBuffer buffer) {
+            this.position = position;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -1,10 +1,18 @@
 package client.lib.request;
 
+import client.lib.PrimitiveFile;
+import client.lib.progress.Progress;
+import client.lib.progress.ProgressReporter;
+
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /**
@@ -15,9 +23,90 @@ import java.util.function.Consumer;
 public class DownloadRequest extends Request {
     private final File file;
     private final int id;
+    /**
+     * Size of the file on the server or -1 if it is unknown.
+     */
+    private final long size;
+
+    /**
+     * If true, file is requested in the binary mode, otherwise in the legacy text mode.
+     */
+    private boolean binary = true;
+    /**
+     * If true, partially downloaded file is downloaded from where it was interrupted.
+     */
+    private boolean resume = true;
+    /**
+     * Number of bytes already present in the output file when the download started.
+     */
+    private long offset = 0;
+    /**
+     * Number of connections used to download the file.
+     */
+    private int segments = 1;
+    /**
+     * If true, downloaded file is verified against its manifest and broken chunks are downloaded again.
+     */
+    private boolean verify = true;
+    /**
+     * If true, server is allowed to send the file compressed.
+     */
+    private boolean compression = true;
+    /**
+     * If true, file is downloaded from other clients as well as from the server.
+     */
+    private boolean swarm = false;
+    /**
+     * If true, existing copy of the file is updated by downloading only the blocks that changed.
+     */
+    private boolean delta = false;
 
-    private OutputStream outputStream;
+    /**
+     * Writer of the output file, null before the file is opened.
+     */
+    private DiskWriter writer;
+    /**
+     * If true, all the bytes of the file were written.
+     */
+    private boolean completed = false;
+    private SyncPolicy syncPolicy = SyncPolicy.none();
+
+    /**
+     * Rebuilder of the new version of the file in a delta update, null for other downloads.
+     */
+    private DeltaPatcher patcher;
+    /**
+     * Temporary file the new version is rebuilt in, null if there is none.
+     */
+    private File deltaFile;
+    /**
+     * Old copy of the file read by a delta update.
+     */
+    private FileChannel deltaSource;
+    private long deltaSize;
+    /**
+     * Local file the output file was copied from instead of being downloaded, null if there is none.
+     */
+    private File copiedFrom;
+    /**
+     * Number of downloaded bytes written to the file including the bytes that were present before the download.
+     */
+    private final AtomicLong written = new AtomicLong();
     private Consumer<Long> progressTracker;
+    private Consumer<Progress> progressListener;
+
+    /**
+     * Interval between progress reports (in milliseconds).
+     */
+    private long progressInterval = ProgressReporter.DEFAULT_INTERVAL;
+    /**
+     * Number of bytes after which progress is reported before the interval passes, 0 to report only by time.
+     */
+    private long progressBytes = 0;
+    /**
+     * Reporter of the current download. Null if nobody tracks the progress.
+     */
+    private volatile ProgressReporter reporter;
 
     /**
      * Constructs a new instance of DownloadRequest.
@@ -28,6 +117,23 @@ public class DownloadRequest extends Request {
      * @throws NullPointerException     If path is null.
      */
     public DownloadRequest(int id, String path) {
+        this(id, -1, path);
+    }
+
+    /**
+     * Constructs a new instance of DownloadRequest for a file with known size. <br/>
+     * Knowing the size allows to resume an interrupted download.
+     *
+     * @param file File to download.
+     * @param path Path to the output file.
+     * @throws NullPointerException If file or/and path are null.
+     * @see DownloadRequest#setResume(boolean)
+     */
+    public DownloadRequest(PrimitiveFile file, String path) {
+        this(Objects.requireNonNull(file, "File was null.").getId(), file.getSize(), path);
+    }
+
+    private DownloadRequest(int id, long size, String path) {
         super("download");
 
         if (id < 0) {
@@ -36,6 +142,7 @@ public class DownloadRequest extends Request {
         Objects.requireNonNull(path, "Path was null.");
 
         this.id = id;
+        this.size = size;
         this.file = new File(path);
     }
 
@@ -46,29 +153,361 @@ public class DownloadRequest extends Request {
         return id;
     }
 
+    /**
+     * Returns the output file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the size of the file on the server or -1 if it is unknown.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes already present in the output file, i.e. position from which
+     * the file is requested. Is 0 unless the download is resumed. Known after the call of prepare().
+     *
+     * @see DownloadRequest#prepare()
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Sets whether an interrupted download must be resumed. Enabled by default. <br/>
+     * Download is resumed if the size of the file is known, binary mode is used and the output file
+     * is shorter than the file on the server. Bytes already present in the output file are supposed
+     * to be the beginning of the same file. <br/>
+     * Output file is preallocated while it is being downloaded, so if the download was not finished
+     * (e.g. the process crashed), it is resumed from the position recorded in the journal "{output file}.progress".
+     *
+     * @param resume true to resume interrupted downloads, false to always download the whole file.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Returns true, if file is requested in the binary mode, false if in the legacy text mode.
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Sets the transfer mode of the file. <br/>
+     * Binary mode is used by default, legacy text mode is supposed to be used only with old servers.
+     *
+     * @param binary true for the binary mode, false for the legacy text mode.
+     */
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * Returns the number of connections the file is supposed to be downloaded over.
+     */
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * Sets the number of connections the file is supposed to be downloaded over. <br/>
+     * If it is more than 1 and the size of the file is known, the file is split into ranges
+     * that are downloaded in parallel, each over its own connection. Interrupted segmented download
+     * is resumed over a single connection.
+     *
+     * @param segments Number of connections.
+     * @throws IllegalArgumentException If segments is not positive.
+     */
+    public void setSegments(int segments) {
+        if (segments <= 0) {
+            throw new IllegalArgumentException("Number of segments must be positive.");
+        }
+        this.segments = segments;
+    }
+
+    /**
+     * Returns true, if the downloaded file is verified against its manifest.
+     */
+    public boolean isVerify() {
+        return verify;
+    }
+
+    /**
+     * Sets whether the downloaded file must be verified against its manifest
+     * (SHA-256 hashes of its chunks computed by the server). Enabled by default. <br/>
+     * Chunks are verified as they are received, chunks that do not match the manifest
+     * are downloaded again. Files downloaded in the legacy text mode are not verified.
+     *
+     * @param verify true to verify downloaded files, false otherwise.
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * Returns true, if the server is allowed to send the file compressed.
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets whether the server is allowed to send the file compressed with Deflate. Enabled by default. <br/>
+     * Server decides for every file if it is worth compressing, e.g. already compressed formats
+     * are sent as they are. Progress is always reported in bytes of the file, not of the compressed data.
+     * Files downloaded in the legacy text mode are not compressed.
+     *
+     * @param compression true to allow compression, false otherwise.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Returns true, if the file is downloaded from other clients as well as from the server.
+     */
+    public boolean isSwarm() {
+        return swarm;
+    }
+
+    /**
+     * Sets whether the file is downloaded in the swarm mode. Disabled by default. <br/>
+     * In the swarm mode chunks of the file are downloaded in parallel from other clients that have them
+     * and from the server, which sends only the chunks no other client has. Every chunk is verified
+     * against the manifest, so the verify option is ignored. Downloaded chunks are served to other clients. <br/>
+     * Applies only to binary downloads of files of known size by a client that joined the swarm,
+     * other downloads are made as usual. Swarm downloads are not resumed and not compressed.
+     *
+     * @param swarm true to download in the swarm mode, false otherwise.
+     * @see client.lib.communication.TorrentClient#startSwarm(int)
+     */
+    public void setSwarm(boolean swarm) {
+        this.swarm = swarm;
+    }
+
+    /**
+     * Returns true, if an existing copy of the file is updated by downloading only the blocks that changed.
+     */
+    public boolean isDelta() {
+        return delta;
+    }
+
+    /**
+     * Sets whether an existing copy of the file is updated by downloading only the blocks that changed
+     * (delta update). Disabled by default. <br/>
+     * Client sends checksums of the blocks of the copy, and the server sends only the bytes that are not
+     * found in the copy; the rest is copied from it. New version is rebuilt in a temporary file next to the copy,
+     * which replaces the copy atomically when the new version is complete and matches the file on the server,
+     * so the copy stays intact if the download fails. <br/>
+     * Applies to binary downloads when the output file exists and is not empty; such downloads
+     * are not resumed, segmented, compressed or made in the swarm mode. Progress is reported in bytes
+     * of the new version.
+     *
+     * @param delta true to update existing copies with delta, false otherwise.
+     */
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    /**
+     * Returns the number of bytes of the file copied from its previous copy by a delta update, 0 for other downloads.
+     */
+    public long getReusedBytes() {
+        return patcher == null ? 0 : patcher.getReused();
+    }
+
+    /**
+     * Returns the local file the output file was copied (or hard-linked) from instead of being downloaded,
+     * null if the file was downloaded.
+     *
+     * @see DownloadRequest#copyFrom(File, boolean)
+     */
+    public File getCopiedFrom() {
+        return copiedFrom;
+    }
+
+    /**
+     * Returns the policy of syncing the downloaded bytes to the storage device.
+     */
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * Sets the policy of syncing the downloaded bytes to the storage device. By default bytes are not synced. <br/>
+     * Bytes are written to the file by a separate thread in large blocks, so syncing does not slow down
+     * receiving them unless the disk falls behind the network.
+     *
+     * @param syncPolicy Policy of syncing.
+     * @throws NullPointerException If syncPolicy is null.
+     */
+    public void setSyncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = Objects.requireNonNull(syncPolicy, "Sync policy was null.");
+    }
+
     /**
      * Sets a consumer that will be executed with number of downloaded
      * bytes during the entire downloading process. <br/>
-     * Consumer is supposed to track the progress.
+     * Consumer is supposed to track the progress. It is called at most once per progress interval
+     * and always receives the final number of downloaded bytes. Bytes are counted when they are written to the file.
+     *
+     * @see DownloadRequest#setProgressInterval(long, long)
      */
     public void setProgressTracker(Consumer<Long> progressTracker) {
         this.progressTracker = progressTracker;
     }
 
     /**
-     * Recreates file and opens a stream to write to it. <br/>
+     * Sets a consumer that will be executed with progress of the download including
+     * download speed and estimated time left. <br/>
+     * It is called at most once per progress interval and always receives the final progress.
+     *
+     * @see DownloadRequest#setProgressInterval(long, long)
+     */
+    public void setProgressListener(Consumer<Progress> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Sets how often progress is reported. By default it is reported every 100 milliseconds.
+     *
+     * @param millis Interval between reports (in milliseconds).
+     * @param bytes  Number of bytes after which progress is reported before the interval passes,
+     *               0 to report only by time.
+     * @throws IllegalArgumentException If millis is not positive or bytes is negative.
+     */
+    public void setProgressInterval(long millis, long bytes) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Interval must be positive.");
+        }
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Number of bytes must not be negative.");
+        }
+        this.progressInterval = millis;
+        this.progressBytes = bytes;
+    }
+
+    /**
+     * Starts reporting progress of the download from the given number of bytes.
+     * Previous reporter is stopped without reporting.
+     */
+    private void startReporting(long initial) {
+        written.set(initial);
+        if (reporter != null) {
+            reporter.cancel();
+        }
+        if (progressTracker == null && progressListener == null) {
+            reporter = null;
+            return;
+        }
+        reporter = new ProgressReporter(initial, size, progressInterval, progressBytes, progress -> {
+            if (progressTracker != null) {
+                progressTracker.accept(progress.getDownloaded());
+            }
+            if (progressListener != null) {
+                progressListener.accept(progress);
+            }
+        });
+    }
+
+    /**
+     * Counts bytes written by the disk writer and reports the progress.
+     */
+    private void written(long count) {
+        long total = written.addAndGet(count);
+        var current = reporter;
+        if (current != null) {
+            current.update(total);
+        }
+    }
+
+    /**
+     * Opens the file for writing and preallocates it if its size is known. <br/>
+     * If the download can be resumed, bytes are written after the existing ones,
+     * otherwise the file is recreated. <br/>
      * Should be called before receiving bytes.
      *
      * @throws IOException       If an I/O error occurred.
      * @throws SecurityException If file cannot be deleted or created.
+     * @see DownloadRequest#setResume(boolean)
      */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
     public void prepare() throws IOException {
+        long existing = resumablePosition();
+        if (existing > 0) {
+            offset = existing;
+            startReporting(offset);
+            writer = new DiskWriter(file, journal(), offset, size, syncPolicy, this::written);
+            return;
+        }
+
+        recreate();
+    }
+
+    /**
+     * Returns true, if an interrupted download of the file can be resumed, i.e. prepare() writes bytes
+     * after the existing ones instead of recreating the file.
+     *
+     * @see DownloadRequest#setResume(boolean)
+     */
+    public boolean isResumable() {
+        return resumablePosition() > 0;
+    }
+
+    /**
+     * Returns the position the download can be resumed from, 0 if the file must be downloaded from the beginning.
+     */
+    private long resumablePosition() {
+        long existing = file.isFile() ? file.length() : 0;
+        var journal = journal();
+        if (journal.isFile()) {
+            // Download was not finished: the file is preallocated and written only up to the recorded position.
+            existing = Math.min(existing, DiskWriter.recorded(journal));
+        }
+        return resume && binary && existing < size ? existing : 0;
+    }
+
+    /**
+     * Returns the journal recording how much of the preallocated output file was written.
+     *
+     * @see DiskWriter
+     */
+    private File journal() {
+        return new File(file.getPath() + ".progress");
+    }
+
+    /**
+     * Discards bytes of the partially downloaded file and starts writing from the beginning. <br/>
+     * Used if the server cannot send a range of the file.
+     *
+     * @throws IOException If an I/O error occurred.
+     */
+    public void restart() throws IOException {
+        if (writer != null) {
+            writer.close(false);
+        }
+        recreate();
+    }
+
+    /**
+     * Recreates file and opens it for writing.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void recreate() throws IOException {
         if (!file.createNewFile()) {
             file.delete();
             file.createNewFile();
         }
-        outputStream = new FileOutputStream(file);
+        offset = 0;
+        startReporting(0);
+        var journal = journal();
+        Files.deleteIfExists(journal.toPath());
+        writer = new DiskWriter(file, size >= 0 ? journal : null, 0, size, syncPolicy, this::written);
     }
 
     /**
@@ -83,24 +522,244 @@ public class DownloadRequest extends Request {
      * @see DownloadRequest#done()
      */
     public void receiveByte(int readByte, long index) throws IOException {
-        outputStream.write(readByte);
+        writer.write(readByte, index - 1);
+    }
+
+    /**
+     * Writes a chunk of bytes received as a part of response to the file. <br/>
+     * Cannot be called before the call of prepare() method or after the call() of done method.
+     *
+     * @param buffer     Array containing received bytes.
+     * @param length     Number of received bytes at the beginning of the buffer.
+     * @param downloaded Number of bytes that have already been downloaded including this chunk.
+     * @throws IOException If an I/O error occurred.
+     * @see DownloadRequest#prepare()
+     * @see DownloadRequest#done()
+     */
+    public void receiveBytes(byte[] buffer, int length, long downloaded) throws IOException {
+        writer.write(buffer, 0, length, downloaded - length);
+    }
+
+    /**
+     * Recreates file with the size of the file on the server and opens it for writing at arbitrary positions. <br/>
+     * Position up to which the file is written without gaps is recorded in the journal, so that an interrupted
+     * download is resumed from it by prepare(). <br/>
+     * Should be called before receiving segments.
+     *
+     * @throws IOException           If an I/O error occurred.
+     * @throws IllegalStateException If the size of the file is unknown.
+     * @see DownloadRequest#receiveBytesAt(byte[], int, long)
+     */
+    public void prepareSegments() throws IOException {
+        if (size < 0) {
+            throw new IllegalStateException("Size of the file is unknown.");
+        }
+
+        offset = 0;
+        startReporting(0);
+        writer = new DiskWriter(file, journal(), 0, size, syncPolicy, this::written);
+    }
+
+    /**
+     * Writes a chunk of bytes received as a part of a segment to its position in the file. <br/>
+     * May be called by several threads at once.
+     * Cannot be called before the call of prepareSegments() method or after the call() of done method.
+     *
+     * @param buffer   Array containing received bytes.
+     * @param length   Number of received bytes at the beginning of the buffer.
+     * @param position Position of the first received byte in the file.
+     * @throws IOException If an I/O error occurred.
+     * @see DownloadRequest#prepareSegments()
+     */
+    public void receiveBytesAt(byte[] buffer, int length, long position) throws IOException {
+        writer.write(buffer, 0, length, position);
+    }
 
-        if (progressTracker != null) {
-            progressTracker.accept(index);
+    /**
+     * Overwrites a range of the downloaded file with bytes received again, e.g. to repair broken chunks. <br/>
+     * Progress is not reported. May be called by several threads at once.
+     * Cannot be called after the call() of done method.
+     *
+     * @param buffer   Array containing received bytes.
+     * @param length   Number of received bytes at the beginning of the buffer.
+     * @param position Position of the first received byte in the file.
+     * @throws IOException If an I/O error occurred.
+     */
+    public void rewriteBytesAt(byte[] buffer, int length, long position) throws IOException {
+        DiskWriter output;
+        synchronized (this) {
+            if (writer == null) {
+                writer = new DiskWriter(file, null, 0, -1, syncPolicy, this::written);
+            }
+            output = writer;
+        }
+        output.rewrite(buffer, 0, length, position);
+    }
+
+    /**
+     * Opens a temporary file next to the output file to rebuild the new version of the file in. <br/>
+     * Should be called before receiving the delta. Output file is replaced when the download is complete.
+     *
+     * @param size      Size of the new version of the file.
+     * @param blockSize Size of the blocks of the output file the checksums were sent for.
+     * @throws IOException If an I/O error occurred.
+     * @see DownloadRequest#setDelta(boolean)
+     * @see DownloadRequest#receiveDelta(byte[], int)
+     */
+    public void prepareDelta(long size, int blockSize) throws IOException {
+        offset = 0;
+        deltaSize = size;
+        var directory = file.getAbsoluteFile().getParentFile().toPath();
+        deltaFile = Files.createTempFile(directory, file.getName() + ".", ".part").toFile();
+        deltaSource = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        startReporting(0);
+        writer = new DiskWriter(deltaFile, null, 0, size, syncPolicy, this::written);
+        patcher = new DeltaPatcher(deltaSource, blockSize, writer);
+    }
+
+    /**
+     * Makes the output file a copy of a local file with the same contents instead of downloading it. <br/>
+     * Copy is made in a temporary file next to the output file, which then replaces the output file,
+     * so the output file is left intact if copying fails. Should be called instead of prepare();
+     * the request is completed as usual.
+     *
+     * @param source Local file with the same contents as the requested file.
+     * @param link   true to hard-link the source instead of copying it if the file system supports it.
+     * @throws NullPointerException If source is null.
+     * @throws IOException          If an I/O error occurred.
+     * @see client.lib.ContentIndex
+     */
+    public void copyFrom(File source, boolean link) throws IOException {
+        Objects.requireNonNull(source, "Source was null.");
+        offset = 0;
+        startReporting(0);
+        if (!file.exists() || !Files.isSameFile(source.toPath(), file.toPath())) {
+            var directory = file.getAbsoluteFile().getParentFile().toPath();
+            var temporary = Files.createTempFile(directory, file.getName() + ".", ".part");
+            try {
+                boolean linked = false;
+                if (link) {
+                    Files.delete(temporary);
+                    try {
+                        Files.createLink(temporary, source.toPath());
+                        linked = true;
+                    } catch (IOException | UnsupportedOperationException e) {
+                        // Hard links are not supported here: the file is copied.
+                    }
+                }
+                if (!linked) {
+                    Files.copy(source.toPath(), temporary, StandardCopyOption.REPLACE_EXISTING);
+                }
+                replace(temporary.toFile());
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
         }
+        copiedFrom = source;
+        written(file.length());
     }
 
     /**
-     * Closes resources. <br/>
-     * Must be called after receiveByte() was called for each byte of file.
+     * Executes received instructions rebuilding the new version of the file. <br/>
+     * Cannot be called before the call of prepareDelta() method or after the call() of done method.
+     *
+     * @param buffer Array containing received bytes.
+     * @param length Number of received bytes at the beginning of the buffer.
+     * @throws IOException If an I/O error occurred or the instructions are malformed.
+     * @see DownloadRequest#prepareDelta(long, int)
+     */
+    public void receiveDelta(byte[] buffer, int length) throws IOException {
+        patcher.write(buffer, 0, length);
+    }
+
+    /**
+     * Waits until the received bytes are written to the file, e.g. before reading them back. <br/>
+     * Received bytes are written by a separate thread, so they may be missing from the file
+     * until this method returns.
+     *
+     * @throws IOException If an I/O error occurred while writing or the thread was interrupted.
+     */
+    public void flush() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Writes all the received bytes to the file and syncs them if the sync policy requires it. <br/>
+     * Must be called after all the bytes of file were received and before the call of done() method.
+     *
+     * @throws IOException If an I/O error occurred while writing or syncing.
+     * @see DownloadRequest#setSyncPolicy(SyncPolicy)
+     */
+    public void complete() throws IOException {
+        if (patcher != null) {
+            patcher.finish();
+            if (patcher.getPosition() != deltaSize) {
+                throw new IOException("Rebuilt file has a wrong size.");
+            }
+        }
+        if (writer != null) {
+            writer.flush();
+            if (syncPolicy.isOnCompletion()) {
+                writer.sync();
+            }
+        }
+        if (patcher != null) {
+            replaceWithDelta();
+        }
+        completed = true;
+    }
+
+    /**
+     * Replaces the output file with the rebuilt new version.
+     */
+    private void replaceWithDelta() throws IOException {
+        writer.close(false);
+        writer = null;
+        deltaSource.close();
+        replace(deltaFile);
+        deltaFile = null;
+    }
+
+    /**
+     * Replaces the output file with the given one, atomically if the file system supports it.
+     */
+    private void replace(File replacement) throws IOException {
+        try {
+            Files.move(replacement.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(replacement.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Closes resources and reports the final progress. <br/>
+     * Must be called after all the bytes of file were received or the download failed.
+     * If the download failed, the preallocated file is truncated to the bytes written without gaps
+     * from the start position, so that the download can be resumed. Temporary file of a failed delta update is deleted.
      *
      * @see DownloadRequest#receiveByte(int, long)
+     * @see DownloadRequest#receiveBytes(byte[], int, long)
+     * @see DownloadRequest#receiveBytesAt(byte[], int, long)
      */
     public void done() {
-        try {
-            outputStream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (writer != null) {
+            writer.close(!completed);
+        }
+        if (deltaSource != null) {
+            try {
+                deltaSource.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        if (deltaFile != null && !deltaFile.delete()) {
+            System.err.println("Cannot delete " + deltaFile + ".");
+        }
+        if (reporter != null) {
+            reporter.finish();
         }
     }
 }
@@ -1,13 +1,16 @@
 package client.lib.request;
 
 import client.lib.PrimitiveFile;
+import client.lib.Utils;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Objects;
 import java.util.function.Consumer;
 
 /**
- * List of available files request.
+ * List of available files request. <br/>
+ * Request either lists all the files or a page of the files matching a search key.
  *
  * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
  */
@@ -22,11 +25,47 @@ public class FilesRequest extends Request {
      */
     private final ArrayList<PrimitiveFile> listOfFiles = new ArrayList<>();
 
+    private final boolean paged;
+    private final int offset;
+    private final int limit;
+    private final String key;
+
+    /**
+     * Number of files matching the key. -1 until it is received.
+     */
+    private int total = -1;
+
     /**
-     * Constructs a new instance of FilesRequest.
+     * Constructs a new instance of FilesRequest for all the files.
      */
     public FilesRequest() {
         super("list");
+        this.paged = false;
+        this.offset = 0;
+        this.limit = Integer.MAX_VALUE;
+        this.key = "";
+    }
+
+    /**
+     * Constructs a new instance of FilesRequest for a page of the files matching the key. <br/>
+     * Files are filtered by the server the same way as Utils.filterFiles() does.
+     *
+     * @param offset Number of matching files to skip.
+     * @param limit  Maximum number of files to receive.
+     * @param key    Search key. Empty key matches all the files.
+     * @throws NullPointerException     If key is null.
+     * @throws IllegalArgumentException If offset or/and limit are negative.
+     * @see Utils#filterFiles(Collection, String)
+     */
+    public FilesRequest(int offset, int limit, String key) {
+        super("list");
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative.");
+        }
+        this.paged = true;
+        this.offset = offset;
+        this.limit = limit;
+        this.key = Objects.requireNonNull(key, "Key was null.").trim();
     }
 
     /**
@@ -36,6 +75,39 @@ public class FilesRequest extends Request {
         this.callback = callback;
     }
 
+    /**
+     * Returns true, if only a page of the files is requested.
+     */
+    public boolean isPaged() {
+        return paged;
+    }
+
+    /**
+     * Returns command to send to the server: "list" or "list {offset} {limit} [{key}]".
+     */
+    public String getCommand() {
+        if (!paged) {
+            return getRequest();
+        }
+        String command = getRequest() + " " + offset + " " + limit;
+        return key.isEmpty() ? command : command + " " + key;
+    }
+
+    /**
+     * Returns number of files matching the key. <br/>
+     * Available after the request is done.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Sets number of files matching the key. Received as the first line of a paged response.
+     */
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
     /**
      * Adds file to the list of files. Null files are ignored.
      *
@@ -48,13 +120,25 @@ public class FilesRequest extends Request {
     }
 
     /**
-     * Executes callback. Supposed to be called when all the files are received.
+     * Executes callback. Supposed to be called when all the files are received. <br/>
+     * If a page was requested, but the server sent all the files (server does not support paging),
+     * the files are filtered and the page is selected locally.
      *
      * @see FilesRequest#callback
      */
     public void done() {
+        Collection<PrimitiveFile> files = listOfFiles;
+        if (paged && total < 0) {
+            var filtered = new ArrayList<>(Utils.filterFiles(listOfFiles, key));
+            total = filtered.size();
+            int from = Math.min(offset, filtered.size());
+            files = filtered.subList(from, (int) Math.min((long) from + limit, filtered.size()));
+        } else if (!paged) {
+            total = listOfFiles.size();
+        }
+
         if (callback != null) {
-            callback.accept(listOfFiles);
+            callback.accept(files);
         }
     }
 }
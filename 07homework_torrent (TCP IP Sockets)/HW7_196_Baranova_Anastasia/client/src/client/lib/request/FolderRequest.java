@@ -0,0 +1,130 @@
+package client.lib.request;
+
+import client.lib.PrimitiveFile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Request for the contents of a folder on the server: its subfolders and files. <br/>
+ * Folders are listed one at a time, so a big tree is loaded only as far as it is browsed.
+ * Files of the folder can be downloaded by their IDs like the files of the list request.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+public class FolderRequest extends Request {
+    private final String path;
+
+    private final List<String> folders = new ArrayList<>();
+    private final List<PrimitiveFile> files = new ArrayList<>();
+    private boolean exists = true;
+
+    /**
+     * Consumer to be executed when the contents are received.
+     */
+    private Consumer<FolderRequest> callback;
+
+    /**
+     * Constructs a new instance of FolderRequest.
+     *
+     * @param path Path of the folder relative to the server's directory with '/' as a separator,
+     *             empty string for the directory itself.
+     * @throws NullPointerException If path is null.
+     */
+    public FolderRequest(String path) {
+        super("folder");
+        this.path = normalize(Objects.requireNonNull(path, "Path was null."));
+    }
+
+    /**
+     * Returns the path without leading and trailing separators, so that paths can be joined with '/'.
+     */
+    static String normalize(String path) {
+        int from = 0;
+        int to = path.length();
+        while (from < to && path.charAt(from) == '/') {
+            from++;
+        }
+        while (to > from && path.charAt(to - 1) == '/') {
+            to--;
+        }
+        return path.substring(from, to);
+    }
+
+    /**
+     * Returns the path of the folder.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the command to send to the server: "folder [{path}]".
+     */
+    public String getCommand() {
+        return path.isEmpty() ? getRequest() : getRequest() + " " + path;
+    }
+
+    /**
+     * Sets a consumer to be executed when the contents of the folder are received.
+     */
+    public void setCallback(Consumer<FolderRequest> callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Returns names of the subfolders. Available after the request is done.
+     */
+    public List<String> getFolders() {
+        return Collections.unmodifiableList(folders);
+    }
+
+    /**
+     * Returns files of the folder. Available after the request is done.
+     */
+    public List<PrimitiveFile> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Returns false, if the server has no such folder.
+     */
+    public boolean exists() {
+        return exists;
+    }
+
+    /**
+     * Adds a subfolder received as a part of the response.
+     */
+    public void receiveFolder(String name) {
+        folders.add(Objects.requireNonNull(name, "Name was null."));
+    }
+
+    /**
+     * Adds a file received as a part of the response. Null files are ignored.
+     */
+    public void receiveFile(PrimitiveFile file) {
+        if (file != null) {
+            files.add(file);
+        }
+    }
+
+    /**
+     * Remembers that the server has no such folder.
+     */
+    public void receiveMissing() {
+        exists = false;
+    }
+
+    /**
+     * Executes callback. Supposed to be called when the response is received (or the request failed).
+     */
+    public void done() {
+        if (callback != null) {
+            callback.accept(this);
+        }
+    }
+}
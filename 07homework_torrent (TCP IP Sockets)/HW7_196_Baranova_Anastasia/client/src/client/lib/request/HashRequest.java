@@ -0,0 +1,73 @@
+package client.lib.request;
+
+/**
+ * Request for the content hash of a file: SHA-256 hash of all of its bytes. <br/>
+ * Server computes hashes in background and does not wait for them,
+ * so the hash may be not ready yet; then the request should be repeated later.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see client.lib.ContentIndex
+ */
+public class HashRequest extends Request {
+    private final int id;
+
+    /**
+     * Received hash. Null if it has not been received or is not available.
+     */
+    private String hash;
+    private boolean pending = false;
+
+    /**
+     * Constructs a new instance of HashRequest.
+     *
+     * @param id File id.
+     * @throws IllegalArgumentException If id is less than 0.
+     */
+    public HashRequest(int id) {
+        super("hash");
+        if (id < 0) {
+            throw new IllegalArgumentException("Id must not be negative.");
+        }
+        this.id = id;
+    }
+
+    /**
+     * Returns the id of the file.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the command to send to the server.
+     */
+    public String getCommand() {
+        return getRequest() + " " + id;
+    }
+
+    /**
+     * Returns the received hexadecimal hash or null if the server has no hash for the file
+     * (there is no such file, it cannot be read or the hash is pending).
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * Returns true, if the server has not computed the hash yet.
+     */
+    public boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * Saves the server response.
+     *
+     * @param hash    Received hash or null if there is none.
+     * @param pending true, if the hash is not computed yet.
+     */
+    public void receiveHash(String hash, boolean pending) {
+        this.hash = hash;
+        this.pending = pending;
+    }
+}
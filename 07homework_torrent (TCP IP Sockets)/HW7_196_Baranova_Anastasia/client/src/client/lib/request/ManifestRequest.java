@@ -0,0 +1,74 @@
+package client.lib.request;
+
+import client.lib.Manifest;
+
+/**
+ * Request for the manifest of a file (hashes of its chunks). <br/>
+ * Server computes manifests in background and does not wait for them,
+ * so the manifest may be not ready yet; then the request should be repeated later.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+public class ManifestRequest extends Request {
+    private final int id;
+
+    /**
+     * Received manifest. Null if it has not been received or is not available.
+     */
+    private Manifest manifest;
+    private boolean pending = false;
+
+    /**
+     * Constructs a new instance of ManifestRequest.
+     *
+     * @param id File id.
+     * @throws IllegalArgumentException If id is less than 0.
+     */
+    public ManifestRequest(int id) {
+        super("manifest");
+        if (id < 0) {
+            throw new IllegalArgumentException("Id must not be negative.");
+        }
+        this.id = id;
+    }
+
+    /**
+     * Returns the id of the file.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the command to send to the server.
+     */
+    public String getCommand() {
+        return getRequest() + " " + id;
+    }
+
+    /**
+     * Returns the received manifest or null if the server has no manifest for the file
+     * (there is no such file, it cannot be read or the manifest is pending).
+     */
+    public Manifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * Returns true, if the server has not computed the manifest yet.
+     */
+    public boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * Saves the server response.
+     *
+     * @param manifest Received manifest or null if there is none.
+     * @param pending  true, if the manifest is not computed yet.
+     */
+    public void receiveManifest(Manifest manifest, boolean pending) {
+        this.manifest = manifest;
+        this.pending = pending;
+    }
+}
@@ -0,0 +1,75 @@
+package client.lib.request;
+
+/**
+ * Policy of forcing downloaded bytes to the storage device (fsync). <br/>
+ * Without syncing, written bytes may stay in the page cache of the operating system
+ * and be lost if the machine crashes; syncing more often is safer but slower.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see DownloadRequest#setSyncPolicy(SyncPolicy)
+ */
+public final class SyncPolicy {
+    private static final SyncPolicy NONE = new SyncPolicy(false, 0);
+    private static final SyncPolicy ON_COMPLETION = new SyncPolicy(true, 0);
+
+    private final boolean onCompletion;
+    /**
+     * Number of written bytes after which they are synced, 0 if they are not synced during the download.
+     */
+    private final long interval;
+
+    private SyncPolicy(boolean onCompletion, long interval) {
+        this.onCompletion = onCompletion;
+        this.interval = interval;
+    }
+
+    /**
+     * Returns the policy that never syncs: the operating system writes the file when it decides to.
+     */
+    public static SyncPolicy none() {
+        return NONE;
+    }
+
+    /**
+     * Returns the policy that syncs the file once, when all of its bytes are written.
+     */
+    public static SyncPolicy onCompletion() {
+        return ON_COMPLETION;
+    }
+
+    /**
+     * Returns the policy that syncs the file every time the given number of megabytes is written
+     * and when all of its bytes are written.
+     *
+     * @param megabytes Number of megabytes (MiB) written between syncs.
+     * @throws IllegalArgumentException If megabytes is not positive.
+     */
+    public static SyncPolicy everyMegabytes(int megabytes) {
+        if (megabytes <= 0) {
+            throw new IllegalArgumentException("Number of megabytes must be positive.");
+        }
+        return new SyncPolicy(true, megabytes * 1024L * 1024L);
+    }
+
+    /**
+     * Returns true, if the file is synced when all of its bytes are written.
+     */
+    public boolean isOnCompletion() {
+        return onCompletion;
+    }
+
+    /**
+     * Returns the number of written bytes after which they are synced, 0 if they are not synced during the download.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    @Override
+    public String toString() {
+        if (interval > 0) {
+            return "every " + interval / (1024 * 1024) + " MB";
+        }
+        return onCompletion ? "on completion" : "none";
+    }
+}
@@ -0,0 +1,307 @@
+package client.lib.request;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Unpacks a tar archive into a folder as its bytes arrive, without storing the archive. <br/>
+ * Understands ustar and GNU archives: files, folders, long names ("././@LongLink" entries)
+ * and sizes in base-256. Other entries (links, extended headers) are skipped.
+ * Entries that would be unpacked outside of the folder are rejected. <br/>
+ * Class is package private so that only ArchiveRequest can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class TarExtractor {
+    private static final int BLOCK_SIZE = 512;
+
+    private final Path destination;
+    private final byte[] header = new byte[BLOCK_SIZE];
+    private int headerLength = 0;
+
+    /**
+     * Number of content bytes of the current entry that have not arrived yet.
+     */
+    private long remaining = 0;
+    /**
+     * Number of padding bytes after the contents of the current entry.
+     */
+    private int padding = 0;
+    /**
+     * Output of the current file, null if the contents of the entry are not written to a file.
+     */
+    private OutputStream output;
+    /**
+     * Name of the next entry read from a long name entry, null if there is none.
+     */
+    private byte[] longName;
+    /**
+     * Collects the contents of a long name entry, null while reading other entries.
+     */
+    private byte[] longNameBuffer;
+    private int longNameLength;
+    private boolean ended = false;
+
+    private int files = 0;
+    private long bytes = 0;
+
+    /**
+     * Constructs a new instance of TarExtractor.
+     *
+     * @param destination Folder to unpack the archive into. Is created if it does not exist.
+     * @throws NullPointerException If destination is null.
+     */
+    TarExtractor(Path destination) {
+        this.destination = Objects.requireNonNull(destination, "Destination was null.").toAbsolutePath().normalize();
+    }
+
+    /**
+     * Unpacks the next bytes of the archive.
+     *
+     * @param buffer Array containing received bytes.
+     * @param offset Position of the first byte.
+     * @param length Number of bytes.
+     * @throws IOException If an I/O error occurred or the archive is malformed.
+     */
+    void write(byte[] buffer, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end && !ended) {
+            if (remaining > 0) {
+                int count = (int) Math.min(remaining, end - offset);
+                writeContents(buffer, offset, count);
+                offset += count;
+                remaining -= count;
+                if (remaining == 0) {
+                    finishEntry();
+                }
+            } else if (padding > 0) {
+                int count = Math.min(padding, end - offset);
+                offset += count;
+                padding -= count;
+            } else {
+                int count = Math.min(BLOCK_SIZE - headerLength, end - offset);
+                System.arraycopy(buffer, offset, header, headerLength, count);
+                offset += count;
+                headerLength += count;
+                if (headerLength == BLOCK_SIZE) {
+                    headerLength = 0;
+                    startEntry();
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the whole archive was unpacked and closes the current file.
+     *
+     * @throws IOException If the archive is truncated.
+     */
+    void finish() throws IOException {
+        close();
+        if (!ended) {
+            throw new IOException("Archive is truncated.");
+        }
+    }
+
+    /**
+     * Closes the current file, e.g. if the download failed.
+     */
+    void close() {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+            output = null;
+        }
+    }
+
+    /**
+     * Returns the number of unpacked files.
+     */
+    int getFiles() {
+        return files;
+    }
+
+    /**
+     * Returns the total size of unpacked files (in bytes).
+     */
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Processes a complete header block.
+     */
+    private void startEntry() throws IOException {
+        if (isZero(header)) {
+            // End of the archive; the second empty block and the rest are ignored.
+            ended = true;
+            return;
+        }
+        if (checksum(header) != parseNumber(header, 148, 8)) {
+            throw new IOException("Archive header is corrupted.");
+        }
+
+        long size = parseNumber(header, 124, 12);
+        if (size < 0) {
+            throw new IOException("Archive entry has a wrong size.");
+        }
+        remaining = size;
+        padding = (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+
+        char type = (char) header[156];
+        if (type == 'L') {
+            if (size > 64 * 1024) {
+                throw new IOException("Archive entry name is too long.");
+            }
+            longNameBuffer = new byte[(int) size];
+            longNameLength = 0;
+            if (size == 0) {
+                finishEntry();
+            }
+            return;
+        }
+
+        byte[] name = longName != null ? longName : name(header);
+        longName = null;
+        var path = resolve(new String(name, StandardCharsets.UTF_8));
+        if (type == '5') {
+            Files.createDirectories(path);
+        } else if (type == '0' || type == 0) {
+            Files.createDirectories(path.getParent());
+            output = new BufferedOutputStream(Files.newOutputStream(path));
+            files++;
+            if (size == 0) {
+                finishEntry();
+            }
+        }
+    }
+
+    private void writeContents(byte[] buffer, int offset, int count) throws IOException {
+        if (longNameBuffer != null) {
+            System.arraycopy(buffer, offset, longNameBuffer, longNameLength, count);
+            longNameLength += count;
+        } else if (output != null) {
+            output.write(buffer, offset, count);
+            bytes += count;
+        }
+    }
+
+    private void finishEntry() throws IOException {
+        if (longNameBuffer != null) {
+            int length = 0;
+            while (length < longNameBuffer.length && longNameBuffer[length] != 0) {
+                length++;
+            }
+            longName = Arrays.copyOf(longNameBuffer, length);
+            longNameBuffer = null;
+        } else if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+
+    /**
+     * Returns the path of the entry in the destination folder.
+     *
+     * @throws IOException If the entry would be outside of the destination folder.
+     */
+    private Path resolve(String name) throws IOException {
+        try {
+            var path = destination.resolve(name).normalize();
+            if (path.startsWith(destination) && !path.equals(destination) || name.equals("./")) {
+                return path;
+            }
+        } catch (InvalidPathException e) {
+            // Reported below.
+        }
+        throw new IOException("Archive entry has a wrong name: " + name);
+    }
+
+    /**
+     * Returns the name of the entry: the name field preceded by the prefix field of ustar headers.
+     */
+    private static byte[] name(byte[] header) {
+        byte[] name = field(header, 0, 100);
+        boolean ustar = new String(header, 257, 6, StandardCharsets.US_ASCII).equals("ustar\0");
+        if (ustar && header[345] != 0) {
+            byte[] prefix = field(header, 345, 155);
+            byte[] full = Arrays.copyOf(prefix, prefix.length + 1 + name.length);
+            full[prefix.length] = '/';
+            System.arraycopy(name, 0, full, prefix.length + 1, name.length);
+            return full;
+        }
+        return name;
+    }
+
+    /**
+     * Returns bytes of a field up to the first NUL.
+     */
+    private static byte[] field(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return Arrays.copyOfRange(header, offset, end);
+    }
+
+    /**
+     * Parses a number written in octal digits or in base-256 (if the highest bit of the first byte is set).
+     *
+     * @throws IOException If the field is not a number.
+     */
+    private static long parseNumber(byte[] header, int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7F;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = value << 8 | header[i] & 0xFF;
+            }
+            return value;
+        }
+
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b == 0 || b == ' ') {
+                if (value > 0 || i > offset && header[i - 1] >= '0') {
+                    break;
+                }
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Archive header is corrupted.");
+            }
+            value = value * 8 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Returns the checksum of the header: sum of its bytes with the checksum field counted as spaces.
+     */
+    private static long checksum(byte[] header) {
+        long sum = 0;
+        for (int i = 0; i < header.length; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+        }
+        return sum;
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
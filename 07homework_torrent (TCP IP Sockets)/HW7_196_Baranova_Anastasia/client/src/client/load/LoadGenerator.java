@@ -0,0 +1,413 @@
+package client.load;
+
+import client.lib.PrimitiveFile;
+import client.lib.communication.TorrentClient;
+import client.lib.request.DownloadRequest;
+import client.lib.request.FilesRequest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Headless load generator for TorrentServer. <br/>
+ * Simulates concurrent clients, each with its own connection and TorrentClient, that repeatedly
+ * request the list of files or download a random file from it. Clients are started one by one during
+ * the ramp-up phase and then all of them work during the steady phase. Latency of every operation
+ * is recorded to the phase in which the operation started. <br/>
+ * A client whose operation failed or timed out reconnects; a client that cannot connect retries
+ * after a second. Failures are counted, not thrown, so that the point where the server breaks down can be seen.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+public class LoadGenerator {
+    /**
+     * Delay before a client tries to connect again after a failed attempt (in nanoseconds).
+     */
+    private static final long RECONNECT_DELAY = TimeUnit.SECONDS.toNanos(1);
+
+    private final String host;
+    private final int port;
+
+    private int clients = 10;
+    private long rampUpMillis = 10_000;
+    private long durationMillis = 30_000;
+    private double listShare = 0.5;
+    private long thinkMillis = 0;
+    private long timeoutMillis = 30_000;
+    private long seed = 42;
+    private boolean verify = false;
+    private boolean compression = false;
+    private long reportInterval = 1000;
+    private Consumer<String> progressListener;
+
+    private final AtomicInteger connected = new AtomicInteger();
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder connectionFailures = new LongAdder();
+
+    /**
+     * Constructs a new instance of LoadGenerator.
+     *
+     * @param host Host of the server.
+     * @param port Port of the server.
+     * @throws NullPointerException     If host is null.
+     * @throws IllegalArgumentException If port is out of range from 0 to 65535.
+     */
+    public LoadGenerator(String host, int port) {
+        this.host = Objects.requireNonNull(host, "Host was null.");
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Illegal port: " + port + ".");
+        }
+        this.port = port;
+    }
+
+    /**
+     * Sets the number of simulated clients (10 by default).
+     *
+     * @throws IllegalArgumentException If clients is not positive.
+     */
+    public void setClients(int clients) {
+        if (clients <= 0) {
+            throw new IllegalArgumentException("Number of clients must be positive.");
+        }
+        this.clients = clients;
+    }
+
+    /**
+     * Sets the duration of the phase during which clients are started one by one (10 seconds by default).
+     *
+     * @throws IllegalArgumentException If millis is negative.
+     */
+    public void setRampUp(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Duration must not be negative.");
+        }
+        this.rampUpMillis = millis;
+    }
+
+    /**
+     * Sets the duration of the steady phase during which all the clients work (30 seconds by default).
+     *
+     * @throws IllegalArgumentException If millis is negative.
+     */
+    public void setDuration(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Duration must not be negative.");
+        }
+        this.durationMillis = millis;
+    }
+
+    /**
+     * Sets the probability that the next operation of a client is a list request, not a download (0.5 by default).
+     * The first operation of every client is always a list request.
+     *
+     * @throws IllegalArgumentException If share is out of range from 0 to 1.
+     */
+    public void setListShare(double share) {
+        if (share < 0 || share > 1) {
+            throw new IllegalArgumentException("Share must be from 0 to 1.");
+        }
+        this.listShare = share;
+    }
+
+    /**
+     * Sets the pause of a client between its operations (0 by default).
+     *
+     * @throws IllegalArgumentException If millis is negative.
+     */
+    public void setThinkTime(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Think time must not be negative.");
+        }
+        this.thinkMillis = millis;
+    }
+
+    /**
+     * Sets the time after which an operation is counted as an error and the client reconnects
+     * (30 seconds by default).
+     *
+     * @throws IllegalArgumentException If millis is not positive.
+     */
+    public void setTimeout(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive.");
+        }
+        this.timeoutMillis = millis;
+    }
+
+    /**
+     * Sets the seed of the random choice of operations and files, so that runs can be repeated.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets whether downloads are verified against manifests (false by default).
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * Sets whether the server may compress downloads (false by default).
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Sets a consumer receiving a line about connected clients, throughput and failures every interval.
+     *
+     * @param millis   Interval between the lines (in milliseconds).
+     * @param listener Consumer of the lines, null to not report progress.
+     * @throws IllegalArgumentException If millis is not positive.
+     */
+    public void setProgressListener(long millis, Consumer<String> listener) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Interval must be positive.");
+        }
+        this.reportInterval = millis;
+        this.progressListener = listener;
+    }
+
+    /**
+     * Runs the load test and waits for its end.
+     *
+     * @return Reports of the ramp-up and the steady phases.
+     * @throws IOException          If the directory for downloaded files cannot be created.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public List<PhaseReport> run() throws IOException, InterruptedException {
+        var directory = Files.createTempDirectory("torrent-load").toFile();
+        var rampUp = new Phase();
+        var steady = new Phase();
+        long start = System.nanoTime();
+        long steadyStart = start + TimeUnit.MILLISECONDS.toNanos(rampUpMillis);
+        long end = steadyStart + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < clients; i++) {
+            int number = i;
+            long clientStart = start + TimeUnit.MILLISECONDS.toNanos(rampUpMillis) * number / clients;
+            var thread = new Thread(() -> runClient(number, directory, clientStart, steadyStart, end,
+                    rampUp, steady), "load-client-" + number);
+            thread.start();
+            threads.add(thread);
+        }
+
+        var reporter = startReporter(start);
+        try {
+            for (var thread : threads) {
+                thread.join();
+            }
+        } finally {
+            for (var thread : threads) {
+                thread.interrupt();
+            }
+            if (reporter != null) {
+                reporter.interrupt();
+            }
+            deleteDirectory(directory);
+        }
+
+        return List.of(rampUp.report("ramp-up", steadyStart - start), steady.report("steady", end - steadyStart));
+    }
+
+    /**
+     * Simulates a client: performs operations from the client's start until the end of the test.
+     */
+    private void runClient(int number, File directory, long start, long steadyStart, long end,
+                           Phase rampUp, Phase steady) {
+        var random = new Random(seed + number);
+        String output = new File(directory, "client" + number + ".bin").getPath();
+        Socket socket = null;
+        TorrentClient client = null;
+        List<PrimitiveFile> files = null;
+
+        try {
+            sleepUntil(start);
+            long begin;
+            while ((begin = System.nanoTime()) - end < 0) {
+                var phase = begin - steadyStart < 0 ? rampUp : steady;
+
+                if (client == null) {
+                    try {
+                        socket = connect();
+                        client = new TorrentClient(socket);
+                        connected.incrementAndGet();
+                    } catch (IOException e) {
+                        phase.connectionFailures.increment();
+                        connectionFailures.increment();
+                        sleepUntil(Math.min(begin + RECONNECT_DELAY, end));
+                        continue;
+                    }
+                }
+
+                boolean list = files == null || files.isEmpty() || random.nextDouble() < listShare;
+                try {
+                    if (list) {
+                        files = list(client);
+                        phase.record(Operation.LIST, System.nanoTime() - begin);
+                    } else {
+                        var file = files.get(random.nextInt(files.size()));
+                        download(client, file, output);
+                        phase.record(Operation.DOWNLOAD, System.nanoTime() - begin);
+                        phase.downloadedBytes.add(file.getSize());
+                    }
+                    operations.increment();
+                } catch (ExecutionException | TimeoutException e) {
+                    phase.errors.increment();
+                    errors.increment();
+                    closeQuietly(socket);
+                    client = null;
+                    connected.decrementAndGet();
+                }
+
+                if (thinkMillis > 0) {
+                    sleepUntil(Math.min(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(thinkMillis), end));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (client != null) {
+                try {
+                    client.close().get(timeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (ExecutionException | TimeoutException | InterruptedException ignored) {
+                    // Connection is closed anyway.
+                }
+                closeQuietly(socket);
+                connected.decrementAndGet();
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        var socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), (int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+            return socket;
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    private List<PrimitiveFile> list(TorrentClient client)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        var files = new ArrayList<PrimitiveFile>();
+        var request = new FilesRequest();
+        request.setCallback(files::addAll);
+        client.request(request).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        return files;
+    }
+
+    private void download(TorrentClient client, PrimitiveFile file, String output)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        var request = new DownloadRequest(file, output);
+        request.setResume(false);
+        request.setVerify(verify);
+        request.setCompression(compression);
+        client.request(request).get(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts a daemon thread passing a progress line to the listener every interval.
+     *
+     * @return The thread or null if there is no listener.
+     */
+    private Thread startReporter(long start) {
+        if (progressListener == null) {
+            return null;
+        }
+        var reporter = new Thread(() -> {
+            long lastOperations = 0;
+            long lastTime = start;
+            try {
+                while (true) {
+                    Thread.sleep(reportInterval);
+                    long now = System.nanoTime();
+                    long done = operations.sum();
+                    progressListener.accept(String.format("%6.1f s: %d clients connected, %.1f ops/s, %d errors, "
+                                    + "%d connection failures", (now - start) / 1e9, connected.get(),
+                            (done - lastOperations) * 1e9 / (now - lastTime), errors.sum(), connectionFailures.sum()));
+                    lastOperations = done;
+                    lastTime = now;
+                }
+            } catch (InterruptedException ignored) {
+                // Test is over.
+            }
+        }, "load-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+        return reporter;
+    }
+
+    private static void sleepUntil(long time) throws InterruptedException {
+        long remaining;
+        while ((remaining = time - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Nothing to do: the connection is abandoned.
+        }
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static void deleteDirectory(File directory) {
+        var files = directory.listFiles();
+        if (files != null) {
+            for (var file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Counters of a phase of the test.
+     */
+    private static class Phase {
+        private final EnumMap<Operation, LatencyRecorder> latencies = new EnumMap<>(Operation.class);
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder connectionFailures = new LongAdder();
+        private final LongAdder downloadedBytes = new LongAdder();
+
+        Phase() {
+            for (var operation : Operation.values()) {
+                latencies.put(operation, new LatencyRecorder());
+            }
+        }
+
+        void record(Operation operation, long nanos) {
+            latencies.get(operation).record(nanos);
+        }
+
+        PhaseReport report(String name, long durationNanos) {
+            var snapshots = new EnumMap<Operation, long[]>(Operation.class);
+            latencies.forEach((operation, recorder) -> snapshots.put(operation, recorder.snapshot()));
+            return new PhaseReport(name, durationNanos, snapshots,
+                    errors.sum(), connectionFailures.sum(), downloadedBytes.sum());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package client.load;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command-line entry point of the load generator. Does not need JavaFX.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see LoadGenerator
+ */
+public class Main {
+
+    /**
+     * Runs the load test and prints progress every second and reports of the phases. <br/>
+     * Arguments: host, port and options. <br/>
+     * Options: <br/>
+     * --clients={number} - number of simulated clients (10 by default); <br/>
+     * --ramp-up={seconds} - time during which clients are started one by one (10 by default); <br/>
+     * --duration={seconds} - time during which all the clients work (30 by default); <br/>
+     * --list={share} - probability that an operation is a list request, not a download (0.5 by default); <br/>
+     * --think={milliseconds} - pause of a client between operations (0 by default); <br/>
+     * --timeout={seconds} - time after which an operation is counted as an error (30 by default); <br/>
+     * --seed={number} - seed of the random choice of operations and files; <br/>
+     * --verify - verify downloads against manifests; <br/>
+     * --compression - allow the server to compress downloads.
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        String[] positional = new String[2];
+        int count = 0;
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int equals = arg.indexOf('=');
+                options.put(equals < 0 ? arg.substring(2) : arg.substring(2, equals),
+                        equals < 0 ? "true" : arg.substring(equals + 1));
+            } else if (count < positional.length) {
+                positional[count++] = arg;
+            }
+        }
+        if (count < 2) {
+            System.out.println("Specify the host and the port of the server.");
+            return;
+        }
+
+        try {
+            var generator = new LoadGenerator(positional[0], Integer.parseInt(positional[1]));
+            generator.setClients(Integer.parseInt(options.getOrDefault("clients", "10")));
+            generator.setRampUp(Long.parseLong(options.getOrDefault("ramp-up", "10")) * 1000);
+            generator.setDuration(Long.parseLong(options.getOrDefault("duration", "30")) * 1000);
+            generator.setListShare(Double.parseDouble(options.getOrDefault("list", "0.5")));
+            generator.setThinkTime(Long.parseLong(options.getOrDefault("think", "0")));
+            generator.setTimeout(Long.parseLong(options.getOrDefault("timeout", "30")) * 1000);
+            generator.setSeed(Long.parseLong(options.getOrDefault("seed", "42")));
+            generator.setVerify(options.containsKey("verify"));
+            generator.setCompression(options.containsKey("compression"));
+            generator.setProgressListener(1000, System.out::println);
+
+            for (var report : generator.run()) {
+                System.out.println(report);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
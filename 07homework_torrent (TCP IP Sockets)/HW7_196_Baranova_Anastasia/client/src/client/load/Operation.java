@@ -0,0 +1,17 @@
+package client.load;
+
+/**
+ * Operation performed by a simulated client.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+public enum Operation {
+    /**
+     * Request of the whole list of files.
+     */
+    LIST,
+    /**
+     * Download of a whole file.
+     */
+    DOWNLOAD
+}
@@ -0,0 +1,122 @@
+package client.load;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Results of a phase of the load test: latencies of the operations started during the phase,
+ * throughput, errors and failed connection attempts.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see LoadGenerator
+ */
+public class PhaseReport {
+    private final String name;
+    private final long durationNanos;
+    private final Map<Operation, long[]> latencies;
+    private final long errors;
+    private final long connectionFailures;
+    private final long downloadedBytes;
+
+    PhaseReport(String name, long durationNanos, EnumMap<Operation, long[]> latencies,
+                long errors, long connectionFailures, long downloadedBytes) {
+        this.name = name;
+        this.durationNanos = durationNanos;
+        this.latencies = latencies;
+        this.errors = errors;
+        this.connectionFailures = connectionFailures;
+        this.downloadedBytes = downloadedBytes;
+    }
+
+    /**
+     * Returns the name of the phase: "ramp-up" or "steady".
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the duration of the phase (in milliseconds).
+     */
+    public long getDurationMillis() {
+        return durationNanos / 1_000_000;
+    }
+
+    /**
+     * Returns the number of successful operations of the type.
+     */
+    public long getCount(Operation operation) {
+        long count = 0;
+        for (long bucket : latencies.get(operation)) {
+            count += bucket;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the latency that the percentage of successful operations of the type did not exceed.
+     *
+     * @param operation  Type of operations.
+     * @param percentile Percentage of the operations from 0 to 100, e.g. 99.9.
+     * @return Latency (in microseconds) or 0 if there were no such operations.
+     * @throws IllegalArgumentException If percentile is out of range from 0 to 100.
+     */
+    public long getPercentile(Operation operation, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be from 0 to 100.");
+        }
+        return LatencyRecorder.percentile(latencies.get(operation), percentile);
+    }
+
+    /**
+     * Returns the number of operations that failed or timed out.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Returns the number of failed attempts to connect to the server.
+     */
+    public long getConnectionFailures() {
+        return connectionFailures;
+    }
+
+    /**
+     * Returns the number of bytes of downloaded files.
+     */
+    public long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    /**
+     * Returns the number of successful operations per second.
+     */
+    public double getThroughput() {
+        long count = 0;
+        for (var operation : Operation.values()) {
+            count += getCount(operation);
+        }
+        return durationNanos == 0 ? 0 : count * 1e9 / durationNanos;
+    }
+
+    /**
+     * Returns the number of downloaded bytes per second.
+     */
+    public double getBytesPerSecond() {
+        return durationNanos == 0 ? 0 : downloadedBytes * 1e9 / durationNanos;
+    }
+
+    @Override
+    public String toString() {
+        var text = new StringBuilder(String.format("%s (%.1f s): %.1f ops/s, %.2f MB/s, %d errors, %d connection failures",
+                name, durationNanos / 1e9, getThroughput(), getBytesPerSecond() / (1024 * 1024),
+                errors, connectionFailures));
+        for (var operation : Operation.values()) {
+            text.append(String.format("%n    %-8s %8d ops, p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms",
+                    operation.name().toLowerCase(), getCount(operation), getPercentile(operation, 50) / 1000.0,
+                    getPercentile(operation, 99) / 1000.0, getPercentile(operation, 99.9) / 1000.0));
+        }
+        return text.toString();
+    }
+}
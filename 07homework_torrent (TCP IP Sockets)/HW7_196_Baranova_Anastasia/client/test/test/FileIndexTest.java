@@ -0,0 +1,79 @@
+package test;
+
+import client.lib.FileIndex;
+import client.lib.PrimitiveFile;
+import client.lib.Utils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileIndexTest {
+    private final List<PrimitiveFile> files = Arrays.asList(
+            new PrimitiveFile("moscow.txt", 1024, 0),
+            new PrimitiveFile("old_moscow.jpg", 50, 1),
+            new PrimitiveFile("spb.txt", 1024, 2),
+            new PrimitiveFile("something.txt", 1024 * 1024 * 1024, 3),
+            null);
+
+    @Test
+    void testSameAsFilter() {
+        var index = new FileIndex(files);
+        for (var key : new String[]{"", "Some random text", "moscow", "1 KB", "MOS txt", " mo", "  ", "b", "gb"}) {
+            assertEquals(new ArrayList<>(Utils.filterFiles(files, key)), index.search(key), key);
+        }
+    }
+
+    @Test
+    void testNarrowing() {
+        var index = new FileIndex(files);
+        assertEquals(3, index.search("o").size());
+        assertEquals(2, index.search("mo").size());
+        assertEquals(2, index.search("mos").size());
+        assertEquals(1, index.search("mos jpg").size());
+        assertEquals(2, index.search("mos").size());
+        assertEquals(0, index.search("mosx").size());
+        assertEquals(3, index.search("txt").size());
+    }
+
+    @Test
+    void testNarrows() {
+        assertTrue(FileIndex.narrows("mos", "mosc"));
+        assertTrue(FileIndex.narrows("mos", "txt MOSCOW"));
+        assertTrue(FileIndex.narrows("", "txt"));
+        assertFalse(FileIndex.narrows("mosc", "mos"));
+        assertFalse(FileIndex.narrows("mos txt", "mosc"));
+    }
+
+    @Test
+    void testRandomQueries() {
+        var random = new Random(42);
+        var many = new ArrayList<PrimitiveFile>();
+        for (int i = 0; i < 2000; i++) {
+            many.add(new PrimitiveFile(randomWord(random, 12) + ".txt", random.nextInt(1 << 30), i));
+        }
+        var index = new FileIndex(many);
+
+        for (int i = 0; i < 300; i++) {
+            String key = randomWord(random, 4);
+            for (int length = 1; length <= key.length(); length++) {
+                String prefix = key.substring(0, length);
+                assertEquals(new ArrayList<>(Utils.filterFiles(many, prefix)), index.search(prefix), prefix);
+            }
+            String twoWords = key + " " + randomWord(random, 2);
+            assertEquals(new ArrayList<>(Utils.filterFiles(many, twoWords)), index.search(twoWords), twoWords);
+        }
+    }
+
+    private static String randomWord(Random random, int length) {
+        var word = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            word.append("abcdeMNK 1.".charAt(random.nextInt(11)));
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package test;
+
+import client.load.LoadGenerator;
+import client.load.Operation;
+import client.load.PhaseReport;
+import org.junit.jupiter.api.Test;
+import server.TorrentServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadGeneratorTest {
+
+    @Test
+    void testPhases() throws URISyntaxException, IOException, InterruptedException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL resource = classLoader.getResource("test/testDirectory");
+
+        assert resource != null;
+        var ts = new TorrentServer(8088, new File(resource.toURI()));
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        var generator = new LoadGenerator(ts.getHost(), 8088);
+        generator.setClients(4);
+        generator.setRampUp(400);
+        generator.setDuration(1000);
+        generator.setListShare(0.3);
+        generator.setTimeout(5000);
+        var progress = new ArrayList<String>();
+        generator.setProgressListener(200, progress::add);
+
+        List<PhaseReport> reports = generator.run();
+        ts.close();
+
+        assertEquals(2, reports.size());
+        assertEquals("ramp-up", reports.get(0).getName());
+        var steady = reports.get(1);
+        assertEquals("steady", steady.getName());
+        assertEquals(1000, steady.getDurationMillis());
+        assertEquals(0, steady.getErrors());
+        assertEquals(0, steady.getConnectionFailures());
+        assertTrue(steady.getCount(Operation.LIST) > 0);
+        assertTrue(steady.getCount(Operation.DOWNLOAD) > 0);
+        assertTrue(steady.getThroughput() > 0);
+        assertTrue(steady.getPercentile(Operation.DOWNLOAD, 50) <= steady.getPercentile(Operation.DOWNLOAD, 99.9));
+        assertFalse(progress.isEmpty());
+    }
+
+    @Test
+    void testConnectionFailures() throws IOException, InterruptedException {
+        var generator = new LoadGenerator("localhost", 8089);
+        generator.setClients(2);
+        generator.setRampUp(0);
+        generator.setDuration(500);
+
+        var steady = generator.run().get(1);
+        assertEquals(2, steady.getConnectionFailures());
+        assertEquals(0, steady.getCount(Operation.LIST));
+    }
+}
@@ -0,0 +1,72 @@
+package test;
+
+import client.lib.progress.Progress;
+import client.lib.progress.ProgressReporter;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProgressReporterTest {
+    @Test
+    void testCoalescing() {
+        List<Progress> reports = new CopyOnWriteArrayList<>();
+        var reporter = new ProgressReporter(0, 1_000_000, 1000, 0, reports::add);
+        for (long i = 1; i <= 1_000_000; i++) {
+            reporter.update(i);
+        }
+        reporter.finish();
+
+        assertTrue(reports.size() <= 3);
+        var last = reports.get(reports.size() - 1);
+        assertEquals(1_000_000, last.getDownloaded());
+        assertTrue(last.isFinished());
+        assertEquals(0, last.getSecondsLeft());
+    }
+
+    @Test
+    void testByteInterval() {
+        List<Progress> reports = new CopyOnWriteArrayList<>();
+        var reporter = new ProgressReporter(100, 1000, 10_000, 300, reports::add);
+        for (long i = 101; i < 1000; i++) {
+            reporter.update(i);
+        }
+
+        assertEquals(2, reports.size());
+        assertEquals(400, reports.get(0).getDownloaded());
+        assertEquals(700, reports.get(1).getDownloaded());
+
+        reporter.update(500);
+        reporter.finish();
+        assertEquals(3, reports.size());
+        assertEquals(999, reports.get(2).getDownloaded());
+        assertFalse(reports.get(2).isFinished());
+    }
+
+    @Test
+    void testEmptyDownload() {
+        List<Progress> reports = new CopyOnWriteArrayList<>();
+        var reporter = new ProgressReporter(0, 0, 10_000, 0, reports::add);
+        reporter.finish();
+        reporter.finish();
+
+        assertEquals(1, reports.size());
+        assertTrue(reports.get(0).isFinished());
+    }
+
+    @Test
+    void testSampling() throws InterruptedException {
+        List<Progress> reports = new CopyOnWriteArrayList<>();
+        var reporter = new ProgressReporter(0, -1, 10, 0, reports::add);
+        reporter.update(1024);
+        Thread.sleep(500);
+        reporter.cancel();
+
+        assertEquals(1, reports.size());
+        assertEquals(1024, reports.get(0).getDownloaded());
+        assertTrue(reports.get(0).getRate() > 0);
+        assertEquals(-1, reports.get(0).getSecondsLeft());
+    }
+}
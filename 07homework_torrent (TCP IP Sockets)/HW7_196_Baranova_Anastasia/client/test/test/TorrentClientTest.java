@@ -1,12 +1,18 @@
 package test;
 
+import client.lib.ContentIndex;
+import client.lib.PrimitiveFile;
 import client.lib.communication.TorrentClient;
+import client.lib.request.ArchiveRequest;
 import client.lib.request.DownloadRequest;
 import client.lib.request.FilesRequest;
 import client.lib.request.FinishRequest;
+import client.lib.request.FolderRequest;
+import client.lib.request.SyncPolicy;
 import org.junit.jupiter.api.Test;
 import server.TorrentServer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.Socket;
@@ -14,6 +20,18 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -99,4 +117,589 @@ public class TorrentClientTest {
         tc.request(request);
         tc.request(new FinishRequest());
     }
+
+    @Test
+    void testResume() throws URISyntaxException, IOException, InterruptedException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL resource = classLoader.getResource("test/testDirectory");
+
+        assert resource != null;
+        File directory = new File(resource.toURI());
+        File[] files = Objects.requireNonNull(directory.listFiles());
+        int id = files[0].getName().equals("file1.txt") ? 0 : 1;
+        File file = files[id];
+        byte[] expected = Files.readAllBytes(file.toPath());
+
+        Path output = Files.createTempFile("resume", ".txt");
+        Files.write(output, Arrays.copyOf(expected, expected.length / 2));
+
+        var ts = new TorrentServer(8082, directory);
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        TorrentClient tc = new TorrentClient(new Socket(ts.getHost(), 8082));
+
+        var request = new DownloadRequest(new PrimitiveFile(file.getName(), file.length(), id), output.toString());
+        var firstProgress = new AtomicLong(-1);
+        var finished = new CountDownLatch(1);
+        request.setProgressTracker(val -> {
+            firstProgress.compareAndSet(-1, val);
+            if (val == file.length()) {
+                finished.countDown();
+            }
+        });
+        tc.request(request);
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        tc.request(new FinishRequest());
+        ts.close();
+
+        assertEquals(expected.length / 2, request.getOffset());
+        assertTrue(firstProgress.get() > expected.length / 2);
+        assertArrayEquals(expected, Files.readAllBytes(output));
+        Files.delete(output);
+    }
+
+    @Test
+    void testSegmentedDownload() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("segments");
+        Path file = directory.resolve("big.bin");
+        byte[] expected = new byte[5 * 1024 * 1024 + 123];
+        new Random(7).nextBytes(expected);
+        Files.write(file, expected);
+        Path output = Files.createTempFile("segments", ".bin");
+
+        var ts = new TorrentServer(8083, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        TorrentClient tc = new TorrentClient(new Socket(ts.getHost(), 8083));
+        var request = new DownloadRequest(new PrimitiveFile("big.bin", expected.length, 0), output.toString());
+        request.setSegments(4);
+        var finished = new CountDownLatch(1);
+        request.setProgressTracker(val -> {
+            if (val == expected.length) {
+                finished.countDown();
+            }
+        });
+        tc.request(request);
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        tc.request(new FinishRequest());
+        ts.close();
+
+        Thread.sleep(100);
+        assertArrayEquals(expected, Files.readAllBytes(output));
+        Files.delete(output);
+        Files.delete(file);
+        Files.delete(directory);
+    }
+
+    @Test
+    void testPagedList() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("paged");
+        for (int i = 0; i < 10; i++) {
+            Files.write(directory.resolve((i % 2 == 0 ? "moscow" : "spb") + i + ".txt"), new byte[i]);
+        }
+
+        var ts = new TorrentServer(8084, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        TorrentClient tc = new TorrentClient(new Socket(ts.getHost(), 8084));
+
+        var request = new FilesRequest(1, 3, "MOSCOW");
+        var page = new ArrayList<PrimitiveFile>();
+        var finished = new CountDownLatch(1);
+        request.setCallback(list -> {
+            page.addAll(list);
+            finished.countDown();
+        });
+        tc.request(request);
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        tc.request(new FinishRequest());
+        ts.close();
+
+        assertEquals(5, request.getTotal());
+        assertEquals(3, page.size());
+        for (var file : page) {
+            assertTrue(file.getName().startsWith("moscow"));
+        }
+
+        for (var file : Objects.requireNonNull(directory.toFile().listFiles())) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void testPipelinedRequests() throws Exception {
+        Path directory = Files.createTempDirectory("pipelined");
+        byte[] first = new byte[300 * 1024];
+        byte[] second = new byte[1000];
+        new Random(11).nextBytes(first);
+        new Random(12).nextBytes(second);
+        Files.write(directory.resolve("a.bin"), first);
+        Files.write(directory.resolve("b.bin"), second);
+        Path firstOutput = Files.createTempFile("pipelined", ".bin");
+        Path secondOutput = Files.createTempFile("pipelined", ".bin");
+
+        var ts = new TorrentServer(8085, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        TorrentClient tc = new TorrentClient(new Socket(ts.getHost(), 8085));
+        var files = new ArrayList<PrimitiveFile>();
+        var list = new FilesRequest();
+        list.setCallback(files::addAll);
+        var listed = tc.request(list);
+        var idOf = listed.thenApply(request -> {
+            var ids = new int[2];
+            for (var file : files) {
+                ids[file.getName().equals("a.bin") ? 0 : 1] = file.getId();
+            }
+            return ids;
+        }).get(5, TimeUnit.SECONDS);
+
+        var firstDownload = tc.request(new DownloadRequest(idOf[0], firstOutput.toString()));
+        var secondDownload = tc.request(new DownloadRequest(idOf[1], secondOutput.toString()));
+        var page = tc.request(new FilesRequest(0, 1, "b.bin"));
+        var finish = tc.close();
+
+        CompletableFuture.allOf(firstDownload, secondDownload, page, finish).get(5, TimeUnit.SECONDS);
+        ts.close();
+
+        assertEquals(1, page.get().getTotal());
+        assertArrayEquals(first, Files.readAllBytes(firstOutput));
+        assertArrayEquals(second, Files.readAllBytes(secondOutput));
+
+        var late = tc.request(new FilesRequest());
+        assertThrows(ExecutionException.class, () -> late.get(5, TimeUnit.SECONDS));
+
+        Files.delete(firstOutput);
+        Files.delete(secondOutput);
+        for (var file : Objects.requireNonNull(directory.toFile().listFiles())) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void testVerifiedResume() throws Exception {
+        Path directory = Files.createTempDirectory("verified");
+        byte[] expected = new byte[3 * 1024 * 1024 + 5];
+        new Random(13).nextBytes(expected);
+        Files.write(directory.resolve("big.bin"), expected);
+
+        byte[] broken = Arrays.copyOf(expected, 2 * 1024 * 1024 + 100);
+        broken[1024 * 1024 + 7] ^= 1;
+        Path output = Files.createTempFile("verified", ".bin");
+        Files.write(output, broken);
+
+        var ts = new TorrentServer(8086, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        TorrentClient tc = new TorrentClient(new Socket(ts.getHost(), 8086));
+        var request = new DownloadRequest(new PrimitiveFile("big.bin", expected.length, 0), output.toString());
+        tc.request(request).get(15, TimeUnit.SECONDS);
+        tc.close().get(5, TimeUnit.SECONDS);
+        ts.close();
+
+        assertEquals(broken.length, request.getOffset());
+        assertArrayEquals(expected, Files.readAllBytes(output));
+        Files.delete(output);
+        Files.delete(directory.resolve("big.bin"));
+        Files.delete(directory);
+    }
+
+    @Test
+    void testCompressedDownload() throws Exception {
+        Path directory = Files.createTempDirectory("compressed");
+        var text = new StringBuilder();
+        for (int i = 0; i < 300000; i++) {
+            text.append(i % 100).append(",moscow,spb\n");
+        }
+        byte[] expected = text.toString().getBytes();
+        Files.write(directory.resolve("log.csv"), expected);
+        Path output = Files.createTempFile("compressed", ".csv");
+        Path segmentsOutput = Files.createTempFile("compressed", ".csv");
+
+        var ts = new TorrentServer(8087, directory.toFile());
+        Thread serverThread = new Thread(() -> ts.runSelector(1));
+        serverThread.start();
+
+        TorrentClient tc = new TorrentClient(new Socket(ts.getHost(), 8087));
+        var file = new PrimitiveFile("log.csv", expected.length, 0);
+        var request = new DownloadRequest(file, output.toString());
+        var progress = new AtomicLong();
+        request.setProgressTracker(progress::set);
+        var segmented = new DownloadRequest(file, segmentsOutput.toString());
+        segmented.setSegments(2);
+
+        CompletableFuture.allOf(tc.request(request), tc.request(segmented)).get(15, TimeUnit.SECONDS);
+        tc.close().get(5, TimeUnit.SECONDS);
+        ts.close();
+
+        assertEquals(expected.length, progress.get());
+        assertArrayEquals(expected, Files.readAllBytes(output));
+        assertArrayEquals(expected, Files.readAllBytes(segmentsOutput));
+        Files.delete(output);
+        Files.delete(segmentsOutput);
+        Files.delete(directory.resolve("log.csv"));
+        Files.delete(directory);
+    }
+
+    @Test
+    void testSwarmDownload() throws Exception {
+        Path directory = Files.createTempDirectory("swarm");
+        byte[] expected = new byte[5 * 1024 * 1024 + 17];
+        new Random(19).nextBytes(expected);
+        Files.write(directory.resolve("big.bin"), expected);
+        var file = new PrimitiveFile("big.bin", expected.length, 0);
+
+        var ts = new TorrentServer(8090, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        var clients = new ArrayList<TorrentClient>();
+        var outputs = new ArrayList<Path>();
+        long[] served = new long[3];
+        for (int i = 0; i < 3; i++) {
+            var tc = new TorrentClient(new Socket(ts.getHost(), 8090));
+            assertTrue(tc.startSwarm(0) > 0);
+            clients.add(tc);
+            outputs.add(Files.createTempFile("swarm", ".bin"));
+
+            long before = ts.getStatistics().getBytesServed();
+            var request = new DownloadRequest(file, outputs.get(i).toString());
+            request.setSwarm(true);
+            tc.request(request).get(15, TimeUnit.SECONDS);
+            served[i] = ts.getStatistics().getBytesServed() - before;
+            assertArrayEquals(expected, Files.readAllBytes(outputs.get(i)));
+        }
+        for (var tc : clients) {
+            tc.close().get(5, TimeUnit.SECONDS);
+        }
+        ts.close();
+
+        // The first client downloads everything from the server, the others from the clients before them.
+        assertEquals(expected.length, served[0]);
+        assertTrue(served[1] + served[2] < expected.length);
+
+        for (var output : outputs) {
+            Files.delete(output);
+        }
+        Files.delete(directory.resolve("big.bin"));
+        Files.delete(directory);
+    }
+
+    @Test
+    void testFolderArchive() throws Exception {
+        Path directory = Files.createTempDirectory("tree");
+        String longName = "x".repeat(120);
+        Files.createDirectories(directory.resolve("docs/" + longName));
+        Files.write(directory.resolve("docs/readme.txt"), "readme".getBytes());
+        Files.write(directory.resolve("docs/empty.txt"), new byte[0]);
+        byte[] big = new byte[300 * 1024 + 3];
+        new Random(23).nextBytes(big);
+        Files.write(directory.resolve("docs/" + longName + "/big.bin"), big);
+        Path destination = Files.createTempDirectory("unpacked");
+
+        var ts = new TorrentServer(8091, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        TorrentClient tc = new TorrentClient(new Socket(ts.getHost(), 8091));
+        var root = tc.request(new FolderRequest("")).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("docs"), root.getFolders());
+        assertTrue(root.getFiles().isEmpty());
+        var docs = tc.request(new FolderRequest("/docs/")).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(longName), docs.getFolders());
+        assertEquals(2, docs.getFiles().size());
+        assertFalse(tc.request(new FolderRequest("..")).get(5, TimeUnit.SECONDS).exists());
+
+        Path single = destination.resolve("readme.txt");
+        var readme = docs.getFiles().stream().filter(file -> file.getName().equals("readme.txt")).findFirst();
+        assertTrue(readme.isPresent());
+        tc.request(new DownloadRequest(readme.get(), single.toString())).get(5, TimeUnit.SECONDS);
+        assertEquals("readme", Files.readString(single));
+
+        var archive = new ArchiveRequest("docs", destination.resolve("copy").toString());
+        var progress = new AtomicLong();
+        archive.setProgressTracker(progress::set);
+        tc.request(archive).get(15, TimeUnit.SECONDS);
+        assertEquals(3, archive.getFiles());
+        assertEquals(big.length + 6, archive.getBytes());
+        assertTrue(progress.get() > big.length);
+        assertEquals("readme", Files.readString(destination.resolve("copy/readme.txt")));
+        assertEquals(0, Files.size(destination.resolve("copy/empty.txt")));
+        assertArrayEquals(big, Files.readAllBytes(destination.resolve("copy/" + longName + "/big.bin")));
+
+        var missing = tc.request(new ArchiveRequest("nothing", destination.resolve("missing").toString()));
+        assertThrows(ExecutionException.class, () -> missing.get(5, TimeUnit.SECONDS));
+
+        tc.close().get(5, TimeUnit.SECONDS);
+        ts.close();
+
+        for (var tree : List.of(directory, destination)) {
+            try (var paths = Files.walk(tree)) {
+                for (var path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testResumeAfterCrash() throws Exception {
+        Path directory = Files.createTempDirectory("crash");
+        byte[] expected = new byte[3 * 1024 * 1024 + 5];
+        new Random(29).nextBytes(expected);
+        Files.write(directory.resolve("big.bin"), expected);
+        Path output = Files.createTempFile("crash", ".bin");
+        var journal = new File(output + ".progress");
+
+        // Download is interrupted without closing the request, as if the process crashed:
+        // the output file is left preallocated to the full size.
+        var crashed = new DownloadRequest(new PrimitiveFile("big.bin", expected.length, 0), output.toString());
+        int written = 3 * 1024 * 1024 / 2;
+        crashed.prepare();
+        crashed.receiveBytes(Arrays.copyOf(expected, written), written, written);
+        crashed.flush();
+        assertEquals(expected.length, Files.size(output));
+        assertTrue(journal.isFile());
+
+        var ts = new TorrentServer(8096, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        TorrentClient tc = new TorrentClient(new Socket(ts.getHost(), 8096));
+        var request = new DownloadRequest(new PrimitiveFile("big.bin", expected.length, 0), output.toString());
+        tc.request(request).get(15, TimeUnit.SECONDS);
+        tc.close().get(5, TimeUnit.SECONDS);
+        ts.close();
+
+        assertEquals(written, request.getOffset());
+        assertArrayEquals(expected, Files.readAllBytes(output));
+        assertFalse(journal.exists());
+        for (var path : List.of(output, directory.resolve("big.bin"), directory)) {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testSegmentedResume() throws Exception {
+        Path directory = Files.createTempDirectory("segmentedResume");
+        byte[] expected = new byte[4 * 1024 * 1024 + 17];
+        new Random(31).nextBytes(expected);
+        Files.write(directory.resolve("big.bin"), expected);
+        Path output = Files.createTempFile("segmentedResume", ".bin");
+        var journal = new File(output + ".progress");
+
+        // Segmented download fails after the first segment received some bytes and a later one received others.
+        var interrupted = new DownloadRequest(new PrimitiveFile("big.bin", expected.length, 0), output.toString());
+        interrupted.setSegments(4);
+        interrupted.prepareSegments();
+        int written = 1024 * 1024 + 512 * 1024;
+        interrupted.receiveBytesAt(Arrays.copyOf(expected, written), written, 0);
+        int later = 3 * 1024 * 1024;
+        interrupted.receiveBytesAt(Arrays.copyOfRange(expected, later, later + 1024), 1024, later);
+        interrupted.flush();
+        assertTrue(journal.isFile());
+        interrupted.done();
+        assertEquals(written, Files.size(output));
+        assertFalse(journal.exists());
+
+        var ts = new TorrentServer(8097, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        TorrentClient tc = new TorrentClient(new Socket(ts.getHost(), 8097));
+        var request = new DownloadRequest(new PrimitiveFile("big.bin", expected.length, 0), output.toString());
+        request.setSegments(4);
+        assertTrue(request.isResumable());
+        tc.request(request).get(15, TimeUnit.SECONDS);
+        tc.close().get(5, TimeUnit.SECONDS);
+        ts.close();
+
+        assertEquals(written, request.getOffset());
+        assertArrayEquals(expected, Files.readAllBytes(output));
+        assertFalse(journal.exists());
+        for (var path : List.of(output, directory.resolve("big.bin"), directory)) {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testWriteBehindDownload() throws Exception {
+        Path directory = Files.createTempDirectory("writes");
+        byte[] expected = new byte[3 * 1024 * 1024 + 11];
+        new Random(21).nextBytes(expected);
+        Files.write(directory.resolve("big.bin"), expected);
+        byte[] small = Arrays.copyOf(expected, 20 * 1024);
+        Files.write(directory.resolve("small.bin"), small);
+        Path output = Files.createTempFile("writes", ".bin");
+        Path segmentsOutput = Files.createTempFile("writes", ".bin");
+        Path textOutput = Files.createTempFile("writes", ".bin");
+        Path missingOutput = Files.createTempFile("writes", ".bin");
+
+        var ts = new TorrentServer(8092, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        TorrentClient tc = new TorrentClient(new Socket(ts.getHost(), 8092));
+        var files = new ArrayList<PrimitiveFile>();
+        var list = new FilesRequest();
+        list.setCallback(files::addAll);
+        tc.request(list).get(5, TimeUnit.SECONDS);
+        var big = files.stream().filter(f -> f.getName().equals("big.bin")).findFirst().orElseThrow();
+        var smallFile = files.stream().filter(f -> f.getName().equals("small.bin")).findFirst().orElseThrow();
+
+        var request = new DownloadRequest(big, output.toString());
+        request.setSyncPolicy(SyncPolicy.everyMegabytes(1));
+        var segmentsRequest = new DownloadRequest(big, segmentsOutput.toString());
+        segmentsRequest.setSegments(3);
+        segmentsRequest.setSyncPolicy(SyncPolicy.onCompletion());
+        var textRequest = new DownloadRequest(smallFile, textOutput.toString());
+        textRequest.setBinary(false);
+        tc.request(request).get(15, TimeUnit.SECONDS);
+        tc.request(segmentsRequest).get(15, TimeUnit.SECONDS);
+        tc.request(textRequest).get(15, TimeUnit.SECONDS);
+
+        // Preallocated file of a failed download is truncated to the written bytes, so it can be resumed.
+        var missing = tc.request(new DownloadRequest(new PrimitiveFile("missing.bin", 5000, 99), missingOutput.toString()));
+        assertThrows(ExecutionException.class, () -> missing.get(5, TimeUnit.SECONDS));
+        tc.close().get(5, TimeUnit.SECONDS);
+        ts.close();
+
+        assertArrayEquals(expected, Files.readAllBytes(output));
+        assertArrayEquals(expected, Files.readAllBytes(segmentsOutput));
+        assertArrayEquals(small, Files.readAllBytes(textOutput));
+        assertEquals(0, Files.size(missingOutput));
+        for (var path : List.of(output, segmentsOutput, textOutput, missingOutput,
+                directory.resolve("big.bin"), directory.resolve("small.bin"), directory)) {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testDeltaUpdate() throws Exception {
+        byte[] old = new byte[3 * 1024 * 1024 + 7];
+        new Random(23).nextBytes(old);
+        // New version: bytes inserted in the middle, some bytes changed and a tail appended.
+        var stream = new ByteArrayOutputStream();
+        stream.write(old, 0, 1024 * 1024);
+        stream.write(new byte[100]);
+        stream.write(old, 1024 * 1024, 2 * 1024 * 1024);
+        stream.write(old, 3 * 1024 * 1024, old.length - 3 * 1024 * 1024);
+        stream.write(new byte[5000]);
+        byte[] expected = stream.toByteArray();
+        Arrays.fill(expected, 2 * 1024 * 1024, 2 * 1024 * 1024 + 50, (byte) 7);
+
+        Path directory = Files.createTempDirectory("delta");
+        Files.write(directory.resolve("big.bin"), expected);
+        Path output = Files.createTempFile(directory, "old", ".bin");
+        Path selectorOutput = Files.createTempFile(directory, "old", ".bin");
+        Path missingOutput = Files.createTempFile(directory, "old", ".bin");
+        for (var path : List.of(output, selectorOutput, missingOutput)) {
+            Files.write(path, old);
+        }
+
+        var ts = new TorrentServer(8093, directory.toFile());
+        new Thread(ts::run).start();
+        var selectorServer = new TorrentServer(8094, directory.toFile());
+        new Thread(() -> selectorServer.runSelector(1)).start();
+
+        TorrentClient tc = new TorrentClient(new Socket(ts.getHost(), 8093));
+        var files = new ArrayList<PrimitiveFile>();
+        var list = new FilesRequest();
+        list.setCallback(files::addAll);
+        tc.request(list).get(5, TimeUnit.SECONDS);
+        var big = files.stream().filter(f -> f.getName().equals("big.bin")).findFirst().orElseThrow();
+
+        var request = new DownloadRequest(big, output.toString());
+        request.setDelta(true);
+        tc.request(request).get(15, TimeUnit.SECONDS);
+        // Copy is left intact if the server cannot send the file.
+        var missingRequest = new DownloadRequest(new PrimitiveFile("missing.bin", 5000, 99), missingOutput.toString());
+        missingRequest.setDelta(true);
+        var missing = tc.request(missingRequest);
+        assertThrows(ExecutionException.class, () -> missing.get(5, TimeUnit.SECONDS));
+        tc.close().get(5, TimeUnit.SECONDS);
+
+        TorrentClient selectorClient = new TorrentClient(new Socket(selectorServer.getHost(), 8094));
+        var selectorRequest = new DownloadRequest(big, selectorOutput.toString());
+        selectorRequest.setDelta(true);
+        selectorClient.request(selectorRequest).get(15, TimeUnit.SECONDS);
+        selectorClient.close().get(5, TimeUnit.SECONDS);
+        ts.close();
+        selectorServer.close();
+
+        assertArrayEquals(expected, Files.readAllBytes(output));
+        assertArrayEquals(expected, Files.readAllBytes(selectorOutput));
+        assertArrayEquals(old, Files.readAllBytes(missingOutput));
+        assertTrue(request.getReusedBytes() > 3 * 1024 * 1024 - 64 * 1024);
+        assertTrue(selectorRequest.getReusedBytes() > 3 * 1024 * 1024 - 64 * 1024);
+        try (var listing = Files.list(directory)) {
+            assertEquals(4, listing.count());
+        }
+        for (var path : List.of(output, selectorOutput, missingOutput, directory.resolve("big.bin"), directory)) {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testContentIndex() throws Exception {
+        byte[] shared = new byte[200 * 1024];
+        new Random(24).nextBytes(shared);
+        byte[] unique = new byte[150 * 1024];
+        new Random(25).nextBytes(unique);
+
+        Path directory = Files.createTempDirectory("content");
+        Files.write(directory.resolve("a.bin"), shared);
+        Files.write(directory.resolve("b.bin"), shared);
+        Files.write(directory.resolve("c.bin"), unique);
+        Path local = Files.createTempDirectory("local");
+        Files.write(local.resolve("mine.bin"), shared);
+        Path output = local.resolve("b.bin");
+        Path uniqueOutput = local.resolve("c.bin");
+        Path secondOutput = local.resolve("c-again.bin");
+
+        var ts = new TorrentServer(8095, directory.toFile());
+        new Thread(ts::run).start();
+        TorrentClient tc = new TorrentClient(new Socket(ts.getHost(), 8095));
+        var index = new ContentIndex();
+        index.add(local.toFile());
+        index.setLinking(true);
+        tc.setContentIndex(index);
+
+        var files = new ArrayList<PrimitiveFile>();
+        var list = new FilesRequest();
+        list.setCallback(files::addAll);
+        tc.request(list).get(5, TimeUnit.SECONDS);
+        var b = files.stream().filter(f -> f.getName().equals("b.bin")).findFirst().orElseThrow();
+        var c = files.stream().filter(f -> f.getName().equals("c.bin")).findFirst().orElseThrow();
+
+        var request = tc.request(new DownloadRequest(b, output.toString())).get(15, TimeUnit.SECONDS);
+        var uniqueRequest = tc.request(new DownloadRequest(c, uniqueOutput.toString())).get(15, TimeUnit.SECONDS);
+        // Downloaded files are indexed, so the same file is not downloaded again.
+        var secondRequest = tc.request(new DownloadRequest(c, secondOutput.toString())).get(15, TimeUnit.SECONDS);
+        tc.close().get(5, TimeUnit.SECONDS);
+        ts.close();
+
+        assertEquals(local.resolve("mine.bin").toFile(), request.getCopiedFrom());
+        assertNull(uniqueRequest.getCopiedFrom());
+        assertEquals(uniqueOutput.toAbsolutePath().toFile(), secondRequest.getCopiedFrom());
+        assertArrayEquals(shared, Files.readAllBytes(output));
+        assertArrayEquals(unique, Files.readAllBytes(uniqueOutput));
+        assertArrayEquals(unique, Files.readAllBytes(secondOutput));
+        assertEquals(ContentIndex.hash(output), ContentIndex.hash(directory.resolve("a.bin")));
+
+        for (var path : List.of(output, uniqueOutput, secondOutput, local.resolve("mine.bin"), local,
+                directory.resolve("a.bin"), directory.resolve("b.bin"), directory.resolve("c.bin"), directory)) {
+            Files.delete(path);
+        }
+    }
 }
@@ -1 +1 @@
-java -jar server.jar %1 %2
\ No newline at end of file
+java -jar server.jar %*
\ No newline at end of file
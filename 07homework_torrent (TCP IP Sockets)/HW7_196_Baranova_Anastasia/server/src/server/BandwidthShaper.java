@@ -0,0 +1,183 @@
+package server;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the rate at which file bytes are sent: globally and for every connection. <br/>
+ * Bytes are granted in portions of at most QUANTUM bytes. Transfers waiting for the global limit
+ * are granted portions in the order they asked for them, and a transfer asks again only after
+ * sending its portion, so the available bandwidth is shared round-robin: small files finish quickly
+ * even while big ones are being sent. <br/>
+ * Limits may be changed while the server is running. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class BandwidthShaper {
+    /**
+     * Maximum number of bytes granted at once.
+     */
+    static final int QUANTUM = 64 * 1024;
+
+    /**
+     * Minimum time a throttled non-blocking transfer waits before asking again (in nanoseconds).
+     */
+    private static final long MIN_WAIT = 1_000_000;
+
+    private final TokenBucket global = new TokenBucket(0);
+    /**
+     * Rate of every connection (in bytes per second), 0 if it is unlimited.
+     */
+    private volatile long connectionRate = 0;
+    /**
+     * Fair lock ordering transfers waiting for the global limit.
+     */
+    private final ReentrantLock turn = new ReentrantLock(true);
+
+    /**
+     * Sets the total rate of all the connections.
+     *
+     * @param rate Rate (in bytes per second), 0 for unlimited rate.
+     * @throws IllegalArgumentException If rate is negative.
+     */
+    void setGlobalRate(long rate) {
+        global.setRate(rate);
+    }
+
+    /**
+     * Returns the total rate of all the connections (in bytes per second), 0 if it is unlimited.
+     */
+    long getGlobalRate() {
+        return global.getRate();
+    }
+
+    /**
+     * Sets the rate of every connection. Applies to the connections that are already open as well.
+     *
+     * @param rate Rate (in bytes per second), 0 for unlimited rate.
+     * @throws IllegalArgumentException If rate is negative.
+     */
+    void setConnectionRate(long rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate must not be negative.");
+        }
+        connectionRate = rate;
+    }
+
+    /**
+     * Returns the rate of every connection (in bytes per second), 0 if it is unlimited.
+     */
+    long getConnectionRate() {
+        return connectionRate;
+    }
+
+    /**
+     * Creates the allowance of a new connection.
+     */
+    Allowance newConnection() {
+        return new Allowance();
+    }
+
+    /**
+     * Bandwidth of a connection. Is used by a single thread at a time.
+     */
+    class Allowance {
+        private final TokenBucket bucket = new TokenBucket(connectionRate);
+        /**
+         * Time to wait after tryAcquire() granted nothing (in nanoseconds).
+         */
+        private long waitNanos = 0;
+
+        /**
+         * Blocks until some bytes may be sent.
+         *
+         * @param wanted Number of bytes to send.
+         * @return Number of bytes that may be sent now: at least 1 (if wanted is positive) and at most wanted.
+         * @throws InterruptedIOException If interrupted while waiting.
+         */
+        long acquire(long wanted) throws InterruptedIOException {
+            updateRate();
+            if (isUnlimited()) {
+                return wanted;
+            }
+            try {
+                long amount = bucket.portion(Math.min(wanted, QUANTUM));
+                bucket.take(amount);
+                if (global.getRate() == 0) {
+                    return amount;
+                }
+
+                turn.lock();
+                try {
+                    long granted = global.portion(amount);
+                    global.take(granted);
+                    bucket.giveBack(amount - granted);
+                    return granted;
+                } finally {
+                    turn.unlock();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bandwidth.");
+            }
+        }
+
+        /**
+         * Grants bytes to send without blocking.
+         *
+         * @param wanted Number of bytes to send.
+         * @return Number of bytes that may be sent now, at most wanted;
+         * 0 if nothing may be sent for getWaitNanos() nanoseconds.
+         */
+        long tryAcquire(long wanted) {
+            updateRate();
+            if (isUnlimited()) {
+                return wanted;
+            }
+            long amount = global.portion(bucket.portion(Math.min(wanted, QUANTUM)));
+            if (!bucket.tryTake(amount)) {
+                waitNanos = Math.max(bucket.nanosUntil(amount), MIN_WAIT);
+                return 0;
+            }
+            if (turn.isLocked() || !global.tryTake(amount)) {
+                // Blocked transfers waiting for their turn are not overtaken.
+                bucket.giveBack(amount);
+                waitNanos = Math.max(global.nanosUntil(amount), MIN_WAIT);
+                return 0;
+            }
+            return amount;
+        }
+
+        /**
+         * Returns bytes that were granted, but not sent (e.g. the channel accepted fewer bytes),
+         * so that they may be sent later by this or other connections.
+         *
+         * @param unused Number of granted bytes that were not sent.
+         */
+        void giveBack(long unused) {
+            if (unused > 0) {
+                bucket.giveBack(unused);
+                global.giveBack(unused);
+            }
+        }
+
+        /**
+         * Returns the time to wait after tryAcquire() granted nothing (in nanoseconds).
+         */
+        long getWaitNanos() {
+            return waitNanos;
+        }
+
+        private boolean isUnlimited() {
+            return bucket.getRate() == 0 && global.getRate() == 0;
+        }
+
+        private void updateRate() {
+            long rate = connectionRate;
+            if (bucket.getRate() != rate) {
+                bucket.setRate(rate);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package server;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Signatures of the blocks of a client's copy of a file used to find the blocks in the current version. <br/>
+ * Copy is split into blocks of the same size (the shorter last block is not signed). Every block has a weak
+ * checksum that can be rolled over the file one byte at a time and a strong hash that confirms the match:
+ * the first STRONG_LENGTH bytes of its SHA-256 hash. <br/>
+ * Weak checksum of bytes x[0..L-1] (unsigned) is a | b << 16, where a = sum of x[i] and b = sum of (L - i) * x[i],
+ * both modulo 2^16. <br/>
+ * Signatures are indexed by their weak checksums in a hash table of arrays, so memory is proportional
+ * to the number of blocks, which is at most MAX_BLOCKS. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see DeltaFrames
+ */
+class BlockSignatures {
+    /**
+     * Number of bytes of SHA-256 hash used as the strong hash.
+     */
+    static final int STRONG_LENGTH = 16;
+    static final int MIN_BLOCK_SIZE = 512;
+    static final int MAX_BLOCK_SIZE = 1024 * 1024;
+    static final int MAX_BLOCKS = 1 << 17;
+
+    private final int blockSize;
+    private final int count;
+    private final int[] weak;
+    private final byte[] strong;
+    /**
+     * First block of every bucket of the hash table, -1 for empty buckets.
+     */
+    private final int[] heads;
+    /**
+     * Next block of the same bucket, -1 for the last one.
+     */
+    private final int[] next;
+    private int added = 0;
+
+    /**
+     * Constructs a new instance of BlockSignatures with no signatures added.
+     *
+     * @param blockSize Size of the blocks.
+     * @param count     Number of blocks.
+     * @throws IllegalArgumentException If the block size or the number of blocks is out of the limits.
+     */
+    BlockSignatures(int blockSize, int count) {
+        if (!isValid(blockSize, count)) {
+            throw new IllegalArgumentException("Wrong block size or number of blocks.");
+        }
+        this.blockSize = blockSize;
+        this.count = count;
+        this.weak = new int[count];
+        this.strong = new byte[count * STRONG_LENGTH];
+        this.heads = new int[Integer.highestOneBit(Math.max(1, count)) * 2];
+        this.next = new int[count];
+        Arrays.fill(heads, -1);
+    }
+
+    /**
+     * Returns true, if the block size and the number of blocks are within the limits.
+     */
+    static boolean isValid(int blockSize, int count) {
+        return blockSize >= MIN_BLOCK_SIZE && blockSize <= MAX_BLOCK_SIZE && count >= 0 && count <= MAX_BLOCKS;
+    }
+
+    /**
+     * Adds the signature of the next block.
+     *
+     * @param line Signature: hexadecimal weak checksum and strong hash separated by a space.
+     * @throws IllegalArgumentException If the signature is malformed or all the signatures were added.
+     */
+    void add(String line) {
+        if (added == count) {
+            throw new IllegalArgumentException("Too many signatures.");
+        }
+        String[] parts = line.split(" ");
+        if (parts.length != 2 || parts[1].length() != 2 * STRONG_LENGTH) {
+            throw new IllegalArgumentException("Wrong signature: " + line);
+        }
+
+        int index = added;
+        weak[index] = Integer.parseUnsignedInt(parts[0], 16);
+        for (int i = 0; i < STRONG_LENGTH; i++) {
+            strong[index * STRONG_LENGTH + i] = (byte) Integer.parseInt(parts[1].substring(2 * i, 2 * i + 2), 16);
+        }
+        int bucket = bucket(weak[index]);
+        next[index] = heads[bucket];
+        heads[bucket] = index;
+        added++;
+    }
+
+    /**
+     * Returns true, if signatures of all the blocks were added.
+     */
+    boolean isComplete() {
+        return added == count;
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the first block with the given weak checksum or -1 if there is none.
+     */
+    int find(int checksum) {
+        return skip(heads[bucket(checksum)], checksum);
+    }
+
+    /**
+     * Returns the next block with the same weak checksum as the given block or -1 if there is none.
+     */
+    int findNext(int block) {
+        return skip(next[block], weak[block]);
+    }
+
+    /**
+     * Returns true, if the strong hash of the block is equal to the given one.
+     */
+    boolean matches(int block, byte[] hash) {
+        return Arrays.equals(strong, block * STRONG_LENGTH, (block + 1) * STRONG_LENGTH, hash, 0, STRONG_LENGTH);
+    }
+
+    /**
+     * Returns the weak checksum of the bytes.
+     */
+    static int weakChecksum(byte[] bytes, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = bytes[offset + i] & 0xFF;
+            a += x;
+            b += (length - i) * x;
+        }
+        return a & 0xFFFF | b << 16;
+    }
+
+    /**
+     * Returns the strong hash of the bytes.
+     *
+     * @param digest SHA-256 digest, is reset.
+     */
+    static byte[] strongHash(MessageDigest digest, byte[] bytes, int offset, int length) {
+        digest.update(bytes, offset, length);
+        return Arrays.copyOf(digest.digest(), STRONG_LENGTH);
+    }
+
+    /**
+     * Returns a new SHA-256 digest.
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    }
+
+    private int skip(int block, int checksum) {
+        while (block >= 0 && weak[block] != checksum) {
+            block = next[block];
+        }
+        return block;
+    }
+
+    private int bucket(int checksum) {
+        return (checksum ^ checksum >>> 16) * 0x9E3779B1 >>> 7 & heads.length - 1;
+    }
+}
@@ -0,0 +1,76 @@
+package server;
+
+/**
+ * Region of a file requested by a client. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class ByteRange {
+    private final long offset;
+    private final long length;
+    private final boolean partial;
+
+    private ByteRange(long offset, long length, boolean partial) {
+        this.offset = offset;
+        this.length = length;
+        this.partial = partial;
+    }
+
+    /**
+     * Returns position of the first byte of the range.
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns number of bytes in the range.
+     */
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns true, if client requested a range, false if the whole file was requested.
+     */
+    boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * Returns header line of the binary response. <br/>
+     * Format: "binary {file size}" for the whole file, "binary {file size} {offset} {length}" for a range.
+     *
+     * @param size File size.
+     */
+    String header(long size) {
+        return partial ? "binary " + size + " " + offset + " " + length : "binary " + size;
+    }
+
+    /**
+     * Parses range from words of a download request: "download {id} binary [{offset} [{length}]]". <br/>
+     * Range is clamped to the file: offset beyond the end gives an empty range,
+     * missing or too big length means "up to the end of file".
+     *
+     * @param words Words of the request.
+     * @param from  Index of the word containing the offset.
+     * @param size  File size.
+     * @throws NumberFormatException    If offset or length are not valid numbers.
+     * @throws IllegalArgumentException If offset or length are negative.
+     */
+    static ByteRange parse(String[] words, int from, long size) {
+        if (words.length <= from) {
+            return new ByteRange(0, size, false);
+        }
+
+        long offset = Long.parseLong(words[from]);
+        long length = words.length > from + 1 ? Long.parseLong(words[from + 1]) : Long.MAX_VALUE;
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Range must not be negative.");
+        }
+
+        offset = Math.min(offset, size);
+        return new ByteRange(offset, Math.min(length, size - offset), true);
+    }
+}
@@ -0,0 +1,80 @@
+package server;
+
+/**
+ * Snapshot of the counters of the server's cache of memory-mapped file regions.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see TorrentServer#getCacheStatistics()
+ */
+public class CacheStatistics {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int regions;
+    private final long mappedBytes;
+    private final long capacity;
+
+    CacheStatistics(long hits, long misses, long evictions, int regions, long mappedBytes, long capacity) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.regions = regions;
+        this.mappedBytes = mappedBytes;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the number of times bytes were sent from an already mapped region.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of times a region had to be mapped.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of regions evicted to fit the capacity.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of currently mapped regions.
+     */
+    public int getRegions() {
+        return regions;
+    }
+
+    /**
+     * Returns the total size of currently mapped regions (in bytes).
+     */
+    public long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    /**
+     * Returns the maximum total size of mapped regions (in bytes), 0 if the cache is disabled.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the part of requests served from already mapped regions, 0 if there were no requests.
+     */
+    public double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits %d, misses %d (%.1f%% hit rate), evictions %d, %d regions, %d of %d bytes mapped",
+                hits, misses, 100 * getHitRate(), evictions, regions, mappedBytes, capacity);
+    }
+}
@@ -3,7 +3,14 @@ package server;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Client's requests processor intended to be executed by a thread. <br/>
@@ -13,21 +20,43 @@ import java.util.Objects;
  * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
  */
 class ClientServingThread implements Runnable {
-
     private final Socket socket;
-    private final File directory;
+    private final FileCatalog catalog;
+    private final ManifestCache manifests;
+    private final ServerResources resources;
+    private final ServerMetrics metrics;
+    private final SwarmTracker tracker;
 
     private BufferedReader in;
-    private PrintWriter out;
+    private volatile PrintWriter out;
+    /**
+     * Sender of file bodies used by the binary download mode.
+     */
+    private FileSender sender;
+
+    /**
+     * True while a request is being processed.
+     */
+    private boolean busy = false;
+    /**
+     * True if the server is shutting down and the connection must be closed as soon as it is idle.
+     */
+    private boolean draining = false;
 
     /**
      * Constructor creates a new instance of ClientServingThread.
      *
+     * @param socket    Client's socket.
+     * @param resources Resources of the server.
      * @throws NullPointerException If any of the passed arguments are null.
      */
-    ClientServingThread(Socket socket, File directory) {
+    ClientServingThread(Socket socket, ServerResources resources) {
         this.socket = Objects.requireNonNull(socket, "Socket was null.");
-        this.directory = Objects.requireNonNull(directory, "Directory was null.");
+        this.resources = Objects.requireNonNull(resources, "Resources were null.");
+        this.catalog = resources.getCatalog();
+        this.manifests = resources.getManifests();
+        this.metrics = resources.getMetrics();
+        this.tracker = resources.getTracker();
     }
 
     /**
@@ -35,15 +64,26 @@ class ClientServingThread implements Runnable {
      */
     @Override
     public void run() {
+        metrics.connectionOpened();
         try {
             out = new PrintWriter(socket.getOutputStream(), true);
+            sender = new FileSender(socket.getChannel() != null
+                    ? socket.getChannel()
+                    : Channels.newChannel(socket.getOutputStream()),
+                    resources.getCache(), resources.getReadAhead(), resources.getShaper().newConnection(), metrics);
             in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
             while (!socket.isClosed()) {
                 try {
                     String input = in.readLine();
+                    if (input == null || !startRequest()) {
+                        return;
+                    }
                     System.out.println("Received request: " + input);
                     processRequest(input);
+                    if (!finishRequest()) {
+                        return;
+                    }
                 } catch (SocketException e) {
                     System.err.println("Connection lost.");
                     return;
@@ -55,23 +95,113 @@ class ClientServingThread implements Runnable {
             System.err.println(e.getMessage());
         } finally {
             end(false);
+            tracker.leave(this);
+            metrics.connectionClosed();
+        }
+    }
+
+    /**
+     * Makes the connection finish as soon as it is idle. <br/>
+     * If no request is being processed, closes the socket immediately,
+     * otherwise the socket will be closed after the response is sent.
+     */
+    synchronized void stopWhenIdle() {
+        draining = true;
+        if (!busy && !socket.isClosed()) {
+            if (out != null) {
+                out.println("aborted");
+            }
+            kill();
+        }
+    }
+
+    /**
+     * Closes the socket immediately even if a response is being sent.
+     */
+    void kill() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
         }
     }
 
     /**
-     * Processes client's request.
+     * Marks the connection as busy.
+     *
+     * @return false, if the connection must be closed instead of processing the request.
+     */
+    private synchronized boolean startRequest() {
+        busy = !draining;
+        return busy;
+    }
+
+    /**
+     * Marks the connection as idle.
+     *
+     * @return false, if the connection must be closed instead of waiting for the next request.
+     */
+    private synchronized boolean finishRequest() {
+        busy = false;
+        return !draining;
+    }
+
+    /**
+     * Processes client's request. <br/>
+     * Request may be tagged with an ID: "#{ID} {request}". Response to a tagged request
+     * starts with a line "#{ID}", so that a client sending several requests without waiting
+     * for responses can match them.
      *
      * @param request String containing a line received by client.
      */
     private void processRequest(String request) {
+        if (request.startsWith("#")) {
+            int space = request.indexOf(' ');
+            out.println(space < 0 ? request : request.substring(0, space));
+            request = space < 0 ? "" : request.substring(space + 1);
+        }
         String[] words = request.split(" ");
+        long start = System.nanoTime();
 
         switch (words[0]) {
             case "list":
-                sendListOfFiles();
+                sendListOfFiles(words);
+                metrics.getListLatency().record(System.nanoTime() - start);
                 break;
             case "download":
-                downloadFile(Integer.parseInt(words[1]));
+                if (words.length > 2 && words[2].equals("binary")) {
+                    downloadFileBinary(Integer.parseInt(words[1]), words);
+                } else {
+                    downloadFile(Integer.parseInt(words[1]));
+                }
+                metrics.getDownloadLatency().record(System.nanoTime() - start);
+                break;
+            case "folder":
+                sendFolder(argument(request));
+                metrics.getListLatency().record(System.nanoTime() - start);
+                break;
+            case "archive":
+                sendArchive(argument(request));
+                metrics.getDownloadLatency().record(System.nanoTime() - start);
+                break;
+            case "delta":
+                sendDelta(words);
+                metrics.getDownloadLatency().record(System.nanoTime() - start);
+                break;
+            case "stats":
+                sendStatistics();
+                break;
+            case "announce":
+                announce(words);
+                break;
+            case "peers":
+                sendPeers(words);
+                break;
+            case "manifest":
+                sendManifest(id(words));
+                break;
+            case "hash":
+                sendContentHash(id(words));
                 break;
             case "finish":
                 end(true);
@@ -82,31 +212,263 @@ class ClientServingThread implements Runnable {
     /**
      * Sends information about every file in directory to client. <br/>
      * Response format: "{id} {file name} {file size}", <br/>
-     * where id - index of the file in the list of files in directory.
+     * where id - ID of the file in the catalog. <br/>
+     * If the request is "list {offset} {limit} [{search key}]", only a page of the files matching the key
+     * is sent, preceded by a line "total {number of matching files}".
+     *
+     * @param words Words of the request.
+     * @see FileCatalog
+     * @see ListQuery
+     */
+    private void sendListOfFiles(String[] words) {
+        var lines = words.length > 1 ? ListQuery.parse(words, 1).response(catalog) : catalog.list();
+        for (String line : lines) {
+            out.println(line);
+        }
+        out.println("done");
+    }
+
+    /**
+     * Sends the subfolders and the files of a folder. <br/>
+     * Request format: "folder [{path}]", where path is relative to the server's directory,
+     * uses '/' as a separator and may contain spaces. <br/>
+     * Response format: "dir {name}" for every subfolder and "{id} {file name} {file size}"
+     * for every file followed by "done"; "none" if there is no such folder.
+     *
+     * @param path Path of the folder.
+     * @see FileCatalog#listFolder(String)
+     */
+    private void sendFolder(String path) {
+        List<String> lines;
+        try {
+            lines = catalog.listFolder(path);
+        } catch (IOException e) {
+            System.err.println("Cannot read folder: " + e.getMessage());
+            lines = null;
+        }
+        if (lines == null) {
+            out.println("none");
+            return;
+        }
+        for (String line : lines) {
+            out.println(line);
+        }
+        out.println("done");
+    }
+
+    /**
+     * Sends a folder with all its contents as a tar archive generated on the fly. <br/>
+     * Request format: "archive [{path}]" (path is the same as in the folder request). <br/>
+     * Response format: header line "archive" followed by binary frames of the archive
+     * (the same frames as in the binary download mode); "none" if there is no such folder.
+     *
+     * @param path Path of the folder.
+     * @see TarFrames
+     */
+    private void sendArchive(String path) {
+        var folder = catalog.findFolder(path);
+        if (folder == null) {
+            out.println("none");
+            return;
+        }
+
+        metrics.archiveStarted(catalog.relativePath(folder));
+        out.println("archive");
+        try (var frames = new TarFrames(folder)) {
+            sender.sendFrames(frames, resources.getRoot(folder.toFile()));
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            end(false);
+        }
+    }
+
+    /**
+     * Reads signatures of the client's copy of the file and sends instructions rebuilding the file from it. <br/>
+     * Request and response formats are described by DeltaRequest.
+     *
+     * @param words Words of the request.
+     * @see DeltaRequest
+     * @see DeltaFrames
      */
-    private void sendListOfFiles() {
-        var listOfFiles = Objects.requireNonNull(directory.listFiles());
-        for (int id = 0; id < listOfFiles.length; id++) {
-            if (!listOfFiles[id].isDirectory() && listOfFiles[id].length() <= 137_438_883_103L) {
-                out.println(id + " " + listOfFiles[id].getName() + " " + listOfFiles[id].length());
+    private void sendDelta(String[] words) {
+        try {
+            DeltaRequest request;
+            try {
+                request = new DeltaRequest(words);
+            } catch (IllegalArgumentException e) {
+                // Signature lines cannot be told from requests, so the connection cannot be used.
+                out.println("none");
+                end(false);
+                return;
+            }
+            while (!request.isComplete()) {
+                String line = in.readLine();
+                if (line == null) {
+                    throw new EOFException("Connection lost.");
+                }
+                request.add(line);
+            }
+
+            var file = catalog.find(request.getId());
+            if (file == null || request.getSignatures() == null) {
+                out.println("none");
+                return;
             }
+            FileChannel fileChannel;
+            try {
+                fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            } catch (NoSuchFileException | AccessDeniedException e) {
+                System.err.println("Cannot read file: " + e.getMessage());
+                out.println("none");
+                return;
+            }
+
+            metrics.downloadStarted(request.getId(), catalog.relativePath(file.toPath()));
+            try (fileChannel) {
+                long size = fileChannel.size();
+                out.println("delta " + size);
+                try (var frames = new DeltaFrames(fileChannel, size, request.getSignatures())) {
+                    sender.sendFrames(frames, resources.getRoot(file));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            end(false);
+        }
+    }
+
+    /**
+     * Returns the rest of the request after its first word, e.g. a path that may contain spaces.
+     */
+    static String argument(String request) {
+        int space = request.indexOf(' ');
+        return space < 0 ? "" : request.substring(space + 1);
+    }
+
+    /**
+     * Returns the ID of a file given as the second word of the request.
+     *
+     * @param words Words of the request.
+     * @return ID or -1 if it is missing or is not a number, so that no file is found by it.
+     */
+    static int id(String[] words) {
+        try {
+            return words.length < 2 ? -1 : Integer.parseInt(words[1]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Sends statistics of the server. <br/>
+     * Response format: lines of ServerStatistics.lines() followed by "done".
+     *
+     * @see ServerStatistics#lines()
+     */
+    private void sendStatistics() {
+        for (String line : metrics.getStatistics().lines()) {
+            out.println(line);
         }
         out.println("done");
     }
 
     /**
-     * Reads file and sends it byte by byte to the client.
+     * Remembers that the client serves chunks of the file to other clients. <br/>
+     * Request format: "announce {id} {port} {chunk ranges}", e.g. "announce 3 6000 0-4,7". <br/>
+     * Response: "done", or "none" if there is no such file or the request is wrong
+     * (e.g. a chunk is not in the file). Announcements are forgotten when the connection is closed.
+     *
+     * @param words Words of the request.
+     * @see SwarmTracker
+     */
+    private void announce(String[] words) {
+        try {
+            var file = words.length < 4 ? null : catalog.find(Integer.parseInt(words[1]));
+            if (file == null) {
+                out.println("none");
+                return;
+            }
+            tracker.announce(this, Integer.parseInt(words[1]), socket.getInetAddress(), Integer.parseInt(words[2]),
+                    words[3], SwarmTracker.chunkCount(file.length()));
+            out.println("done");
+        } catch (IllegalArgumentException e) {
+            out.println("none");
+        }
+    }
+
+    /**
+     * Sends the clients serving chunks of the file. <br/>
+     * Request format: "peers {id}". Response: "peer {host} {port} {chunk ranges}" for every client and "done",
+     * or "none" if the request is wrong.
+     *
+     * @param words Words of the request.
+     * @see SwarmTracker
+     */
+    private void sendPeers(String[] words) {
+        List<String> lines;
+        try {
+            lines = words.length < 2 ? List.of("none") : tracker.peers(this, Integer.parseInt(words[1]));
+        } catch (NumberFormatException e) {
+            lines = List.of("none");
+        }
+        for (String line : lines) {
+            out.println(line);
+        }
+    }
+
+    /**
+     * Sends SHA-256 hashes of the chunks of the file. Never waits for the hashes to be computed. <br/>
+     * Response format: "manifest {file size} {chunk size} {number of chunks}", hash of every chunk
+     * on a separate line and "done"; "pending" if the manifest is not computed yet;
+     * "none" if there is no such file, the ID is wrong or the file cannot be read.
      *
-     * @param id Index of the file in the list of files in directory.
+     * @param id ID of the file in the catalog, -1 if the request has no valid ID.
+     * @see ManifestCache
+     */
+    private void sendManifest(int id) {
+        var file = catalog.find(id);
+        for (String line : file == null ? List.of("none") : manifests.response(file)) {
+            out.println(line);
+        }
+    }
+
+    /**
+     * Sends the content hash of the file: SHA-256 hash of all of its bytes. Never waits for it to be computed. <br/>
+     * Response format: "hash {hexadecimal hash}"; "pending" if the hash is not computed yet;
+     * "none" if there is no such file, the ID is wrong or the file cannot be read.
+     *
+     * @param id ID of the file in the catalog, -1 if the request has no valid ID.
+     * @see ManifestCache#hashResponse(File)
+     */
+    private void sendContentHash(int id) {
+        var file = catalog.find(id);
+        out.println(file == null ? "none" : manifests.hashResponse(file));
+    }
+
+    /**
+     * Reads file and sends it byte by byte to the client. <br/>
+     * Legacy text mode: every byte is sent as a separate line with its decimal value.
+     *
+     * Unknown file is sent as an empty one.
+     *
+     * @param id ID of the file in the catalog.
      */
     private void downloadFile(int id) {
-        var file = Objects.requireNonNull(directory.listFiles())[id];
+        var file = catalog.find(id);
+        if (file == null) {
+            out.println("done");
+            return;
+        }
 
-        try (InputStream inputStream = new FileInputStream(file)) {
+        metrics.downloadStarted(id, catalog.relativePath(file.toPath()));
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
             int readByte;
+            long sent = 0;
             while ((readByte = inputStream.read()) != -1) {
                 out.println(readByte);
+                sent++;
             }
+            metrics.bytesSent(sent);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -114,6 +476,74 @@ class ClientServingThread implements Runnable {
         out.println("done");
     }
 
+    /**
+     * Sends file or its range to the client in binary frames. <br/>
+     * Request format: "download {id} binary [{offset} [{length}]] [deflate]". <br/>
+     * Response format: header line "binary {file size}" (or "binary {file size} {offset} {length}"
+     * if a range was requested) followed by frames. <br/>
+     * Every frame is a 4-byte big-endian length followed by that many bytes of the file.
+     * Frame of length 0 marks the end of the file, frame of length -1 means that the file could not be read
+     * (or there is no file with such ID). <br/>
+     * If the client asked for compression and the file is worth compressing, header ends with " deflate"
+     * and bytes of the frames form a raw Deflate stream of the range.
+     *
+     * @param id    ID of the file in the catalog.
+     * @param words Words of the request.
+     * @see FileSender
+     * @see ByteRange
+     * @see CompressedFrames
+     */
+    private void downloadFileBinary(int id, String[] words) {
+        var file = catalog.find(id);
+        if (file == null) {
+            out.println("binary 0");
+            trySendError();
+            return;
+        }
+
+        metrics.downloadStarted(id, catalog.relativePath(file.toPath()));
+        long size = file.length();
+        var range = ByteRange.parse(CompressedFrames.withoutOption(words), 3, size);
+        var root = resources.getRoot(file);
+        try {
+            // A sample of the file is read and compressed, so the decision is made by an I/O thread of the root.
+            boolean compressed = CompressedFrames.isRequested(words) && RootIo.await(CompletableFuture.supplyAsync(
+                    () -> CompressedFrames.isWorthCompressing(file, range.getOffset(), range.getLength()),
+                    root.getPool()));
+            out.println(range.header(size) + (compressed ? " " + CompressedFrames.OPTION : ""));
+            try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (compressed) {
+                    try (var frames = new CompressedFrames(fileChannel, range.getOffset(), range.getLength())) {
+                        sender.sendFrames(frames, root);
+                    }
+                } else {
+                    sender.sendFile(file, fileChannel, root, range.getOffset(), range.getLength());
+                    sender.sendEnd();
+                }
+            }
+        } catch (EOFException e) {
+            System.err.println(e.getMessage());
+            end(false);
+        } catch (NoSuchFileException | AccessDeniedException e) {
+            System.err.println("Cannot read file: " + e.getMessage());
+            trySendError();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            end(false);
+        }
+    }
+
+    /**
+     * Informs the client that the file could not be read ignoring I/O errors.
+     */
+    private void trySendError() {
+        try {
+            sender.sendError();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
     /**
      * Closes all the resources.
      *
@@ -0,0 +1,193 @@
+package server;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Range of a file compressed with Deflate and split into binary frames. <br/>
+ * Frames have the same format as the uncompressed ones (4-byte big-endian length followed by that many bytes),
+ * but their bytes form a single raw Deflate stream, so the client inflates them in sequence.
+ * Frame of length 0 marks the end of the stream. <br/>
+ * Frames are produced one at a time, so that both blocking and non-blocking engines can send them. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class CompressedFrames implements FrameSource {
+    /**
+     * Name of the option of a download request and of the binary response header.
+     */
+    static final String OPTION = "deflate";
+
+    /**
+     * Maximum number of compressed bytes in one frame.
+     */
+    private static final int FRAME_SIZE = 64 * 1024;
+    private static final int INPUT_SIZE = 64 * 1024;
+
+    /**
+     * Number of bytes at the beginning of the range compressed to decide if the range is worth compressing.
+     */
+    private static final int SAMPLE_SIZE = 3 * INPUT_SIZE;
+    /**
+     * Range is compressed if the sample shrinks at least to this part of its size.
+     */
+    private static final double MAX_RATIO = 0.9;
+
+    /**
+     * Extensions of formats that are already compressed.
+     */
+    private static final Set<String> COMPRESSED_FORMATS = Set.of(
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "lz4", "jar", "apk",
+            "jpg", "jpeg", "png", "gif", "webp", "mp3", "aac", "ogg", "flac",
+            "mp4", "mkv", "avi", "mov", "webm", "docx", "xlsx", "pptx", "pdf");
+
+    private final FileChannel file;
+    private final long end;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final ByteBuffer input = ByteBuffer.allocate(INPUT_SIZE);
+    private final ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + FRAME_SIZE);
+
+    private long position;
+    private long bytesRead = 0;
+    private boolean ended = false;
+
+    /**
+     * Constructs a new instance of CompressedFrames.
+     *
+     * @param file     File to compress.
+     * @param position Position of the first byte to compress.
+     * @param count    Number of bytes to compress.
+     * @throws NullPointerException If file is null.
+     */
+    CompressedFrames(FileChannel file, long position, long count) {
+        this.file = Objects.requireNonNull(file, "File was null.");
+        this.position = position;
+        this.end = position + count;
+    }
+
+    /**
+     * Returns true, if the download request asks for compression, i.e. its last word is "deflate".
+     *
+     * @param words Words of the request.
+     */
+    static boolean isRequested(String[] words) {
+        return words.length > 0 && words[words.length - 1].equals(OPTION);
+    }
+
+    /**
+     * Returns words of the request without the compression option.
+     *
+     * @param words Words of the request.
+     */
+    static String[] withoutOption(String[] words) {
+        return isRequested(words) ? Arrays.copyOf(words, words.length - 1) : words;
+    }
+
+    /**
+     * Returns true, if the range of the file should be sent compressed. <br/>
+     * Files of known compressed formats are not compressed. Other files are compressed
+     * if the first chunks of the range shrink enough. File that cannot be read is not compressed.
+     *
+     * @param file     File to send.
+     * @param position Position of the first byte of the range.
+     * @param count    Number of bytes in the range.
+     */
+    static boolean isWorthCompressing(File file, long position, long count) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (count == 0 || dot >= 0 && COMPRESSED_FORMATS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+
+        var sample = ByteBuffer.allocate((int) Math.min(SAMPLE_SIZE, count));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (sample.hasRemaining()) {
+                if (channel.read(sample, position + sample.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        }
+
+        var deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample.array(), 0, sample.position());
+            deflater.finish();
+            var output = new byte[INPUT_SIZE];
+            while (!deflater.finished()) {
+                deflater.deflate(output);
+            }
+            return deflater.getBytesWritten() < MAX_RATIO * deflater.getBytesRead();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public ByteBuffer next() throws IOException {
+        if (ended) {
+            return null;
+        }
+
+        frame.clear();
+        frame.position(Integer.BYTES);
+        while (frame.hasRemaining() && !deflater.finished()) {
+            if (deflater.needsInput()) {
+                readInput();
+            }
+            int deflated = deflater.deflate(frame.array(), frame.position(), frame.remaining());
+            frame.position(frame.position() + deflated);
+        }
+
+        int length = frame.position() - Integer.BYTES;
+        ended = length == 0;
+        frame.putInt(0, length).flip();
+        return frame;
+    }
+
+    /**
+     * Passes the next bytes of the range to the deflater or finishes the stream if all of them were passed.
+     */
+    private void readInput() throws IOException {
+        if (position >= end) {
+            deflater.finish();
+            return;
+        }
+
+        input.clear();
+        if (end - position < input.capacity()) {
+            input.limit((int) (end - position));
+        }
+        int read = file.read(input, position);
+        if (read < 0) {
+            throw new EOFException("File was truncated while sending.");
+        }
+        position += read;
+        bytesRead += read;
+        deflater.setInput(input.array(), 0, read);
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Releases the deflater. File channel is not closed.
+     */
+    @Override
+    public void close() {
+        deflater.end();
+    }
+}
@@ -0,0 +1,57 @@
+package server;
+
+import java.util.concurrent.*;
+
+/**
+ * Class provides static factory methods for executors that run client serving tasks of TorrentServer.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see TorrentServer#setConnectionExecutor(Executor)
+ */
+public class ConnectionExecutors {
+    /**
+     * Returns an executor that starts a new platform thread for every client. <br/>
+     * Number of threads is not limited.
+     */
+    public static Executor threadPerConnection() {
+        return command -> new Thread(command).start();
+    }
+
+    /**
+     * Returns an executor with a fixed number of platform threads. <br/>
+     * Clients that cannot be served immediately wait in a queue of limited size.
+     * Clients that do not fit into the queue are rejected with RejectedExecutionException.
+     *
+     * @param threads    Number of threads.
+     * @param queueLimit Maximum number of clients waiting for a thread.
+     * @throws IllegalArgumentException If threads is not positive or queueLimit is negative.
+     */
+    public static ExecutorService boundedPool(int threads, int queueLimit) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be positive.");
+        }
+        if (queueLimit < 0) {
+            throw new IllegalArgumentException("Queue limit must not be negative.");
+        }
+
+        BlockingQueue<Runnable> queue = queueLimit == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueLimit);
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue,
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Returns an executor that starts a new virtual thread for every client. <br/>
+     * Virtual threads are looked up at runtime, so the server can be built for older Java versions.
+     *
+     * @throws UnsupportedOperationException If the running JVM does not support virtual threads (before Java 21).
+     */
+    public static ExecutorService virtualThreadPerConnection() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer.");
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Cannot create virtual threads.", e);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Objects;
+
+/**
+ * Instructions rebuilding a file from the client's copy of it, split into binary frames. <br/>
+ * Window of the block size is rolled over the file; where the window matches a block of the copy
+ * (the weak checksum and then the strong hash are equal), the client is told to copy the block,
+ * otherwise the bytes are sent as they are. The file is read once from the beginning to the end,
+ * and only the window and the bytes not sent yet are kept in memory. <br/>
+ * Bytes of the frames form a stream of instructions, which may cross frames: <br/>
+ * 'C' {first block} {number of blocks} - copy consecutive blocks of the copy; <br/>
+ * 'L' {length} {bytes} - bytes of the file; <br/>
+ * 'E' {SHA-256 hash of the file} - the last instruction, so that the client can check the rebuilt file. <br/>
+ * Numbers are 4-byte big-endian. Frame of length 0 marks the end of the stream. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see BlockSignatures
+ */
+class DeltaFrames implements FrameSource {
+    static final byte COPY = 'C';
+    static final byte LITERAL = 'L';
+    static final byte END = 'E';
+
+    /**
+     * Number of instruction bytes after which a frame is sent.
+     */
+    private static final int FRAME_SIZE = 64 * 1024;
+    /**
+     * Maximum number of bytes in one literal instruction.
+     */
+    private static final int MAX_LITERAL = 32 * 1024;
+
+    private final FileChannel file;
+    private final long size;
+    private final BlockSignatures signatures;
+    private final int blockSize;
+    private final MessageDigest blockDigest = BlockSignatures.newDigest();
+    private final MessageDigest fileDigest = BlockSignatures.newDigest();
+    private final ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + FRAME_SIZE + MAX_LITERAL + 64);
+
+    /**
+     * Bytes of the file read but not sent yet: data[literal..window) are bytes not matched by any block,
+     * data[window..filled) are the window and bytes after it.
+     */
+    private final byte[] data;
+    private int literal = 0;
+    private int window = 0;
+    private int filled = 0;
+    /**
+     * Position of the next byte of the file to read.
+     */
+    private long position = 0;
+
+    /**
+     * Weak checksum of the window: its sums a and b, valid if rolling is true.
+     */
+    private int a;
+    private int b;
+    private boolean rolling = false;
+
+    /**
+     * Consecutive blocks to copy that have not been written to a frame yet; count is 0 if there are none.
+     */
+    private int copyStart;
+    private int copyCount = 0;
+
+    private boolean finished = false;
+    private boolean ended = false;
+
+    /**
+     * Constructs a new instance of DeltaFrames.
+     *
+     * @param file       File to send.
+     * @param size       Size of the file.
+     * @param signatures Signatures of the blocks of the client's copy.
+     * @throws NullPointerException If file or/and signatures are null.
+     */
+    DeltaFrames(FileChannel file, long size, BlockSignatures signatures) {
+        this.file = Objects.requireNonNull(file, "File was null.");
+        this.signatures = Objects.requireNonNull(signatures, "Signatures were null.");
+        this.size = size;
+        this.blockSize = signatures.getBlockSize();
+        this.data = new byte[MAX_LITERAL + 2 * blockSize];
+    }
+
+    @Override
+    public ByteBuffer next() throws IOException {
+        if (ended) {
+            return null;
+        }
+
+        frame.clear();
+        frame.position(Integer.BYTES);
+        while (!finished && frame.position() - Integer.BYTES < FRAME_SIZE) {
+            step();
+        }
+
+        int length = frame.position() - Integer.BYTES;
+        ended = length == 0;
+        frame.putInt(0, length).flip();
+        return frame;
+    }
+
+    /**
+     * Moves the window by a block if it matches one or by a byte otherwise. Writes instructions to the frame.
+     */
+    private void step() throws IOException {
+        fill(window + blockSize + 1);
+        if (filled - window < blockSize) {
+            // Bytes after the last whole window cannot match, they are sent as literals.
+            window = Math.min(filled, literal + MAX_LITERAL);
+            writeLiteral();
+            if (window == filled) {
+                writeCopy();
+                frame.put(END).put(fileDigest.digest());
+                finished = true;
+            }
+            return;
+        }
+
+        if (!rolling) {
+            int checksum = BlockSignatures.weakChecksum(data, window, blockSize);
+            a = checksum & 0xFFFF;
+            b = checksum >>> 16;
+            rolling = true;
+        }
+        int block = match(a & 0xFFFF | b << 16);
+        if (block >= 0) {
+            writeLiteral();
+            if (copyCount > 0 && copyStart + copyCount == block) {
+                copyCount++;
+            } else {
+                writeCopy();
+                copyStart = block;
+                copyCount = 1;
+            }
+            fileDigest.update(data, window, blockSize);
+            window += blockSize;
+            literal = window;
+            rolling = false;
+            return;
+        }
+
+        if (window + blockSize < filled) {
+            int out = data[window] & 0xFF;
+            int in = data[window + blockSize] & 0xFF;
+            a += in - out;
+            b += a - blockSize * out;
+        }
+        window++;
+        if (window - literal >= MAX_LITERAL) {
+            writeLiteral();
+        }
+    }
+
+    /**
+     * Returns the block of the copy equal to the window or -1 if there is none.
+     * The block following the last copied one is preferred, so that the copies can be merged.
+     */
+    private int match(int checksum) {
+        int block = signatures.find(checksum);
+        if (block < 0) {
+            return -1;
+        }
+        var hash = BlockSignatures.strongHash(blockDigest, data, window, blockSize);
+        int found = -1;
+        for (; block >= 0; block = signatures.findNext(block)) {
+            if (signatures.matches(block, hash)) {
+                if (copyCount > 0 && block == copyStart + copyCount) {
+                    return block;
+                }
+                found = found < 0 ? block : Math.min(found, block);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Writes bytes that were not matched as a literal instruction.
+     */
+    private void writeLiteral() {
+        int length = window - literal;
+        if (length == 0) {
+            return;
+        }
+        writeCopy();
+        frame.put(LITERAL).putInt(length).put(data, literal, length);
+        fileDigest.update(data, literal, length);
+        literal = window;
+    }
+
+    /**
+     * Writes the pending copy instruction.
+     */
+    private void writeCopy() {
+        if (copyCount > 0) {
+            frame.put(COPY).putInt(copyStart).putInt(copyCount);
+            copyCount = 0;
+        }
+    }
+
+    /**
+     * Reads the file until the data contains the given number of bytes or the file is over.
+     * Bytes that were sent are dropped from the beginning of the data to make room.
+     */
+    private void fill(int wanted) throws IOException {
+        if (filled >= wanted || position >= size) {
+            return;
+        }
+        if (wanted > data.length) {
+            System.arraycopy(data, literal, data, 0, filled - literal);
+            window -= literal;
+            filled -= literal;
+            literal = 0;
+        }
+        while (filled < data.length && position < size) {
+            var buffer = ByteBuffer.wrap(data, filled, (int) Math.min(data.length - filled, size - position));
+            int read = file.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("File was truncated while sending.");
+            }
+            filled += read;
+            position += read;
+        }
+    }
+
+    @Override
+    public long getBytesRead() {
+        return position;
+    }
+
+    @Override
+    public void close() {
+        // File is closed by its owner.
+    }
+}
@@ -0,0 +1,75 @@
+package server;
+
+/**
+ * Request for the instructions rebuilding a file from the client's copy of it. <br/>
+ * Request format: "delta {id} {block size} {number of blocks}" followed by a line with the signature
+ * of every block of the copy (see BlockSignatures). Signature lines are collected one by one,
+ * so that both blocking and non-blocking engines can read them. <br/>
+ * Response format: "delta {file size}" followed by frames of DeltaFrames, or "none" if there is
+ * no such file or the signatures are malformed. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see DeltaFrames
+ */
+class DeltaRequest {
+    private final int id;
+    private final int count;
+    private int received = 0;
+    /**
+     * Signatures received so far, null if the request is malformed.
+     */
+    private BlockSignatures signatures;
+
+    /**
+     * Constructs a new instance of DeltaRequest.
+     *
+     * @param words Words of the request line.
+     * @throws IllegalArgumentException If the request line is malformed or announces too many signature lines
+     *                                  to skip them.
+     */
+    DeltaRequest(String[] words) {
+        if (words.length < 4) {
+            throw new IllegalArgumentException("Wrong delta request.");
+        }
+        this.id = Integer.parseInt(words[1]);
+        int blockSize = Integer.parseInt(words[2]);
+        this.count = Integer.parseInt(words[3]);
+        if (count < 0 || count > BlockSignatures.MAX_BLOCKS) {
+            throw new IllegalArgumentException("Wrong number of blocks.");
+        }
+        this.signatures = BlockSignatures.isValid(blockSize, count) ? new BlockSignatures(blockSize, count) : null;
+    }
+
+    /**
+     * Adds the next signature line. Malformed lines make the request malformed.
+     */
+    void add(String line) {
+        received++;
+        if (signatures != null) {
+            try {
+                signatures.add(line);
+            } catch (IllegalArgumentException e) {
+                signatures = null;
+            }
+        }
+    }
+
+    /**
+     * Returns true, if all the signature lines were received.
+     */
+    boolean isComplete() {
+        return received == count;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the signatures or null if the request is malformed.
+     */
+    BlockSignatures getSignatures() {
+        return signatures;
+    }
+}
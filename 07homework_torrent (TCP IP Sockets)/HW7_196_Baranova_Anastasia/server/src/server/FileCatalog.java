@@ -0,0 +1,476 @@
+package server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Index of the files in the server's directories (roots) published as one catalog. <br/>
+ * Directories are scanned once, after that the index is kept up to date by a daemon thread
+ * listening to WatchService events, so list requests and lookups by ID do not touch the file system. <br/>
+ * Every file gets an ID that does not change while the server is running: files added later get new IDs,
+ * removing a file does not shift IDs of other files, and a file created again with the same name
+ * in the same root gets its former ID back. IDs of files found at startup are their indices
+ * in the listing of the first root, followed by the files of the other roots. <br/>
+ * Subfolders are listed lazily: their files get IDs (by their paths relative to the root)
+ * when the folder containing them is listed for the first time, and are not watched.
+ * A folder present in several roots is listed as one folder containing the files of all of them. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class FileCatalog implements Closeable {
+    /**
+     * Maximum size of a file that is shown to clients (in bytes).
+     */
+    static final long MAX_FILE_SIZE = 137_438_883_103L;
+
+    private final List<Root> roots = new ArrayList<>();
+    private final WatchService watchService;
+    /**
+     * Roots by the keys of their registrations in the watch service.
+     */
+    private final Map<WatchKey, Root> watched = new ConcurrentHashMap<>();
+
+    /**
+     * Files currently present in the roots ordered by ID.
+     */
+    private final NavigableMap<Integer, Entry> files = new ConcurrentSkipListMap<>();
+    /**
+     * Files found in subfolders by their IDs. Filled when the folders are listed.
+     */
+    private final Map<Integer, File> nested = new ConcurrentHashMap<>();
+
+    private int nextId = 0;
+
+    /**
+     * Listed files ordered by ID. Rebuilt only when a root changes.
+     */
+    private volatile List<Entry> listed;
+    /**
+     * Lines of the list response. Rebuilt only when a root changes.
+     */
+    private volatile List<String> listLines;
+    /**
+     * Result of the last search. Paging through the same search does not filter the files again.
+     */
+    private volatile SearchResult lastSearch;
+
+    /**
+     * Constructor scans the directories and starts watching them.
+     *
+     * @param directories Directories with files (roots), not empty.
+     * @throws NullPointerException     If directories or one of them is null.
+     * @throws IllegalArgumentException If directories is empty.
+     * @throws IOException              If a directory cannot be read or watched.
+     */
+    FileCatalog(List<File> directories) throws IOException {
+        if (Objects.requireNonNull(directories, "Directories were null.").isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one directory.");
+        }
+        for (var directory : directories) {
+            roots.add(new Root(Objects.requireNonNull(directory, "Directory was null.").toPath()));
+        }
+        this.watchService = roots.get(0).directory.getFileSystem().newWatchService();
+        try {
+            for (var root : roots) {
+                watched.put(root.directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), root);
+
+                var listOfFiles = Objects.requireNonNull(root.directory.toFile().listFiles());
+                for (var file : listOfFiles) {
+                    int id = nextId++;
+                    root.ids.put(file.getName(), id);
+                    if (file.isFile()) {
+                        files.put(id, new Entry(id, file));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            watchService.close();
+            throw e;
+        }
+        rebuildList();
+
+        var watcher = new Thread(this::watch, "file-catalog-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Returns lines of the list response for every file in the roots. <br/>
+     * Line format: "{id} {file name} {file size}".
+     */
+    List<String> list() {
+        return listLines;
+    }
+
+    /**
+     * Returns lines of the list response for files that match the key. <br/>
+     * File matches the key if its name and readable size contain every word of the key ignoring case,
+     * the same way as the client filters files.
+     *
+     * @param key Search key. Empty key matches all the files.
+     * @throws NullPointerException If key is null.
+     */
+    List<String> search(String key) {
+        Objects.requireNonNull(key, "Key was null.");
+        var entries = listed;
+        var last = lastSearch;
+        if (last != null && last.entries == entries && last.key.equals(key)) {
+            return last.lines;
+        }
+
+        List<String> lines;
+        if (key.isEmpty()) {
+            lines = listLines;
+        } else {
+            String[] words = key.toLowerCase().split(" +");
+            lines = new ArrayList<>();
+            for (var entry : entries) {
+                if (entry.matches(words)) {
+                    lines.add(entry.line);
+                }
+            }
+            lines = Collections.unmodifiableList(lines);
+        }
+        lastSearch = new SearchResult(key, entries, lines);
+        return lines;
+    }
+
+    /**
+     * Returns the file with the given ID.
+     *
+     * @param id ID of the file.
+     * @return File or null if there is no file with such ID.
+     */
+    File find(int id) {
+        var entry = files.get(id);
+        if (entry != null) {
+            return entry.file;
+        }
+        var file = nested.get(id);
+        return file != null && file.isFile() ? file : null;
+    }
+
+    /**
+     * Returns the path of a file or folder relative to the root containing it (the root with the longest directory).
+     *
+     * @param path Path of a file or folder of one of the roots.
+     * @return Path with '/' as a separator, empty string for a root itself,
+     *         the name of the file if no root contains it.
+     */
+    String relativePath(Path path) {
+        var absolute = path.toAbsolutePath().normalize();
+        Path found = null;
+        for (var root : roots) {
+            var directory = root.directory.toAbsolutePath().normalize();
+            if (absolute.startsWith(directory) && (found == null || directory.getNameCount() > found.getNameCount())) {
+                found = directory;
+            }
+        }
+        if (found == null) {
+            var name = absolute.getFileName();
+            return name == null ? "" : name.toString();
+        }
+        return found.relativize(absolute).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Returns the folder with the given path in the first root that has it.
+     *
+     * @param path Path of the folder relative to the roots with '/' as a separator,
+     *             empty string for the first root itself.
+     * @return Folder or null if there is no such folder, it is outside of the roots
+     * or its path contains symbolic links.
+     */
+    Path findFolder(String path) {
+        for (var root : roots) {
+            var folder = findFolder(root, path);
+            if (folder != null) {
+                return folder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the folder with the given path in the root or null if the root has no such folder.
+     */
+    private static Path findFolder(Root root, String path) {
+        var directory = root.directory.toAbsolutePath().normalize();
+        Path folder;
+        try {
+            folder = directory.resolve(path).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (!folder.startsWith(directory) || !Files.isDirectory(folder, LinkOption.NOFOLLOW_LINKS)) {
+            return null;
+        }
+        for (var part = folder; !part.equals(directory); part = part.getParent()) {
+            if (Files.isSymbolicLink(part)) {
+                return null;
+            }
+        }
+        return folder;
+    }
+
+    /**
+     * Returns lines of the response to the folder request. Reads the folder of every root every time. <br/>
+     * Format: line "dir {name}" for every subfolder, then line "{id} {file name} {file size}"
+     * for every file of the folder (the same as in the list response); both ordered by name.
+     * Subfolders present in several roots are listed once, files of all the roots are listed.
+     * Symbolic links and files too big to be shown are skipped.
+     *
+     * @param path Path of the folder relative to the roots, empty string for the roots themselves.
+     * @return Lines or null if no root has such folder.
+     * @throws IOException If the folder cannot be read.
+     * @see FileCatalog#findFolder(String)
+     */
+    List<String> listFolder(String path) throws IOException {
+        var folders = new TreeSet<String>();
+        var files = new ArrayList<Map.Entry<String, String>>();
+        boolean found = false;
+        for (var root : roots) {
+            var folder = findFolder(root, path);
+            if (folder == null) {
+                continue;
+            }
+            found = true;
+            var directory = root.directory.toAbsolutePath().normalize();
+
+            List<Path> children;
+            try (var listing = Files.list(folder)) {
+                children = listing.sorted().collect(Collectors.toList());
+            }
+            for (var child : children) {
+                if (Files.isSymbolicLink(child)) {
+                    continue;
+                }
+                var file = child.toFile();
+                if (file.isDirectory()) {
+                    folders.add(file.getName());
+                } else if (file.isFile() && file.length() <= MAX_FILE_SIZE) {
+                    String relative = directory.relativize(child).toString().replace(File.separatorChar, '/');
+                    int id = idOf(root, relative);
+                    if (relative.indexOf('/') >= 0) {
+                        nested.put(id, file);
+                    }
+                    files.add(Map.entry(file.getName(), id + " " + file.getName() + " " + file.length()));
+                }
+            }
+        }
+        if (!found) {
+            return null;
+        }
+
+        var lines = new ArrayList<String>(folders.size() + files.size());
+        for (var folder : folders) {
+            lines.add("dir " + folder);
+        }
+        files.sort(Map.Entry.comparingByKey());
+        for (var file : files) {
+            lines.add(file.getValue());
+        }
+        return lines;
+    }
+
+    /**
+     * Stops watching the roots.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * Applies events of the watch service to the index until the service is closed
+     * or none of the roots is available.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                var key = watchService.take();
+                var root = watched.get(key);
+                if (root == null) {
+                    continue;
+                }
+                for (var event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        rescan(root);
+                    } else {
+                        update(root, ((Path) event.context()).toString());
+                    }
+                }
+                rebuildList();
+                if (!key.reset()) {
+                    System.err.println("Directory is no longer available: " + root.directory);
+                    watched.remove(key);
+                    if (watched.isEmpty()) {
+                        return;
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Updates the entry of a file that was created, deleted or modified.
+     *
+     * @param root Root containing the file.
+     * @param name Name of the file.
+     */
+    private synchronized void update(Root root, String name) {
+        var file = root.directory.resolve(name).toFile();
+        if (!file.isFile()) {
+            var id = root.ids.get(name);
+            if (id != null) {
+                files.remove(id);
+            }
+            return;
+        }
+
+        int id = root.ids.computeIfAbsent(name, key -> nextId++);
+        files.put(id, new Entry(id, file));
+    }
+
+    /**
+     * Returns the ID of the file with the given path relative to the root. Gives a new ID if it has none.
+     */
+    private synchronized int idOf(Root root, String relative) {
+        return root.ids.computeIfAbsent(relative, key -> nextId++);
+    }
+
+    /**
+     * Updates entries of all files of the root. Used when some events were lost.
+     */
+    private synchronized void rescan(Root root) {
+        var listOfFiles = root.directory.toFile().listFiles();
+        if (listOfFiles == null) {
+            return;
+        }
+        var present = new HashSet<String>();
+        for (var file : listOfFiles) {
+            present.add(file.getName());
+            update(root, file.getName());
+        }
+        for (var name : root.ids.keySet()) {
+            if (!present.contains(name)) {
+                files.remove(root.ids.get(name));
+            }
+        }
+    }
+
+    private void rebuildList() {
+        var entries = new ArrayList<Entry>(files.size());
+        var lines = new ArrayList<String>(files.size());
+        for (var entry : files.values()) {
+            if (entry.size <= MAX_FILE_SIZE) {
+                entries.add(entry);
+                lines.add(entry.line);
+            }
+        }
+        listLines = Collections.unmodifiableList(lines);
+        listed = entries;
+    }
+
+    /**
+     * Returns size in readable format: in the biggest units possible with indication of units. <br/>
+     * Format is the same as the one the client shows and searches in.
+     *
+     * @param size Size in bytes.
+     */
+    static String sizeReadable(long size) {
+        double doubleSize = size;
+        if (doubleSize < 1024) {
+            return String.format("%.2f B", doubleSize);
+        }
+        doubleSize /= 1024;
+        if (doubleSize < 1024) {
+            return String.format("%.2f KB", doubleSize);
+        }
+        doubleSize /= 1024;
+        if (doubleSize < 1024) {
+            return String.format("%.2f MB", doubleSize);
+        }
+        doubleSize /= 1024;
+        return String.format("%.2f GB", doubleSize);
+    }
+
+    /**
+     * Directory published by the server and the IDs given to its files.
+     */
+    private static class Root {
+        private final Path directory;
+        /**
+         * IDs ever given to file names (paths relative to the directory for files of subfolders).
+         * Never shrinks, so that a name always gets the same ID.
+         */
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+        Root(Path directory) {
+            this.directory = directory;
+        }
+    }
+
+    /**
+     * File and its size at the moment of the last event.
+     */
+    private static class Entry {
+        private final File file;
+        private final long size;
+        /**
+         * Line of the list response.
+         */
+        private final String line;
+        /**
+         * Lower case name and readable size the search key is matched against.
+         */
+        private final String searchable;
+
+        Entry(int id, File file) {
+            this.file = file;
+            this.size = file.length();
+            this.line = id + " " + file.getName() + " " + size;
+            this.searchable = (file.getName() + " " + sizeReadable(size)).toLowerCase();
+        }
+
+        /**
+         * Returns true, if searchable text contains every word.
+         */
+        boolean matches(String[] words) {
+            for (var word : words) {
+                if (!searchable.contains(word)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Lines matching a key in a particular version of the list.
+     */
+    private static class SearchResult {
+        private final String key;
+        private final List<Entry> entries;
+        private final List<String> lines;
+
+        SearchResult(String key, List<Entry> entries, List<String> lines) {
+            this.key = key;
+            this.entries = entries;
+            this.lines = lines;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package server;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+
+/**
+ * Sends file bodies to a client in binary frames. <br/>
+ * Every frame is a 4-byte big-endian length followed by that many bytes of the file. <br/>
+ * File bytes are sent from the shared cache of memory-mapped regions, so that connections downloading
+ * the same file use one mapping of the page cache. If the cache is disabled, bytes are moved
+ * with FileChannel.transferTo, so that the kernel can send them directly from the page cache
+ * without copying them to the Java heap. If read-ahead is enabled, bytes are read asynchronously
+ * ahead of the socket instead, so that slow disks are read while the previous bytes are being sent. <br/>
+ * File bytes are sent in portions granted by the bandwidth limits of the connection.
+ * Bytes are counted in the statistics of the root of the file; frames read from files are produced
+ * by the I/O threads of the root. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class FileSender {
+    /**
+     * Maximum number of file bytes sent in one frame.
+     */
+    static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Size of the buffer used when transferTo cannot move the bytes.
+     */
+    private static final int FALLBACK_BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel target;
+    private final MappedFileCache cache;
+    private final ReadAhead readAhead;
+    private final BandwidthShaper.Allowance allowance;
+    private final ServerMetrics metrics;
+    private final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+
+    /**
+     * Buffer for copying file bytes manually. Allocated only if it is needed.
+     */
+    private ByteBuffer fallbackBuffer;
+
+    /**
+     * Constructs a new instance of FileSender.
+     *
+     * @param target    Channel to write frames to.
+     * @param cache     Cache of mapped regions of the files.
+     * @param readAhead Asynchronous reader of the files.
+     * @param allowance Bandwidth of the connection.
+     * @param metrics   Counters of sent bytes.
+     * @throws NullPointerException If any of the passed arguments are null.
+     */
+    FileSender(WritableByteChannel target, MappedFileCache cache, ReadAhead readAhead,
+               BandwidthShaper.Allowance allowance, ServerMetrics metrics) {
+        this.target = Objects.requireNonNull(target, "Target channel was null.");
+        this.cache = Objects.requireNonNull(cache, "Cache was null.");
+        this.readAhead = Objects.requireNonNull(readAhead, "Read-ahead was null.");
+        this.allowance = Objects.requireNonNull(allowance, "Allowance was null.");
+        this.metrics = Objects.requireNonNull(metrics, "Metrics were null.");
+    }
+
+    /**
+     * Sends a region of the file split into frames. End frame is not sent.
+     *
+     * @param source   File to send.
+     * @param file     Channel of the file.
+     * @param root     I/O of the root of the file.
+     * @param position Position of the first byte to send.
+     * @param count    Number of bytes to send.
+     * @throws EOFException If the file became shorter than expected.
+     * @throws IOException  If an I/O error occurred.
+     */
+    void sendFile(File source, FileChannel file, RootIo root, long position, long count) throws IOException {
+        if (readAhead.isEnabled()) {
+            sendReadAhead(source, position, count);
+            return;
+        }
+
+        long end = position + count;
+        while (position < end) {
+            int length = (int) Math.min(CHUNK_SIZE, end - position);
+            writeHeader(length);
+            sendMapped(source, file, root, position, length);
+            position += length;
+        }
+    }
+
+    /**
+     * Sends a region of the file split into frames from the chunks read ahead. <br/>
+     * Frame size is a multiple of the chunk size, so chunks never cross frames.
+     */
+    private void sendReadAhead(File source, long position, long count) throws IOException {
+        long end = position + count;
+        try (var reader = readAhead.open(source, position, count)) {
+            while (position < end) {
+                int length = (int) Math.min(CHUNK_SIZE, end - position);
+                writeHeader(length);
+                long frameEnd = position + length;
+                while (position < frameEnd) {
+                    var chunk = reader.next();
+                    if (chunk == null) {
+                        throw new EOFException("File was truncated while sending.");
+                    }
+                    position += chunk.remaining();
+                    writeShaped(chunk);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends prepared frames including the end frame, e.g. a compressed range of a file or an archive of a folder.
+     * Every frame is produced by an I/O thread of the root while the connection thread waits.
+     *
+     * @param frames Frames to send.
+     * @param root   I/O of the root of the files the frames are read from.
+     * @throws EOFException If a file became shorter than expected.
+     * @throws IOException  If an I/O error occurred.
+     * @see FrameSource
+     */
+    void sendFrames(FrameSource frames, RootIo root) throws IOException {
+        ByteBuffer frame;
+        while ((frame = RootIo.await(root.produce(frames))) != null) {
+            writeShaped(frame);
+        }
+    }
+
+    /**
+     * Sends a frame of length 0 that marks the end of the file.
+     *
+     * @throws IOException If an I/O error occurred.
+     */
+    void sendEnd() throws IOException {
+        writeHeader(0);
+    }
+
+    /**
+     * Sends a frame of length -1 that informs the client that the file could not be read.
+     *
+     * @throws IOException If an I/O error occurred.
+     */
+    void sendError() throws IOException {
+        writeHeader(-1);
+    }
+
+    /**
+     * Writes a frame header.
+     */
+    private void writeHeader(int length) throws IOException {
+        header.clear();
+        header.putInt(length).flip();
+        while (header.hasRemaining()) {
+            target.write(header);
+        }
+    }
+
+    /**
+     * Sends exactly count bytes of the file from the mapped regions.
+     * Bytes that cannot be mapped are transferred from the channel.
+     */
+    private void sendMapped(File source, FileChannel file, RootIo root, long position, long count)
+            throws IOException {
+        long end = position + count;
+        while (position < end) {
+            var mapped = cache.get(source, position, end - position);
+            if (mapped == null) {
+                transferFully(file, root, position, end - position);
+                return;
+            }
+            position += mapped.remaining();
+            root.bytesTransferred(mapped.remaining());
+            writeShaped(mapped);
+        }
+    }
+
+    /**
+     * Writes all the bytes of the buffer in portions granted by the bandwidth limits.
+     */
+    private void writeShaped(ByteBuffer buffer) throws IOException {
+        int limit = buffer.limit();
+        while (buffer.hasRemaining()) {
+            int portion = (int) allowance.acquire(buffer.remaining());
+            buffer.limit(buffer.position() + portion);
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            buffer.limit(limit);
+            metrics.bytesSent(portion);
+        }
+    }
+
+    /**
+     * Moves exactly count bytes of the file to the target channel. <br/>
+     * transferTo is allowed to move fewer bytes than requested, so it is called until the region is sent.
+     * If it does not move anything (some platforms and channel types do not support it),
+     * the bytes are copied through a buffer.
+     *
+     * @throws EOFException If the file became shorter than expected.
+     */
+    private void transferFully(FileChannel file, RootIo root, long position, long count) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long granted = allowance.acquire(end - position);
+            long transferred = file.transferTo(position, granted, target);
+            if (transferred <= 0) {
+                transferred = copy(file, position, granted);
+            } else {
+                allowance.giveBack(granted - transferred);
+                metrics.bytesSent(transferred);
+            }
+            root.bytesTransferred(transferred);
+            position += transferred;
+        }
+    }
+
+    /**
+     * Copies at most count bytes of the file to the target channel through a buffer.
+     * Bytes are already granted by the bandwidth limits; the part of the grant that is not copied is given back.
+     *
+     * @param count Number of granted bytes.
+     * @return Number of copied bytes.
+     * @throws EOFException If the end of file is reached.
+     */
+    private long copy(FileChannel file, long position, long count) throws IOException {
+        if (fallbackBuffer == null) {
+            fallbackBuffer = ByteBuffer.allocateDirect(FALLBACK_BUFFER_SIZE);
+        }
+        fallbackBuffer.clear();
+        if (count < fallbackBuffer.capacity()) {
+            fallbackBuffer.limit((int) count);
+        }
+
+        int read = file.read(fallbackBuffer, position);
+        if (read < 0) {
+            throw new EOFException("File was truncated while sending.");
+        }
+
+        fallbackBuffer.flip();
+        while (fallbackBuffer.hasRemaining()) {
+            target.write(fallbackBuffer);
+        }
+        allowance.giveBack(count - read);
+        metrics.bytesSent(read);
+        return read;
+    }
+}
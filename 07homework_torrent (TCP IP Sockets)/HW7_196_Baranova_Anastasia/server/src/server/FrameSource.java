@@ -0,0 +1,38 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Body of a response produced as binary frames one at a time, so that both blocking
+ * and non-blocking engines can send it. <br/>
+ * Every frame is a 4-byte big-endian length followed by that many bytes, the last frame has length 0. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see CompressedFrames
+ * @see TarFrames
+ */
+interface FrameSource extends AutoCloseable {
+    /**
+     * Returns the next frame ready to be written, including the end frame.
+     *
+     * @return Buffer with the frame or null if the end frame has already been returned.
+     *         Buffer is reused by the next call.
+     * @throws EOFException If a file became shorter than expected.
+     * @throws IOException  If an I/O error occurred.
+     */
+    ByteBuffer next() throws IOException;
+
+    /**
+     * Returns the number of bytes of the files read so far to produce the frames.
+     */
+    long getBytesRead();
+
+    /**
+     * Releases resources of the frames.
+     */
+    @Override
+    void close();
+}
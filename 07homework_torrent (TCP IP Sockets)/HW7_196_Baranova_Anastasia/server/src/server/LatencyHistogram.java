@@ -0,0 +1,81 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in microseconds. <br/>
+ * Like an HDR histogram, it has logarithmic buckets split into linear sub-buckets: every power of two
+ * is divided into SUB_BUCKETS buckets, so any recorded value is known with a relative error of at most
+ * 1 / SUB_BUCKETS while the histogram takes a few kilobytes for values up to days. <br/>
+ * Recording only increments counters and never blocks. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    /**
+     * Number of linear buckets in every power of two.
+     */
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Largest power of two of the recorded values (about 12 days in microseconds).
+     */
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos Latency (in nanoseconds).
+     */
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(index(micros));
+        count.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    /**
+     * Returns the current state of the histogram. Values recorded concurrently may be partially included.
+     */
+    LatencyStatistics getStatistics() {
+        var snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return new LatencyStatistics(snapshot, count.sum(), sum.sum(), max.get());
+    }
+
+    /**
+     * Returns the index of the bucket containing the value.
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        int sub = (int) Math.min((value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS, SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the largest value of the bucket.
+     */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,79 @@
+package server;
+
+/**
+ * Snapshot of a histogram of latencies of one kind of requests. <br/>
+ * All values are in microseconds. Percentiles are accurate within 1/16 of the value.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see ServerStatistics
+ */
+public class LatencyStatistics {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    LatencyStatistics(long[] counts, long count, long sum, long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    /**
+     * Returns the number of recorded requests.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean latency, 0 if there were no requests.
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Returns the maximum latency, 0 if there were no requests.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the latency that the percentage of the requests did not exceed.
+     *
+     * @param percentile Percentage of the requests from 0 to 100.
+     * @return Latency or 0 if there were no requests.
+     * @throws IllegalArgumentException If percentile is out of range from 0 to 100.
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be from 0 to 100.");
+        }
+        long total = 0;
+        for (long bucket : counts) {
+            total += bucket;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d requests, mean %.0f us, p50 %d us, p90 %d us, p99 %d us, max %d us",
+                count, getMean(), getPercentile(50), getPercentile(90), getPercentile(99), max);
+    }
+}
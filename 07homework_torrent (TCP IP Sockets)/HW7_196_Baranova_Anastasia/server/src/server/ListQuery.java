@@ -0,0 +1,68 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Page of the file list requested by a client. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class ListQuery {
+    private final int offset;
+    private final int limit;
+    private final String key;
+
+    private ListQuery(int offset, int limit, String key) {
+        this.offset = offset;
+        this.limit = limit;
+        this.key = key;
+    }
+
+    /**
+     * Parses query from words of a list request: "list {offset} {limit} [{search key}]". <br/>
+     * Search key is the rest of the request and may contain spaces.
+     *
+     * @param words Words of the request.
+     * @param from  Index of the word containing the offset.
+     * @throws NumberFormatException          If offset or limit are not valid numbers.
+     * @throws IllegalArgumentException       If offset or limit are negative.
+     * @throws ArrayIndexOutOfBoundsException If limit is missing.
+     */
+    static ListQuery parse(String[] words, int from) {
+        int offset = Integer.parseInt(words[from]);
+        int limit = Integer.parseInt(words[from + 1]);
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative.");
+        }
+
+        var key = new StringBuilder();
+        for (int i = from + 2; i < words.length; i++) {
+            if (key.length() > 0) {
+                key.append(' ');
+            }
+            key.append(words[i]);
+        }
+        return new ListQuery(offset, limit, key.toString());
+    }
+
+    /**
+     * Returns lines of the response without the final "done" line. <br/>
+     * Format: line "total {number of matching files}" followed by lines "{id} {file name} {file size}"
+     * of the files on the requested page.
+     *
+     * @param catalog Catalog to search in.
+     * @see FileCatalog#search(String)
+     */
+    List<String> response(FileCatalog catalog) {
+        var matching = catalog.search(key);
+        int from = Math.min(offset, matching.size());
+        int to = (int) Math.min((long) from + limit, matching.size());
+
+        var lines = new ArrayList<String>(to - from + 1);
+        lines.add("total " + matching.size());
+        lines.addAll(matching.subList(from, to));
+        return lines;
+    }
+}
@@ -1,32 +1,242 @@
 package server;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 public class Main {
 
+    /**
+     * Runs the server. <br/>
+     * Arguments: path to the directory, optional port and options. <br/>
+     * Several directories (roots) may be published as one catalog: their paths are separated
+     * by the path separator of the system (':' or ';'), and every path may end with "@{number}",
+     * the number of threads reading files of the root, e.g. "/disk1/files@4:/disk2/files". <br/>
+     * Options: <br/>
+     * --engine=blocking|selector - how clients are served (thread per client by default); <br/>
+     * --selectors={number} - number of selector loops of the selector engine; <br/>
+     * --executor=thread|pool|virtual - how the blocking engine runs client serving tasks
+     * (new thread per client by default); <br/>
+     * --threads={number} - number of threads of the pool; <br/>
+     * --queue={number} - maximum number of clients waiting for a thread of the pool; <br/>
+     * --drain={seconds} - how long the server waits for current downloads when the process is stopped; <br/>
+     * --cache={megabytes} - maximum size of memory-mapped regions of popular files (0 disables the cache); <br/>
+     * --read-ahead={chunks} - number of 256 KB chunks read asynchronously ahead of the socket
+     * by the I/O threads of the roots, for slow disks (4 chunks if there are several roots, disabled otherwise); <br/>
+     * --io-threads={number} - number of threads reading files of every root without "@{number}" (2 by default); <br/>
+     * --rate={kilobytes} - maximum total rate of sending files (KB/s, unlimited by default); <br/>
+     * --connection-rate={kilobytes} - maximum rate of sending files to every client (KB/s, unlimited by default). <br/>
+     * While the server is running, the limits may be changed by commands "rate {kilobytes}" and
+     * "connection-rate {kilobytes}" typed in the console; commands "stats", "cache" and "roots" print statistics
+     * of the server, of its cache and of the reads of every root.
+     */
     public static void main(String[] args) {
-        if (args.length <= 0) {
+        List<String> positional = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        parseArguments(args, positional, options);
+
+        if (positional.isEmpty()) {
             System.out.println("Specify the path to the directory.");
             return;
         }
 
-        File directory = new File(args[0]);
-
         try {
+            List<ServerRoot> roots = parseRoots(positional.get(0), Integer.parseInt(
+                    options.getOrDefault("io-threads", String.valueOf(ServerRoot.DEFAULT_IO_THREADS))));
+            Executor executor = createExecutor(options);
             TorrentServer server;
-            if (args.length == 1) {
-                server = new TorrentServer(directory);
+            if (positional.size() == 1) {
+                server = new TorrentServer(roots, TorrentServer.DEFAULT_PORT);
             } else {
-                int port = Integer.parseInt(args[1]);
-                server = new TorrentServer(port, directory);
+                int port = Integer.parseInt(positional.get(1));
+                server = new TorrentServer(roots, port);
             }
             System.out.println("Socket created.");
             System.out.println("Host: " + server.getHost());
             System.out.println("Port: " + server.getPort());
-            server.run();
+
+            server.setConnectionExecutor(executor);
+            if (options.containsKey("cache")) {
+                server.setCacheCapacity(Long.parseLong(options.get("cache")) * 1024 * 1024);
+            }
+            if (options.containsKey("read-ahead")) {
+                server.setReadAheadDepth(Integer.parseInt(options.get("read-ahead")));
+            }
+            if (options.containsKey("rate")) {
+                server.setGlobalRate(Long.parseLong(options.get("rate")) * 1024);
+            }
+            if (options.containsKey("connection-rate")) {
+                server.setConnectionRate(Long.parseLong(options.get("connection-rate")) * 1024);
+            }
+            startConsole(server);
+            long drainSeconds = Long.parseLong(options.getOrDefault("drain", "30"));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    System.out.println("Statistics: " + server.getStatistics());
+                    System.out.println("Cache: " + server.getCacheStatistics());
+                    if (!server.shutdown(drainSeconds, TimeUnit.SECONDS)) {
+                        System.err.println("Some downloads were interrupted.");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+
+            String engine = options.getOrDefault("engine", "blocking");
+            switch (engine) {
+                case "blocking":
+                    server.run();
+                    break;
+                case "selector":
+                    int selectors = Integer.parseInt(options.getOrDefault("selectors",
+                            String.valueOf(Runtime.getRuntime().availableProcessors())));
+                    System.out.println("Selector loops: " + selectors);
+                    server.runSelector(selectors);
+                    break;
+                default:
+                    server.close();
+                    System.out.println("Unknown engine: " + engine);
+            }
 
         } catch (Exception e) {
             System.err.println(e.getMessage());
         }
     }
+
+    /**
+     * Starts a daemon thread executing commands typed in the console while the server is running.
+     */
+    private static void startConsole(TorrentServer server) {
+        var console = new Thread(() -> {
+            var reader = new BufferedReader(new InputStreamReader(System.in));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    executeCommand(server, line.trim().split("\\s+"));
+                }
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }, "console");
+        console.setDaemon(true);
+        console.start();
+    }
+
+    /**
+     * Executes a console command changing the limits of the server or printing its statistics.
+     */
+    private static void executeCommand(TorrentServer server, String[] words) {
+        try {
+            switch (words[0]) {
+                case "":
+                    break;
+                case "rate":
+                    if (words.length > 1) {
+                        server.setGlobalRate(Long.parseLong(words[1]) * 1024);
+                    }
+                    System.out.println("Rate: " + formatRate(server.getGlobalRate()));
+                    break;
+                case "connection-rate":
+                    if (words.length > 1) {
+                        server.setConnectionRate(Long.parseLong(words[1]) * 1024);
+                    }
+                    System.out.println("Connection rate: " + formatRate(server.getConnectionRate()));
+                    break;
+                case "stats":
+                    for (String line : server.getStatistics().lines()) {
+                        System.out.println(line);
+                    }
+                    break;
+                case "cache":
+                    System.out.println("Cache: " + server.getCacheStatistics());
+                    break;
+                case "roots":
+                    for (var root : server.getRootStatistics()) {
+                        System.out.println(root);
+                    }
+                    break;
+                default:
+                    System.out.println("Unknown command: " + words[0]);
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Wrong value: " + e.getMessage());
+        }
+    }
+
+    private static String formatRate(long bytesPerSecond) {
+        return bytesPerSecond == 0 ? "unlimited" : bytesPerSecond / 1024 + " KB/s";
+    }
+
+    /**
+     * Parses the roots of the server: paths separated by the path separator, each with optional "@{threads}".
+     *
+     * @param argument  Paths of the roots.
+     * @param ioThreads Number of I/O threads of the roots without "@{threads}".
+     * @throws IllegalArgumentException If a number of threads is not a positive number.
+     */
+    private static List<ServerRoot> parseRoots(String argument, int ioThreads) {
+        List<ServerRoot> roots = new ArrayList<>();
+        for (String path : argument.split(Pattern.quote(File.pathSeparator))) {
+            if (path.isEmpty()) {
+                continue;
+            }
+            int at = path.lastIndexOf('@');
+            if (at > 0 && path.substring(at + 1).matches("\\d+")) {
+                roots.add(new ServerRoot(new File(path.substring(0, at)), Integer.parseInt(path.substring(at + 1))));
+            } else {
+                roots.add(new ServerRoot(new File(path), ioThreads));
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * Creates an executor for client serving tasks according to the options.
+     *
+     * @throws IllegalArgumentException If the executor option has an unknown value.
+     */
+    private static Executor createExecutor(Map<String, String> options) {
+        String executor = options.getOrDefault("executor", "thread");
+        switch (executor) {
+            case "thread":
+                return ConnectionExecutors.threadPerConnection();
+            case "pool":
+                int threads = Integer.parseInt(options.getOrDefault("threads",
+                        String.valueOf(Runtime.getRuntime().availableProcessors() * 8)));
+                int queue = Integer.parseInt(options.getOrDefault("queue", String.valueOf(threads)));
+                System.out.println("Pool: " + threads + " threads, queue limit " + queue);
+                return ConnectionExecutors.boundedPool(threads, queue);
+            case "virtual":
+                return ConnectionExecutors.virtualThreadPerConnection();
+            default:
+                throw new IllegalArgumentException("Unknown executor: " + executor);
+        }
+    }
+
+    /**
+     * Splits arguments into positional ones and options in format "--{name}={value}".
+     * Option without a value gets value "true".
+     */
+    private static void parseArguments(String[] args, List<String> positional, Map<String, String> options) {
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                positional.add(arg);
+                continue;
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+    }
 }
@@ -0,0 +1,288 @@
+package server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of file manifests: SHA-256 hashes of every chunk of a file. <br/>
+ * Manifests are computed by the I/O threads of the root the file belongs to, so that a request for a manifest
+ * never waits for hashing: until the manifest is ready, the client is answered "pending".
+ * Every chunk is hashed by a separate task, so reads of other files of the root are not delayed
+ * until a large file is hashed. Cached manifest is discarded when the size or modification time of the file change. <br/>
+ * The same pass computes the content hash of the file: SHA-256 hash of all of its bytes.
+ * Files with equal content hashes are identical, so they can share cached data and clients can tell
+ * whether they already have a file. <br/>
+ * At most MAX_ENTRIES files are kept; least recently used ones are evicted. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class ManifestCache implements Closeable {
+    /**
+     * Size of a hashed chunk (in bytes). The last chunk may be shorter.
+     */
+    static final int CHUNK_SIZE = 1024 * 1024;
+    /**
+     * Maximum number of files whose manifests are kept.
+     */
+    static final int MAX_ENTRIES = 4096;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final List<RootIo> roots;
+    private volatile boolean closed = false;
+    /**
+     * Manifests in access order: the eldest is the least recently used.
+     */
+    private final Map<Path, Entry> entries = Collections.synchronizedMap(new LinkedHashMap<Path, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, ManifestCache.Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    });
+
+    /**
+     * Constructs a new instance of ManifestCache.
+     *
+     * @param roots I/O of the roots of the server, not empty.
+     * @throws NullPointerException     If roots is null.
+     * @throws IllegalArgumentException If roots is empty.
+     */
+    ManifestCache(List<RootIo> roots) {
+        if (Objects.requireNonNull(roots, "Roots were null.").isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one root.");
+        }
+        this.roots = List.copyOf(roots);
+    }
+
+    /**
+     * Returns lines of the response to a manifest request. Does not block. <br/>
+     * Format: "manifest {file size} {chunk size} {number of chunks}", then a hexadecimal SHA-256 hash
+     * of every chunk on a separate line, then "done". <br/>
+     * If the manifest is being computed, response is "pending" (computation is started if needed).
+     * If the file cannot be read, response is "none".
+     *
+     * @param file File to get manifest of.
+     */
+    List<String> response(File file) {
+        var entry = entry(file.toPath(), file.length(), file.lastModified());
+        if (entry.failed) {
+            return List.of("none");
+        }
+        var lines = entry.lines;
+        return lines == null ? List.of("pending") : lines;
+    }
+
+    /**
+     * Returns the response to a content hash request. Does not block. <br/>
+     * Format: "hash {hexadecimal SHA-256 hash of the file}"; "pending" if the hash is being computed
+     * (computation is started if needed); "none" if the file cannot be read.
+     *
+     * @param file File to get the content hash of.
+     */
+    String hashResponse(File file) {
+        var entry = entry(file.toPath(), file.length(), file.lastModified());
+        if (entry.failed) {
+            return "none";
+        }
+        var hash = entry.hash;
+        return hash == null ? "pending" : "hash " + hash;
+    }
+
+    /**
+     * Returns the content hash of a particular version of the file. Does not block:
+     * if the hash is not computed yet, its computation is started.
+     *
+     * @param path     Path of the file.
+     * @param size     Size of the file.
+     * @param modified Time of the last modification of the file (in milliseconds since the epoch).
+     * @return Hexadecimal SHA-256 hash or null if it is not known yet or the file cannot be read.
+     */
+    String contentHash(Path path, long size, long modified) {
+        return entry(path, size, modified).hash;
+    }
+
+    /**
+     * Returns the content hash of a particular version of the file if it is already computed.
+     * Unlike contentHash(), never starts computing it.
+     *
+     * @param path     Path of the file.
+     * @param size     Size of the file.
+     * @param modified Time of the last modification of the file (in milliseconds since the epoch).
+     * @return Hexadecimal SHA-256 hash or null if it is not known.
+     */
+    String knownHash(Path path, long size, long modified) {
+        var entry = entries.get(path);
+        return entry != null && entry.matches(size, modified) ? entry.hash : null;
+    }
+
+    /**
+     * Returns the entry of the version of the file. Starts computing a new entry if there is none.
+     */
+    private Entry entry(Path path, long size, long modified) {
+        if (closed) {
+            // Cache is closed: the manifest is not available unless it is already computed.
+            var entry = entries.get(path);
+            if (entry == null || !entry.matches(size, modified)) {
+                entry = new Entry(size, modified);
+                entry.failed = true;
+            }
+            return entry;
+        }
+        var created = new Entry(size, modified);
+        var entry = entries.compute(path, (key, old) -> old != null && old.matches(size, modified) ? old : created);
+        if (entry == created) {
+            var root = RootIo.of(roots, path.toFile());
+            root.getPool().execute(new Computation(path, created, root));
+        }
+        return entry;
+    }
+
+    /**
+     * Stops computing manifests. Manifests that are not computed yet are answered "none" afterwards.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Hashing of the chunks of a file, one chunk per task. If the file changes meanwhile, the entry is discarded.
+     */
+    private class Computation implements Runnable {
+        private final Path path;
+        private final Entry entry;
+        private final RootIo root;
+        private final long count;
+        private final List<String> lines;
+        private FileChannel channel;
+        private MessageDigest digest;
+        private MessageDigest whole;
+        private ByteBuffer buffer;
+        private long chunk = 0;
+
+        Computation(Path path, Entry entry, RootIo root) {
+            this.path = path;
+            this.entry = entry;
+            this.root = root;
+            this.count = (entry.size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            this.lines = new ArrayList<>((int) count + 2);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (closed) {
+                    throw new IOException("Manifests are not computed anymore.");
+                }
+                if (channel == null) {
+                    channel = FileChannel.open(path, StandardOpenOption.READ);
+                    digest = MessageDigest.getInstance("SHA-256");
+                    whole = MessageDigest.getInstance("SHA-256");
+                    buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                    lines.add("manifest " + entry.size + " " + CHUNK_SIZE + " " + count);
+                }
+                if (chunk < count) {
+                    hashChunk();
+                    chunk++;
+                    // Next chunk waits in the queue after the reads requested meanwhile.
+                    root.getPool().execute(this);
+                    return;
+                }
+                lines.add("done");
+                channel.close();
+
+                var file = path.toFile();
+                if (!entry.matches(file.length(), file.lastModified())) {
+                    entries.remove(path, entry);
+                    return;
+                }
+                entry.hash = toHex(whole.digest());
+                entry.lines = Collections.unmodifiableList(lines);
+            } catch (IOException e) {
+                System.err.println("Cannot compute manifest: " + e.getMessage());
+                closeChannel();
+                entry.failed = true;
+            } catch (NoSuchAlgorithmException e) {
+                closeChannel();
+                throw new IllegalStateException("SHA-256 is not supported.", e);
+            }
+        }
+
+        private void hashChunk() throws IOException {
+            long position = chunk * CHUNK_SIZE;
+            long end = Math.min(entry.size, position + CHUNK_SIZE);
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(BUFFER_SIZE, end - position));
+                int read = root.read(channel, buffer, position);
+                if (read < 0) {
+                    throw new IOException("File became shorter.");
+                }
+                position += read;
+                buffer.flip();
+                whole.update(buffer.duplicate());
+                digest.update(buffer);
+            }
+            lines.add(toHex(digest.digest()));
+        }
+
+        private void closeChannel() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        var hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Manifest of a particular version of a file.
+     */
+    private static class Entry {
+        private final long size;
+        private final long modified;
+        /**
+         * Lines of the response. Null until the manifest is computed.
+         */
+        private volatile List<String> lines;
+        /**
+         * Content hash of the file. Null until it is computed.
+         */
+        private volatile String hash;
+        private volatile boolean failed = false;
+
+        Entry(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+
+        boolean matches(long size, long modified) {
+            return this.size == size && this.modified == modified;
+        }
+    }
+}
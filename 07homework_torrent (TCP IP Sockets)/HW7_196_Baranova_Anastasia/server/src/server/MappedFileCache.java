@@ -0,0 +1,292 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared cache of read-only memory-mapped regions of the served files. <br/>
+ * When many clients download the same file, its bytes are sent from one mapping of the page cache
+ * instead of being read by every connection separately. Regions are keyed by the identity
+ * of the file, its size and modification time, so a changed file is mapped again. The content hash of a file
+ * is computed only when the file is sent more than once (or a client asks for it); once it is known,
+ * regions of the file are keyed by the hash instead, so identical files stored under different
+ * names are sent from the same regions. A region remembers the file it was mapped from and is used only while
+ * that file has the same identity, size and modification time; otherwise it is dropped and mapped again. <br/>
+ * Cache is bounded by the total size of the mapped regions; least recently used regions are evicted.
+ * Evicted regions are unmapped by the garbage collector when nobody sends them anymore. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class MappedFileCache {
+    /**
+     * Size of a mapped region. Files are mapped in aligned regions of this size.
+     */
+    static final int REGION_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Default maximum total size of the mapped regions.
+     */
+    static final long DEFAULT_CAPACITY = 256L * 1024 * 1024;
+
+    /**
+     * Regions in access order: the eldest is the least recently used. Guarded by itself.
+     */
+    private final LinkedHashMap<Key, Region> regions = new LinkedHashMap<>(16, 0.75f, true);
+    private long mappedBytes = 0;
+    private volatile long capacity;
+    /**
+     * Source of the content hashes of the files.
+     */
+    private final ManifestCache hashes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs a new instance of MappedFileCache.
+     *
+     * @param capacity Maximum total size of the mapped regions (in bytes), 0 disables the cache.
+     * @param hashes   Cache computing content hashes of the files.
+     * @throws IllegalArgumentException If capacity is negative.
+     * @throws NullPointerException     If hashes is null.
+     */
+    MappedFileCache(long capacity, ManifestCache hashes) {
+        this.hashes = Objects.requireNonNull(hashes, "Hashes were null.");
+        setCapacity(capacity);
+    }
+
+    /**
+     * Changes the maximum total size of the mapped regions. Extra regions are evicted.
+     *
+     * @param capacity Maximum total size (in bytes), 0 disables the cache.
+     * @throws IllegalArgumentException If capacity is negative.
+     */
+    void setCapacity(long capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative.");
+        }
+        this.capacity = capacity;
+        synchronized (regions) {
+            evict();
+        }
+    }
+
+    /**
+     * Returns true, if the cache maps files, i.e. its capacity is not 0.
+     */
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Returns bytes of the file starting at the position. Maps the region containing the position if needed.
+     *
+     * @param file     File to read.
+     * @param position Position of the first byte.
+     * @param count    Maximum number of bytes to return.
+     * @return Read-only buffer with at least one byte and at most count bytes (fewer if the region ends earlier)
+     * or null if the file cannot be mapped (e.g. it changed) and should be read another way.
+     * @throws IOException If an I/O error occurred.
+     */
+    ByteBuffer get(File file, long position, long count) throws IOException {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        var path = file.toPath();
+        var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (position >= attributes.size()) {
+            return null;
+        }
+        long modified = attributes.lastModifiedTime().toMillis();
+        String hash = hashes.knownHash(path, attributes.size(), modified);
+        var identity = identity(path, attributes);
+        var identityKey = new Key(identity, attributes.size(), modified, position / REGION_SIZE);
+        var key = hash != null ? new Key(hash, attributes.size(), modified, position / REGION_SIZE) : identityKey;
+
+        Region region;
+        synchronized (regions) {
+            region = regions.get(key);
+            if (region == null && key != identityKey) {
+                // Region mapped before the hash was known is keyed by the hash from now on.
+                region = regions.remove(identityKey);
+                if (region != null) {
+                    regions.put(key, region);
+                }
+            }
+        }
+        if (region != null && !region.isCurrent(identity, modified)) {
+            synchronized (regions) {
+                if (regions.remove(key, region)) {
+                    mappedBytes -= region.buffer.capacity();
+                }
+            }
+            region = null;
+        }
+        if (region != null) {
+            hits.increment();
+            if (hash == null && position == key.start()) {
+                // Region is sent from its beginning again, so the file is popular: look for its duplicates.
+                hashes.contentHash(path, attributes.size(), modified);
+            }
+        } else {
+            misses.increment();
+            var buffer = map(path, key.start(), Math.min(REGION_SIZE, attributes.size() - key.start()));
+            region = new Region(buffer, path, identity, attributes.size(), modified);
+            synchronized (regions) {
+                var existing = regions.get(key);
+                if (existing != null && existing.isCurrent(identity, modified)) {
+                    region = existing;
+                } else {
+                    var replaced = regions.put(key, region);
+                    if (replaced != null) {
+                        mappedBytes -= replaced.buffer.capacity();
+                    }
+                    mappedBytes += buffer.capacity();
+                    evict();
+                }
+            }
+        }
+
+        var bytes = region.buffer.asReadOnlyBuffer();
+        int start = (int) (position - key.start());
+        bytes.position(start).limit((int) Math.min(bytes.capacity(), start + count));
+        return bytes.slice();
+    }
+
+    /**
+     * Returns statistics of the cache.
+     */
+    CacheStatistics getStatistics() {
+        synchronized (regions) {
+            return new CacheStatistics(hits.sum(), misses.sum(), evictions.sum(),
+                    regions.size(), mappedBytes, capacity);
+        }
+    }
+
+    /**
+     * Returns the identity of the file used until its content hash is known.
+     */
+    private static Object identity(Path path, BasicFileAttributes attributes) {
+        // File key identifies the file even if it is accessed by different paths; not all platforms have it.
+        return attributes.fileKey() != null ? attributes.fileKey() : path.toAbsolutePath();
+    }
+
+    private static MappedByteBuffer map(Path path, long position, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+    }
+
+    /**
+     * Evicts least recently used regions until the mapped size fits the capacity.
+     * Must be called holding the lock of regions.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Key, Region>> iterator = regions.entrySet().iterator();
+        while (mappedBytes > capacity && iterator.hasNext()) {
+            mappedBytes -= iterator.next().getValue().buffer.capacity();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Mapped region and the version of the file it was mapped from.
+     */
+    private static class Region {
+        private final MappedByteBuffer buffer;
+        private final Path path;
+        private final Object identity;
+        private final long size;
+        private final long modified;
+
+        Region(MappedByteBuffer buffer, Path path, Object identity, long size, long modified) {
+            this.buffer = buffer;
+            this.path = path;
+            this.identity = identity;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        /**
+         * Returns true, if the file the region was mapped from has not changed since,
+         * so its bytes are still the bytes of the requested file.
+         *
+         * @param identity Identity of the requested file.
+         * @param modified Time of the last modification of the requested file.
+         */
+        boolean isCurrent(Object identity, long modified) {
+            if (this.identity.equals(identity)) {
+                return this.modified == modified;
+            }
+            // Region of an identical file: it must not have been rewritten or truncated since it was mapped.
+            try {
+                var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return attributes.size() == size && attributes.lastModifiedTime().toMillis() == this.modified
+                        && identity(path, attributes).equals(this.identity);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Identity of a region of a particular version of a file.
+     */
+    private static class Key {
+        /**
+         * Content hash of the file or its identity if the hash is not known.
+         */
+        private final Object file;
+        private final long size;
+        /**
+         * Time of the last modification, 0 for keys by content hash: identical files share them,
+         * and the version of the file is checked by the region itself.
+         */
+        private final long modified;
+        private final long region;
+
+        Key(Object file, long size, long modified, long region) {
+            this.file = file;
+            this.size = size;
+            this.modified = file instanceof String ? 0 : modified;
+            this.region = region;
+        }
+
+        long start() {
+            return region * REGION_SIZE;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            var key = (Key) o;
+            return size == key.size && modified == key.modified && region == key.region && file.equals(key.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(file, size, modified, region);
+        }
+    }
+}
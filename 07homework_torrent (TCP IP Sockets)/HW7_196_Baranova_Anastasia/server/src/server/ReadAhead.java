@@ -0,0 +1,286 @@
+package server;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads files ahead of the socket, so that waiting for the disk overlaps with sending. <br/>
+ * A range of a file is read with asynchronous reads in chunks of CHUNK_SIZE bytes: while a chunk is being sent,
+ * up to depth next chunks are being read. Buffers of the chunks are taken from a pool shared by all the connections. <br/>
+ * Reads are executed by the I/O threads of the root the file belongs to, so a slow disk delays only
+ * its own files, and are counted in the metrics of the root. <br/>
+ * Read-ahead copies file bytes to direct buffers instead of sending them from the page cache without copying,
+ * so it pays off on slow disks (e.g. spinning disks, where seeks dominate) and is disabled by default. <br/>
+ * Depth may be changed while the server is running; it applies to the downloads started after that. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class ReadAhead {
+    /**
+     * Size of the chunks read at once.
+     */
+    static final int CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * Maximum number of free buffers kept in the pool.
+     */
+    private static final int MAX_POOLED = 64;
+
+    private final BlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<>(MAX_POOLED);
+    private final List<RootIo> roots;
+    /**
+     * Number of chunks read ahead of the sent one, 0 if read-ahead is disabled.
+     */
+    private volatile int depth = 0;
+
+    /**
+     * Constructs a new instance of ReadAhead.
+     *
+     * @param roots I/O of the roots of the server, not empty.
+     * @throws NullPointerException     If roots is null.
+     * @throws IllegalArgumentException If roots is empty.
+     */
+    ReadAhead(List<RootIo> roots) {
+        if (Objects.requireNonNull(roots, "Roots were null.").isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one root.");
+        }
+        this.roots = List.copyOf(roots);
+    }
+
+    /**
+     * Sets the number of chunks read ahead of the sent one.
+     *
+     * @param depth Number of chunks, 0 to disable read-ahead.
+     * @throws IllegalArgumentException If depth is negative.
+     */
+    void setDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Depth must not be negative.");
+        }
+        this.depth = depth;
+    }
+
+    /**
+     * Returns the number of chunks read ahead of the sent one, 0 if read-ahead is disabled.
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns true, if files are read ahead.
+     */
+    boolean isEnabled() {
+        return depth > 0;
+    }
+
+    /**
+     * Starts reading a range of the file.
+     *
+     * @param file     File to read.
+     * @param position Position of the first byte.
+     * @param count    Number of bytes.
+     * @return Reader of the range; must be closed.
+     * @throws IOException          If the file cannot be opened.
+     * @throws NullPointerException If file is null.
+     */
+    Reader open(File file, long position, long count) throws IOException {
+        Objects.requireNonNull(file, "File was null.");
+        var root = RootIo.of(roots, file);
+        var channel = AsynchronousFileChannel.open(file.toPath(), Set.of(StandardOpenOption.READ), root.getPool());
+        return new Reader(channel, root, position, position + count, Math.max(1, depth));
+    }
+
+    private ByteBuffer acquire() {
+        var buffer = pool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+
+    private void release(ByteBuffer buffer) {
+        buffer.clear();
+        pool.offer(buffer);
+    }
+
+    /**
+     * Chunks of a range of a file in the order of their positions. Is used by a single thread.
+     */
+    class Reader implements AutoCloseable {
+        private final AsynchronousFileChannel channel;
+        private final RootIo root;
+        private final long end;
+        private final int depth;
+        /**
+         * Chunks being read in the order of their positions.
+         */
+        private final Deque<Chunk> reads = new ArrayDeque<>();
+        /**
+         * Position of the next chunk to start reading.
+         */
+        private long next;
+        /**
+         * Chunk returned by the last call of next(). Its buffer is reused when the next chunk is requested.
+         */
+        private ByteBuffer current;
+
+        private Reader(AsynchronousFileChannel channel, RootIo root, long position, long end, int depth) {
+            this.channel = channel;
+            this.root = root;
+            this.next = position;
+            this.end = end;
+            this.depth = depth;
+        }
+
+        /**
+         * Returns the next chunk of the range, waiting until it is read, and starts reading the following ones.
+         * The chunk may be used until the next call.
+         *
+         * @return Buffer containing the chunk or null if the range is over.
+         * @throws EOFException If the file became shorter than expected.
+         * @throws IOException  If an I/O error occurred or the thread was interrupted.
+         */
+        ByteBuffer next() throws IOException {
+            return take(true);
+        }
+
+        /**
+         * Returns the next chunk of the range if it is already read and starts reading the following ones.
+         * Never waits for the disk. The chunk may be used until the next call.
+         *
+         * @return Buffer containing the chunk or null if it is not read yet or the range is over.
+         * @throws EOFException If the file became shorter than expected.
+         * @throws IOException  If an I/O error occurred.
+         */
+        ByteBuffer poll() throws IOException {
+            return take(false);
+        }
+
+        private ByteBuffer take(boolean wait) throws IOException {
+            if (current != null) {
+                release(current);
+                current = null;
+            }
+            // The chunk to return is read along with depth chunks following it,
+            // so that depth reads stay in progress while it is being sent.
+            while (reads.size() < depth + 1 && next < end) {
+                var buffer = acquire();
+                buffer.limit((int) Math.min(CHUNK_SIZE, end - next));
+                reads.addLast(new Chunk(next, buffer, read(buffer, next)));
+                next += buffer.limit();
+            }
+
+            var chunk = reads.peekFirst();
+            if (chunk == null) {
+                return null;
+            }
+            while (true) {
+                if (!wait && !chunk.future.isDone()) {
+                    return null;
+                }
+                int read = await(chunk.future);
+                if (read < 0) {
+                    throw new EOFException("File was truncated while sending.");
+                }
+                if (!chunk.buffer.hasRemaining()) {
+                    break;
+                }
+                // Asynchronous reads may read fewer bytes than requested, the rest is read the same way.
+                chunk.future = read(chunk.buffer, chunk.position + chunk.buffer.position());
+            }
+            reads.removeFirst();
+            current = chunk.buffer;
+            return current.flip();
+        }
+
+        /**
+         * Starts an asynchronous read counted in the metrics of the root.
+         */
+        private CompletableFuture<Integer> read(ByteBuffer buffer, long position) {
+            var future = new CompletableFuture<Integer>();
+            long start = System.nanoTime();
+            root.readStarted();
+            channel.read(buffer, position, null, new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer result, Void attachment) {
+                    root.readFinished(result, System.nanoTime() - start);
+                    future.complete(result);
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    root.readFinished(-1, System.nanoTime() - start);
+                    future.completeExceptionally(exc);
+                }
+            });
+            return future;
+        }
+
+        /**
+         * Closes the file without waiting for the reads in progress.
+         * Buffers of the chunks being read return to the pool when their reads are over.
+         */
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+            if (current != null) {
+                release(current);
+                current = null;
+            }
+            for (var chunk : reads) {
+                chunk.future.whenComplete((read, failure) -> release(chunk.buffer));
+            }
+            reads.clear();
+        }
+
+        private int await(CompletableFuture<Integer> future) throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading the file.");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Chunk being read.
+     */
+    private static class Chunk {
+        private final long position;
+        private final ByteBuffer buffer;
+        /**
+         * Read filling the buffer, replaced by the read of the rest if it read fewer bytes than requested.
+         */
+        private CompletableFuture<Integer> future;
+
+        Chunk(long position, ByteBuffer buffer, CompletableFuture<Integer> future) {
+            this.position = position;
+            this.buffer = buffer;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of threads reading files of one root and counters of its reads. <br/>
+ * Files are read by the pool when they are read ahead, hashed for manifests, compressed, archived
+ * or compared with the client's copy. Bytes sent from mapped regions or with transferTo are read
+ * by the kernel, so they are only counted. <br/>
+ * Threads are started when reads are requested and stop after being idle for KEEP_ALIVE seconds,
+ * so the pool needs no shutdown: connections still being served after the server is closed keep reading. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see ServerRoot
+ */
+class RootIo {
+    private static final long KEEP_ALIVE = 30;
+
+    private final Path directory;
+    private final int threads;
+    private final ExecutorService pool;
+
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesTransferred = new LongAdder();
+    private final AtomicInteger pendingReads = new AtomicInteger();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+
+    /**
+     * Constructs a new instance of RootIo.
+     *
+     * @param root  Root whose files are read.
+     * @param index Index of the root, used in the names of the threads.
+     * @throws NullPointerException If root is null.
+     */
+    RootIo(ServerRoot root, int index) {
+        Objects.requireNonNull(root, "Root was null.");
+        this.directory = root.getDirectory().toPath().toAbsolutePath().normalize();
+        this.threads = root.getIoThreads();
+        var executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), command -> {
+            var thread = new Thread(command, "root-io-" + index);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        this.pool = executor;
+    }
+
+    /**
+     * Returns the root of the file: the root with the longest directory containing it.
+     *
+     * @param roots Roots to choose from, not empty.
+     * @param file  File of one of the roots.
+     * @return Root or the first one if no root contains the file.
+     */
+    static RootIo of(List<RootIo> roots, File file) {
+        if (roots.size() == 1) {
+            return roots.get(0);
+        }
+        var path = file.toPath().toAbsolutePath().normalize();
+        RootIo found = roots.get(0);
+        int longest = -1;
+        for (var root : roots) {
+            if (path.startsWith(root.directory) && root.directory.getNameCount() > longest) {
+                found = root;
+                longest = root.directory.getNameCount();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the pool of threads reading the files of the root.
+     */
+    ExecutorService getPool() {
+        return pool;
+    }
+
+    /**
+     * Counts a read that was requested.
+     */
+    void readStarted() {
+        pendingReads.incrementAndGet();
+    }
+
+    /**
+     * Counts a read that was completed or failed.
+     *
+     * @param bytes Number of bytes read, negative if nothing was read.
+     * @param nanos Time since the read was requested (in nanoseconds).
+     */
+    void readFinished(long bytes, long nanos) {
+        pendingReads.decrementAndGet();
+        reads.increment();
+        bytesRead.add(Math.max(0, bytes));
+        readLatency.record(nanos);
+    }
+
+    /**
+     * Counts bytes of a file sent by a connection thread instead of the pool: from a mapped region or with transferTo.
+     *
+     * @param bytes Number of sent bytes.
+     */
+    void bytesTransferred(long bytes) {
+        bytesTransferred.add(bytes);
+    }
+
+    /**
+     * Reads bytes of a file of the root by the current thread, counting the read. <br/>
+     * Should be called by a thread of the pool.
+     *
+     * @param channel  Channel of the file.
+     * @param buffer   Buffer to read to.
+     * @param position Position of the first byte to read.
+     * @return Number of bytes read, -1 if the position is at the end of the file.
+     * @throws IOException If an I/O error occurred.
+     */
+    int read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long start = System.nanoTime();
+        readStarted();
+        int read = -1;
+        try {
+            read = channel.read(buffer, position);
+            return read;
+        } finally {
+            readFinished(read, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Produces the next frame of the source by a thread of the pool, counting it as a read.
+     *
+     * @param frames Frames reading files of the root.
+     * @return Future of the frame, null if the end frame has already been returned;
+     *         completed exceptionally with UncheckedIOException if an I/O error occurred.
+     * @see RootIo#await(CompletableFuture)
+     */
+    CompletableFuture<ByteBuffer> produce(FrameSource frames) {
+        long start = System.nanoTime();
+        readStarted();
+        return CompletableFuture.supplyAsync(() -> {
+            long before = frames.getBytesRead();
+            long read = -1;
+            try {
+                var frame = frames.next();
+                read = frames.getBytesRead() - before;
+                return frame;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                readFinished(read, System.nanoTime() - start);
+            }
+        }, pool);
+    }
+
+    /**
+     * Waits for work done by the pool.
+     *
+     * @param future Future of the work.
+     * @return Result of the work.
+     * @throws IOException If the work failed with an I/O error or the thread was interrupted.
+     */
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the file.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns current counters of the reads.
+     */
+    RootStatistics getStatistics() {
+        return new RootStatistics(directory.toString(), threads, reads.sum(), bytesRead.sum(), bytesTransferred.sum(),
+                pendingReads.get(), readLatency.getStatistics());
+    }
+}
@@ -0,0 +1,85 @@
+package server;
+
+/**
+ * Snapshot of the counters of the reads of one root of the server.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see TorrentServer#getRootStatistics()
+ */
+public class RootStatistics {
+    private final String directory;
+    private final int ioThreads;
+    private final long reads;
+    private final long bytesRead;
+    private final long bytesTransferred;
+    private final int pendingReads;
+    private final LatencyStatistics readLatency;
+
+    RootStatistics(String directory, int ioThreads, long reads, long bytesRead, long bytesTransferred,
+                   int pendingReads, LatencyStatistics readLatency) {
+        this.directory = directory;
+        this.ioThreads = ioThreads;
+        this.reads = reads;
+        this.bytesRead = bytesRead;
+        this.bytesTransferred = bytesTransferred;
+        this.pendingReads = pendingReads;
+        this.readLatency = readLatency;
+    }
+
+    /**
+     * Returns the directory of the root.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the number of threads reading files of the root.
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * Returns the number of completed reads.
+     */
+    public long getReads() {
+        return reads;
+    }
+
+    /**
+     * Returns the number of bytes read by the I/O threads.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the number of bytes sent from mapped regions or with transferTo, i.e. not read by the I/O threads.
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    /**
+     * Returns the number of reads waiting for a thread or being executed.
+     */
+    public int getPendingReads() {
+        return pendingReads;
+    }
+
+    /**
+     * Returns latencies of the reads: from the moment a read was requested until it completed,
+     * including the time it waited for a thread.
+     */
+    public LatencyStatistics getReadLatency() {
+        return readLatency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d threads, %d reads, %d bytes read, %d bytes transferred, %d pending, "
+                        + "read latency mean %.0f us, max %d us", directory, ioThreads, reads, bytesRead,
+                bytesTransferred, pendingReads, readLatency.getMean(), readLatency.getMax());
+    }
+}
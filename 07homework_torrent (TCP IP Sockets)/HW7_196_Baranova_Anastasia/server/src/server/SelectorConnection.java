@@ -0,0 +1,1032 @@
+package server;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * State of a client served by the SelectorEngine. <br/>
+ * Connection is either reading a request or writing a response. While reading, bytes are collected
+ * until a full request line is received. The request is then turned into a queue of responses
+ * that are written as far as the socket accepts them; when the queue is empty,
+ * the connection goes back to reading. <br/>
+ * File bytes are written in portions granted by the bandwidth limits. Connection that has to wait
+ * for bandwidth stops selecting and is resumed by the scheduler of its selector loop. <br/>
+ * Work that reads files synchronously (sampling a file for compression, producing compressed, archive
+ * and delta frames) is done by the I/O threads of the root of the file, so the loop never waits for the disk;
+ * connection waiting for such work is resumed every POLL_NANOS until it is done. <br/>
+ * Protocol is the same as the one of ClientServingThread. <br/>
+ * Class is package private so that only SelectorEngine can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see ClientServingThread
+ */
+class SelectorConnection {
+    /**
+     * Maximum length of a request line (in bytes).
+     */
+    private static final int MAX_REQUEST_LENGTH = 4096;
+    /**
+     * Time to wait for work done by I/O threads (in nanoseconds).
+     * Selector loops resume connections with millisecond precision.
+     */
+    private static final long POLL_NANOS = 1_000_000;
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final ServerResources resources;
+    private final FileCatalog catalog;
+    private final ManifestCache manifests;
+    private final MappedFileCache cache;
+    private final ReadAhead readAhead;
+    private final BandwidthShaper.Allowance allowance;
+    private final ServerMetrics metrics;
+    private final SwarmTracker tracker;
+    private final Scheduler scheduler;
+
+    private final ByteBuffer input = ByteBuffer.allocate(MAX_REQUEST_LENGTH);
+    private final Queue<Response> output = new ArrayDeque<>();
+
+    /**
+     * If true, connection is closed as soon as all responses are written.
+     */
+    private boolean closeAfterWrite = false;
+    private boolean closed = false;
+
+    /**
+     * Delta request whose signature lines are being received, null if there is none.
+     */
+    private DeltaRequest delta;
+    /**
+     * Time the delta request was received (in nanoseconds).
+     */
+    private long deltaStart;
+
+    /**
+     * Constructor creates a new instance of SelectorConnection.
+     *
+     * @param channel   Client's channel in non-blocking mode.
+     * @param key       Key of the channel registration with a selector.
+     * @param resources Resources of the server.
+     * @param scheduler Scheduler of the selector loop resuming throttled connections.
+     * @throws NullPointerException If any of the passed arguments are null.
+     */
+    SelectorConnection(SocketChannel channel, SelectionKey key, ServerResources resources, Scheduler scheduler) {
+        this.channel = Objects.requireNonNull(channel, "Channel was null.");
+        this.key = Objects.requireNonNull(key, "Key was null.");
+        this.resources = Objects.requireNonNull(resources, "Resources were null.");
+        this.scheduler = Objects.requireNonNull(scheduler, "Scheduler was null.");
+        this.catalog = resources.getCatalog();
+        this.manifests = resources.getManifests();
+        this.cache = resources.getCache();
+        this.readAhead = resources.getReadAhead();
+        this.allowance = resources.getShaper().newConnection();
+        this.metrics = resources.getMetrics();
+        this.tracker = resources.getTracker();
+        metrics.connectionOpened();
+    }
+
+    /**
+     * Reads available bytes and processes complete requests.
+     *
+     * @throws IOException If an I/O error occurred.
+     */
+    void onReadable() throws IOException {
+        if (channel.read(input) == -1) {
+            abort();
+            return;
+        }
+        processRequests();
+    }
+
+    /**
+     * Writes responses as far as the socket accepts them. <br/>
+     * When all responses are written, goes back to reading requests.
+     *
+     * @throws IOException If an I/O error occurred.
+     */
+    void onWritable() throws IOException {
+        while (!output.isEmpty()) {
+            var response = output.peek();
+            if (!response.write(channel)) {
+                long delay = response.getDelayNanos();
+                if (delay > 0) {
+                    key.interestOps(0);
+                    scheduler.resumeAfter(this, delay);
+                } else {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+                return;
+            }
+            output.remove().close();
+        }
+
+        if (closeAfterWrite) {
+            close();
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        processRequests();
+    }
+
+    /**
+     * Continues writing responses after waiting for bandwidth.
+     *
+     * @throws IOException If an I/O error occurred.
+     */
+    void resume() throws IOException {
+        if (key.isValid()) {
+            onWritable();
+        }
+    }
+
+    /**
+     * Closes the connection and releases resources of unsent responses.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        tracker.leave(this);
+        metrics.connectionClosed();
+        key.cancel();
+        SelectorEngine.closeQuietly(channel);
+        while (!output.isEmpty()) {
+            output.remove().close();
+        }
+    }
+
+    /**
+     * Processes complete request lines received so far. <br/>
+     * Requests are processed one by one: next request is not processed until
+     * the response to the previous one is written. Lines following a delta request are its signatures.
+     *
+     * @throws IOException If an I/O error occurred.
+     */
+    private void processRequests() throws IOException {
+        String request;
+        while (output.isEmpty() && !closeAfterWrite && (request = nextLine()) != null) {
+            if (delta != null) {
+                delta.add(request);
+                if (delta.isComplete()) {
+                    respondDelta();
+                }
+                continue;
+            }
+            System.out.println("Received request: " + request);
+            processRequest(request);
+        }
+
+        if (!output.isEmpty()) {
+            onWritable();
+        } else if (!input.hasRemaining()) {
+            System.err.println("Request is too long.");
+            abort();
+        }
+    }
+
+    /**
+     * Extracts the next complete line from the input buffer.
+     *
+     * @return Line without line terminator or null if there is no complete line yet.
+     */
+    private String nextLine() {
+        for (int i = 0; i < input.position(); i++) {
+            if (input.get(i) == '\n') {
+                int length = i > 0 && input.get(i - 1) == '\r' ? i - 1 : i;
+                String line = new String(input.array(), 0, length, CHARSET);
+
+                input.flip();
+                input.position(i + 1);
+                input.compact();
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Turns client's request into responses. <br/>
+     * Response to a tagged request "#{ID} {request}" starts with a line "#{ID}". <br/>
+     * Latency of list and download requests is recorded when the last response is written.
+     *
+     * @param request String containing a line received by client.
+     */
+    private void processRequest(String request) throws IOException {
+        if (request.startsWith("#")) {
+            int space = request.indexOf(' ');
+            output.add(new BufferResponse((space < 0 ? request : request.substring(0, space)) + LINE_SEPARATOR));
+            request = space < 0 ? "" : request.substring(space + 1);
+        }
+        String[] words = request.split(" ");
+        long start = System.nanoTime();
+
+        switch (words[0]) {
+            case "list":
+                var response = new StringBuilder();
+                var lines = words.length > 1 ? ListQuery.parse(words, 1).response(catalog) : catalog.list();
+                for (String line : lines) {
+                    response.append(line).append(LINE_SEPARATOR);
+                }
+                response.append("done").append(LINE_SEPARATOR);
+                output.add(new BufferResponse(response.toString()));
+                output.add(new LatencyMark(metrics.getListLatency(), start));
+                break;
+            case "download":
+                int downloadId = Integer.parseInt(words[1]);
+                var file = catalog.find(downloadId);
+                if (words.length > 2 && words[2].equals("binary")) {
+                    if (file == null) {
+                        output.add(new BufferResponse("binary 0" + LINE_SEPARATOR));
+                        output.add(BinaryFileResponse.error());
+                        output.add(new LatencyMark(metrics.getDownloadLatency(), start));
+                        break;
+                    }
+                    metrics.downloadStarted(downloadId, catalog.relativePath(file.toPath()));
+                    long size = file.length();
+                    var range = ByteRange.parse(CompressedFrames.withoutOption(words), 3, size);
+                    if (CompressedFrames.isRequested(words)) {
+                        output.add(compressedDownload(file, range, size));
+                    } else {
+                        output.add(new BufferResponse(range.header(size) + LINE_SEPARATOR));
+                        output.add(BinaryFileResponse.open(file, range, resources.getRoot(file), cache, readAhead,
+                                allowance, metrics));
+                    }
+                } else if (file == null) {
+                    output.add(new BufferResponse("done" + LINE_SEPARATOR));
+                } else {
+                    metrics.downloadStarted(downloadId, catalog.relativePath(file.toPath()));
+                    output.add(new TextFileResponse(file, metrics));
+                }
+                output.add(new LatencyMark(metrics.getDownloadLatency(), start));
+                break;
+            case "folder":
+                List<String> folderLines;
+                try {
+                    folderLines = catalog.listFolder(ClientServingThread.argument(request));
+                } catch (IOException e) {
+                    System.err.println("Cannot read folder: " + e.getMessage());
+                    folderLines = null;
+                }
+                var folder = new StringBuilder();
+                if (folderLines == null) {
+                    folder.append("none").append(LINE_SEPARATOR);
+                } else {
+                    for (String line : folderLines) {
+                        folder.append(line).append(LINE_SEPARATOR);
+                    }
+                    folder.append("done").append(LINE_SEPARATOR);
+                }
+                output.add(new BufferResponse(folder.toString()));
+                output.add(new LatencyMark(metrics.getListLatency(), start));
+                break;
+            case "archive":
+                var archived = catalog.findFolder(ClientServingThread.argument(request));
+                if (archived == null) {
+                    output.add(new BufferResponse("none" + LINE_SEPARATOR));
+                    break;
+                }
+                metrics.archiveStarted(catalog.relativePath(archived));
+                output.add(new BufferResponse("archive" + LINE_SEPARATOR));
+                output.add(new FrameResponse(new TarFrames(archived), null,
+                        resources.getRoot(archived.toFile()), allowance, metrics));
+                output.add(new LatencyMark(metrics.getDownloadLatency(), start));
+                break;
+            case "delta":
+                try {
+                    delta = new DeltaRequest(words);
+                } catch (IllegalArgumentException e) {
+                    // Signature lines cannot be told from requests, so the connection cannot be used.
+                    output.add(new BufferResponse("none" + LINE_SEPARATOR));
+                    closeAfterWrite = true;
+                    break;
+                }
+                deltaStart = start;
+                if (delta.isComplete()) {
+                    respondDelta();
+                }
+                break;
+            case "stats":
+                var statistics = new StringBuilder();
+                for (String line : metrics.getStatistics().lines()) {
+                    statistics.append(line).append(LINE_SEPARATOR);
+                }
+                statistics.append("done").append(LINE_SEPARATOR);
+                output.add(new BufferResponse(statistics.toString()));
+                break;
+            case "announce":
+                output.add(new BufferResponse(announce(words) + LINE_SEPARATOR));
+                break;
+            case "peers":
+                var peers = new StringBuilder();
+                for (String line : peers(words)) {
+                    peers.append(line).append(LINE_SEPARATOR);
+                }
+                output.add(new BufferResponse(peers.toString()));
+                break;
+            case "manifest":
+                var manifestFile = catalog.find(ClientServingThread.id(words));
+                var manifest = new StringBuilder();
+                for (String line : manifestFile == null ? List.of("none") : manifests.response(manifestFile)) {
+                    manifest.append(line).append(LINE_SEPARATOR);
+                }
+                output.add(new BufferResponse(manifest.toString()));
+                break;
+            case "hash":
+                var hashFile = catalog.find(ClientServingThread.id(words));
+                output.add(new BufferResponse((hashFile == null ? "none" : manifests.hashResponse(hashFile))
+                        + LINE_SEPARATOR));
+                break;
+            case "finish":
+                output.add(new BufferResponse("done" + LINE_SEPARATOR));
+                closeAfterWrite = true;
+                break;
+        }
+    }
+
+    /**
+     * Returns the response to a download request asking for compression: the header and the frames.
+     * Whether the range is worth compressing is decided by an I/O thread of the root of the file,
+     * because a sample of the file is read and compressed for that.
+     * If the file cannot be opened, the header is followed by an error frame, as in ClientServingThread.
+     */
+    private Response compressedDownload(File file, ByteRange range, long size) {
+        var root = resources.getRoot(file);
+        return new DeferredResponse(CompletableFuture.supplyAsync(() -> {
+            boolean compressed = CompressedFrames.isWorthCompressing(file, range.getOffset(), range.getLength());
+            var header = new BufferResponse(range.header(size)
+                    + (compressed ? " " + CompressedFrames.OPTION : "") + LINE_SEPARATOR);
+            try {
+                return new SequenceResponse(header, compressed
+                        ? FrameResponse.compressed(file, range, root, allowance, metrics)
+                        : BinaryFileResponse.open(file, range, root, cache, readAhead, allowance, metrics));
+            } catch (IOException e) {
+                System.err.println("Cannot read file: " + e.getMessage());
+                return new SequenceResponse(header, BinaryFileResponse.error());
+            }
+        }, root.getPool()));
+    }
+
+    /**
+     * Returns the result of work done by an I/O thread, rethrowing its I/O error.
+     */
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Turns the delta request whose signatures were all received into responses (see ClientServingThread).
+     *
+     * @see DeltaRequest
+     */
+    private void respondDelta() throws IOException {
+        var request = delta;
+        delta = null;
+        var file = catalog.find(request.getId());
+        if (file == null || request.getSignatures() == null) {
+            output.add(new BufferResponse("none" + LINE_SEPARATOR));
+            return;
+        }
+        FileChannel fileChannel;
+        try {
+            fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException | AccessDeniedException e) {
+            System.err.println("Cannot read file: " + e.getMessage());
+            output.add(new BufferResponse("none" + LINE_SEPARATOR));
+            return;
+        }
+
+        metrics.downloadStarted(request.getId(), catalog.relativePath(file.toPath()));
+        long size = fileChannel.size();
+        output.add(new BufferResponse("delta " + size + LINE_SEPARATOR));
+        output.add(new FrameResponse(new DeltaFrames(fileChannel, size, request.getSignatures()),
+                fileChannel, resources.getRoot(file), allowance, metrics));
+        output.add(new LatencyMark(metrics.getDownloadLatency(), deltaStart));
+    }
+
+    /**
+     * Remembers that the client serves chunks of the file to other clients (see ClientServingThread).
+     *
+     * @return Response line: "done" or "none".
+     */
+    private String announce(String[] words) {
+        try {
+            var file = words.length < 4 ? null : catalog.find(Integer.parseInt(words[1]));
+            if (file == null) {
+                return "none";
+            }
+            tracker.announce(this, Integer.parseInt(words[1]), channel.socket().getInetAddress(),
+                    Integer.parseInt(words[2]), words[3], SwarmTracker.chunkCount(file.length()));
+            return "done";
+        } catch (IllegalArgumentException e) {
+            return "none";
+        }
+    }
+
+    /**
+     * Returns the clients serving chunks of the file (see ClientServingThread).
+     *
+     * @return Response lines: "peer" lines and "done", or "none" if the request is wrong.
+     */
+    private List<String> peers(String[] words) {
+        try {
+            return words.length < 2 ? List.of("none") : tracker.peers(this, Integer.parseInt(words[1]));
+        } catch (NumberFormatException e) {
+            return List.of("none");
+        }
+    }
+
+    /**
+     * Closes connection after client disconnected or sent an invalid request. <br/>
+     * Tries to inform client about it without waiting.
+     */
+    private void abort() {
+        try {
+            channel.write(CHARSET.encode("aborted" + LINE_SEPARATOR));
+        } catch (IOException e) {
+            System.err.println("Connection lost.");
+        }
+        close();
+    }
+
+    /**
+     * Scheduler of a selector loop.
+     */
+    interface Scheduler {
+        /**
+         * Makes the loop call resume() of the connection after the delay.
+         *
+         * @param connection Connection waiting for bandwidth.
+         * @param nanos      Delay (in nanoseconds).
+         */
+        void resumeAfter(SelectorConnection connection, long nanos);
+    }
+
+    /**
+     * Part of the response to the client.
+     */
+    private interface Response {
+        /**
+         * Writes as many bytes of the response as the channel and the bandwidth limits allow without blocking.
+         *
+         * @return true, if the response is written completely, false otherwise.
+         * @throws IOException If an I/O error occurred.
+         */
+        boolean write(SocketChannel channel) throws IOException;
+
+        /**
+         * Returns time to wait (in nanoseconds) if the last write() stopped because of the bandwidth limits
+         * or because the file bytes are still being read, 0 if it stopped because the channel did not accept bytes.
+         */
+        default long getDelayNanos() {
+            return 0;
+        }
+
+        /**
+         * Releases resources of the response.
+         */
+        default void close() {
+        }
+    }
+
+    /**
+     * Response that consists of bytes prepared in advance.
+     */
+    private static class BufferResponse implements Response {
+        private final ByteBuffer buffer;
+
+        BufferResponse(String text) {
+            this.buffer = CHARSET.encode(text);
+        }
+
+        BufferResponse(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public boolean write(SocketChannel channel) throws IOException {
+            channel.write(buffer);
+            return !buffer.hasRemaining();
+        }
+    }
+
+    /**
+     * Empty response recording the latency of the request when all the previous responses are written.
+     */
+    private static class LatencyMark implements Response {
+        private final LatencyHistogram histogram;
+        private final long start;
+
+        LatencyMark(LatencyHistogram histogram, long start) {
+            this.histogram = histogram;
+            this.start = start;
+        }
+
+        @Override
+        public boolean write(SocketChannel channel) {
+            histogram.record(System.nanoTime() - start);
+            return true;
+        }
+    }
+
+    /**
+     * File or its range sent in binary frames (see ClientServingThread). <br/>
+     * File bytes are sent from the shared cache of mapped regions. If the cache is disabled,
+     * they are moved with FileChannel.transferTo; if it does not move anything, bytes are copied through a buffer. <br/>
+     * If read-ahead is enabled, bytes are sent from the chunks read by the I/O threads of the root of the file
+     * instead, and the selector loop never waits for the disk: if the next chunk is not read yet,
+     * the response is resumed after POLL_NANOS.
+     */
+    private static class BinaryFileResponse implements Response {
+        private final File source;
+        /**
+         * Channel of the file, null if the file is read ahead.
+         */
+        private final FileChannel file;
+        /**
+         * Chunks of the range read ahead, null if read-ahead is disabled.
+         */
+        private final ReadAhead.Reader reader;
+        /**
+         * I/O of the root of the file counting bytes sent from mapped regions or with transferTo.
+         */
+        private final RootIo root;
+        private final MappedFileCache cache;
+        private final BandwidthShaper.Allowance allowance;
+        private final ServerMetrics metrics;
+        /**
+         * Position after the last byte to send.
+         */
+        private final long end;
+
+        private final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        /**
+         * File bytes read manually, but not yet written to the channel.
+         */
+        private ByteBuffer copied;
+        /**
+         * Mapped file bytes not yet written to the channel.
+         */
+        private ByteBuffer mapped;
+        /**
+         * Bytes of the chunk read ahead not yet written to the channel.
+         */
+        private ByteBuffer ahead;
+        private long delay = 0;
+
+        private long position;
+        private long frameRemaining = 0;
+        private boolean ended = false;
+
+        private BinaryFileResponse(File source, FileChannel file, ReadAhead.Reader reader, ByteRange range,
+                                   RootIo root, MappedFileCache cache, BandwidthShaper.Allowance allowance,
+                                   ServerMetrics metrics) {
+            this.source = source;
+            this.file = file;
+            this.reader = reader;
+            this.root = root;
+            this.cache = cache;
+            this.allowance = allowance;
+            this.metrics = metrics;
+            this.position = range.getOffset();
+            this.end = range.getOffset() + range.getLength();
+            header.limit(0);
+        }
+
+        /**
+         * Opens the file. If the file cannot be read, response will consist of an error frame only.
+         */
+        static Response open(File file, ByteRange range, RootIo root, MappedFileCache cache, ReadAhead readAhead,
+                             BandwidthShaper.Allowance allowance, ServerMetrics metrics) throws IOException {
+            try {
+                if (readAhead.isEnabled()) {
+                    var reader = readAhead.open(file, range.getOffset(), range.getLength());
+                    return new BinaryFileResponse(file, null, reader, range, root, cache, allowance, metrics);
+                }
+                var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                return new BinaryFileResponse(file, channel, null, range, root, cache, allowance, metrics);
+            } catch (NoSuchFileException | AccessDeniedException e) {
+                System.err.println("Cannot read file: " + e.getMessage());
+                return error();
+            }
+        }
+
+        /**
+         * Returns response consisting of an error frame only.
+         */
+        static Response error() {
+            return new BufferResponse(ByteBuffer.allocate(Integer.BYTES).putInt(-1).flip());
+        }
+
+        @Override
+        public long getDelayNanos() {
+            return delay;
+        }
+
+        @Override
+        public boolean write(SocketChannel channel) throws IOException {
+            delay = 0;
+            while (true) {
+                if (header.hasRemaining() && channel.write(header) == 0) {
+                    return false;
+                }
+                if (copied != null && copied.hasRemaining() && channel.write(copied) == 0) {
+                    return false;
+                }
+                if (header.hasRemaining() || copied != null && copied.hasRemaining()) {
+                    continue;
+                }
+
+                if (frameRemaining > 0) {
+                    if (!transfer(channel)) {
+                        return false;
+                    }
+                    continue;
+                }
+
+                if (ended) {
+                    return true;
+                }
+                int length = (int) Math.min(FileSender.CHUNK_SIZE, end - position);
+                header.clear();
+                header.putInt(length).flip();
+                frameRemaining = length;
+                ended = length == 0;
+            }
+        }
+
+        /**
+         * Moves bytes of the current frame to the channel.
+         *
+         * @return false, if the channel does not accept bytes now or the bandwidth limits do not allow to send them.
+         */
+        private boolean transfer(SocketChannel channel) throws IOException {
+            if (reader != null) {
+                return transferAhead(channel);
+            }
+            long granted = allowance.tryAcquire(frameRemaining);
+            if (granted == 0) {
+                delay = allowance.getWaitNanos();
+                return false;
+            }
+
+            if (mapped == null || !mapped.hasRemaining()) {
+                mapped = cache.get(source, position, frameRemaining);
+            }
+            if (mapped != null) {
+                int limit = mapped.limit();
+                mapped.limit((int) Math.min(limit, mapped.position() + granted));
+                int written = channel.write(mapped);
+                mapped.limit(limit);
+                allowance.giveBack(granted - written);
+                position += written;
+                frameRemaining -= written;
+                metrics.bytesSent(written);
+                root.bytesTransferred(written);
+                return written > 0;
+            }
+
+            long transferred = file.transferTo(position, granted, channel);
+            if (transferred > 0) {
+                allowance.giveBack(granted - transferred);
+                position += transferred;
+                frameRemaining -= transferred;
+                metrics.bytesSent(transferred);
+                root.bytesTransferred(transferred);
+                return true;
+            }
+
+            if (copied == null) {
+                copied = ByteBuffer.allocateDirect(64 * 1024);
+            }
+            copied.clear();
+            if (granted < copied.capacity()) {
+                copied.limit((int) granted);
+            }
+            int read = file.read(copied, position);
+            if (read < 0) {
+                allowance.giveBack(granted);
+                throw new EOFException("File was truncated while sending.");
+            }
+            // Copied bytes are sent later without asking for bandwidth again.
+            allowance.giveBack(granted - read);
+            copied.flip();
+            position += read;
+            frameRemaining -= read;
+            metrics.bytesSent(read);
+            root.bytesTransferred(read);
+
+            channel.write(copied);
+            return !copied.hasRemaining();
+        }
+
+        /**
+         * Moves bytes of the current frame from the chunks read ahead to the channel.
+         *
+         * @return false, if the next chunk is not read yet, the channel does not accept bytes now
+         * or the bandwidth limits do not allow to send them.
+         */
+        private boolean transferAhead(SocketChannel channel) throws IOException {
+            if (ahead == null || !ahead.hasRemaining()) {
+                ahead = reader.poll();
+                if (ahead == null) {
+                    delay = POLL_NANOS;
+                    return false;
+                }
+            }
+            long granted = allowance.tryAcquire(Math.min(frameRemaining, ahead.remaining()));
+            if (granted == 0) {
+                delay = allowance.getWaitNanos();
+                return false;
+            }
+
+            int limit = ahead.limit();
+            ahead.limit((int) (ahead.position() + granted));
+            int written = channel.write(ahead);
+            ahead.limit(limit);
+            allowance.giveBack(granted - written);
+            position += written;
+            frameRemaining -= written;
+            metrics.bytesSent(written);
+            return written > 0;
+        }
+
+        @Override
+        public void close() {
+            if (reader != null) {
+                reader.close();
+            } else {
+                SelectorEngine.closeQuietly(file);
+            }
+        }
+    }
+
+    /**
+     * Response body produced as frames: a compressed range of a file, an archive of a folder or a delta. <br/>
+     * Producing a frame reads files, so frames are produced one at a time by the I/O threads of the root
+     * while the loop serves other connections; the response is resumed after POLL_NANOS until the frame is ready.
+     *
+     * @see FrameSource
+     */
+    private static class FrameResponse implements Response {
+        private final FrameSource frames;
+        /**
+         * Channel the frames are read from, closed with the response. Null if the frames own their files.
+         */
+        private final FileChannel file;
+        /**
+         * I/O of the root of the files producing the frames.
+         */
+        private final RootIo root;
+        private final BandwidthShaper.Allowance allowance;
+        private final ServerMetrics metrics;
+        /**
+         * Frame that is being written. Null before the first frame.
+         */
+        private ByteBuffer frame;
+        /**
+         * Frame being produced by the I/O threads, null if none is.
+         */
+        private CompletableFuture<ByteBuffer> next;
+        private long delay = 0;
+
+        FrameResponse(FrameSource frames, FileChannel file, RootIo root, BandwidthShaper.Allowance allowance,
+                      ServerMetrics metrics) {
+            this.frames = frames;
+            this.file = file;
+            this.root = root;
+            this.allowance = allowance;
+            this.metrics = metrics;
+        }
+
+        /**
+         * Opens the file and compresses the range of it with Deflate.
+         * If the file cannot be read, response will consist of an error frame only.
+         *
+         * @see CompressedFrames
+         */
+        static Response compressed(File file, ByteRange range, RootIo root, BandwidthShaper.Allowance allowance,
+                                   ServerMetrics metrics) throws IOException {
+            try {
+                var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                return new FrameResponse(new CompressedFrames(channel, range.getOffset(), range.getLength()),
+                        channel, root, allowance, metrics);
+            } catch (NoSuchFileException | AccessDeniedException e) {
+                System.err.println("Cannot read file: " + e.getMessage());
+                return BinaryFileResponse.error();
+            }
+        }
+
+        @Override
+        public long getDelayNanos() {
+            return delay;
+        }
+
+        @Override
+        public boolean write(SocketChannel channel) throws IOException {
+            delay = 0;
+            while (true) {
+                if (frame == null || !frame.hasRemaining()) {
+                    if (next == null) {
+                        next = root.produce(frames);
+                    }
+                    if (!next.isDone()) {
+                        delay = POLL_NANOS;
+                        return false;
+                    }
+                    var produced = next;
+                    next = null;
+                    frame = join(produced);
+                    if (frame == null) {
+                        return true;
+                    }
+                }
+
+                long granted = allowance.tryAcquire(frame.remaining());
+                if (granted == 0) {
+                    delay = allowance.getWaitNanos();
+                    return false;
+                }
+                int limit = frame.limit();
+                frame.limit((int) (frame.position() + granted));
+                int written = channel.write(frame);
+                allowance.giveBack(granted - written);
+                metrics.bytesSent(written);
+                boolean accepted = !frame.hasRemaining();
+                frame.limit(limit);
+                if (!accepted) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Releases the frames and the file. If a frame is being produced, they are released when it is done.
+         */
+        @Override
+        public void close() {
+            if (next != null) {
+                next.whenComplete((produced, failure) -> release());
+            } else {
+                release();
+            }
+        }
+
+        private void release() {
+            frames.close();
+            if (file != null) {
+                SelectorEngine.closeQuietly(file);
+            }
+        }
+    }
+
+    /**
+     * Response prepared by an I/O thread. Until it is ready, the response is resumed after POLL_NANOS.
+     */
+    private static class DeferredResponse implements Response {
+        private final CompletableFuture<Response> future;
+        private Response response;
+
+        DeferredResponse(CompletableFuture<Response> future) {
+            this.future = future;
+        }
+
+        @Override
+        public boolean write(SocketChannel channel) throws IOException {
+            if (response == null) {
+                if (!future.isDone()) {
+                    return false;
+                }
+                response = join(future);
+            }
+            return response.write(channel);
+        }
+
+        @Override
+        public long getDelayNanos() {
+            return response == null ? POLL_NANOS : response.getDelayNanos();
+        }
+
+        @Override
+        public void close() {
+            future.whenComplete((prepared, failure) -> {
+                if (prepared != null) {
+                    prepared.close();
+                }
+            });
+        }
+    }
+
+    /**
+     * Responses written one after another as one response.
+     */
+    private static class SequenceResponse implements Response {
+        private final Queue<Response> parts = new ArrayDeque<>();
+
+        SequenceResponse(Response... parts) {
+            this.parts.addAll(List.of(parts));
+        }
+
+        @Override
+        public boolean write(SocketChannel channel) throws IOException {
+            while (!parts.isEmpty()) {
+                if (!parts.peek().write(channel)) {
+                    return false;
+                }
+                parts.remove().close();
+            }
+            return true;
+        }
+
+        @Override
+        public long getDelayNanos() {
+            return parts.isEmpty() ? 0 : parts.peek().getDelayNanos();
+        }
+
+        @Override
+        public void close() {
+            while (!parts.isEmpty()) {
+                parts.remove().close();
+            }
+        }
+    }
+
+    /**
+     * File sent in the legacy text mode: every byte as a separate line with its decimal value.
+     */
+    private static class TextFileResponse implements Response {
+        private final FileChannel file;
+        private final ServerMetrics metrics;
+        private final ByteBuffer bytes = ByteBuffer.allocate(8 * 1024);
+        private final StringBuilder text = new StringBuilder();
+        private ByteBuffer encoded = ByteBuffer.allocate(0);
+        private boolean ended = false;
+
+        TextFileResponse(File file, ServerMetrics metrics) throws IOException {
+            this.file = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.metrics = metrics;
+            bytes.limit(0);
+        }
+
+        @Override
+        public boolean write(SocketChannel channel) throws IOException {
+            while (true) {
+                if (encoded.hasRemaining() && channel.write(encoded) == 0) {
+                    return false;
+                }
+                if (encoded.hasRemaining()) {
+                    continue;
+                }
+                if (ended) {
+                    return true;
+                }
+
+                bytes.clear();
+                if (file.read(bytes) == -1) {
+                    ended = true;
+                    encoded = CHARSET.encode("done" + LINE_SEPARATOR);
+                    continue;
+                }
+                bytes.flip();
+                metrics.bytesSent(bytes.remaining());
+
+                text.setLength(0);
+                while (bytes.hasRemaining()) {
+                    text.append(bytes.get() & 0xFF).append(LINE_SEPARATOR);
+                }
+                encoded = CHARSET.encode(text.toString());
+            }
+        }
+
+        @Override
+        public void close() {
+            SelectorEngine.closeQuietly(file);
+        }
+    }
+}
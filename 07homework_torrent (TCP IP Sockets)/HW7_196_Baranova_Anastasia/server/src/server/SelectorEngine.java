@@ -0,0 +1,264 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking engine of the TorrentServer. <br/>
+ * Accepts clients in the calling thread and distributes them among several selector loops.
+ * Each loop serves all of its clients in a single thread, so the number of threads
+ * does not depend on the number of clients. <br/>
+ * Class is package private so that only TorrentServer can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see SelectorConnection
+ */
+class SelectorEngine {
+    private final ServerSocketChannel serverChannel;
+    private final ServerResources resources;
+    private final SelectorLoop[] loops;
+
+    private volatile Selector acceptSelector;
+    private volatile boolean stopped = false;
+
+    /**
+     * Constructor creates a new instance of SelectorEngine.
+     *
+     * @param serverChannel Channel accepting clients.
+     * @param resources     Resources of the server.
+     * @param loopCount     Number of selector loops serving clients.
+     * @throws NullPointerException     If any of the passed objects are null.
+     * @throws IllegalArgumentException If loopCount is not positive.
+     * @throws IOException              If a selector cannot be opened.
+     */
+    SelectorEngine(ServerSocketChannel serverChannel, ServerResources resources, int loopCount) throws IOException {
+        this.serverChannel = Objects.requireNonNull(serverChannel, "Server channel was null.");
+        this.resources = Objects.requireNonNull(resources, "Resources were null.");
+        if (loopCount <= 0) {
+            throw new IllegalArgumentException("Number of selector loops must be positive.");
+        }
+
+        this.loops = new SelectorLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new SelectorLoop(Selector.open());
+        }
+    }
+
+    /**
+     * Runs the engine. <br/>
+     * Starts selector loops and then accepts clients until the engine is stopped or the server channel is closed.
+     * Clients are given to the loops in turn.
+     *
+     * @throws IOException If an I/O error occurred when accepting a client.
+     */
+    void run() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], "selector-loop-" + i);
+            thread.start();
+        }
+
+        try (Selector selector = Selector.open()) {
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            acceptSelector = selector;
+
+            int next = 0;
+            while (!stopped && serverChannel.isOpen()) {
+                selector.select();
+                selector.selectedKeys().clear();
+
+                SocketChannel channel;
+                while (!stopped && (channel = serverChannel.accept()) != null) {
+                    loops[next].add(channel);
+                    next = (next + 1) % loops.length;
+                }
+            }
+        } finally {
+            for (var loop : loops) {
+                loop.stop();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new clients. <br/>
+     * Already connected clients are served until they disconnect.
+     */
+    void stop() {
+        stopped = true;
+        var selector = acceptSelector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Selector loop serving clients in a single thread. <br/>
+     * Connections waiting for bandwidth are resumed by the loop when their delay passes.
+     */
+    private class SelectorLoop implements Runnable, SelectorConnection.Scheduler {
+        private final Selector selector;
+        /**
+         * Clients given to the loop, but not yet registered with its selector.
+         */
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        /**
+         * Connections waiting for bandwidth ordered by the time to resume them. Used only by the loop thread.
+         */
+        private final PriorityQueue<Resumption> delayed = new PriorityQueue<>();
+        private volatile boolean stopping = false;
+
+        SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Gives a new client to the loop.
+         */
+        void add(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Makes the loop finish as soon as all of its clients disconnect.
+         */
+        void stop() {
+            stopping = true;
+            selector.wakeup();
+        }
+
+        /**
+         * Schedules the connection to be resumed by the loop after the delay.
+         * Must be called by the loop thread: the queue of delayed connections is not thread safe.
+         */
+        @Override
+        public void resumeAfter(SelectorConnection connection, long nanos) {
+            delayed.add(new Resumption(connection, System.nanoTime() + nanos));
+        }
+
+        /**
+         * Waits for ready connections and lets them process events. <br/>
+         * Connection that fails is closed, other connections of the loop are not affected.
+         */
+        @Override
+        public void run() {
+            try (selector) {
+                while (true) {
+                    select();
+                    registerPending();
+                    if (stopping && selector.keys().isEmpty()) {
+                        return;
+                    }
+
+                    var selectedKeys = selector.selectedKeys();
+                    for (var key : selectedKeys) {
+                        var connection = (SelectorConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            System.err.println(e.getMessage());
+                            connection.close();
+                        }
+                    }
+                    selectedKeys.clear();
+                    resumeDelayed();
+                }
+            } catch (IOException e) {
+                System.err.println("Selector loop failed.");
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Waits for ready connections, but not longer than until the first delayed connection must be resumed.
+         */
+        private void select() throws IOException {
+            var first = delayed.peek();
+            if (first == null) {
+                selector.select();
+                return;
+            }
+            long millis = (first.time - System.nanoTime() + 999_999) / 1_000_000;
+            if (millis > 0) {
+                selector.select(millis);
+            } else {
+                selector.selectNow();
+            }
+        }
+
+        /**
+         * Resumes connections whose delay has passed.
+         */
+        private void resumeDelayed() {
+            long now = System.nanoTime();
+            while (!delayed.isEmpty() && delayed.peek().time - now <= 0) {
+                var connection = delayed.remove().connection;
+                try {
+                    connection.resume();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println(e.getMessage());
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * Registers clients given to the loop with its selector.
+         */
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    var key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new SelectorConnection(channel, key, resources, this));
+                } catch (IOException e) {
+                    System.err.println("Cannot register client: " + e.getMessage());
+                    closeQuietly(channel);
+                }
+            }
+        }
+    }
+
+    /**
+     * Connection that must be resumed at the time.
+     */
+    private static class Resumption implements Comparable<Resumption> {
+        private final SelectorConnection connection;
+        /**
+         * Time to resume the connection (System.nanoTime()).
+         */
+        private final long time;
+
+        Resumption(SelectorConnection connection, long time) {
+            this.connection = connection;
+            this.time = time;
+        }
+
+        @Override
+        public int compareTo(Resumption other) {
+            return Long.compare(time - other.time, 0);
+        }
+    }
+
+    /**
+     * Closes channel ignoring I/O errors.
+     */
+    static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
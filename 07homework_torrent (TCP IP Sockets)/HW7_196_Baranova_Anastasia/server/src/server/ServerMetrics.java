@@ -0,0 +1,139 @@
+package server;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the work done by the server. <br/>
+ * Counters are updated by the connections on every request and every portion of sent bytes,
+ * so they are lock-free: sums are LongAdders, latencies are recorded into LatencyHistograms. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see ServerStatistics
+ */
+class ServerMetrics {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    /**
+     * Number of complete seconds the current throughput is averaged over.
+     */
+    private static final int THROUGHPUT_WINDOW = 5;
+
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder bytesServed = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> downloads = new ConcurrentHashMap<>();
+    private final LatencyHistogram listLatency = new LatencyHistogram();
+    private final LatencyHistogram downloadLatency = new LatencyHistogram();
+
+    /**
+     * Bytes sent during the recent seconds. Slot of a second is reused THROUGHPUT_WINDOW + 1 seconds later.
+     */
+    private final AtomicLongArray secondBytes = new AtomicLongArray(THROUGHPUT_WINDOW + 1);
+    /**
+     * Second (System.nanoTime() / NANOS_PER_SECOND) every slot of secondBytes belongs to.
+     */
+    private final AtomicLongArray seconds = new AtomicLongArray(THROUGHPUT_WINDOW + 1);
+
+    /**
+     * Counts a new client connection.
+     */
+    void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    /**
+     * Counts a closed client connection.
+     */
+    void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    /**
+     * Counts a download of the file. Files are counted as "{id} {path}", so that files with the same name
+     * in different folders or roots are counted separately.
+     *
+     * @param id   ID of the file in the catalog.
+     * @param path Path of the file relative to its root.
+     */
+    void downloadStarted(int id, String path) {
+        count(id + " " + path);
+    }
+
+    /**
+     * Counts a download of the folder as an archive. Folders are counted as "{path}/",
+     * so that they are not confused with files.
+     *
+     * @param path Path of the folder relative to the roots, empty string for the roots themselves.
+     */
+    void archiveStarted(String path) {
+        count(path + "/");
+    }
+
+    private void count(String key) {
+        var counter = downloads.get(key);
+        if (counter == null) {
+            counter = downloads.computeIfAbsent(key, name -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    /**
+     * Counts bytes of files written to a client.
+     */
+    void bytesSent(long count) {
+        bytesServed.add(count);
+
+        long second = Math.floorDiv(System.nanoTime(), NANOS_PER_SECOND);
+        int slot = (int) Math.floorMod(second, (long) seconds.length());
+        long slotSecond = seconds.get(slot);
+        if (slotSecond != second && seconds.compareAndSet(slot, slotSecond, second)) {
+            // Bytes added concurrently to a reused slot may be lost: current throughput is an estimate.
+            secondBytes.set(slot, 0);
+        }
+        secondBytes.addAndGet(slot, count);
+    }
+
+    /**
+     * Returns the histogram of latencies of list requests.
+     */
+    LatencyHistogram getListLatency() {
+        return listLatency;
+    }
+
+    /**
+     * Returns the histogram of latencies of download requests (until the last byte is written).
+     */
+    LatencyHistogram getDownloadLatency() {
+        return downloadLatency;
+    }
+
+    /**
+     * Returns the current values of the counters.
+     */
+    ServerStatistics getStatistics() {
+        var counts = new HashMap<String, Long>();
+        downloads.forEach((name, counter) -> counts.put(name, counter.sum()));
+        long closed = connectionsClosed.sum();
+        long opened = connectionsOpened.sum();
+        return new ServerStatistics(opened - closed, opened, bytesServed.sum(), throughput(), counts,
+                listLatency.getStatistics(), downloadLatency.getStatistics());
+    }
+
+    /**
+     * Returns the mean number of bytes sent per second during the last complete seconds.
+     */
+    private long throughput() {
+        long current = Math.floorDiv(System.nanoTime(), NANOS_PER_SECOND);
+        long sum = 0;
+        for (long second = current - THROUGHPUT_WINDOW; second < current; second++) {
+            int slot = (int) Math.floorMod(second, (long) seconds.length());
+            if (seconds.get(slot) == second) {
+                sum += secondBytes.get(slot);
+            }
+        }
+        return sum / THROUGHPUT_WINDOW;
+    }
+}
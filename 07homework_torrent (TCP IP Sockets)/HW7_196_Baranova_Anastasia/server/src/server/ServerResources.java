@@ -0,0 +1,105 @@
+package server;
+
+import java.io.File;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Resources of a server shared by all of its connections. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class ServerResources {
+    private final FileCatalog catalog;
+    private final ManifestCache manifests;
+    private final MappedFileCache cache;
+    private final ReadAhead readAhead;
+    private final List<RootIo> roots;
+    private final BandwidthShaper shaper;
+    private final ServerMetrics metrics;
+    private final SwarmTracker tracker;
+
+    /**
+     * Constructs a new instance of ServerResources.
+     *
+     * @param catalog   Index of the files available for clients.
+     * @param manifests Manifests of the files.
+     * @param cache     Cache of mapped regions of the files.
+     * @param readAhead Asynchronous reader of the files.
+     * @param roots     I/O of the roots of the server, not empty.
+     * @param shaper    Limits of the rate of sent bytes.
+     * @param metrics   Counters of the work done by the server.
+     * @param tracker   Tracker of the clients serving chunks to each other.
+     * @throws NullPointerException If any of the passed arguments are null.
+     */
+    ServerResources(FileCatalog catalog, ManifestCache manifests, MappedFileCache cache, ReadAhead readAhead,
+                    List<RootIo> roots, BandwidthShaper shaper, ServerMetrics metrics, SwarmTracker tracker) {
+        this.catalog = Objects.requireNonNull(catalog, "Catalog was null.");
+        this.manifests = Objects.requireNonNull(manifests, "Manifests were null.");
+        this.cache = Objects.requireNonNull(cache, "Cache was null.");
+        this.readAhead = Objects.requireNonNull(readAhead, "Read-ahead was null.");
+        this.roots = List.copyOf(Objects.requireNonNull(roots, "Roots were null."));
+        this.shaper = Objects.requireNonNull(shaper, "Shaper was null.");
+        this.metrics = Objects.requireNonNull(metrics, "Metrics were null.");
+        this.tracker = Objects.requireNonNull(tracker, "Tracker was null.");
+    }
+
+    /**
+     * Returns the index of the files available for clients.
+     */
+    FileCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Returns manifests of the files.
+     */
+    ManifestCache getManifests() {
+        return manifests;
+    }
+
+    /**
+     * Returns the cache of mapped regions of the files.
+     */
+    MappedFileCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the asynchronous reader of the files.
+     */
+    ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Returns the I/O of the root the file belongs to: its pool of I/O threads and counters of its reads.
+     *
+     * @param file File of one of the roots.
+     */
+    RootIo getRoot(File file) {
+        return RootIo.of(roots, file);
+    }
+
+    /**
+     * Returns limits of the rate of sent bytes.
+     */
+    BandwidthShaper getShaper() {
+        return shaper;
+    }
+
+    /**
+     * Returns counters of the work done by the server.
+     */
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the tracker of the clients serving chunks to each other.
+     */
+    SwarmTracker getTracker() {
+        return tracker;
+    }
+}
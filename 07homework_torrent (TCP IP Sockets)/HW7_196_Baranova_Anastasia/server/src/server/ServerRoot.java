@@ -0,0 +1,68 @@
+package server;
+
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * Directory published by the server (a root of its catalog) and the number of threads reading its files. <br/>
+ * Every root has its own pool of I/O threads, so roots on different disks should be separate roots:
+ * then a slow or busy disk delays only the reads of its own files.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see TorrentServer#TorrentServer(java.util.List, int)
+ */
+public final class ServerRoot {
+    /**
+     * Number of I/O threads of a root if it is not specified.
+     */
+    public static final int DEFAULT_IO_THREADS = 2;
+
+    private final File directory;
+    private final int ioThreads;
+
+    /**
+     * Constructs a root with the default number of I/O threads.
+     *
+     * @param directory Directory with files available for clients.
+     * @throws NullPointerException If directory is null.
+     * @see ServerRoot#DEFAULT_IO_THREADS
+     */
+    public ServerRoot(File directory) {
+        this(directory, DEFAULT_IO_THREADS);
+    }
+
+    /**
+     * Constructs a new instance of ServerRoot.
+     *
+     * @param directory Directory with files available for clients.
+     * @param ioThreads Number of threads reading files of the directory.
+     * @throws NullPointerException     If directory is null.
+     * @throws IllegalArgumentException If ioThreads is not positive.
+     */
+    public ServerRoot(File directory, int ioThreads) {
+        this.directory = Objects.requireNonNull(directory, "Directory was null.");
+        if (ioThreads <= 0) {
+            throw new IllegalArgumentException("Number of I/O threads must be positive.");
+        }
+        this.ioThreads = ioThreads;
+    }
+
+    /**
+     * Returns the directory of the root.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the number of threads reading files of the root.
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    @Override
+    public String toString() {
+        return directory + " (" + ioThreads + " I/O threads)";
+    }
+}
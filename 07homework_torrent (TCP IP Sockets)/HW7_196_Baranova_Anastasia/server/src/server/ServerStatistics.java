@@ -0,0 +1,117 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the counters of a running server. <br/>
+ * Text form of the statistics (see lines()) is the response to the "stats" request.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ * @see TorrentServer#getStatistics()
+ */
+public class ServerStatistics {
+    private final long activeConnections;
+    private final long totalConnections;
+    private final long bytesServed;
+    private final long throughput;
+    private final Map<String, Long> downloadCounts;
+    private final LatencyStatistics listLatency;
+    private final LatencyStatistics downloadLatency;
+
+    ServerStatistics(long activeConnections, long totalConnections, long bytesServed, long throughput,
+                     Map<String, Long> downloadCounts,
+                     LatencyStatistics listLatency, LatencyStatistics downloadLatency) {
+        this.activeConnections = activeConnections;
+        this.totalConnections = totalConnections;
+        this.bytesServed = bytesServed;
+        this.throughput = throughput;
+        this.downloadCounts = Collections.unmodifiableMap(downloadCounts);
+        this.listLatency = listLatency;
+        this.downloadLatency = downloadLatency;
+    }
+
+    /**
+     * Returns the number of clients that are connected now.
+     */
+    public long getActiveConnections() {
+        return activeConnections;
+    }
+
+    /**
+     * Returns the number of clients that have connected since the server was started.
+     */
+    public long getTotalConnections() {
+        return totalConnections;
+    }
+
+    /**
+     * Returns the number of bytes of files sent to clients (compressed bytes for compressed downloads).
+     */
+    public long getBytesServed() {
+        return bytesServed;
+    }
+
+    /**
+     * Returns the number of bytes of files sent per second during the last few seconds.
+     */
+    public long getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Returns the number of download requests of every file and archived folder. Files are keyed by
+     * "{id} {path relative to the root}", folders by "{path relative to the roots}/".
+     * Files never downloaded are absent.
+     */
+    public Map<String, Long> getDownloadCounts() {
+        return downloadCounts;
+    }
+
+    /**
+     * Returns latencies of list requests.
+     */
+    public LatencyStatistics getListLatency() {
+        return listLatency;
+    }
+
+    /**
+     * Returns latencies of download requests: time until the last byte of the file is written.
+     */
+    public LatencyStatistics getDownloadLatency() {
+        return downloadLatency;
+    }
+
+    /**
+     * Returns the statistics as lines of the "stats" response: <br/>
+     * "connections {active} {total}", "bytes {bytes served}", "throughput {bytes per second}", <br/>
+     * "latency list|download {count} {mean} {p50} {p90} {p99} {max}" (in microseconds), <br/>
+     * "file {downloads} {id} {path}" for every downloaded file and "file {downloads} {path}/" for every
+     * archived folder starting from the most popular one.
+     */
+    public List<String> lines() {
+        var lines = new ArrayList<String>();
+        lines.add("connections " + activeConnections + " " + totalConnections);
+        lines.add("bytes " + bytesServed);
+        lines.add("throughput " + throughput);
+        lines.add(latencyLine("list", listLatency));
+        lines.add(latencyLine("download", downloadLatency));
+        downloadCounts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .forEach(entry -> lines.add("file " + entry.getValue() + " " + entry.getKey()));
+        return lines;
+    }
+
+    private static String latencyLine(String name, LatencyStatistics latency) {
+        return String.format("latency %s %d %.0f %d %d %d %d", name, latency.getCount(), latency.getMean(),
+                latency.getPercentile(50), latency.getPercentile(90), latency.getPercentile(99), latency.getMax());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d active connections (%d total), %d bytes served, %d bytes/s; list: %s; download: %s",
+                activeConnections, totalConnections, bytesServed, throughput, listLatency, downloadLatency);
+    }
+}
@@ -0,0 +1,146 @@
+package server;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracker of the swarm: knows which clients hold which chunks of the files and serve them to other clients. <br/>
+ * Chunks are the chunks of the file's manifest, so downloaded chunks can be verified by their hashes.
+ * A client announces chunks over its connection to the server; the announcements are forgotten
+ * when the connection is closed. <br/>
+ * Chunk sets are written as comma-separated ranges, e.g. "0-3,5,7-9". <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class SwarmTracker {
+    /**
+     * Peers of every file by the connection that announced them.
+     */
+    private final Map<Integer, Map<Object, Peer>> files = new ConcurrentHashMap<>();
+
+    /**
+     * Remembers that a client serves the chunks of the file.
+     *
+     * @param owner      Connection of the client.
+     * @param id         ID of the file.
+     * @param host       Address of the client.
+     * @param port       Port on which the client serves chunks to other clients.
+     * @param chunks     Ranges of chunks, added to the ones announced before.
+     * @param chunkCount Number of chunks of the file.
+     * @throws IllegalArgumentException If the ranges or the port are invalid or a chunk is not in the file.
+     * @see SwarmTracker#chunkCount(long)
+     */
+    void announce(Object owner, int id, InetAddress host, int port, String chunks, int chunkCount) {
+        if (port <= 0 || port > 65535) {
+            throw new IllegalArgumentException("Illegal port: " + port + ".");
+        }
+        var announced = parseRanges(chunks, chunkCount);
+        var peer = files.computeIfAbsent(id, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(owner, key -> new Peer(host, port));
+        synchronized (peer) {
+            peer.port = port;
+            peer.chunks.or(announced);
+        }
+    }
+
+    /**
+     * Returns the response to the "peers" request: "peer {host} {port} {chunk ranges}" for every client
+     * serving the file except the asking one, and "done".
+     *
+     * @param owner Connection of the asking client.
+     * @param id    ID of the file.
+     */
+    List<String> peers(Object owner, int id) {
+        var lines = new ArrayList<String>();
+        files.getOrDefault(id, Map.of()).forEach((key, peer) -> {
+            if (key != owner) {
+                synchronized (peer) {
+                    lines.add("peer " + peer.host.getHostAddress() + " " + peer.port + " " + formatRanges(peer.chunks));
+                }
+            }
+        });
+        lines.add("done");
+        return lines;
+    }
+
+    /**
+     * Forgets all the announcements made over the connection.
+     */
+    void leave(Object owner) {
+        for (var peers : files.values()) {
+            peers.remove(owner);
+        }
+    }
+
+    /**
+     * Returns the number of chunks of a file: chunks of its manifest.
+     *
+     * @param size Size of the file (in bytes).
+     */
+    static int chunkCount(long size) {
+        return (int) ((size + ManifestCache.CHUNK_SIZE - 1) / ManifestCache.CHUNK_SIZE);
+    }
+
+    /**
+     * Parses ranges of chunks like "0-3,5".
+     *
+     * @param ranges Ranges of chunks.
+     * @param limit  Number of chunks of the file: every chunk must be less than it.
+     * @throws IllegalArgumentException If the ranges have a wrong format or a chunk is not less than limit.
+     */
+    static BitSet parseRanges(String ranges, int limit) {
+        var chunks = new BitSet();
+        try {
+            for (String range : ranges.split(",")) {
+                int dash = range.indexOf('-');
+                int from = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+                int to = dash < 0 ? from : Integer.parseInt(range.substring(dash + 1));
+                if (from < 0 || to < from || to >= limit) {
+                    throw new IllegalArgumentException("Wrong range: " + range + ".");
+                }
+                chunks.set(from, to + 1);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong ranges: " + ranges + ".");
+        }
+        return chunks;
+    }
+
+    /**
+     * Writes chunks as ranges like "0-3,5".
+     */
+    static String formatRanges(BitSet chunks) {
+        var ranges = new StringBuilder();
+        for (int from = chunks.nextSetBit(0); from >= 0; from = chunks.nextSetBit(from)) {
+            int to = chunks.nextClearBit(from) - 1;
+            if (ranges.length() > 0) {
+                ranges.append(',');
+            }
+            ranges.append(from);
+            if (to > from) {
+                ranges.append('-').append(to);
+            }
+            from = to + 1;
+        }
+        return ranges.toString();
+    }
+
+    /**
+     * Client serving chunks of a file.
+     */
+    private static class Peer {
+        private final InetAddress host;
+        private int port;
+        private final BitSet chunks = new BitSet();
+
+        Peer(InetAddress host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+    }
+}
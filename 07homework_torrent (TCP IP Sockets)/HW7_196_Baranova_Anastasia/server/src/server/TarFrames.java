@@ -0,0 +1,292 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Tar archive of a folder generated on the fly and split into binary frames. <br/>
+ * Archive is never stored: entries are added as the frames are requested, and the folder is walked lazily,
+ * so only the names in the folders on the way to the current file are kept in memory. Entry names are
+ * relative to the folder and use '/' as a separator; folders are archived before their contents,
+ * entries of a folder are ordered by name. Symbolic links are skipped, so the archive cannot refer
+ * to files outside of the folder. Files and folders that cannot be read are skipped. <br/>
+ * Archive is in the GNU tar format: ustar headers, long names in "././@LongLink" entries
+ * and sizes of files larger than 8 GB in base-256. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class TarFrames implements FrameSource {
+    /**
+     * Size of a tar block. Headers and contents of the files are padded to blocks.
+     */
+    static final int BLOCK_SIZE = 512;
+
+    /**
+     * Maximum number of archive bytes in one frame.
+     */
+    private static final int FRAME_SIZE = 64 * 1024;
+
+    private static final int NAME_LENGTH = 100;
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+    private static final String LONG_NAME = "././@LongLink";
+
+    private final Path folder;
+    /**
+     * Paths that have not been archived yet in the order they are archived.
+     */
+    private final Deque<Path> entries = new ArrayDeque<>();
+    private final ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + FRAME_SIZE);
+
+    /**
+     * Headers and padding waiting to be written to frames.
+     */
+    private ByteBuffer pending = ByteBuffer.allocate(0);
+    /**
+     * File whose contents are being archived, null between files.
+     */
+    private FileChannel file;
+    private long fileSize;
+    private long filePosition;
+    private long bytesRead = 0;
+
+    private boolean trailerAdded = false;
+    private boolean ended = false;
+
+    /**
+     * Constructs a new instance of TarFrames. Folder is read when the frames are requested.
+     *
+     * @param folder Folder to archive.
+     * @throws NullPointerException If folder is null.
+     */
+    TarFrames(Path folder) {
+        this.folder = Objects.requireNonNull(folder, "Folder was null.");
+        entries.add(folder);
+    }
+
+    @Override
+    public ByteBuffer next() throws IOException {
+        if (ended) {
+            return null;
+        }
+
+        frame.clear();
+        frame.position(Integer.BYTES);
+        while (frame.hasRemaining() && fill()) {
+            // Frame is filled with the next bytes of the archive.
+        }
+
+        int length = frame.position() - Integer.BYTES;
+        ended = length == 0;
+        frame.putInt(0, length).flip();
+        return frame;
+    }
+
+    /**
+     * Moves the next bytes of the archive to the frame.
+     *
+     * @return false, if the archive is over.
+     */
+    private boolean fill() throws IOException {
+        if (pending.hasRemaining()) {
+            int count = Math.min(pending.remaining(), frame.remaining());
+            frame.put(pending.array(), pending.position(), count);
+            pending.position(pending.position() + count);
+            return true;
+        }
+
+        if (file != null) {
+            if (filePosition < fileSize) {
+                int limit = frame.limit();
+                frame.limit((int) Math.min(limit, frame.position() + fileSize - filePosition));
+                int read = file.read(frame, filePosition);
+                frame.limit(limit);
+                if (read < 0) {
+                    throw new EOFException("File was truncated while sending.");
+                }
+                filePosition += read;
+                bytesRead += read;
+                return true;
+            }
+            closeFile();
+            pending = ByteBuffer.allocate(padding(fileSize));
+            return true;
+        }
+
+        var entry = entries.pollFirst();
+        if (entry != null) {
+            addEntry(entry);
+            return true;
+        }
+        if (!trailerAdded) {
+            // End of the archive: two empty blocks.
+            trailerAdded = true;
+            pending = ByteBuffer.allocate(2 * BLOCK_SIZE);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Prepares the header of a file or a folder. Contents of a folder are added to the beginning of the entries.
+     * Entries that cannot be read are skipped.
+     */
+    private void addEntry(Path path) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        long modified = attributes.lastModifiedTime().toMillis() / 1000;
+        String name = folder.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+
+        if (attributes.isDirectory()) {
+            List<Path> children;
+            try (var listing = Files.list(path)) {
+                children = listing.sorted().collect(Collectors.toList());
+            } catch (AccessDeniedException e) {
+                System.err.println("Cannot read folder: " + e.getMessage());
+                return;
+            }
+            for (int i = children.size() - 1; i >= 0; i--) {
+                entries.addFirst(children.get(i));
+            }
+            if (!path.equals(folder)) {
+                pending = ByteBuffer.wrap(header(name + "/", 0, modified, '5'));
+            }
+        } else if (attributes.isRegularFile()) {
+            try {
+                file = FileChannel.open(path, StandardOpenOption.READ);
+            } catch (NoSuchFileException | AccessDeniedException e) {
+                System.err.println("Cannot read file: " + e.getMessage());
+                return;
+            }
+            fileSize = attributes.size();
+            filePosition = 0;
+            pending = ByteBuffer.wrap(header(name, fileSize, modified, '0'));
+        }
+    }
+
+    /**
+     * Returns the header blocks of an entry: a long name entry if the name does not fit the header
+     * and the header itself.
+     *
+     * @param name     Name of the entry, names of folders end with '/'.
+     * @param size     Size of the file, 0 for folders.
+     * @param modified Time of the last modification (in seconds since the epoch).
+     * @param type     Type of the entry: '0' for a file, '5' for a folder.
+     */
+    static byte[] header(String name, long size, long modified, char type) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        var blocks = new ArrayList<byte[]>();
+        if (nameBytes.length > NAME_LENGTH) {
+            blocks.add(block(LONG_NAME.getBytes(StandardCharsets.US_ASCII), nameBytes.length + 1, 0, 'L'));
+            byte[] longName = new byte[nameBytes.length + 1 + padding(nameBytes.length + 1)];
+            System.arraycopy(nameBytes, 0, longName, 0, nameBytes.length);
+            blocks.add(longName);
+            nameBytes = Arrays.copyOf(nameBytes, NAME_LENGTH);
+        }
+        blocks.add(block(nameBytes, size, modified, type));
+
+        var header = ByteBuffer.allocate(blocks.stream().mapToInt(block -> block.length).sum());
+        for (var block : blocks) {
+            header.put(block);
+        }
+        return header.array();
+    }
+
+    /**
+     * Returns a header block in the GNU format.
+     */
+    private static byte[] block(byte[] name, long size, long modified, char type) {
+        byte[] block = new byte[BLOCK_SIZE];
+        System.arraycopy(name, 0, block, 0, Math.min(name.length, NAME_LENGTH));
+        putOctal(block, 100, 8, type == '5' ? 0755 : 0644);
+        putOctal(block, 108, 8, 0);
+        putOctal(block, 116, 8, 0);
+        if (size <= MAX_OCTAL_SIZE) {
+            putOctal(block, 124, 12, size);
+        } else {
+            // Base-256: the highest bit of the first byte is set, the number is big-endian.
+            for (int i = 135; i > 124; i--, size >>>= 8) {
+                block[i] = (byte) size;
+            }
+            block[124] = (byte) 0x80;
+        }
+        putOctal(block, 136, 12, modified);
+        block[156] = (byte) type;
+        System.arraycopy("ustar  \0".getBytes(StandardCharsets.US_ASCII), 0, block, 257, 8);
+
+        // Checksum is counted with the checksum field filled with spaces.
+        Arrays.fill(block, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : block) {
+            checksum += b & 0xFF;
+        }
+        putOctal(block, 148, 7, checksum);
+        return block;
+    }
+
+    /**
+     * Writes the number as octal digits padded with zeros and terminated with NUL.
+     */
+    private static void putOctal(byte[] block, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        int start = offset + length - 1 - digits.length();
+        Arrays.fill(block, offset, start, (byte) '0');
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, block, start, digits.length());
+        block[offset + length - 1] = 0;
+    }
+
+    /**
+     * Returns the number of zero bytes that pad the contents of the given size to a whole number of blocks.
+     */
+    private static int padding(long size) {
+        return (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+    }
+
+    private void closeFile() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        file = null;
+    }
+
+    /**
+     * Returns the number of bytes of the archived files read so far. Headers and padding are not counted.
+     */
+    @Override
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Closes the file that is being archived.
+     */
+    @Override
+    public void close() {
+        if (file != null) {
+            closeFile();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package server;
+
+/**
+ * Token bucket limiting the rate of sent bytes. <br/>
+ * Tokens (bytes) are added continuously at the rate and are accumulated up to the capacity,
+ * which is the amount that may be sent at once after a pause (a tenth of a second at the rate). <br/>
+ * Rate may be changed at any time. Is thread safe. <br/>
+ * Class is package private so that only server classes can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class TokenBucket {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    /**
+     * Rate (in bytes per second), 0 if it is unlimited.
+     */
+    private long rate;
+    private long capacity;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Constructs a new instance of TokenBucket.
+     *
+     * @param rate Rate (in bytes per second), 0 for unlimited rate.
+     * @throws IllegalArgumentException If rate is negative.
+     */
+    TokenBucket(long rate) {
+        setRate(rate);
+        tokens = capacity;
+    }
+
+    /**
+     * Changes the rate. Accumulated tokens above the new capacity are discarded.
+     *
+     * @param rate Rate (in bytes per second), 0 for unlimited rate.
+     * @throws IllegalArgumentException If rate is negative.
+     */
+    synchronized void setRate(long rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate must not be negative.");
+        }
+        refill();
+        this.rate = rate;
+        this.capacity = Math.max(1, rate / 10);
+        tokens = Math.min(tokens, capacity);
+    }
+
+    /**
+     * Returns the rate (in bytes per second), 0 if it is unlimited.
+     */
+    synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * Returns the number of bytes that can be taken at once: the wanted amount
+     * limited by the capacity of the bucket.
+     *
+     * @param wanted Number of bytes to send.
+     */
+    synchronized long portion(long wanted) {
+        return rate == 0 ? wanted : Math.min(wanted, capacity);
+    }
+
+    /**
+     * Takes tokens if there are enough of them.
+     *
+     * @param amount Number of tokens to take. Must not exceed portion(amount).
+     * @return true, if the tokens are taken.
+     */
+    synchronized boolean tryTake(long amount) {
+        if (rate == 0) {
+            return true;
+        }
+        refill();
+        if (tokens < amount) {
+            return false;
+        }
+        tokens -= amount;
+        return true;
+    }
+
+    /**
+     * Returns tokens that were taken, but not used.
+     */
+    synchronized void giveBack(long amount) {
+        if (rate != 0) {
+            tokens = Math.min(capacity, tokens + amount);
+        }
+    }
+
+    /**
+     * Returns time until the bucket has the amount of tokens (in nanoseconds), 0 if it has them already.
+     */
+    synchronized long nanosUntil(long amount) {
+        if (rate == 0) {
+            return 0;
+        }
+        refill();
+        return tokens >= amount ? 0 : (long) Math.ceil((amount - tokens) * NANOS_PER_SECOND / rate);
+    }
+
+    /**
+     * Blocks until the bucket has the amount of tokens and takes them.
+     *
+     * @param amount Number of tokens to take. Must not exceed portion(amount).
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    void take(long amount) throws InterruptedException {
+        while (!tryTake(amount)) {
+            long nanos = Math.max(nanosUntil(amount), 1);
+            Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate != 0) {
+            tokens = Math.min(capacity, tokens + (double) (now - lastRefill) * rate / NANOS_PER_SECOND);
+        }
+        lastRefill = now;
+    }
+}
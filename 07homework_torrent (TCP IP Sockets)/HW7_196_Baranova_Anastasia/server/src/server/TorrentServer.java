@@ -3,13 +3,25 @@ package server;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.file.NotDirectoryException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.*;
 
 /**
  * Server for Simple Torrent. <br/>
- * Server has a directory with files available to clients for download.
+ * Server has a directory with files available to clients for download,
+ * or several directories (roots) published as one catalog, each read by its own pool of I/O threads. <br/>
+ * Server is also the tracker of the swarm: clients may serve the chunks they have downloaded
+ * to each other, and the server tells them who has which chunks.
  *
  * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
  */
@@ -17,11 +29,77 @@ public class TorrentServer {
     /**
      * Default port. Used if the user has not specified it.
      */
-    private static final int DEFAULT_PORT = 5115;
+    static final int DEFAULT_PORT = 5115;
+    /**
+     * Read-ahead depth of a server with several roots. Used if the user has not specified it.
+     */
+    private static final int MULTI_ROOT_READ_AHEAD = 4;
 
-    private final File directory;
+    /**
+     * Index of the files available to clients.
+     */
+    private final FileCatalog catalog;
+    /**
+     * Manifests of the files computed in background.
+     */
+    private final ManifestCache manifests;
+    /**
+     * Memory-mapped regions of popular files shared by all the connections.
+     */
+    private final MappedFileCache cache;
+    /**
+     * Pools of I/O threads and counters of the reads of the roots.
+     */
+    private final List<RootIo> roots = new ArrayList<>();
+    /**
+     * Asynchronous reader of the files, disabled by default if there is one root.
+     */
+    private final ReadAhead readAhead;
+    /**
+     * Limits of the rate of sent bytes.
+     */
+    private final BandwidthShaper shaper = new BandwidthShaper();
+    /**
+     * Counters of connections, sent bytes and latencies.
+     */
+    private final ServerMetrics metrics = new ServerMetrics();
+    /**
+     * Tracker of the swarm: clients serving downloaded chunks to each other.
+     */
+    private final SwarmTracker tracker = new SwarmTracker();
+    /**
+     * Resources shared by all the connections.
+     */
+    private final ServerResources resources;
     private final ServerSocket serverSocket;
 
+    /**
+     * Non-blocking engine. Not null only if the server is run with runSelector().
+     */
+    private volatile SelectorEngine selectorEngine;
+
+    /**
+     * Executor running client serving tasks in run().
+     */
+    private Executor connectionExecutor = ConnectionExecutors.threadPerConnection();
+
+    /**
+     * Clients that are being served by run().
+     */
+    private final Set<ClientServingThread> connections = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean shuttingDown = false;
+
+    /**
+     * Thread accepting clients in run() or runSelector().
+     */
+    private volatile Thread acceptingThread;
+
+    /**
+     * Maximum time close() waits for the accepting thread to stop (in milliseconds).
+     */
+    private static final long CLOSE_TIMEOUT = 1000;
+
     /**
      * Constructor creates a new instance of TorrentServer.
      *
@@ -31,16 +109,64 @@ public class TorrentServer {
      * @throws NullPointerException     If directory is null.
      * @throws FileNotFoundException    If directory does not exists.
      * @throws NotDirectoryException    If passed file is not a directory.
-     * @throws IOException              If an error error occurs when opening the socket.
+     * @throws IOException              If an error error occurs when opening the socket or reading the directory.
      * @throws SecurityException        If security manager doesn't allow the socket creation.
      */
     public TorrentServer(int port, File directory) throws IOException {
+        this(List.of(new ServerRoot(Objects.requireNonNull(directory, "Directory was null."))), port);
+    }
 
-        checkDirectory(directory);
+    /**
+     * Constructor creates a new instance of TorrentServer publishing several directories (roots) as one catalog. <br/>
+     * Files of every root are read by its own pool of I/O threads and counted in its own statistics,
+     * so roots on different disks should be separate roots: then a slow or busy disk delays only
+     * the downloads of its own files. Files are read by the pools when they are hashed, compressed, archived
+     * or compared with the client's copy; plain downloads go through the pools only when files are read ahead
+     * of the socket, so with several roots read-ahead is enabled with depth of 4 chunks unless it is changed. <br/>
+     * IDs of the files of the first root found at startup are their indices in its listing,
+     * files of the other roots get the following IDs.
+     *
+     * @param roots Roots with files that will be available for clients, not empty.
+     * @param port  Number of port on which server will be running.
+     * @throws IllegalArgumentException If port number is out of range from 0 and 65535, inclusive,
+     *                                  or roots is empty.
+     * @throws NullPointerException     If roots or one of them is null.
+     * @throws FileNotFoundException    If a directory does not exists.
+     * @throws NotDirectoryException    If a directory of a root is not a directory.
+     * @throws IOException              If an error error occurs when opening the socket or reading the directories.
+     * @throws SecurityException        If security manager doesn't allow the socket creation.
+     * @see TorrentServer#getRootStatistics()
+     * @see TorrentServer#setReadAheadDepth(int)
+     */
+    public TorrentServer(List<ServerRoot> roots, int port) throws IOException {
+        if (Objects.requireNonNull(roots, "Roots were null.").isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one root.");
+        }
+        var directories = new ArrayList<File>();
+        for (var root : roots) {
+            var directory = Objects.requireNonNull(root, "Root was null.").getDirectory();
+            checkDirectory(directory);
+            directories.add(directory);
+            this.roots.add(new RootIo(root, this.roots.size()));
+        }
         checkPort(port);
 
-        this.directory = directory;
-        this.serverSocket = tryCreateServerSocket(port);
+        this.manifests = new ManifestCache(this.roots);
+        this.cache = new MappedFileCache(MappedFileCache.DEFAULT_CAPACITY, manifests);
+        this.readAhead = new ReadAhead(this.roots);
+        if (roots.size() > 1) {
+            readAhead.setDepth(MULTI_ROOT_READ_AHEAD);
+        }
+        this.catalog = new FileCatalog(directories);
+        this.resources = new ServerResources(catalog, manifests, cache, readAhead, this.roots, shaper, metrics,
+                tracker);
+        try {
+            this.serverSocket = tryCreateServerSocket(port);
+        } catch (IOException | RuntimeException e) {
+            catalog.close();
+            manifests.close();
+            throw e;
+        }
     }
 
     /**
@@ -50,7 +176,7 @@ public class TorrentServer {
      * @throws NullPointerException  If directory is null.
      * @throws FileNotFoundException If directory does not exists.
      * @throws NotDirectoryException If passed file is not a directory.
-     * @throws IOException           If an error error occurs when opening the socket.
+     * @throws IOException           If an error error occurs when opening the socket or reading the directory.
      * @throws SecurityException     If security manager doesn't allow the socket creation.
      * @see TorrentServer#DEFAULT_PORT
      * @see TorrentServer#TorrentServer(int, File)
@@ -59,18 +185,143 @@ public class TorrentServer {
         this(DEFAULT_PORT, directory);
     }
 
+    /**
+     * Sets an executor that will run client serving tasks in run(). <br/>
+     * By default a new thread is started for every client.
+     * If the executor rejects a client, the client receives a line "rejected {reason}"
+     * and the connection is closed.
+     *
+     * @param connectionExecutor Executor for client serving tasks.
+     * @throws NullPointerException If connectionExecutor is null.
+     * @see ConnectionExecutors
+     */
+    public void setConnectionExecutor(Executor connectionExecutor) {
+        this.connectionExecutor = Objects.requireNonNull(connectionExecutor, "Executor was null.");
+    }
+
+    /**
+     * Sets the maximum total size of memory-mapped regions of the files. <br/>
+     * Files are sent from regions mapped once and shared by all the connections, so that
+     * popular files are read from the page cache through one mapping. Least recently used regions are evicted.
+     * By default up to 256 MB are mapped. May be changed while the server is running.
+     *
+     * @param bytes Maximum total size (in bytes), 0 to disable the cache and send files with transferTo.
+     * @throws IllegalArgumentException If bytes is negative.
+     */
+    public void setCacheCapacity(long bytes) {
+        cache.setCapacity(bytes);
+    }
+
+    /**
+     * Returns current statistics of the cache of memory-mapped regions (hits, misses, evictions),
+     * e.g. to choose its capacity.
+     *
+     * @see TorrentServer#setCacheCapacity(long)
+     */
+    public CacheStatistics getCacheStatistics() {
+        return cache.getStatistics();
+    }
+
+    /**
+     * Sets the number of chunks of 256 KB read ahead of the socket when a file is sent. <br/>
+     * Chunks are read asynchronously by the I/O threads of the root of the file while the previous ones
+     * are being sent, so the time spent waiting for the disk overlaps with the time spent sending,
+     * and the selector engine never waits for the disk. It pays off on slow disks, e.g. spinning ones;
+     * files are copied through buffers instead of being sent from the memory-mapped cache or with transferTo.
+     * Compressed files are not read ahead. Disabled by default if there is one root.
+     * May be changed while the server is running.
+     *
+     * @param chunks Number of chunks, 0 to disable read-ahead.
+     * @throws IllegalArgumentException If chunks is negative.
+     */
+    public void setReadAheadDepth(int chunks) {
+        readAhead.setDepth(chunks);
+    }
+
+    /**
+     * Returns the number of chunks read ahead of the socket, 0 if read-ahead is disabled.
+     */
+    public int getReadAheadDepth() {
+        return readAhead.getDepth();
+    }
+
+    /**
+     * Returns the current statistics of the reads of every root in the order the roots were given:
+     * number of I/O threads, reads, bytes read, bytes transferred, reads in progress and read latencies. <br/>
+     * Reads made on the I/O threads are counted: reads ahead of the socket, hashing of manifests,
+     * compression, archiving and reads of delta updates. Bytes sent from mapped regions or with transferTo
+     * are counted as transferred.
+     *
+     * @see TorrentServer#setReadAheadDepth(int)
+     */
+    public List<RootStatistics> getRootStatistics() {
+        var statistics = new ArrayList<RootStatistics>(roots.size());
+        for (var root : roots) {
+            statistics.add(root.getStatistics());
+        }
+        return statistics;
+    }
+
+    /**
+     * Returns the current statistics of the server: active connections, sent bytes, current throughput,
+     * number of downloads of every file and latencies of list and download requests. <br/>
+     * Clients get the same statistics with the "stats" request.
+     */
+    public ServerStatistics getStatistics() {
+        return metrics.getStatistics();
+    }
+
+    /**
+     * Sets the maximum total rate at which files are sent to all the clients. <br/>
+     * Bandwidth is shared round-robin among the files being sent, so small files are not delayed
+     * by big ones. May be changed while the server is running.
+     *
+     * @param bytesPerSecond Rate (in bytes per second), 0 for unlimited rate (default).
+     * @throws IllegalArgumentException If the rate is negative.
+     */
+    public void setGlobalRate(long bytesPerSecond) {
+        shaper.setGlobalRate(bytesPerSecond);
+    }
+
+    /**
+     * Returns the maximum total rate at which files are sent (in bytes per second), 0 if it is unlimited.
+     */
+    public long getGlobalRate() {
+        return shaper.getGlobalRate();
+    }
+
+    /**
+     * Sets the maximum rate at which files are sent to every client. <br/>
+     * May be changed while the server is running; applies to the connected clients as well.
+     *
+     * @param bytesPerSecond Rate (in bytes per second), 0 for unlimited rate (default).
+     * @throws IllegalArgumentException If the rate is negative.
+     */
+    public void setConnectionRate(long bytesPerSecond) {
+        shaper.setConnectionRate(bytesPerSecond);
+    }
+
+    /**
+     * Returns the maximum rate at which files are sent to every client (in bytes per second),
+     * 0 if it is unlimited.
+     */
+    public long getConnectionRate() {
+        return shaper.getConnectionRate();
+    }
+
     /**
      * Runs the server. <br/>
-     * In an endless loop, accepts new clients. For each client launches a separate thread to serve them. <br/>
+     * In an endless loop, accepts new clients. Each client is served by a task run by the connection executor. <br/>
      * If an error occurs when accepting a client, the server will be stopped.
+     *
+     * @see TorrentServer#setConnectionExecutor(Executor)
      */
     public void run() {
+        acceptingThread = Thread.currentThread();
         try {
             while (!serverSocket.isClosed()) {
                 Socket socket = serverSocket.accept();
-                ClientServingThread client = new ClientServingThread(socket, directory);
-                Thread thread = new Thread(client);
-                thread.start();
+                serve(new ClientServingThread(socket, resources), socket);
             }
         } catch (IOException e) {
             if (serverSocket.isClosed()) {
@@ -86,6 +337,129 @@ public class TorrentServer {
         }
     }
 
+    /**
+     * Runs the server using non-blocking I/O. <br/>
+     * Instead of a thread per client, clients are served by a fixed number of selector loops,
+     * so idle or slow clients do not hold threads. Protocol is the same as in run(). <br/>
+     * Method returns when the server is closed or an error occurs when accepting a client.
+     *
+     * @param selectors Number of selector loops (threads) serving clients.
+     * @throws IllegalArgumentException If selectors is not positive.
+     * @see TorrentServer#run()
+     */
+    public void runSelector(int selectors) {
+        if (selectors <= 0) {
+            throw new IllegalArgumentException("Number of selectors must be positive.");
+        }
+
+        acceptingThread = Thread.currentThread();
+        try {
+            selectorEngine = new SelectorEngine(serverSocket.getChannel(), resources, selectors);
+            selectorEngine.run();
+        } catch (IOException e) {
+            if (serverSocket.isClosed()) {
+                return;
+            }
+            System.err.println("An I/O error occurs when waiting for a connection.");
+            e.printStackTrace();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Gives a client to the connection executor. Rejected client is informed and disconnected.
+     */
+    private void serve(ClientServingThread client, Socket socket) {
+        connections.add(client);
+        if (shuttingDown) {
+            client.stopWhenIdle();
+        }
+        try {
+            connectionExecutor.execute(() -> {
+                try {
+                    client.run();
+                } finally {
+                    removeConnection(client);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            removeConnection(client);
+            reject(socket);
+        }
+    }
+
+    /**
+     * Informs the client that the server is busy and closes the connection.
+     */
+    private static void reject(Socket socket) {
+        try (socket) {
+            var out = new PrintWriter(socket.getOutputStream(), true);
+            out.println("rejected Server is busy. Try again later.");
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Removes a finished client and wakes up threads waiting for the shutdown.
+     */
+    private void removeConnection(ClientServingThread client) {
+        synchronized (connections) {
+            connections.remove(client);
+            connections.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the number of clients that are being served by run() (including those waiting in the executor's queue).
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Gracefully shuts the server down. <br/>
+     * Stops accepting new clients, disconnects idle clients and lets the others finish their current request
+     * (e.g. a file being downloaded) before disconnecting them. If they do not finish in time,
+     * they are disconnected anyway. Executor set by setConnectionExecutor() is shut down if it is an ExecutorService. <br/>
+     * Directories are watched and manifests are computed until the clients finish, so that their current
+     * requests are served as usual. For the selector engine only stops accepting new clients, as close() does.
+     *
+     * @param timeout Maximum time to wait for the current requests to finish.
+     * @param unit    Time unit of the timeout.
+     * @return true, if all the clients finished in time, false if some of them were disconnected forcibly.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        shuttingDown = true;
+        close();
+        for (var client : connections) {
+            client.stopWhenIdle();
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean drained;
+        synchronized (connections) {
+            long remaining;
+            while (!connections.isEmpty() && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(connections, remaining);
+            }
+            drained = connections.isEmpty();
+        }
+
+        if (!drained) {
+            for (var client : connections) {
+                client.kill();
+            }
+        }
+        if (connectionExecutor instanceof ExecutorService) {
+            ((ExecutorService) connectionExecutor).shutdown();
+        }
+        closeResources();
+        return drained;
+    }
+
     /**
      * Returns a server's port number.
      */
@@ -101,15 +475,47 @@ public class TorrentServer {
     }
 
     /**
-     * Closes server socket.
+     * Closes server socket, stops watching the directories and computing manifests. <br/>
+     * Already connected clients are served until they disconnect.
+     * During shutdown() only stops accepting clients: the rest is stopped when they finish. <br/>
+     * Waits for the thread accepting clients to stop, because the socket is not released
+     * while a thread is blocked accepting on it, so that the port can be used again right after the call.
      */
     public void close() {
+        var engine = selectorEngine;
+        if (engine != null) {
+            engine.stop();
+        }
         try {
             serverSocket.close();
         } catch (IOException e) {
             System.err.println("Cannot close server socket.");
             e.printStackTrace();
         }
+        if (!shuttingDown) {
+            closeResources();
+        }
+
+        var thread = acceptingThread;
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(CLOSE_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stops watching the directories and computing manifests.
+     */
+    private void closeResources() {
+        try {
+            catalog.close();
+        } catch (IOException e) {
+            System.err.println("Cannot stop watching the directories.");
+        }
+        manifests.close();
     }
 
     /**
@@ -143,7 +549,9 @@ public class TorrentServer {
     }
 
     /**
-     * Tries to create a server socket.
+     * Tries to create a server socket. <br/>
+     * Socket is created from a channel, so that accepted sockets have channels
+     * and files can be sent to them without copying.
      *
      * @param port Server's port.
      * @throws IOException       If an error error occurs when opening the socket.
@@ -151,7 +559,15 @@ public class TorrentServer {
      */
     private static ServerSocket tryCreateServerSocket(int port) throws IOException {
         try {
-            return new ServerSocket(port);
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            try {
+                channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                channel.bind(new InetSocketAddress(port));
+                return channel.socket();
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
         } catch (IOException e) {
             throw new IOException("Cannot open a server socket.");
         } catch (SecurityException e) {
@@ -7,8 +7,21 @@ import java.io.*;
 import java.net.Socket;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static test.LineReader.readLine;
 
 public class ClientServingThreadTest {
     @Test
@@ -72,4 +85,759 @@ public class ClientServingThreadTest {
 
         ts.close();
     }
+
+    @Test
+    void binaryDownload() throws IOException, URISyntaxException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL resource = classLoader.getResource("test/testDirectory");
+
+        assert resource != null;
+        File directory = new File(resource.toURI());
+        TorrentServer ts = new TorrentServer(8889, directory);
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8889);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        File file = Objects.requireNonNull(directory.listFiles())[0];
+        out.println("download 0 binary");
+        assertEquals("binary " + file.length(), readLine(in));
+
+        var received = new ByteArrayOutputStream();
+        int length;
+        while ((length = in.readInt()) > 0) {
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            received.write(frame);
+        }
+        assertEquals(0, length);
+        assertArrayEquals(Files.readAllBytes(file.toPath()), received.toByteArray());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+
+        socket.close();
+        ts.close();
+    }
+
+    @Test
+    void rangeDownload() throws IOException, URISyntaxException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL resource = classLoader.getResource("test/testDirectory");
+
+        assert resource != null;
+        File directory = new File(resource.toURI());
+        TorrentServer ts = new TorrentServer(8894, directory);
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8894);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        File[] files = Objects.requireNonNull(directory.listFiles());
+        int id = files[0].getName().equals("file1.txt") ? 0 : 1;
+        File file = files[id];
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        out.println("download " + id + " binary 1 2");
+        assertEquals("binary " + file.length() + " 1 2", readLine(in));
+        assertEquals(2, in.readInt());
+        assertEquals(bytes[1], in.readByte());
+        assertEquals(bytes[2], in.readByte());
+        assertEquals(0, in.readInt());
+
+        out.println("download " + id + " binary " + (file.length() + 10));
+        assertEquals("binary " + file.length() + " " + file.length() + " 0", readLine(in));
+        assertEquals(0, in.readInt());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+
+        socket.close();
+        ts.close();
+    }
+
+    @Test
+    void stableIds() throws IOException, InterruptedException {
+        var directory = Files.createTempDirectory("catalog");
+        Files.write(directory.resolve("a.txt"), new byte[]{1, 2, 3});
+        TorrentServer ts = new TorrentServer(8895, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8895);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        assertEquals(List.of("0 a.txt 3"), list(out, in));
+
+        Files.write(directory.resolve("b.txt"), new byte[]{4, 5});
+        var both = List.of("0 a.txt 3", "1 b.txt 2");
+        assertEquals(both, waitForList(out, in, both));
+
+        Files.delete(directory.resolve("a.txt"));
+        var second = List.of("1 b.txt 2");
+        assertEquals(second, waitForList(out, in, second));
+
+        out.println("download 0 binary");
+        assertEquals("binary 0", readLine(in));
+        assertEquals(-1, in.readInt());
+
+        out.println("download 1 binary");
+        assertEquals("binary 2", readLine(in));
+        assertEquals(2, in.readInt());
+        assertEquals(4, in.readByte());
+        assertEquals(5, in.readByte());
+        assertEquals(0, in.readInt());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+
+        socket.close();
+        ts.close();
+        Files.delete(directory.resolve("b.txt"));
+        Files.delete(directory);
+    }
+
+    @Test
+    void pagedList() throws IOException, URISyntaxException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL resource = classLoader.getResource("test/testDirectory");
+
+        assert resource != null;
+        TorrentServer ts = new TorrentServer(8896, new File(resource.toURI()));
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8896);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = socket.getInputStream();
+
+        List<String> all = list(out, in);
+        assertEquals(2, all.size());
+
+        out.println("list 0 1");
+        assertEquals("total 2", readLine(in));
+        assertEquals(all.get(0), readLine(in));
+        assertEquals("done", readLine(in));
+
+        out.println("list 0 10 FILE2 .txt");
+        assertEquals("total 1", readLine(in));
+        assertTrue(readLine(in).contains("file2.txt"));
+        assertEquals("done", readLine(in));
+
+        out.println("list 5 10 file");
+        assertEquals("total 2", readLine(in));
+        assertEquals("done", readLine(in));
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+
+        socket.close();
+        ts.close();
+    }
+
+    @Test
+    void manifest() throws IOException, URISyntaxException, InterruptedException, NoSuchAlgorithmException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL resource = classLoader.getResource("test/testDirectory");
+
+        assert resource != null;
+        File directory = new File(resource.toURI());
+        TorrentServer ts = new TorrentServer(8898, directory);
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8898);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = socket.getInputStream();
+
+        File[] files = Objects.requireNonNull(directory.listFiles());
+        int id = files[0].getName().equals("file1.txt") ? 0 : 1;
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(files[id].toPath()));
+        var expected = new StringBuilder();
+        for (byte b : hash) {
+            expected.append(String.format("%02x", b));
+        }
+
+        String header = "pending";
+        for (int attempt = 0; attempt < 100 && header.equals("pending"); attempt++) {
+            Thread.sleep(20);
+            out.println("manifest " + id);
+            header = readLine(in);
+        }
+        assertEquals("manifest " + files[id].length() + " 1048576 1", header);
+        assertEquals(expected.toString(), readLine(in));
+        assertEquals("done", readLine(in));
+
+        out.println("#5 manifest 100");
+        assertEquals("#5", readLine(in));
+        assertEquals("none", readLine(in));
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+
+        socket.close();
+        ts.close();
+    }
+
+    @Test
+    void compressedDownload() throws IOException, DataFormatException {
+        var directory = Files.createTempDirectory("compressed");
+        var text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            text.append("2021-06-28,").append(i % 17).append(",moscow,spb\n");
+        }
+        byte[] expected = text.toString().getBytes();
+        Files.write(directory.resolve("log.csv"), expected);
+        Files.write(directory.resolve("log.zip"), expected);
+
+        TorrentServer ts = new TorrentServer(8899, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8899);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        var ids = new HashMap<String, Integer>();
+        for (String line : list(out, in)) {
+            String[] words = line.split(" ");
+            ids.put(words[1], Integer.parseInt(words[0]));
+        }
+
+        out.println("download " + ids.get("log.csv") + " binary deflate");
+        assertEquals("binary " + expected.length + " deflate", readLine(in));
+        var inflater = new Inflater(true);
+        var received = new ByteArrayOutputStream();
+        var buffer = new byte[64 * 1024];
+        long compressed = 0;
+        int length;
+        while ((length = in.readInt()) > 0) {
+            var frame = new byte[length];
+            in.readFully(frame);
+            compressed += length;
+            inflater.setInput(frame);
+            int inflated;
+            while ((inflated = inflater.inflate(buffer)) > 0) {
+                received.write(buffer, 0, inflated);
+            }
+        }
+        assertTrue(inflater.finished());
+        assertArrayEquals(expected, received.toByteArray());
+        assertTrue(compressed * 5 < expected.length);
+
+        out.println("download " + ids.get("log.csv") + " binary 10 5000 deflate");
+        assertEquals("binary " + expected.length + " 10 5000 deflate", readLine(in));
+        while ((length = in.readInt()) > 0) {
+            in.readFully(new byte[length]);
+        }
+
+        out.println("download " + ids.get("log.zip") + " binary deflate");
+        assertEquals("binary " + expected.length, readLine(in));
+        assertEquals(expected.length, in.readInt());
+        in.readFully(new byte[expected.length]);
+        assertEquals(0, in.readInt());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+
+        socket.close();
+        ts.close();
+        Files.delete(directory.resolve("log.csv"));
+        Files.delete(directory.resolve("log.zip"));
+        Files.delete(directory);
+    }
+
+    @Test
+    void mappedCache() throws IOException, URISyntaxException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL resource = classLoader.getResource("test/testDirectory");
+
+        assert resource != null;
+        File directory = new File(resource.toURI());
+        File[] files = Objects.requireNonNull(directory.listFiles());
+        int id = files[0].getName().equals("file1.txt") ? 0 : 1;
+        byte[] expected = Files.readAllBytes(files[id].toPath());
+
+        TorrentServer ts = new TorrentServer(8900, directory);
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        for (int client = 0; client < 3; client++) {
+            if (client == 2) {
+                ts.setCacheCapacity(0);
+            }
+            Socket socket = new Socket(ts.getHost(), 8900);
+            var out = new PrintWriter(socket.getOutputStream(), true);
+            var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            out.println("download " + id + " binary");
+            assertEquals("binary " + expected.length, readLine(in));
+            assertEquals(expected.length, in.readInt());
+            var received = new byte[expected.length];
+            in.readFully(received);
+            assertArrayEquals(expected, received);
+            assertEquals(0, in.readInt());
+
+            out.println("finish");
+            assertEquals("done", readLine(in));
+            socket.close();
+        }
+
+        var statistics = ts.getCacheStatistics();
+        assertEquals(1, statistics.getMisses());
+        assertEquals(1, statistics.getHits());
+        assertEquals(1, statistics.getEvictions());
+        assertEquals(0, statistics.getMappedBytes());
+        ts.close();
+    }
+
+    @Test
+    void connectionRateChangedAtRuntime() throws IOException {
+        var directory = Files.createTempDirectory("shaped");
+        byte[] expected = new byte[400 * 1024];
+        new Random(1).nextBytes(expected);
+        Files.write(directory.resolve("big.bin"), expected);
+
+        TorrentServer ts = new TorrentServer(8902, directory.toFile());
+        ts.setConnectionRate(50 * 1024);
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8902);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        String id = list(out, in).get(0).split(" ")[0];
+        long start = System.nanoTime();
+        out.println("download " + id + " binary");
+        assertEquals("binary " + expected.length, readLine(in));
+        var received = new byte[expected.length];
+        int total = 0;
+        int length;
+        while ((length = in.readInt()) > 0) {
+            int end = total + length;
+            while (total < end) {
+                int piece = Math.min(8 * 1024, end - total);
+                in.readFully(received, total, piece);
+                total += piece;
+                if (total >= 50 * 1024 && ts.getConnectionRate() != 0) {
+                    assertTrue(System.nanoTime() - start > 500_000_000L);
+                    ts.setConnectionRate(0);
+                }
+            }
+        }
+        assertEquals(expected.length, total);
+        assertArrayEquals(expected, received);
+        // At 50 KB/s the whole file would take 8 seconds.
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+        ts.close();
+        Files.delete(directory.resolve("big.bin"));
+        Files.delete(directory);
+    }
+
+    @Test
+    void statistics() throws IOException, URISyntaxException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL resource = classLoader.getResource("test/testDirectory");
+        assert resource != null;
+        File directory = new File(resource.toURI());
+        TorrentServer ts = new TorrentServer(8903, directory);
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8903);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        String[] first = list(out, in).get(0).split(" ");
+        long size = Long.parseLong(first[2]);
+        out.println("download " + first[0] + " binary");
+        assertEquals("binary " + size, readLine(in));
+        int length;
+        while ((length = in.readInt()) > 0) {
+            in.readFully(new byte[length]);
+        }
+
+        out.println("stats");
+        var lines = new ArrayList<String>();
+        String line;
+        while (!(line = readLine(in)).equals("done")) {
+            lines.add(line);
+        }
+        assertEquals("connections 1 1", lines.get(0));
+        assertEquals("bytes " + size, lines.get(1));
+        assertTrue(lines.get(3).startsWith("latency list 1 "));
+        assertTrue(lines.get(4).startsWith("latency download 1 "));
+        assertEquals("file 1 " + first[0] + " " + first[1], lines.get(5));
+
+        var statistics = ts.getStatistics();
+        assertEquals(1, statistics.getActiveConnections());
+        assertEquals(size, statistics.getBytesServed());
+        assertEquals(Map.of(first[0] + " " + first[1], 1L), statistics.getDownloadCounts());
+        assertEquals(1, statistics.getListLatency().getCount());
+        assertTrue(statistics.getDownloadLatency().getPercentile(50) <= statistics.getDownloadLatency().getMax());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+        ts.close();
+    }
+
+    @Test
+    void readAhead() throws IOException {
+        var directory = Files.createTempDirectory("ahead");
+        byte[] expected = new byte[9 * 1024 * 1024 + 123];
+        new Random(7).nextBytes(expected);
+        Files.write(directory.resolve("big.bin"), expected);
+
+        TorrentServer ts = new TorrentServer(8906, directory.toFile());
+        ts.setReadAheadDepth(3);
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8906);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        String id = list(out, in).get(0).split(" ")[0];
+        out.println("download " + id + " binary");
+        assertEquals("binary " + expected.length, readLine(in));
+        assertArrayEquals(expected, readFrames(in));
+
+        out.println("download " + id + " binary 300001 5000000");
+        assertEquals("binary " + expected.length + " 300001 5000000", readLine(in));
+        assertArrayEquals(Arrays.copyOfRange(expected, 300001, 5300001), readFrames(in));
+        assertEquals(3, ts.getReadAheadDepth());
+        assertEquals(expected.length + 5000000L, ts.getStatistics().getBytesServed());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+        ts.close();
+        Files.delete(directory.resolve("big.bin"));
+        Files.delete(directory);
+    }
+
+    @Test
+    void contentHash() throws IOException, InterruptedException, NoSuchAlgorithmException {
+        var directory = Files.createTempDirectory("hashes");
+        byte[] expected = new byte[300 * 1024];
+        new Random(11).nextBytes(expected);
+        Files.write(directory.resolve("a.bin"), expected);
+        Files.write(directory.resolve("b.bin"), expected);
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(expected);
+        var hex = new StringBuilder();
+        for (byte b : hash) {
+            hex.append(String.format("%02x", b));
+        }
+
+        TorrentServer ts = new TorrentServer(8907, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8907);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        var ids = new ArrayList<String>();
+        for (String line : list(out, in)) {
+            ids.add(line.split(" ")[0]);
+        }
+        for (String id : ids) {
+            String response = "pending";
+            for (int attempt = 0; attempt < 100 && response.equals("pending"); attempt++) {
+                Thread.sleep(20);
+                out.println("hash " + id);
+                response = readLine(in);
+            }
+            assertEquals("hash " + hex, response);
+        }
+        out.println("hash 100");
+        assertEquals("none", readLine(in));
+
+        // Identical files are sent from the same mapped region.
+        for (String id : ids) {
+            out.println("download " + id + " binary");
+            assertEquals("binary " + expected.length, readLine(in));
+            assertArrayEquals(expected, readFrames(in));
+        }
+        var statistics = ts.getCacheStatistics();
+        assertEquals(1, statistics.getMisses());
+        assertEquals(1, statistics.getHits());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+        ts.close();
+        Files.delete(directory.resolve("a.bin"));
+        Files.delete(directory.resolve("b.bin"));
+        Files.delete(directory);
+    }
+
+    @Test
+    void sharedRegionOfChangedFile() throws IOException, InterruptedException {
+        var directory = Files.createTempDirectory("shared");
+        byte[] expected = new byte[300 * 1024];
+        new Random(17).nextBytes(expected);
+        var a = directory.resolve("a.bin");
+        Files.write(a, expected);
+        Files.write(directory.resolve("b.bin"), expected);
+
+        TorrentServer ts = new TorrentServer(8909, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8909);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        var ids = new HashMap<String, String>();
+        for (String line : list(out, in)) {
+            ids.put(line.split(" ")[1], line.split(" ")[0]);
+        }
+        for (String id : ids.values()) {
+            String response = "pending";
+            for (int attempt = 0; attempt < 100 && response.equals("pending"); attempt++) {
+                Thread.sleep(20);
+                out.println("hash " + id);
+                response = readLine(in);
+            }
+            assertTrue(response.startsWith("hash "));
+        }
+        out.println("download " + ids.get("a.bin") + " binary");
+        assertEquals("binary " + expected.length, readLine(in));
+        assertArrayEquals(expected, readFrames(in));
+
+        // a.bin is rewritten in place, b.bin must not be sent from the region mapped from it.
+        byte[] changed = new byte[expected.length];
+        new Random(19).nextBytes(changed);
+        try (var file = new RandomAccessFile(a.toFile(), "rw")) {
+            file.write(changed);
+        }
+        assertTrue(a.toFile().setLastModified(a.toFile().lastModified() + 2000));
+        out.println("download " + ids.get("b.bin") + " binary");
+        assertEquals("binary " + expected.length, readLine(in));
+        assertArrayEquals(expected, readFrames(in));
+        assertEquals(2, ts.getCacheStatistics().getMisses());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+        ts.close();
+        Files.delete(a);
+        Files.delete(directory.resolve("b.bin"));
+        Files.delete(directory);
+    }
+
+    @Test
+    void rootStatistics() throws IOException, InterruptedException {
+        var directory = Files.createTempDirectory("counted");
+        byte[] expected = new byte[300 * 1024];
+        new Random(23).nextBytes(expected);
+        Files.write(directory.resolve("a.bin"), expected);
+
+        TorrentServer ts = new TorrentServer(8912, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8912);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        String id = list(out, in).get(0).split(" ")[0];
+
+        // Hashing reads the file by the I/O threads of the root.
+        String response = "pending";
+        for (int attempt = 0; attempt < 100 && response.equals("pending"); attempt++) {
+            Thread.sleep(20);
+            out.println("hash " + id);
+            response = readLine(in);
+        }
+        assertTrue(response.startsWith("hash "));
+        var root = ts.getRootStatistics().get(0);
+        assertEquals(expected.length, root.getBytesRead());
+        assertEquals(0, root.getBytesTransferred());
+
+        // Plain download is sent from a mapped region.
+        out.println("download " + id + " binary");
+        assertEquals("binary " + expected.length, readLine(in));
+        assertArrayEquals(expected, readFrames(in));
+        root = ts.getRootStatistics().get(0);
+        assertEquals(expected.length, root.getBytesRead());
+        assertEquals(expected.length, root.getBytesTransferred());
+
+        // Archive is read by the I/O threads.
+        out.println("archive");
+        assertEquals("archive", readLine(in));
+        readFrames(in);
+        root = ts.getRootStatistics().get(0);
+        assertEquals(2L * expected.length, root.getBytesRead());
+        assertEquals(0, root.getPendingReads());
+        assertEquals(root.getReads(), root.getReadLatency().getCount());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+        ts.close();
+        Files.delete(directory.resolve("a.bin"));
+        Files.delete(directory);
+    }
+
+    @Test
+    void wrongAnnouncements() throws IOException, URISyntaxException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL resource = classLoader.getResource("test/testDirectory");
+        assert resource != null;
+        TorrentServer ts = new TorrentServer(8911, new File(resource.toURI()));
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8911);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        String id = list(out, in).stream().filter(line -> line.contains("file1.txt"))
+                .findFirst().orElseThrow().split(" ")[0];
+
+        // file1.txt has one chunk.
+        for (String chunks : List.of("1", "0-1", "0-2147483646", "0-2147483647", "-1", "x")) {
+            out.println("announce " + id + " 6000 " + chunks);
+            assertEquals("none", readLine(in));
+        }
+        out.println("announce");
+        assertEquals("none", readLine(in));
+        out.println("announce " + id + " 6000 0");
+        assertEquals("done", readLine(in));
+
+        out.println("peers");
+        assertEquals("none", readLine(in));
+        out.println("peers x");
+        assertEquals("none", readLine(in));
+        out.println("peers " + id);
+        assertEquals("done", readLine(in));
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+        ts.close();
+    }
+
+    @Test
+    void wrongIds() throws IOException, URISyntaxException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL resource = classLoader.getResource("test/testDirectory");
+        assert resource != null;
+        TorrentServer ts = new TorrentServer(8913, new File(resource.toURI()));
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8913);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        for (String request : List.of("manifest", "manifest x", "manifest 100", "hash", "hash x", "hash 100")) {
+            out.println(request);
+            assertEquals("none", readLine(in));
+        }
+        // Connection is still served.
+        assertEquals(2, list(out, in).size());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+        ts.close();
+    }
+
+    @Test
+    void downloadCountsOfSameNames() throws IOException {
+        var directory = Files.createTempDirectory("counts");
+        Files.createDirectory(directory.resolve("sub"));
+        Files.write(directory.resolve("a.bin"), new byte[]{1});
+        Files.write(directory.resolve("sub").resolve("a.bin"), new byte[]{2, 3});
+
+        TorrentServer ts = new TorrentServer(8916, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8916);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        out.println("folder");
+        assertEquals("dir sub", readLine(in));
+        String top = readLine(in).split(" ")[0];
+        assertEquals("done", readLine(in));
+        out.println("folder sub");
+        String nested = readLine(in).split(" ")[0];
+        assertEquals("done", readLine(in));
+
+        for (String id : List.of(top, nested)) {
+            out.println("download " + id + " binary");
+            readLine(in);
+            readFrames(in);
+        }
+        out.println("archive sub");
+        assertEquals("archive", readLine(in));
+        readFrames(in);
+
+        assertEquals(Map.of(top + " a.bin", 1L, nested + " sub/a.bin", 1L, "sub/", 1L),
+                ts.getStatistics().getDownloadCounts());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+        ts.close();
+        Files.delete(directory.resolve("sub").resolve("a.bin"));
+        Files.delete(directory.resolve("sub"));
+        Files.delete(directory.resolve("a.bin"));
+        Files.delete(directory);
+    }
+
+    /**
+     * Reads binary frames until the end frame.
+     */
+    private static byte[] readFrames(DataInputStream in) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        int length;
+        while ((length = in.readInt()) > 0) {
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            bytes.write(frame);
+        }
+        assertEquals(0, length);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Requests the list of files.
+     */
+    private static List<String> list(PrintWriter out, InputStream in) throws IOException {
+        out.println("list");
+        var lines = new ArrayList<String>();
+        String line;
+        while (!(line = readLine(in)).equals("done")) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * Requests the list of files until it is the expected one, because the server
+     * learns about changes in the directory asynchronously.
+     */
+    private static List<String> waitForList(PrintWriter out, InputStream in, List<String> expected)
+            throws IOException, InterruptedException {
+        List<String> lines = list(out, in);
+        for (int attempt = 0; attempt < 100 && !lines.equals(expected); attempt++) {
+            Thread.sleep(50);
+            lines = list(out, in);
+        }
+        return lines;
+    }
 }
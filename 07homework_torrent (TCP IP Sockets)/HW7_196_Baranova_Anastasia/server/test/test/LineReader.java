@@ -0,0 +1,35 @@
+package test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads text lines of the server's responses from streams that also contain binary data. <br/>
+ * Class is package private so that only tests can access it.
+ *
+ * @author <a href="mailto:aabaranova_3@edu.hse.ru">Anastasia Baranova</a>
+ */
+class LineReader {
+    private LineReader() {
+    }
+
+    /**
+     * Reads a text line from the stream that also contains binary data. <br/>
+     * Line separator is not included: '\n' ends the line and '\r' is skipped, so lines sent
+     * by a server with either separator are the same.
+     *
+     * @param in Stream to read from.
+     * @return Read line, the bytes read so far if the stream ended.
+     * @throws IOException If an I/O error occurred.
+     */
+    static String readLine(InputStream in) throws IOException {
+        var line = new StringBuilder();
+        int read;
+        while ((read = in.read()) != -1 && read != '\n') {
+            if (read != '\r') {
+                line.append((char) read);
+            }
+        }
+        return line.toString();
+    }
+}
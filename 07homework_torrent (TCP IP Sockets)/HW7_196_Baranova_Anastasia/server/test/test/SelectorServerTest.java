@@ -0,0 +1,512 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import server.RootStatistics;
+import server.ServerRoot;
+import server.TorrentServer;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.LineReader.readLine;
+
+public class SelectorServerTest {
+    @Test
+    void commands() throws IOException, URISyntaxException {
+        File directory = testDirectory();
+        TorrentServer ts = new TorrentServer(8891, directory);
+        Thread serverThread = new Thread(() -> ts.runSelector(2));
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8891);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        out.println("list");
+        List<String> names = new ArrayList<>();
+        String line;
+        while (!(line = readLine(in)).equals("done")) {
+            names.add(line.split(" ")[1]);
+        }
+        assertEquals(2, names.size());
+        assertTrue(names.contains("file1.txt"));
+        assertTrue(names.contains("file2.txt"));
+
+        File file = Objects.requireNonNull(directory.listFiles())[0];
+        byte[] expected = Files.readAllBytes(file.toPath());
+
+        out.println("download 0");
+        var text = new ByteArrayOutputStream();
+        while (!(line = readLine(in)).equals("done")) {
+            text.write(Integer.parseInt(line));
+        }
+        assertArrayEquals(expected, text.toByteArray());
+
+        out.println("download 0 binary");
+        assertEquals("binary " + file.length(), readLine(in));
+        var binary = new ByteArrayOutputStream();
+        int length;
+        while ((length = in.readInt()) > 0) {
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            binary.write(frame);
+        }
+        assertEquals(0, length);
+        assertArrayEquals(expected, binary.toByteArray());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        assertEquals(-1, in.read());
+
+        socket.close();
+        ts.close();
+    }
+
+    @Test
+    void manyClients() throws IOException, URISyntaxException {
+        TorrentServer ts = new TorrentServer(8892, testDirectory());
+        Thread serverThread = new Thread(() -> ts.runSelector(2));
+        serverThread.start();
+
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            sockets.add(new Socket(ts.getHost(), 8892));
+        }
+
+        for (var socket : sockets) {
+            new PrintWriter(socket.getOutputStream(), true).println("list");
+        }
+        for (var socket : sockets) {
+            var in = socket.getInputStream();
+            int lines = 0;
+            while (!readLine(in).equals("done")) {
+                lines++;
+            }
+            assertEquals(2, lines);
+            socket.close();
+        }
+
+        ts.close();
+    }
+
+    @Test
+    void taggedRequests() throws IOException, URISyntaxException {
+        TorrentServer ts = new TorrentServer(8897, testDirectory());
+        Thread serverThread = new Thread(() -> ts.runSelector(1));
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8897);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = socket.getInputStream();
+
+        out.print("#1 list 0 1" + System.lineSeparator() + "#2 list" + System.lineSeparator()
+                + "#3 finish" + System.lineSeparator());
+        out.flush();
+
+        assertEquals("#1", readLine(in));
+        assertEquals("total 2", readLine(in));
+        readLine(in);
+        assertEquals("done", readLine(in));
+        assertEquals("#2", readLine(in));
+        readLine(in);
+        readLine(in);
+        assertEquals("done", readLine(in));
+        assertEquals("#3", readLine(in));
+        assertEquals("done", readLine(in));
+        assertEquals(-1, in.read());
+
+        socket.close();
+        ts.close();
+    }
+
+    @Test
+    void fairRateLimit() throws IOException, InterruptedException {
+        var directory = Files.createTempDirectory("shaped");
+        byte[] big = new byte[300 * 1024];
+        byte[] small = "small file".getBytes();
+        Files.write(directory.resolve("big.bin"), big);
+        Files.write(directory.resolve("small.txt"), small);
+
+        TorrentServer ts = new TorrentServer(8901, directory.toFile());
+        ts.setGlobalRate(100 * 1024);
+        Thread serverThread = new Thread(() -> ts.runSelector(2));
+        serverThread.start();
+
+        Socket bigSocket = new Socket(ts.getHost(), 8901);
+        var bigOut = new PrintWriter(bigSocket.getOutputStream(), true);
+        var bigIn = new DataInputStream(new BufferedInputStream(bigSocket.getInputStream()));
+        int bigId = 0;
+        int smallId = 1;
+        for (String line : list(bigOut, bigIn)) {
+            if (line.split(" ")[1].equals("small.txt")) {
+                smallId = Integer.parseInt(line.split(" ")[0]);
+            } else {
+                bigId = Integer.parseInt(line.split(" ")[0]);
+            }
+        }
+
+        long start = System.nanoTime();
+        bigOut.println("download " + bigId + " binary");
+        assertEquals("binary " + big.length, readLine(bigIn));
+        Thread.sleep(200);
+
+        // Small file is not queued behind the big one.
+        Socket smallSocket = new Socket(ts.getHost(), 8901);
+        var smallOut = new PrintWriter(smallSocket.getOutputStream(), true);
+        var smallIn = new DataInputStream(new BufferedInputStream(smallSocket.getInputStream()));
+        long smallStart = System.nanoTime();
+        smallOut.println("download " + smallId + " binary");
+        assertEquals("binary " + small.length, readLine(smallIn));
+        assertEquals(small.length, smallIn.readInt());
+        var received = new byte[small.length];
+        smallIn.readFully(received);
+        assertArrayEquals(small, received);
+        assertEquals(0, smallIn.readInt());
+        assertTrue(System.nanoTime() - smallStart < 1_000_000_000L);
+        smallSocket.close();
+
+        long total = 0;
+        int length;
+        while ((length = bigIn.readInt()) > 0) {
+            bigIn.readFully(new byte[length]);
+            total += length;
+        }
+        assertEquals(big.length, total);
+        assertTrue(System.nanoTime() - start > 2_000_000_000L);
+
+        bigSocket.close();
+        ts.close();
+        Files.delete(directory.resolve("big.bin"));
+        Files.delete(directory.resolve("small.txt"));
+        Files.delete(directory);
+    }
+
+    @Test
+    void statistics() throws IOException, URISyntaxException {
+        File directory = testDirectory();
+        TorrentServer ts = new TorrentServer(8904, directory);
+        Thread serverThread = new Thread(() -> ts.runSelector(1));
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8904);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        String[] first = list(out, in).get(0).split(" ");
+        long size = Long.parseLong(first[2]);
+        out.println("download " + first[0] + " binary");
+        assertEquals("binary " + size, readLine(in));
+        int length;
+        while ((length = in.readInt()) > 0) {
+            in.readFully(new byte[length]);
+        }
+
+        out.println("stats");
+        var lines = new ArrayList<String>();
+        String line;
+        while (!(line = readLine(in)).equals("done")) {
+            lines.add(line);
+        }
+        assertEquals("connections 1 1", lines.get(0));
+        assertEquals("bytes " + size, lines.get(1));
+        assertTrue(lines.get(3).startsWith("latency list 1 "));
+        assertTrue(lines.get(4).startsWith("latency download 1 "));
+        assertEquals("file 1 " + first[0] + " " + first[1], lines.get(5));
+
+        var statistics = ts.getStatistics();
+        assertEquals(1, statistics.getActiveConnections());
+        assertEquals(size, statistics.getBytesServed());
+        assertEquals(Map.of(first[0] + " " + first[1], 1L), statistics.getDownloadCounts());
+        assertEquals(1, statistics.getListLatency().getCount());
+        assertTrue(statistics.getDownloadLatency().getPercentile(50) <= statistics.getDownloadLatency().getMax());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+        ts.close();
+    }
+
+    @Test
+    void folders() throws IOException {
+        var directory = Files.createTempDirectory("folders");
+        Files.createDirectories(directory.resolve("a/b"));
+        Files.write(directory.resolve("a/b/c.txt"), "nested".getBytes());
+        Files.write(directory.resolve("a/x.txt"), new byte[1000]);
+        Files.write(directory.resolve("root.txt"), "root".getBytes());
+
+        TorrentServer ts = new TorrentServer(8905, directory.toFile());
+        Thread serverThread = new Thread(() -> ts.runSelector(1));
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8905);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        assertEquals(List.of("dir a", "root.txt 4"), folder(out, in, "folder").stream()
+                .map(line -> line.startsWith("dir ") ? line : line.substring(line.indexOf(' ') + 1))
+                .collect(Collectors.toList()));
+        var nested = folder(out, in, "folder a/b");
+        assertEquals(1, nested.size());
+        assertTrue(nested.get(0).endsWith(" c.txt 6"));
+        assertEquals(List.of("none"), folder(out, in, "folder ../"));
+        assertEquals(List.of("none"), folder(out, in, "folder root.txt"));
+
+        out.println("download " + nested.get(0).split(" ")[0] + " binary");
+        assertEquals("binary 6", readLine(in));
+        assertEquals(6, in.readInt());
+        byte[] content = new byte[6];
+        in.readFully(content);
+        assertEquals("nested", new String(content));
+        assertEquals(0, in.readInt());
+
+        out.println("archive a");
+        assertEquals("archive", readLine(in));
+        var archive = new ByteArrayOutputStream();
+        int length;
+        while ((length = in.readInt()) > 0) {
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            archive.write(frame);
+        }
+        byte[] tar = archive.toByteArray();
+        // Headers and contents: "b/", "b/c.txt" with 1 block, "x.txt" with 2 blocks and 2 empty blocks.
+        assertEquals(512 * (1 + 2 + 3 + 2), tar.length);
+        assertEquals("b/", new String(tar, 0, 2));
+        assertEquals('5', tar[156]);
+        assertEquals("b/c.txt", new String(tar, 512, 7));
+        assertEquals("nested", new String(tar, 1024, 6));
+        assertEquals("x.txt", new String(tar, 1536, 5));
+        assertEquals("00000001750", new String(tar, 1536 + 124, 11));
+
+        out.println("archive missing");
+        assertEquals("none", readLine(in));
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+        ts.close();
+
+        try (var paths = Files.walk(directory)) {
+            for (var path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    void multipleRoots() throws IOException {
+        var first = Files.createTempDirectory("first");
+        var second = Files.createTempDirectory("second");
+        byte[] big = new byte[3 * 1024 * 1024 + 17];
+        new Random(13).nextBytes(big);
+        Files.write(first.resolve("big.bin"), big);
+        Files.createDirectories(first.resolve("shared"));
+        Files.write(first.resolve("shared/one.txt"), "one".getBytes());
+        Files.write(second.resolve("small.txt"), "small".getBytes());
+        Files.createDirectories(second.resolve("shared"));
+        Files.write(second.resolve("shared/two.txt"), "two".getBytes());
+
+        TorrentServer ts = new TorrentServer(List.of(new ServerRoot(first.toFile(), 1),
+                new ServerRoot(second.toFile(), 3)), 8908);
+        assertEquals(4, ts.getReadAheadDepth());
+        Thread serverThread = new Thread(() -> ts.runSelector(1));
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8908);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        var ids = new HashMap<String, String>();
+        for (String line : list(out, in)) {
+            String[] parts = line.split(" ");
+            ids.put(parts[1], parts[0]);
+        }
+        assertEquals(Set.of("big.bin", "small.txt"), ids.keySet());
+        // Files of the first root get the first IDs.
+        assertTrue(Integer.parseInt(ids.get("big.bin")) < Integer.parseInt(ids.get("small.txt")));
+
+        out.println("download " + ids.get("big.bin") + " binary");
+        assertEquals("binary " + big.length, readLine(in));
+        assertArrayEquals(big, readFrames(in));
+        // Random bytes are not worth compressing, so they are sent as they are.
+        out.println("download " + ids.get("big.bin") + " binary 1000 70000 deflate");
+        assertEquals("binary " + big.length + " 1000 70000", readLine(in));
+        assertArrayEquals(Arrays.copyOfRange(big, 1000, 71000), readFrames(in));
+        out.println("download " + ids.get("small.txt") + " binary 1 3");
+        assertEquals("binary 5 1 3", readLine(in));
+        assertArrayEquals("mal".getBytes(), readFrames(in));
+
+        assertEquals(List.of("dir shared", "big.bin " + big.length, "small.txt 5"), folder(out, in, "folder").stream()
+                .map(line -> line.startsWith("dir ") ? line : line.substring(line.indexOf(' ') + 1))
+                .collect(Collectors.toList()));
+        var shared = folder(out, in, "folder shared");
+        assertEquals(2, shared.size());
+        assertTrue(shared.get(0).endsWith(" one.txt 3"));
+        assertTrue(shared.get(1).endsWith(" two.txt 3"));
+        out.println("download " + shared.get(1).split(" ")[0] + " binary");
+        assertEquals("binary 3", readLine(in));
+        assertArrayEquals("two".getBytes(), readFrames(in));
+
+        List<RootStatistics> roots = ts.getRootStatistics();
+        assertEquals(2, roots.size());
+        assertEquals(1, roots.get(0).getIoThreads());
+        assertEquals(3, roots.get(1).getIoThreads());
+        assertEquals(big.length + 70000, roots.get(0).getBytesRead());
+        assertEquals(3 + 3, roots.get(1).getBytesRead());
+        assertEquals(2, roots.get(1).getReads());
+        assertEquals(0, roots.get(0).getPendingReads());
+        assertEquals(roots.get(0).getReads(), roots.get(0).getReadLatency().getCount());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+        ts.close();
+
+        for (var directory : List.of(first, second)) {
+            try (var paths = Files.walk(directory)) {
+                for (var path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @Test
+    void requestsAfterShutdown() throws IOException, URISyntaxException, InterruptedException {
+        TorrentServer ts = new TorrentServer(8910, testDirectory());
+        Thread serverThread = new Thread(() -> ts.runSelector(1));
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8910);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        String id = list(out, in).get(0).split(" ")[0];
+
+        // Connected clients are still served, manifests are no longer computed.
+        assertTrue(ts.shutdown(1, TimeUnit.SECONDS));
+        out.println("manifest " + id);
+        assertEquals("none", readLine(in));
+        out.println("hash " + id);
+        assertEquals("none", readLine(in));
+        assertEquals(2, list(out, in).size());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+    }
+
+    @Test
+    void wrongIds() throws IOException, URISyntaxException {
+        TorrentServer ts = new TorrentServer(8914, testDirectory());
+        Thread serverThread = new Thread(() -> ts.runSelector(2));
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8914);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        for (String request : List.of("manifest", "manifest x", "manifest 100", "hash", "hash x", "hash 100")) {
+            out.println(request);
+            assertEquals("none", readLine(in));
+        }
+        // Connection is still served.
+        assertEquals(2, list(out, in).size());
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+        ts.close();
+    }
+
+    @Test
+    void compressedDownloadOfMissingFile() throws IOException {
+        var directory = Files.createTempDirectory("missing");
+        var file = directory.resolve("a.txt");
+        Files.write(file, "text".repeat(1000).getBytes());
+        TorrentServer ts = new TorrentServer(8915, directory.toFile());
+        Thread serverThread = new Thread(() -> ts.runSelector(2));
+        serverThread.start();
+
+        Socket socket = new Socket(ts.getHost(), 8915);
+        var out = new PrintWriter(socket.getOutputStream(), true);
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        String id = list(out, in).get(0).split(" ")[0];
+        Files.delete(file);
+
+        // File that cannot be read is answered with an error frame, as by the blocking engine.
+        out.println("download " + id + " binary deflate");
+        assertTrue(readLine(in).startsWith("binary"));
+        assertEquals(-1, in.readInt());
+        out.println("stats");
+        while (!readLine(in).equals("done")) {
+            // Connection is still served.
+        }
+
+        out.println("finish");
+        assertEquals("done", readLine(in));
+        socket.close();
+        ts.close();
+        Files.delete(directory);
+    }
+
+    /**
+     * Reads binary frames until the end frame.
+     */
+    private static byte[] readFrames(DataInputStream in) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        int length;
+        while ((length = in.readInt()) > 0) {
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            bytes.write(frame);
+        }
+        assertEquals(0, length);
+        return bytes.toByteArray();
+    }
+
+    private static List<String> folder(PrintWriter out, InputStream in, String request) throws IOException {
+        out.println(request);
+        var lines = new ArrayList<String>();
+        String line;
+        while (!(line = readLine(in)).equals("done") && !line.equals("none")) {
+            lines.add(line);
+        }
+        if (line.equals("none")) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private static List<String> list(PrintWriter out, InputStream in) throws IOException {
+        out.println("list");
+        var lines = new ArrayList<String>();
+        String line;
+        while (!(line = readLine(in)).equals("done")) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private File testDirectory() throws URISyntaxException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL resource = classLoader.getResource("test/testDirectory");
+
+        assert resource != null;
+        return new File(resource.toURI());
+    }
+}
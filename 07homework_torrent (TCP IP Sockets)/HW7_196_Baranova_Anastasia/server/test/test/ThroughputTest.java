@@ -0,0 +1,103 @@
+package test;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import server.TorrentServer;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.LineReader.readLine;
+
+public class ThroughputTest {
+    private static final int FILE_SIZE = 128 * 1024 * 1024;
+
+    private Path directory;
+    private Path file;
+
+    @BeforeEach
+    void createFile() throws IOException {
+        directory = Files.createTempDirectory("torrent-throughput");
+        file = directory.resolve("big.bin");
+
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            for (int i = 0; i < FILE_SIZE / block.length; i++) {
+                out.write(block);
+            }
+        }
+    }
+
+    @AfterEach
+    void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    void binaryDownloadOverLoopback() throws IOException {
+        TorrentServer ts = new TorrentServer(8890, directory.toFile());
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            try (Socket socket = new Socket(ts.getHost(), 8890)) {
+                var out = new PrintWriter(socket.getOutputStream(), true);
+                var in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+
+                long start = System.nanoTime();
+                out.println("download 0 binary");
+                assertEquals("binary " + FILE_SIZE, readLine(in));
+
+                var received = new CRC32();
+                byte[] buffer = new byte[64 * 1024];
+                long total = 0;
+                int length;
+                while ((length = in.readInt()) > 0) {
+                    while (length > 0) {
+                        int read = Math.min(length, buffer.length);
+                        in.readFully(buffer, 0, read);
+                        received.update(buffer, 0, read);
+                        length -= read;
+                        total += read;
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+
+                assertEquals(0, length);
+                assertEquals(FILE_SIZE, total);
+                assertEquals(checksum(file), received.getValue());
+
+                System.out.printf("Binary download throughput: %.1f MB/s%n",
+                        total / (1024.0 * 1024.0) / (elapsed / 1e9));
+
+                out.println("finish");
+            }
+        });
+
+        ts.close();
+    }
+
+    /**
+     * Calculates CRC32 of the whole file.
+     */
+    private static long checksum(Path path) throws IOException {
+        var crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -1,13 +1,17 @@
 package test;
 
 import org.junit.jupiter.api.Test;
+import server.ConnectionExecutors;
+import server.ServerRoot;
 import server.TorrentServer;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.*;
+import java.net.Socket;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.NotDirectoryException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -49,6 +53,20 @@ public class TorrentServerTest {
         assertThrows(IllegalArgumentException.class, () -> new TorrentServer(12345678, file));
     }
 
+    @Test
+    void incorrectCreationRoots() throws URISyntaxException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        File directory = new File(classLoader.getResource("test/testDirectory").toURI());
+        File file = new File(classLoader.getResource("test/testDirectory/file1.txt").toURI());
+
+        assertThrows(NullPointerException.class, () -> new TorrentServer((List<ServerRoot>) null, 5000));
+        assertThrows(IllegalArgumentException.class, () -> new TorrentServer(List.of(), 5000));
+        assertThrows(NullPointerException.class, () -> new ServerRoot(null));
+        assertThrows(IllegalArgumentException.class, () -> new ServerRoot(directory, 0));
+        assertThrows(NotDirectoryException.class,
+                () -> new TorrentServer(List.of(new ServerRoot(directory), new ServerRoot(file)), 5000));
+    }
+
     @Test
     void correctCreation() throws URISyntaxException {
         ClassLoader classLoader = getClass().getClassLoader();
@@ -63,4 +81,34 @@ public class TorrentServerTest {
             ts.close();
         });
     }
+
+    @Test
+    void rejectWhenPoolIsFull() throws URISyntaxException, IOException, InterruptedException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL resource = classLoader.getResource("test/testDirectory");
+
+        File file = new File(resource.toURI());
+        var ts = new TorrentServer(8893, file);
+        ts.setConnectionExecutor(ConnectionExecutors.boundedPool(1, 0));
+        Thread serverThread = new Thread(ts::run);
+        serverThread.start();
+
+        Socket served = new Socket(ts.getHost(), 8893);
+        var servedOut = new PrintWriter(served.getOutputStream(), true);
+        var servedIn = new BufferedReader(new InputStreamReader(served.getInputStream()));
+        servedOut.println("list");
+        while (!servedIn.readLine().equals("done")) ;
+
+        Socket rejected = new Socket(ts.getHost(), 8893);
+        var rejectedIn = new BufferedReader(new InputStreamReader(rejected.getInputStream()));
+        assertTrue(rejectedIn.readLine().startsWith("rejected"));
+        assertNull(rejectedIn.readLine());
+        rejected.close();
+
+        assertTrue(ts.shutdown(5, TimeUnit.SECONDS));
+        assertEquals("aborted", servedIn.readLine());
+        assertNull(servedIn.readLine());
+        assertEquals(0, ts.getConnectionCount());
+        served.close();
+    }
 }